@@ -0,0 +1,33 @@
+package example.gcp;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageOptions;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+
+/**
+ * Shared, thread-safe Cloud Storage and BigQuery clients built from application default
+ * credentials. Both are created on first use, so the application context starts without
+ * credentials.
+ */
+@Configuration
+public class GcpConfig {
+
+    @Bean
+    @Lazy
+    @ConditionalOnMissingBean
+    public Storage storage() {
+        return StorageOptions.getDefaultInstance().getService();
+    }
+
+    @Bean
+    @Lazy
+    @ConditionalOnMissingBean
+    public BigQuery bigquery() {
+        return BigQueryOptions.getDefaultInstance().getService();
+    }
+}
@@ -1,13 +1,40 @@
 package example.gcp;
 
+import example.gcp.service.utils.Backfill;
+import org.springframework.boot.ApplicationRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.time.Duration;
 
 @SpringBootApplication
+@EnableScheduling
 public class LoadApp {
 
     public static void main(String[] args) {
         SpringApplication.run(LoadApp.class, args);
     }
 
-}
\ No newline at end of file
+    /**
+     * With {@code --backfill=gs://bucket/prefix} (repeatable) the application loads what is already
+     * under each prefix and exits instead of serving notifications.
+     */
+    @Bean
+    public ApplicationRunner backfillCommand(Backfill backfill, ConfigurableApplicationContext context) {
+        return args -> {
+            if (!args.containsOption("backfill")) {
+                return;
+            }
+            boolean complete = true;
+            for (String location : args.getOptionValues("backfill")) {
+                complete &= backfill.run(location, Duration.ZERO).isComplete();
+            }
+            int exitCode = complete ? 0 : 1;
+            System.exit(SpringApplication.exit(context, () -> exitCode));
+        };
+    }
+
+}
@@ -1,10 +1,15 @@
 package example.gcp.controller;
 
-import com.google.gson.JsonNull;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import example.gcp.service.utils.LoadAvroFromGCSImpl;
-import example.gcp.Body;
+import example.gcp.service.utils.IngestScheduler;
+import example.gcp.service.utils.IngestTracing;
+import example.gcp.service.utils.LoadEngineRouter;
+import example.gcp.service.utils.PubSubPushParser;
+import example.gcp.service.utils.SmallFileCompactor;
+import example.gcp.service.StorageObject;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -12,61 +17,72 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.Base64;
-import java.util.List;
-import java.util.Objects;
-import java.util.Optional;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 @RestController
 @Slf4j
 public class LoadController {
     @Autowired
-    private LoadAvroFromGCSImpl loadAvroFromGCSImpl;
+    private LoadEngineRouter loadEngineRouter;
+    @Autowired
+    private IngestScheduler ingestScheduler;
+    @Autowired
+    private SmallFileCompactor smallFileCompactor;
+    @Autowired
+    private IngestTracing ingestTracing;
 
     @PostMapping(value = "/load", consumes = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<String> load(@RequestBody Body body) {
+    public ResponseEntity<String> load(@RequestBody byte[] body) {
 
         log.warn("Start load method!");
 
-        Optional<Body.Message> optMessage = Optional.ofNullable(body.getMessage());
-        if (!optMessage.isPresent()) {
-            String msg = "Bad Request: invalid Pub/Sub message format";
-            log.error(msg);
-            return new ResponseEntity<>(msg, HttpStatus.BAD_REQUEST);
-        }
-        Body.Message message = optMessage.get();
-
-        String pubSubMessage = message.getData();
-        JsonObject data;
+        PubSubPushParser.Notification notification;
         try {
-            String decodedMessage = new String(Base64.getDecoder().decode(pubSubMessage));
-            data = JsonParser.parseString(decodedMessage).getAsJsonObject();
-        } catch (Exception e) {
-            String msg = "Error: Invalid Pub/Sub message: data property is not valid base64 encoded JSON";
-            log.error(msg);
-            return new ResponseEntity<>(msg, HttpStatus.BAD_REQUEST);
-        }
-
-        if (data.get("name") == JsonNull.INSTANCE ||
-            data.get("bucket") == JsonNull.INSTANCE ||
-            data.get("name") == null || data.get("bucket") == null) {
-            String msg = "Error: Invalid Cloud Storage notification: expected name and bucket properties";
-            log.error(msg);
-            return new ResponseEntity<>(msg, HttpStatus.BAD_REQUEST);
+            notification = PubSubPushParser.parse(body);
+        } catch (PubSubPushParser.InvalidPushException e) {
+            log.error(e.getMessage());
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
         }
-
-        String name = data.get("name").getAsString();
-        Long generation = data.get("generation").getAsLong();
+        StorageObject object = notification.getObject();
 
         log.warn(String.format(
-                "name & generation: %s %s",
-                name,
-                generation
+                "bucket, name & generation: %s %s %s",
+                object.getBucket(),
+                object.getName(),
+                object.getGeneration()
         ));
 
-        if(!loadAvroFromGCSImpl.load(name,generation)) {
+        Span span = ingestTracing.startIngest("LoadController.load", object, notification.getAttributes());
+        try (Scope ignored = span.makeCurrent()) {
+            ResponseEntity<String> response = load(object);
+            if (response.getStatusCode() != HttpStatus.OK) {
+                span.setStatus(StatusCode.ERROR, response.getStatusCode().toString());
+            }
+            return response;
+        } catch (RuntimeException e) {
+            IngestTracing.failed(span, e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    private ResponseEntity<String> load(StorageObject object) {
+        boolean loaded;
+        try {
+            CompletableFuture<Boolean> compacted = smallFileCompactor.add(object);
+            loaded = compacted != null
+                    ? compacted.get()
+                    : ingestScheduler.execute(object, Context.current().wrap(() -> loadEngineRouter.load(object)));
+        } catch (ExecutionException e) {
+            log.error("Compacted load failed " + e.getCause());
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        if (!loaded) {
             return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
@@ -0,0 +1,16 @@
+package example.gcp.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when an object does not fit in the in-flight byte budget in time. Pub/Sub redelivers
+ * the notification later instead of the instance running out of heap.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class AdmissionRejectedException extends RuntimeException {
+
+    public AdmissionRejectedException(String message) {
+        super(message);
+    }
+}
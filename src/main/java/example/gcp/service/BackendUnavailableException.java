@@ -0,0 +1,16 @@
+package example.gcp.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown without calling a backend whose circuit breaker is open. Pub/Sub redelivers the
+ * notification later instead of every request waiting out the backend's timeouts.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class BackendUnavailableException extends RuntimeException {
+
+    public BackendUnavailableException(String message) {
+        super(message);
+    }
+}
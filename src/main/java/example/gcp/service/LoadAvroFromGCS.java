@@ -2,4 +2,6 @@ package example.gcp.service;
 
 public interface LoadAvroFromGCS {
     boolean load(String name, Long generation);
+
+    boolean load(StorageObject object);
 }
@@ -0,0 +1,16 @@
+package example.gcp.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a destination table has no load job budget left. The notification is rejected so
+ * Pub/Sub redelivers it once the budget has refilled.
+ */
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class QuotaExhaustedException extends RuntimeException {
+
+    public QuotaExhaustedException(String message) {
+        super(message);
+    }
+}
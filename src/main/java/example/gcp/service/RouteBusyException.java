@@ -0,0 +1,16 @@
+package example.gcp.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a route has no free capacity for another object. Pub/Sub redelivers the
+ * notification later, so the request is rejected instead of queued behind the busy tenant.
+ */
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class RouteBusyException extends RuntimeException {
+
+    public RouteBusyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,31 @@
+package example.gcp.service;
+
+import lombok.Value;
+
+/**
+ * Identifies one object generation taken from a Cloud Storage notification. {@code size} is
+ * the object size in bytes as reported by the notification, or null when it was absent.
+ */
+@Value
+public class StorageObject {
+
+    String bucket;
+    String name;
+    Long generation;
+    Long size;
+
+    public StorageObject(String bucket, String name, Long generation) {
+        this(bucket, name, generation, null);
+    }
+
+    public StorageObject(String bucket, String name, Long generation, Long size) {
+        this.bucket = bucket;
+        this.name = name;
+        this.generation = generation;
+        this.size = size;
+    }
+
+    public String getUri() {
+        return "gs://" + bucket + "/" + name;
+    }
+}
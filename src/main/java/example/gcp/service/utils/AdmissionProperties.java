@@ -0,0 +1,24 @@
+package example.gcp.service.utils;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Budget for the bytes of objects being ingested at once. Without {@code maxBytes} the budget
+ * is {@code heapFraction} of the maximum heap. Objects whose notification carries no size are
+ * charged {@code unknownSizeBytes}. A request that does not fit waits up to {@code maxWait} for
+ * others to finish and is then rejected.
+ */
+@Component
+@ConfigurationProperties(prefix = "load.admission")
+@Data
+public class AdmissionProperties {
+    private boolean enabled = true;
+    private double heapFraction = 0.5;
+    private Long maxBytes;
+    private long unknownSizeBytes = 64L * 1024 * 1024;
+    private Duration maxWait = Duration.ofSeconds(10);
+}
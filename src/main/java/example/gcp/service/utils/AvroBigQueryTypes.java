@@ -0,0 +1,177 @@
+package example.gcp.service.utils;
+
+import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.common.collect.ImmutableMap;
+import org.apache.avro.LogicalType;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Type;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Avro to BigQuery column type mapping, as used by BigQuery itself when loading Avro with
+ * logical types enabled. A schema's logical type is looked up first, then its Avro type:
+ *
+ * <pre>
+ * decimal                               NUMERIC, or BIGNUMERIC beyond 29 integer or 9 fraction digits
+ * timestamp-millis, timestamp-micros    TIMESTAMP
+ * local-timestamp-millis, -micros       DATETIME
+ * date                                  DATE
+ * time-millis, time-micros              TIME
+ * uuid, string, enum                    STRING
+ * bytes, fixed                          BYTES
+ * int, long                             INT64
+ * float, double                         FLOAT64
+ * boolean                               BOOL
+ * record                                STRUCT
+ * array                                 REPEATED column of the element type
+ * map                                   REPEATED STRUCT of key and value
+ * </pre>
+ *
+ * A union of null and one other type is a NULLABLE column of that type; any other union has no
+ * BigQuery equivalent and is rejected.
+ */
+public final class AvroBigQueryTypes {
+    public static final String BIGNUMERIC = "BIGNUMERIC";
+
+    /**
+     * NUMERIC holds 38 digits, 9 of them after the decimal point.
+     */
+    static final int NUMERIC_INTEGER_DIGITS = 29;
+    static final int NUMERIC_SCALE = 9;
+
+    private static final Map<String, String> LOGICAL_TYPES = ImmutableMap.<String, String>builder()
+            .put("decimal", "NUMERIC")
+            .put("timestamp-millis", "TIMESTAMP")
+            .put("timestamp-micros", "TIMESTAMP")
+            .put("local-timestamp-millis", "DATETIME")
+            .put("local-timestamp-micros", "DATETIME")
+            .put("date", "DATE")
+            .put("time-millis", "TIME")
+            .put("time-micros", "TIME")
+            .put("uuid", "STRING")
+            .build();
+
+    private static final Map<Type, String> TYPES = new EnumMap<>(Type.class);
+
+    static {
+        TYPES.put(Type.STRING, "STRING");
+        TYPES.put(Type.ENUM, "STRING");
+        TYPES.put(Type.BYTES, "BYTES");
+        TYPES.put(Type.FIXED, "BYTES");
+        TYPES.put(Type.INT, "INT64");
+        TYPES.put(Type.LONG, "INT64");
+        TYPES.put(Type.FLOAT, "FLOAT64");
+        TYPES.put(Type.DOUBLE, "FLOAT64");
+        TYPES.put(Type.BOOLEAN, "BOOL");
+        TYPES.put(Type.RECORD, "STRUCT");
+        TYPES.put(Type.MAP, "STRUCT");
+    }
+
+    private AvroBigQueryTypes() {
+    }
+
+    /**
+     * The BigQuery type of a column holding {@code schema}; for arrays and maps, the type of each
+     * repeated value.
+     */
+    public static String typeOf(Schema schema) {
+        Schema value = valueSchema(schema);
+        LogicalType logicalType = value.getLogicalType();
+        if (logicalType != null && LOGICAL_TYPES.containsKey(logicalType.getName())) {
+            if (logicalType instanceof LogicalTypes.Decimal && !fitsNumeric((LogicalTypes.Decimal) logicalType)) {
+                return BIGNUMERIC;
+            }
+            return LOGICAL_TYPES.get(logicalType.getName());
+        }
+        String type = TYPES.get(value.getType());
+        if (type == null) {
+            throw new IllegalArgumentException("Avro type " + value.getType() + " has no BigQuery equivalent");
+        }
+        return type;
+    }
+
+    /**
+     * REPEATED for arrays and maps, NULLABLE for a union with null, otherwise REQUIRED. A nullable
+     * array is still REPEATED: BigQuery stores a null array as an empty one.
+     */
+    public static String modeOf(Schema schema) {
+        Schema nonNull = nonNull(schema);
+        if (nonNull.getType() == Type.ARRAY || nonNull.getType() == Type.MAP) {
+            return "REPEATED";
+        }
+        return nonNull == schema ? "REQUIRED" : "NULLABLE";
+    }
+
+    /**
+     * The column for field {@code name} of type {@code schema}, with the sub-columns of structs.
+     */
+    public static TableFieldSchema tableFieldSchema(String name, Schema schema) {
+        TableFieldSchema field = new TableFieldSchema()
+                .setName(name)
+                .setType(typeOf(schema))
+                .setMode(modeOf(schema));
+        List<TableFieldSchema> subFields = subFields(schema);
+        if (subFields != null) {
+            field.setFields(subFields);
+        }
+        return field;
+    }
+
+    /**
+     * The sub-columns of a struct column, or null when {@code schema} is not one.
+     */
+    static List<TableFieldSchema> subFields(Schema schema) {
+        Schema value = valueSchema(schema);
+        List<TableFieldSchema> fields = new ArrayList<>();
+        if (nonNull(schema).getType() == Type.MAP) {
+            fields.add(new TableFieldSchema().setName("key").setType("STRING").setMode("REQUIRED"));
+            fields.add(tableFieldSchema("value", value.getValueType()));
+            return fields;
+        }
+        if (value.getType() != Type.RECORD) {
+            return null;
+        }
+        for (Schema.Field field : value.getFields()) {
+            fields.add(tableFieldSchema(field.name(), field.schema()));
+        }
+        return fields;
+    }
+
+    static boolean fitsNumeric(LogicalTypes.Decimal decimal) {
+        return decimal.getScale() <= NUMERIC_SCALE && decimal.getPrecision() - decimal.getScale() <= NUMERIC_INTEGER_DIGITS;
+    }
+
+    /**
+     * The non-null branch of a nullable union, or {@code schema} itself.
+     */
+    static Schema nonNull(Schema schema) {
+        if (schema.getType() != Type.UNION) {
+            return schema;
+        }
+        List<Schema> types = schema.getTypes();
+        if (types.size() != 2 || !schema.isNullable()) {
+            throw new IllegalArgumentException("Union type in Avro schema must be null and one other type, not " + types);
+        }
+        return types.get(0).getType() == Type.NULL ? types.get(1) : types.get(0);
+    }
+
+    /**
+     * The schema of each value in a column of {@code schema}: array elements and map values are
+     * unwrapped, since BigQuery has no nested arrays.
+     */
+    private static Schema valueSchema(Schema schema) {
+        Schema value = nonNull(schema);
+        if (value.getType() == Type.ARRAY) {
+            value = nonNull(value.getElementType());
+            if (value.getType() == Type.ARRAY || value.getType() == Type.MAP) {
+                throw new IllegalArgumentException("BigQuery does not support nested arrays: " + schema);
+            }
+        }
+        return value;
+    }
+}
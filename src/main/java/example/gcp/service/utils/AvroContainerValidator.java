@@ -0,0 +1,298 @@
+package example.gcp.service.utils;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Value;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Checks that an Avro container file is intact before a load job is spent on it: the magic
+ * bytes, a header with a parseable schema and a supported codec, and then every block's record
+ * count, size and trailing sync marker. Sampled blocks are also decompressed and decoded, and
+ * must hold exactly the records their header claims. The file is read as a stream; only the
+ * header and the block being sampled are held in memory.
+ */
+@Component
+public class AvroContainerValidator {
+    /**
+     * Headers are a schema and a few codec entries; anything much larger is not a real header.
+     */
+    private static final int MAX_HEADER_BYTES = 16 * 1024 * 1024;
+
+    @Value
+    public static class Summary {
+        Schema schema;
+        String codec;
+        long blocks;
+        long records;
+        long sampledBlocks;
+        long bytes;
+    }
+
+    /**
+     * Thrown for a file that is not a well-formed container; the message says what is wrong and
+     * where.
+     */
+    public static class InvalidContainerException extends Exception {
+        public InvalidContainerException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Remembers failures of the stream being validated, so they are rethrown as such instead of
+     * being taken for a malformed file.
+     */
+    private static final class Source extends FilterInputStream {
+        private IOException failure;
+
+        private Source(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            try {
+                return super.skip(n);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+        }
+    }
+
+    private final ValidationProperties properties;
+    private final Counter valid;
+    private final Counter invalid;
+
+    public AvroContainerValidator(ValidationProperties properties, MeterRegistry registry) {
+        this.properties = properties;
+        this.valid = Counter.builder("ingest.validation").tag("result", "valid").register(registry);
+        this.invalid = Counter.builder("ingest.validation").tag("result", "invalid").register(registry);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public String getQuarantinePrefix() {
+        return properties.getQuarantinePrefix();
+    }
+
+    /**
+     * Reads {@code in} to the end. {@code in} is not closed.
+     *
+     * @throws InvalidContainerException if the file is not a well-formed container
+     * @throws IOException               if reading {@code in} itself fails
+     */
+    public Summary validate(InputStream in) throws IOException, InvalidContainerException {
+        Source source = new Source(in);
+        CountingInputStream counting = new CountingInputStream(new BufferedInputStream(source, 64 * 1024));
+        try {
+            Summary summary = validate(counting);
+            valid.increment();
+            return summary;
+        } catch (InvalidContainerException e) {
+            invalid.increment();
+            throw e;
+        } catch (IOException | AvroRuntimeException e) {
+            if (source.failure != null) {
+                throw source.failure;
+            }
+            invalid.increment();
+            String problem = e instanceof EOFException ? "truncated" : "malformed (" + e.getMessage() + ")";
+            throw new InvalidContainerException("Container is " + problem + " at byte " + counting.getCount());
+        }
+    }
+
+    private Summary validate(CountingInputStream in) throws IOException, InvalidContainerException {
+        in.mark(MAX_HEADER_BYTES);
+        BinaryDecoder decoder = DecoderFactory.get().directBinaryDecoder(in, null);
+        byte[] magic = new byte[DataFileConstants.MAGIC.length];
+        decoder.readFixed(magic);
+        if (!Arrays.equals(magic, DataFileConstants.MAGIC)) {
+            throw new InvalidContainerException("Not an Avro container file: bad magic bytes");
+        }
+
+        String schemaJson = null;
+        String codecName = DataFileConstants.NULL_CODEC;
+        for (long entries = decoder.readMapStart(); entries != 0; entries = decoder.mapNext()) {
+            if (entries < 0) {
+                throw new InvalidContainerException("Header map has a negative entry count");
+            }
+            for (long i = 0; i < entries; i++) {
+                String key = new String(headerValue(decoder), StandardCharsets.UTF_8);
+                byte[] value = headerValue(decoder);
+                if (DataFileConstants.SCHEMA.equals(key)) {
+                    schemaJson = new String(value, StandardCharsets.UTF_8);
+                } else if (DataFileConstants.CODEC.equals(key)) {
+                    codecName = new String(value, StandardCharsets.UTF_8);
+                }
+            }
+        }
+        if (schemaJson == null) {
+            throw new InvalidContainerException("Header has no " + DataFileConstants.SCHEMA);
+        }
+        Schema schema;
+        try {
+            schema = new Schema.Parser().setValidateDefaults(false).parse(schemaJson);
+        } catch (RuntimeException e) {
+            throw new InvalidContainerException("Header schema does not parse: " + e.getMessage());
+        }
+        try {
+            CodecFactory.fromString(codecName);
+        } catch (AvroRuntimeException e) {
+            throw new InvalidContainerException("Unsupported codec " + codecName);
+        }
+        byte[] sync = new byte[DataFileConstants.SYNC_SIZE];
+        decoder.readFixed(sync);
+        long headerBytes = in.getCount();
+        if (headerBytes > MAX_HEADER_BYTES) {
+            throw new InvalidContainerException("Header is " + headerBytes + " bytes long");
+        }
+        int every = properties.getSampleEveryBlocks();
+        byte[] header = null;
+        if (every > 0) {
+            // Kept to decompress sampled blocks as one-block containers of their own.
+            in.reset();
+            header = new byte[(int) headerBytes];
+            ByteStreams.readFully(in, header);
+        }
+
+        GenericDatumReader<Object> reader = new GenericDatumReader<>(schema);
+        byte[] marker = new byte[DataFileConstants.SYNC_SIZE];
+        byte[] block = new byte[0];
+        BinaryDecoder blockDecoder = null;
+        Object datum = null;
+        long blocks = 0;
+        long records = 0;
+        long sampled = 0;
+        while (true) {
+            in.mark(1);
+            if (in.read() < 0) {
+                break;
+            }
+            in.reset();
+            long start = in.getCount();
+            long count = decoder.readLong();
+            long size = decoder.readLong();
+            if (count < 0 || size < 0 || size > Math.min(Integer.MAX_VALUE, properties.getMaxBlockBytes())) {
+                throw new InvalidContainerException("Block " + blocks + " at byte " + start
+                        + " has an impossible header (" + count + " records, " + size + " bytes)");
+            }
+            if (every > 0 && blocks % every == 0 && count > 0) {
+                if (block.length < size) {
+                    block = new byte[(int) size];
+                }
+                decoder.readFixed(block, 0, (int) size);
+                ByteBuffer data;
+                try {
+                    data = decompress(header, count, block, (int) size, sync);
+                } catch (IOException | RuntimeException e) {
+                    throw new InvalidContainerException("Block " + blocks + " at byte " + start
+                            + " does not decompress with " + codecName + ": " + e.getMessage());
+                }
+                blockDecoder = DecoderFactory.get().binaryDecoder(
+                        data.array(), data.arrayOffset() + data.position(), data.remaining(), blockDecoder);
+                try {
+                    for (long i = 0; i < count; i++) {
+                        datum = reader.read(datum, blockDecoder);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    throw new InvalidContainerException("Block " + blocks + " at byte " + start
+                            + " does not decode as " + count + " records: " + e);
+                }
+                if (!blockDecoder.isEnd()) {
+                    throw new InvalidContainerException("Block " + blocks + " at byte " + start
+                            + " holds more data than its " + count + " records");
+                }
+                sampled++;
+            } else {
+                decoder.skipFixed((int) size);
+            }
+            decoder.readFixed(marker);
+            if (!Arrays.equals(sync, marker)) {
+                throw new InvalidContainerException("Sync marker mismatch after block " + blocks + " at byte " + start);
+            }
+            blocks++;
+            records += count;
+        }
+        return new Summary(schema, codecName, blocks, records, sampled, in.getCount());
+    }
+
+    /**
+     * Decompresses one block by reading it back as a container holding only that block, since
+     * Avro exposes codecs only through its container reader.
+     */
+    private static ByteBuffer decompress(byte[] header, long count, byte[] block, int size, byte[] sync)
+            throws IOException {
+        ByteArrayOutputStream prefix = new ByteArrayOutputStream(20);
+        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(prefix, null);
+        encoder.writeLong(count);
+        encoder.writeLong(size);
+        encoder.flush();
+        InputStream container = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream(header),
+                new ByteArrayInputStream(prefix.toByteArray()),
+                new ByteArrayInputStream(block, 0, size),
+                new ByteArrayInputStream(sync))));
+        try (DataFileStream<Object> stream = new DataFileStream<>(container, new GenericDatumReader<>())) {
+            return stream.nextBlock();
+        }
+    }
+
+    private static byte[] headerValue(BinaryDecoder decoder) throws IOException, InvalidContainerException {
+        long length = decoder.readLong();
+        if (length < 0 || length > MAX_HEADER_BYTES) {
+            throw new InvalidContainerException("Header entry has an impossible length " + length);
+        }
+        byte[] value = new byte[(int) length];
+        decoder.readFixed(value);
+        return value;
+    }
+}
@@ -1,23 +1,45 @@
 package example.gcp.service.utils;
 
+import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.LegacySQLTypeName;
 import com.google.cloud.bigquery.StandardSQLTypeName;
 import org.apache.avro.Schema;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class AvroToBigQueryHelper {
 
-    public static StandardSQLTypeName convertAvroFieldTypeToBigQueryFieldType(Schema.Field field) {
-        Schema.Type type = field.schema().getType();
-        switch (type) {
-            case INT:
-            case LONG:
-                return StandardSQLTypeName.INT64;
-            case BOOLEAN:
-                return StandardSQLTypeName.BOOL;
-            case FLOAT:
-            case DOUBLE:
-                return StandardSQLTypeName.FLOAT64;
-            default:
-                return StandardSQLTypeName.STRING;
+    public static Field convertAvroFieldToBigQueryField(Schema.Field field) {
+        return convert(AvroBigQueryTypes.tableFieldSchema(field.name(), field.schema()));
+    }
+
+    private static Field convert(TableFieldSchema fieldSchema) {
+        Field.Builder builder;
+        if (fieldSchema.getFields() != null) {
+            List<Field> subFields = new ArrayList<>();
+            for (TableFieldSchema subField : fieldSchema.getFields()) {
+                subFields.add(convert(subField));
+            }
+            builder = Field.newBuilder(fieldSchema.getName(), LegacySQLTypeName.RECORD, FieldList.of(subFields));
+        } else {
+            builder = Field.newBuilder(fieldSchema.getName(), convertType(fieldSchema.getType()));
+        }
+        // Only REPEATED is carried over: tables created before the mapping covered every type have
+        // NULLABLE columns, and a load declaring them REQUIRED would be rejected.
+        if ("REPEATED".equals(fieldSchema.getMode())) {
+            builder.setMode(Field.Mode.REPEATED);
+        }
+        return builder.build();
+    }
+
+    private static LegacySQLTypeName convertType(String type) {
+        if (AvroBigQueryTypes.BIGNUMERIC.equals(type)) {
+            // Newer than this client's StandardSQLTypeName; the API accepts it by name.
+            return LegacySQLTypeName.valueOf(type);
         }
+        return LegacySQLTypeName.legacySQLTypeName(StandardSQLTypeName.valueOf(type));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,169 @@
+package example.gcp.service.utils;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+import example.gcp.service.StorageObject;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewrites an Avro container file with a different codec, block by block. Each block is
+ * decompressed with the source codec and compressed with the target codec without decoding
+ * records. The target is streamed through a GCS channel, and the source is read either from a GCS
+ * channel or from content the caller already holds, so the file is never downloaded twice.
+ */
+@Component
+@Slf4j
+public class AvroTranscoder {
+
+    @Value
+    public static class Result {
+        StorageObject target;
+        String sourceCodec;
+        String targetCodec;
+        long bytesIn;
+        long bytesOut;
+        long nanos;
+
+        public long getBytesSaved() {
+            return bytesIn - bytesOut;
+        }
+
+        public double getMegabytesPerSecond() {
+            return nanos == 0 ? 0 : bytesIn / 1e6 / (nanos / 1e9);
+        }
+    }
+
+    private final TranscodeProperties properties;
+    private final MeterRegistry registry;
+
+    public AvroTranscoder(TranscodeProperties properties, MeterRegistry registry) {
+        this.properties = properties;
+        this.registry = registry;
+    }
+
+    /**
+     * True for objects this stage wrote itself; their notifications must not be ingested again.
+     */
+    public boolean isTranscoded(StorageObject object) {
+        return properties.isEnabled()
+                && object.getBucket().equals(targetBucket(object))
+                && object.getName().startsWith(properties.getPrefix());
+    }
+
+    /**
+     * Transcodes {@code object} if the policy asks for it.
+     *
+     * @return the transcoded object, or null when the original should be loaded as is
+     */
+    public Result transcode(Storage storage, StorageObject object) throws IOException {
+        if (!applies(object)) {
+            return null;
+        }
+        BlobId source = BlobId.of(object.getBucket(), object.getName(), object.getGeneration());
+        try (ReadChannel reader = storage.reader(source)) {
+            return transcode(storage, object, new BufferedInputStream(Channels.newInputStream(reader)));
+        }
+    }
+
+    /**
+     * Transcodes {@code object}, whose bytes are read from {@code content} instead of from GCS, if
+     * the policy asks for it. {@code content} is closed.
+     *
+     * @return the transcoded object, or null when the original should be loaded as is
+     */
+    public Result transcode(Storage storage, StorageObject object, InputStream content) throws IOException {
+        if (!applies(object)) {
+            content.close();
+            return null;
+        }
+        String targetCodec = normalize(properties.getTargetCodec());
+        try (CountingInputStream in = new CountingInputStream(content);
+             DataFileStream<GenericRecord> stream = new DataFileStream<>(in, new GenericDatumReader<>())) {
+            String sourceCodec = stream.getMetaString(DataFileConstants.CODEC);
+            sourceCodec = sourceCodec == null ? DataFileConstants.NULL_CODEC : sourceCodec;
+            if (sourceCodec.equals(targetCodec) || !properties.getSourceCodecs().contains(sourceCodec)) {
+                return null;
+            }
+
+            StorageObject target = new StorageObject(targetBucket(object),
+                    properties.getPrefix() + object.getGeneration() + "/" + object.getName(), null);
+            BlobInfo info = BlobInfo.newBuilder(target.getBucket(), target.getName())
+                    .setContentType("avro/binary")
+                    .build();
+            long started = System.nanoTime();
+            CountingOutputStream out;
+            try (WriteChannel writer = storage.writer(info);
+                 DataFileWriter<GenericRecord> fileWriter = new DataFileWriter<>(new GenericDatumWriter<>())) {
+                out = new CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(writer)));
+                fileWriter.setCodec(CodecFactory.fromString(targetCodec));
+                for (String key : stream.getMetaKeys()) {
+                    if (!key.startsWith("avro.")) {
+                        fileWriter.setMeta(key, stream.getMeta(key));
+                    }
+                }
+                fileWriter.create(stream.getSchema(), out);
+                // Blocks already in the target codec are copied raw; the rest are recompressed.
+                fileWriter.appendAllFrom(stream, false);
+            }
+            Result result = new Result(target, sourceCodec, targetCodec,
+                    in.getCount(), out.getCount(), System.nanoTime() - started);
+            report(object, result);
+            return result;
+        }
+    }
+
+    private boolean applies(StorageObject object) {
+        return properties.isEnabled() && (object.getSize() == null || object.getSize() >= properties.getMinSize());
+    }
+
+    private void report(StorageObject object, Result result) {
+        log.info(String.format("Transcoded %s from %s to %s: %d -> %d bytes (%d saved) at %.1f MB/s",
+                object.getUri(), result.getSourceCodec(), result.getTargetCodec(),
+                result.getBytesIn(), result.getBytesOut(), result.getBytesSaved(), result.getMegabytesPerSecond()));
+        DistributionSummary.builder("ingest.transcode.bytes.saved")
+                .tag("from", result.getSourceCodec())
+                .tag("to", result.getTargetCodec())
+                .baseUnit("bytes")
+                .register(registry)
+                .record(result.getBytesSaved());
+        DistributionSummary.builder("ingest.transcode.throughput")
+                .tag("from", result.getSourceCodec())
+                .tag("to", result.getTargetCodec())
+                .baseUnit("megabytes.per.second")
+                .register(registry)
+                .record(result.getMegabytesPerSecond());
+        registry.timer("ingest.transcode.duration", "to", result.getTargetCodec())
+                .record(result.getNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private String targetBucket(StorageObject object) {
+        return properties.getBucket() == null ? object.getBucket() : properties.getBucket();
+    }
+
+    private static String normalize(String codec) {
+        return "zstd".equals(codec) ? DataFileConstants.ZSTANDARD_CODEC : codec;
+    }
+}
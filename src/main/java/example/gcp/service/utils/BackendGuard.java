@@ -0,0 +1,274 @@
+package example.gcp.service.utils;
+
+import com.google.cloud.BaseServiceException;
+import example.gcp.service.BackendUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breaker and hedged reads for one backend. {@link #call} runs a request through the
+ * breaker; {@link #read} additionally hedges it, so it must only wrap idempotent reads. Hedging
+ * duplicates the whole request, so it is meant for metadata and other small reads, not for
+ * downloads of whole objects. Each read operation has its own latency window, so the hedge delay of
+ * one kind of request is not tuned on another's latencies.
+ *
+ * <p>Only server-side and retryable {@link BaseServiceException}s count as failures; client
+ * errors such as 404 or 409 say nothing about the backend's health.
+ */
+@Slf4j
+public class BackendGuard {
+    private static final int LATENCY_SAMPLES = 256;
+    private static final int HEDGE_DELAY_REFRESH = 16;
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final BackendProperties.Backend properties;
+    private final boolean[] outcomes;
+    private int recorded;
+    private int next;
+    private int failures;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int trials;
+    private int successes;
+
+    /**
+     * Recent latencies of one read operation and the hedge delay derived from them.
+     */
+    private final class Latencies {
+        private final long[] samples = new long[LATENCY_SAMPLES];
+        private int count;
+        private int next;
+        private volatile long hedgeDelayNanos = properties.getHedgeMaxDelay().toNanos();
+        private final AtomicInteger sinceRefresh = new AtomicInteger();
+
+        private synchronized void observe(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % LATENCY_SAMPLES;
+            count = Math.min(count + 1, LATENCY_SAMPLES);
+        }
+
+        /**
+         * The configured percentile of recent latencies, recomputed every few reads.
+         */
+        private long hedgeDelayNanos() {
+            if (sinceRefresh.incrementAndGet() >= HEDGE_DELAY_REFRESH) {
+                sinceRefresh.set(0);
+                long[] sorted;
+                synchronized (this) {
+                    sorted = Arrays.copyOf(samples, count);
+                }
+                if (sorted.length > 0) {
+                    Arrays.sort(sorted);
+                    long percentile = sorted[(int) Math.min(sorted.length - 1,
+                            Math.floor(properties.getHedgePercentile() * sorted.length))];
+                    hedgeDelayNanos = Math.max(properties.getHedgeMinDelay().toNanos(),
+                            Math.min(properties.getHedgeMaxDelay().toNanos(), percentile));
+                }
+            }
+            return hedgeDelayNanos;
+        }
+    }
+
+    private final Map<String, Latencies> latencies = new ConcurrentHashMap<>();
+    private final ExecutorService hedgeExecutor;
+    private final Counter hedges;
+    private final Counter rejected;
+
+    public BackendGuard(String name, BackendProperties.Backend properties, MeterRegistry registry) {
+        this.name = name;
+        this.properties = properties;
+        this.outcomes = new boolean[properties.getWindow()];
+        this.hedgeExecutor = properties.isHedgeEnabled()
+                ? Executors.newFixedThreadPool(properties.getHedgeThreads(), runnable -> {
+                    Thread thread = new Thread(runnable, name + "-hedge");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
+        Gauge.builder("backend.breaker.open", this, guard -> guard.state() == State.CLOSED ? 0 : 1)
+                .tag("backend", name)
+                .register(registry);
+        this.hedges = registry.counter("backend.hedged.reads", "backend", name);
+        this.rejected = registry.counter("backend.breaker.rejected", "backend", name);
+    }
+
+    /**
+     * Runs {@code request} unless the breaker is open, recording its outcome.
+     *
+     * @throws BackendUnavailableException when the breaker rejects the call
+     */
+    public <T> T call(Supplier<T> request) {
+        admit();
+        try {
+            T result = request.get();
+            record(true);
+            return result;
+        } catch (RuntimeException e) {
+            record(!isBackendFailure(e));
+            throw e;
+        }
+    }
+
+    /**
+     * Like {@link #call}, but when hedging is enabled and {@code read} has not finished within the
+     * recent latency percentile of {@code operation}, issues it a second time and returns the
+     * first result.
+     */
+    public <T> T read(String operation, Supplier<T> read) {
+        if (hedgeExecutor == null) {
+            return call(read);
+        }
+        Latencies window = latencies.computeIfAbsent(operation, key -> new Latencies());
+        return call(() -> hedged(window, read));
+    }
+
+    private <T> T hedged(Latencies window, Supplier<T> read) {
+        CompletableFuture<T> primary = CompletableFuture.supplyAsync(timed(window, read), hedgeExecutor);
+        try {
+            return primary.get(window.hedgeDelayNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            hedges.increment();
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading from " + name, e);
+        }
+        CompletableFuture<T> backup = CompletableFuture.supplyAsync(timed(window, read), hedgeExecutor);
+        CompletableFuture<T> first = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        for (CompletableFuture<T> attempt : Arrays.asList(primary, backup)) {
+            attempt.whenComplete((result, error) -> {
+                if (error == null) {
+                    first.complete(result);
+                } else if (failed.incrementAndGet() == 2) {
+                    first.completeExceptionally(error);
+                }
+            });
+        }
+        try {
+            return first.join();
+        } catch (CompletionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    private static <T> Supplier<T> timed(Latencies window, Supplier<T> read) {
+        return () -> {
+            long started = System.nanoTime();
+            T result = read.get();
+            window.observe(System.nanoTime() - started);
+            return result;
+        };
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+    }
+
+    private synchronized void admit() {
+        if (!properties.isBreakerEnabled()) {
+            return;
+        }
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < properties.getOpenDuration().toNanos()) {
+                rejected.increment();
+                throw new BackendUnavailableException("Circuit breaker for " + name + " is open");
+            }
+            state = State.HALF_OPEN;
+            trials = 0;
+            successes = 0;
+            log.info("Circuit breaker for " + name + " is half-open");
+        }
+        if (state == State.HALF_OPEN) {
+            if (trials >= properties.getHalfOpenCalls()) {
+                rejected.increment();
+                throw new BackendUnavailableException("Circuit breaker for " + name + " is half-open");
+            }
+            trials++;
+        }
+    }
+
+    private synchronized void record(boolean success) {
+        if (!properties.isBreakerEnabled()) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            if (!success) {
+                open();
+            } else if (++successes >= properties.getHalfOpenCalls()) {
+                close();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            return;
+        }
+        if (recorded == outcomes.length && !outcomes[next]) {
+            failures--;
+        }
+        outcomes[next] = success;
+        if (!success) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+        recorded = Math.min(recorded + 1, outcomes.length);
+        if (recorded >= properties.getMinimumCalls() && failures >= properties.getFailureRate() * recorded) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        log.warn("Circuit breaker for " + name + " opened after " + failures + " failures in " + recorded + " calls");
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        recorded = 0;
+        next = 0;
+        failures = 0;
+        log.info("Circuit breaker for " + name + " closed");
+    }
+
+    synchronized State state() {
+        return state;
+    }
+
+    static boolean isBackendFailure(RuntimeException e) {
+        if (e instanceof BaseServiceException) {
+            BaseServiceException service = (BaseServiceException) e;
+            return service.isRetryable() || service.getCode() >= 500 || service.getCode() == 0;
+        }
+        return false;
+    }
+
+    public void shutdown() {
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+        }
+    }
+}
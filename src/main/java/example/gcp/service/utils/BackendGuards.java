@@ -0,0 +1,30 @@
+package example.gcp.service.utils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+
+/**
+ * The {@link BackendGuard}s for Cloud Storage and BigQuery.
+ */
+@Component
+@Getter
+public class BackendGuards {
+    private final BackendGuard gcs;
+    private final BackendGuard bigquery;
+
+    @Autowired
+    public BackendGuards(BackendProperties properties, MeterRegistry registry) {
+        this.gcs = new BackendGuard("gcs", properties.getGcs(), registry);
+        this.bigquery = new BackendGuard("bigquery", properties.getBigquery(), registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        gcs.shutdown();
+        bigquery.shutdown();
+    }
+}
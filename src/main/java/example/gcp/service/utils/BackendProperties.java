@@ -0,0 +1,45 @@
+package example.gcp.service.utils;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Circuit breakers and hedged reads per backend ({@code load.backend.gcs.*},
+ * {@code load.backend.bigquery.*}).
+ */
+@Component
+@ConfigurationProperties(prefix = "load.backend")
+@Data
+public class BackendProperties {
+    private Backend gcs = new Backend();
+    private Backend bigquery = new Backend();
+
+    /**
+     * The breaker opens when at least {@code failureRate} of the last {@code window} calls (and at
+     * least {@code minimumCalls}) failed with a server-side or retryable error, rejects calls for
+     * {@code openDuration}, then lets {@code halfOpenCalls} trial calls through and closes again
+     * if they all succeed.
+     *
+     * <p>Hedged reads issue a second identical read when the first has not finished after the
+     * {@code hedgePercentile} of recent read latencies, clamped to {@code hedgeMinDelay} and
+     * {@code hedgeMaxDelay}, and return whichever finishes first. Latencies are kept per read
+     * operation, and object downloads are never hedged.
+     */
+    @Data
+    public static class Backend {
+        private boolean breakerEnabled = true;
+        private int window = 50;
+        private int minimumCalls = 20;
+        private double failureRate = 0.5;
+        private Duration openDuration = Duration.ofSeconds(30);
+        private int halfOpenCalls = 3;
+        private boolean hedgeEnabled = false;
+        private double hedgePercentile = 0.95;
+        private Duration hedgeMinDelay = Duration.ofMillis(20);
+        private Duration hedgeMaxDelay = Duration.ofSeconds(2);
+        private int hedgeThreads = 16;
+    }
+}
@@ -0,0 +1,367 @@
+package example.gcp.service.utils;
+
+import com.google.api.gax.paging.Page;
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.common.hash.Hashing;
+import example.gcp.service.StorageObject;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Loads objects that are already in a bucket rather than announced by a notification: a one-off
+ * backfill of a prefix, or a periodic sweep for stragglers whose notifications were lost. The
+ * listing fetches the next page while the current one is loaded. Objects of a page are grouped
+ * by route and writer schema fingerprint, sorted by size and cut into multi-URI load jobs, and
+ * the page's last name is written to the cursor only once all of its jobs have committed.
+ * Objects the journal has already seen are loaded on their own instead, so that they resume under
+ * their own journal entries.
+ */
+@Component
+@Slf4j
+public class Backfill {
+    private static final String SCHEME = "gs://";
+    private static final int HEADER_CHUNK_SIZE = 64 * 1024;
+
+    @Value
+    public static class Summary {
+        long listed;
+        long loaded;
+        long failed;
+        int jobs;
+        boolean complete;
+    }
+
+    @Value
+    private static class Header {
+        StorageObject object;
+        Route route;
+        Schema schema;
+    }
+
+    private final BackfillProperties properties;
+    private final LoadAvroFromGCSImpl loadAvroFromGCSImpl;
+    private final ExecutorService listing;
+    private final ExecutorService headerReaders;
+    private final ExecutorService loaders;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Autowired
+    public Backfill(BackfillProperties properties, LoadAvroFromGCSImpl loadAvroFromGCSImpl) {
+        this.properties = properties;
+        this.loadAvroFromGCSImpl = loadAvroFromGCSImpl;
+        this.listing = Executors.newSingleThreadExecutor(runnable -> daemon(runnable, "backfill-list"));
+        this.headerReaders = Executors.newFixedThreadPool(properties.getHeaderReaders(),
+                runnable -> daemon(runnable, "backfill-header"));
+        this.loaders = Executors.newFixedThreadPool(properties.getConcurrency(),
+                runnable -> daemon(runnable, "backfill-load"));
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    @Scheduled(fixedDelayString = "${load.backfill.sweep-interval:PT15M}",
+            initialDelayString = "${load.backfill.sweep-interval:PT15M}")
+    public void sweep() {
+        if (!properties.isSweepEnabled()) {
+            return;
+        }
+        for (String location : properties.getSweep()) {
+            try {
+                run(location, properties.getMinAge());
+            } catch (RuntimeException e) {
+                log.warn("Sweep of " + location + " failed \n" + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Loads every object under {@code location} ({@code gs://bucket/prefix}) created at least
+     * {@code minAge} ago, starting after the stored cursor. A pass that reaches the end of the
+     * listing without failures clears the cursor, so the next pass starts from the beginning.
+     */
+    public Summary run(String location, Duration minAge) {
+        if (!location.startsWith(SCHEME)) {
+            throw new IllegalArgumentException("Expected gs://bucket/prefix, got " + location);
+        }
+        String path = location.substring(SCHEME.length());
+        int slash = path.indexOf('/');
+        String bucket = slash < 0 ? path : path.substring(0, slash);
+        String prefix = slash < 0 ? "" : path.substring(slash + 1);
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("A backfill is already running");
+        }
+        try {
+            return run(bucket, prefix, minAge);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private Summary run(String bucket, String prefix, Duration minAge) {
+        Path cursorFile = cursorFile(bucket, prefix);
+        String cursor = readCursor(cursorFile);
+        log.info("Backfill of gs://" + bucket + "/" + prefix + (cursor == null ? "" : " from " + cursor));
+
+        List<Storage.BlobListOption> options = new ArrayList<>();
+        options.add(Storage.BlobListOption.prefix(prefix));
+        options.add(Storage.BlobListOption.pageSize(properties.getPageSize()));
+        if (cursor != null) {
+            options.add(Storage.BlobListOption.startOffset(cursor));
+        }
+        Storage storage = loadAvroFromGCSImpl.getStorage();
+        long createdBefore = System.currentTimeMillis() - minAge.toMillis();
+        long listed = 0;
+        long loaded = 0;
+        long failed = 0;
+        int jobs = 0;
+        boolean advancing = true;
+
+        Page<Blob> page = storage.list(bucket, options.toArray(new Storage.BlobListOption[0]));
+        while (page != null) {
+            Page<Blob> current = page;
+            CompletableFuture<Page<Blob>> next = current.hasNextPage()
+                    ? CompletableFuture.supplyAsync(current::getNextPage, listing)
+                    : CompletableFuture.completedFuture(null);
+
+            List<StorageObject> candidates = new ArrayList<>();
+            List<StorageObject> started = new ArrayList<>();
+            String last = null;
+            for (Blob blob : current.getValues()) {
+                listed++;
+                last = blob.getName();
+                if (blob.getName().equals(cursor) || blob.getName().endsWith("/")) {
+                    continue;
+                }
+                if (blob.getCreateTime() != null && blob.getCreateTime() > createdBefore) {
+                    continue;
+                }
+                StorageObject object = new StorageObject(bucket, blob.getName(), blob.getGeneration(), blob.getSize());
+                if (loadAvroFromGCSImpl.isOwnOutput(object)) {
+                    continue;
+                }
+                // A batch key of its own would load again whatever the object's own journal entries
+                // already committed, so objects a notification got to first resume on their own.
+                if (loadAvroFromGCSImpl.isStarted(object)) {
+                    started.add(object);
+                } else {
+                    candidates.add(object);
+                }
+            }
+
+            List<List<StorageObject>> batches = new ArrayList<>();
+            List<CompletableFuture<Boolean>> results = new ArrayList<>();
+            for (StorageObject object : started) {
+                batches.add(Collections.singletonList(object));
+                results.add(CompletableFuture.supplyAsync(() -> load(object), loaders));
+            }
+            for (Map.Entry<String, List<Header>> group : group(storage, candidates).entrySet()) {
+                for (List<Header> chunk : chunk(group.getValue())) {
+                    List<StorageObject> members = new ArrayList<>();
+                    for (Header header : chunk) {
+                        members.add(header.getObject());
+                    }
+                    Header first = chunk.get(0);
+                    batches.add(members);
+                    results.add(CompletableFuture.supplyAsync(
+                            () -> load(bucket, members, first.getSchema(), first.getRoute()), loaders));
+                }
+            }
+            boolean pageLoaded = true;
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i).join()) {
+                    loaded += batches.get(i).size();
+                } else {
+                    failed += batches.get(i).size();
+                    pageLoaded = false;
+                }
+            }
+            jobs += results.size();
+
+            // Objects after a failed page are still loaded, but the cursor stays put so the failed
+            // objects are listed again by the next pass.
+            advancing &= pageLoaded;
+            if (advancing && last != null) {
+                writeCursor(cursorFile, last);
+            }
+            page = next.join();
+        }
+        if (advancing) {
+            clearCursor(cursorFile);
+        }
+        Summary summary = new Summary(listed, loaded, failed, jobs, advancing);
+        log.info("Backfill of gs://" + bucket + "/" + prefix + " finished: " + summary);
+        return summary;
+    }
+
+    /**
+     * Reads the writer schema of each candidate in parallel, fetching only the first chunk of the
+     * object, and groups them by route and fingerprint. Unroutable and unreadable objects are left
+     * out.
+     */
+    private Map<String, List<Header>> group(Storage storage, List<StorageObject> candidates) {
+        List<CompletableFuture<Header>> reads = new ArrayList<>();
+        for (StorageObject object : candidates) {
+            reads.add(CompletableFuture.supplyAsync(() -> readHeader(storage, object), headerReaders));
+        }
+        Map<String, List<Header>> groups = new LinkedHashMap<>();
+        for (CompletableFuture<Header> read : reads) {
+            Header header = read.join();
+            if (header == null) {
+                continue;
+            }
+            String key = header.getRoute().getId() + "|" + Long.toHexString(GenericRecordReaders.fingerprint(header.getSchema()));
+            List<Header> group = groups.computeIfAbsent(key, k -> new ArrayList<>());
+            if (!group.isEmpty() && !group.get(0).getSchema().equals(header.getSchema())) {
+                // Same canonical form but different docs or properties; load it on the next pass.
+                continue;
+            }
+            group.add(header);
+        }
+        return groups;
+    }
+
+    private Header readHeader(Storage storage, StorageObject object) {
+        Route route = loadAvroFromGCSImpl.route(object);
+        if (route == null) {
+            return null;
+        }
+        try (ReadChannel reader = storage.reader(BlobId.of(object.getBucket(), object.getName(), object.getGeneration()))) {
+            reader.setChunkSize(HEADER_CHUNK_SIZE);
+            InputStream input = Channels.newInputStream(reader);
+            return new Header(object, route, GenericRecordReaders.readSchema(input));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Skipping " + object.getUri() + ": " + e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Cuts a group into jobs, smallest objects first so similar sizes share a job, within the URI
+     * and byte limits of one job.
+     */
+    private List<List<Header>> chunk(List<Header> group) {
+        group.sort(Comparator.comparingLong(header -> sizeOf(header.getObject())));
+        List<List<Header>> chunks = new ArrayList<>();
+        List<Header> chunk = new ArrayList<>();
+        long bytes = 0;
+        for (Header header : group) {
+            long size = sizeOf(header.getObject());
+            if (!chunk.isEmpty() && (chunk.size() >= properties.getMaxUrisPerJob()
+                    || bytes + size > properties.getMaxBytesPerJob())) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                bytes = 0;
+            }
+            chunk.add(header);
+            bytes += size;
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private static long sizeOf(StorageObject object) {
+        return object.getSize() == null ? 0 : object.getSize();
+    }
+
+    private boolean load(String bucket, List<StorageObject> members, Schema schema, Route route) {
+        StringBuilder names = new StringBuilder();
+        for (StorageObject member : members) {
+            names.append(member.getName()).append('#').append(member.getGeneration()).append('\n');
+        }
+        // Derived from the members, so a retried pass reuses the journal entries and job ids.
+        StorageObject batch = new StorageObject(bucket, "backfill/"
+                + Hashing.sha256().hashString(names, StandardCharsets.UTF_8).toString().substring(0, 40), null);
+        try {
+            return loadAvroFromGCSImpl.loadBatch(batch, members, schema, route);
+        } catch (RuntimeException e) {
+            log.warn("Backfill of " + members.size() + " objects into route " + route.getId() + " failed \n" + e.toString());
+            return false;
+        }
+    }
+
+    private boolean load(StorageObject object) {
+        try {
+            return loadAvroFromGCSImpl.load(object);
+        } catch (RuntimeException e) {
+            log.warn("Backfill of " + object.getUri() + " failed \n" + e.toString());
+            return false;
+        }
+    }
+
+    private Path cursorFile(String bucket, String prefix) {
+        String name = Hashing.sha256().hashString(bucket + "/" + prefix, StandardCharsets.UTF_8).toString()
+                .substring(0, 16) + ".cursor";
+        return Paths.get(properties.getCursorDirectory(), name);
+    }
+
+    private static String readCursor(Path cursorFile) {
+        try {
+            if (!Files.exists(cursorFile)) {
+                return null;
+            }
+            String cursor = new String(Files.readAllBytes(cursorFile), StandardCharsets.UTF_8).trim();
+            return cursor.isEmpty() ? null : cursor;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read backfill cursor " + cursorFile, e);
+        }
+    }
+
+    private static void writeCursor(Path cursorFile, String cursor) {
+        try {
+            Files.createDirectories(cursorFile.getParent());
+            Path tmp = cursorFile.resolveSibling(cursorFile.getFileName() + ".tmp");
+            Files.write(tmp, cursor.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, cursorFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write backfill cursor " + cursorFile, e);
+        }
+    }
+
+    private static void clearCursor(Path cursorFile) {
+        try {
+            Files.deleteIfExists(cursorFile);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot clear backfill cursor " + cursorFile, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        listing.shutdownNow();
+        headerReaders.shutdownNow();
+        loaders.shutdownNow();
+    }
+}
@@ -0,0 +1,34 @@
+package example.gcp.service.utils;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Backfill of objects already in a bucket, either once with {@code --backfill=gs://bucket/prefix}
+ * or every {@code sweepInterval} over the {@code sweep} locations when {@code sweepEnabled}.
+ * Listing pages of {@code pageSize} objects are grouped by route and writer schema and loaded
+ * with multi-URI jobs of at most {@code maxUrisPerJob} objects and {@code maxBytesPerJob} bytes,
+ * {@code concurrency} jobs at a time. Sweeps leave objects younger than {@code minAge} to their
+ * notifications. The last completed object of each location is kept under {@code cursorDirectory}
+ * so an interrupted pass resumes where it stopped.
+ */
+@Component
+@ConfigurationProperties(prefix = "load.backfill")
+@Data
+public class BackfillProperties {
+    private boolean sweepEnabled = false;
+    private List<String> sweep = new ArrayList<>();
+    private Duration sweepInterval = Duration.ofMinutes(15);
+    private Duration minAge = Duration.ofMinutes(10);
+    private int pageSize = 1000;
+    private int headerReaders = 16;
+    private int concurrency = 4;
+    private int maxUrisPerJob = 1000;
+    private long maxBytesPerJob = 10L * 1024 * 1024 * 1024;
+    private String cursorDirectory = "/tmp/backfill";
+}
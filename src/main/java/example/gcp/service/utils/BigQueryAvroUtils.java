@@ -4,34 +4,31 @@ import com.google.api.services.bigquery.model.TableFieldSchema;
 import com.google.api.services.bigquery.model.TableRow;
 import com.google.api.services.bigquery.model.TableSchema;
 import com.google.common.annotations.VisibleForTesting;
-import org.apache.avro.Conversions;
 import org.apache.avro.LogicalType;
 import org.apache.avro.LogicalTypes;
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Field;
 import org.apache.avro.Schema.Type;
+import org.apache.avro.generic.GenericFixed;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.specific.SpecificRecord;
 import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 import javax.annotation.Nullable;
 import java.math.BigDecimal;
 import java.nio.ByteBuffer;
 import org.joda.time.LocalDate;
+import java.time.Instant;
 import java.time.LocalTime;
-import java.time.format.DateTimeFormatterBuilder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import org.joda.time.format.ISODateTimeFormat;
-import static java.time.temporal.ChronoField.*;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableMultimap;
 import static com.google.common.base.MoreObjects.firstNonNull;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Verify.verify;
 import static com.google.common.base.Verify.verifyNotNull;
-import com.google.common.io.BaseEncoding;
 
 public class BigQueryAvroUtils {
     private BigQueryAvroUtils() {
@@ -45,20 +42,33 @@ public class BigQueryAvroUtils {
         private static final ImmutableMultimap<String, Type> BIG_QUERY_TO_AVRO_TYPES =
                 ImmutableMultimap.<String, Type>builder()
                         .put("STRING", Type.STRING)
+                        .put("STRING", Type.ENUM)
                         .put("GEOGRAPHY", Type.STRING)
                         .put("BYTES", Type.BYTES)
+                        .put("BYTES", Type.FIXED)
                         .put("INTEGER", Type.INT)
                         .put("FLOAT", Type.FLOAT)
                         .put("FLOAT64", Type.DOUBLE)
+                        .put("FLOAT64", Type.FLOAT)
                         .put("NUMERIC", Type.BYTES)
+                        .put("NUMERIC", Type.FIXED)
+                        .put("BIGNUMERIC", Type.BYTES)
+                        .put("BIGNUMERIC", Type.FIXED)
                         .put("BOOLEAN", Type.BOOLEAN)
+                        .put("BOOL", Type.BOOLEAN)
                         .put("INT64", Type.LONG)
+                        .put("INT64", Type.INT)
                         .put("TIMESTAMP", Type.LONG)
                         .put("RECORD", Type.RECORD)
                         .put("DATE", Type.INT)
+                        .put("DATE", Type.STRING)
                         .put("DATETIME", Type.STRING)
+                        .put("DATETIME", Type.LONG)
                         .put("TIME", Type.LONG)
+                        .put("TIME", Type.INT)
+                        .put("TIME", Type.STRING)
                         .put("STRUCT", Type.RECORD)
+                        .put("STRUCT", Type.MAP)
                         .put("ARRAY", Type.ARRAY)
                         .put("UNION", Type.UNION)
                         .build();
@@ -75,17 +85,9 @@ public class BigQueryAvroUtils {
         }
     }
 
-    /**
-     * Formats BigQuery seconds-since-epoch into String matching JSON export. Thread-safe and
-     * immutable.
-     */
-    private static final DateTimeFormatter DATE_AND_SECONDS_FORMATTER =
-            DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss").withZoneUTC();
-
     @VisibleForTesting
     static String formatTimestamp(DateTime ts) {
-        String dayAndTime = ts.toString(DATE_AND_SECONDS_FORMATTER);
-        return String.format("%s UTC", dayAndTime);
+        return ScalarEncoders.formatTimestamp(ts.getMillis() * 1000);
     }
 
     /**
@@ -97,53 +99,6 @@ public class BigQueryAvroUtils {
         return date.toString(ISODateTimeFormat.date());
     }
 
-    private static final java.time.format.DateTimeFormatter ISO_LOCAL_TIME_FORMATTER_MICROS =
-            new DateTimeFormatterBuilder()
-                    .appendValue(HOUR_OF_DAY, 2)
-                    .appendLiteral(':')
-                    .appendValue(MINUTE_OF_HOUR, 2)
-                    .appendLiteral(':')
-                    .appendValue(SECOND_OF_MINUTE, 2)
-                    .appendLiteral('.')
-                    .appendFraction(NANO_OF_SECOND, 6, 6, false)
-                    .toFormatter();
-
-    private static final java.time.format.DateTimeFormatter ISO_LOCAL_TIME_FORMATTER_MILLIS =
-            new DateTimeFormatterBuilder()
-                    .appendValue(HOUR_OF_DAY, 2)
-                    .appendLiteral(':')
-                    .appendValue(MINUTE_OF_HOUR, 2)
-                    .appendLiteral(':')
-                    .appendValue(SECOND_OF_MINUTE, 2)
-                    .appendLiteral('.')
-                    .appendFraction(NANO_OF_SECOND, 3, 3, false)
-                    .toFormatter();
-
-    private static final java.time.format.DateTimeFormatter ISO_LOCAL_TIME_FORMATTER_SECONDS =
-            new DateTimeFormatterBuilder()
-                    .appendValue(HOUR_OF_DAY, 2)
-                    .appendLiteral(':')
-                    .appendValue(MINUTE_OF_HOUR, 2)
-                    .appendLiteral(':')
-                    .appendValue(SECOND_OF_MINUTE, 2)
-                    .toFormatter();
-
-    /**
-     * This method formats a BigQuery TIME value into a String matching the format used by JSON
-     * export. Time records are stored in "microseconds since midnight" format.
-     */
-    private static String formatTime(long timeMicros) {
-        java.time.format.DateTimeFormatter formatter;
-        if (timeMicros % 1000000 == 0) {
-            formatter = ISO_LOCAL_TIME_FORMATTER_SECONDS;
-        } else if (timeMicros % 1000 == 0) {
-            formatter = ISO_LOCAL_TIME_FORMATTER_MILLIS;
-        } else {
-            formatter = ISO_LOCAL_TIME_FORMATTER_MICROS;
-        }
-        return LocalTime.ofNanoOfDay(timeMicros * 1000).format(formatter);
-    }
-
     /**
      * Utility function to convert from an Avro {@link GenericRecord} to a BigQuery {@link TableRow}.
      *
@@ -197,6 +152,15 @@ public class BigQueryAvroUtils {
     }
     // [END convert_tablerow]
 
+    /**
+     * Converts a single Avro value into the cell value {@link #convertGenericRecordToTableRow} would
+     * store for it, for callers that buffer values outside a {@link TableRow}.
+     */
+    @Nullable
+    static Object convertCell(Schema schema, TableFieldSchema fieldSchema, Object v) {
+        return getTypedCellValue(schema, fieldSchema, v);
+    }
+
     @Nullable
     private static Object getTypedCellValue(Schema schema, TableFieldSchema fieldSchema, Object v) {
         // Per https://cloud.google.com/bigquery/docs/reference/v2/tables#schema, the mode field
@@ -206,7 +170,8 @@ public class BigQueryAvroUtils {
             case "REQUIRED":
                 return convertRequiredField(schema.getType(), schema.getLogicalType(), fieldSchema, v);
             case "REPEATED":
-                return convertRepeatedField(schema, fieldSchema, v);
+                // A nullable array is still a REPEATED column; null reads back as empty.
+                return convertRepeatedField(AvroBigQueryTypes.nonNull(schema), fieldSchema, v);
             case "NULLABLE":
                 return convertNullableField(schema, fieldSchema, v);
             default:
@@ -219,8 +184,8 @@ public class BigQueryAvroUtils {
             Schema schema, TableFieldSchema fieldSchema, Object v) {
         Type arrayType = schema.getType();
         verify(
-                arrayType == Type.ARRAY,
-                "BigQuery REPEATED field %s should be Avro ARRAY, not %s",
+                arrayType == Type.ARRAY || arrayType == Type.MAP,
+                "BigQuery REPEATED field %s should be Avro ARRAY or MAP, not %s",
                 fieldSchema.getName(),
                 arrayType);
         // REPEATED fields are represented as Avro arrays.
@@ -228,20 +193,38 @@ public class BigQueryAvroUtils {
             // Handle the case of an empty repeated field.
             return new ArrayList<>();
         }
+        ArrayList<Object> values = new ArrayList<>();
+        if (arrayType == Type.MAP) {
+            // Maps are repeated key/value records.
+            Schema valueSchema = schema.getValueType();
+            TableFieldSchema valueFieldSchema = fieldSchema.getFields().get(1);
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) v).entrySet()) {
+                TableRow row = new TableRow().set("key", entry.getKey().toString());
+                Object value = getTypedCellValue(valueSchema, valueFieldSchema, entry.getValue());
+                if (value != null) {
+                    row.set("value", value);
+                }
+                values.add(row);
+            }
+            return values;
+        }
         @SuppressWarnings("unchecked")
         List<Object> elements = (List<Object>) v;
-        ArrayList<Object> values = new ArrayList<>();
-        Type elementType = schema.getElementType().getType();
-        LogicalType elementLogicalType = schema.getElementType().getLogicalType();
+        Schema elementSchema = AvroBigQueryTypes.nonNull(schema.getElementType());
+        Type elementType = elementSchema.getType();
+        LogicalType elementLogicalType = elementSchema.getLogicalType();
         for (Object element : elements) {
-            values.add(convertRequiredField(elementType, elementLogicalType, fieldSchema, element));
+            // BigQuery arrays cannot hold nulls.
+            if (element != null) {
+                values.add(convertRequiredField(elementType, elementLogicalType, fieldSchema, element));
+            }
         }
         return values;
     }
 
     private static Object convertRequiredField(Type avroType, LogicalType avroLogicalType, TableFieldSchema fieldSchema, Object v) {
         // REQUIRED fields are represented as the corresponding Avro types. For example, a BigQuery
-        // INTEGER type maps to an Avro LONG type.
+        // INT64 type maps to an Avro INT or LONG type.
         checkNotNull(v, "REQUIRED field %s should not be null", fieldSchema.getName());
         // Per https://cloud.google.com/bigquery/docs/reference/v2/tables#schema, the type field
         // is required, so it may not be null.
@@ -255,81 +238,123 @@ public class BigQueryAvroUtils {
                 bqType,
                 fieldSchema.getName(),
                 avroType);
-        // For historical reasons, don't validate avroLogicalType except for with NUMERIC.
-        // BigQuery represents NUMERIC in Avro format as BYTES with a DECIMAL logical type.
+        // Values may arrive raw, as a GenericDatumReader without conversions produces them, or as
+        // the Joda or java.time objects specific records are generated with.
         switch (bqType) {
             case "STRING":
-            case "DATETIME":
             case "GEOGRAPHY":
                 // Avro will use a CharSequence to represent String objects, but it may not always use
-                // java.lang.String; for example, it may prefer org.apache.avro.util.Utf8.
+                // java.lang.String; for example, it may prefer org.apache.avro.util.Utf8. Enum symbols
+                // are GenericEnumSymbols or Java enums, and are loaded by name.
+                verify(v instanceof CharSequence || avroType == Type.ENUM,
+                        "Expected CharSequence (String), got %s", v.getClass());
+                return v.toString();
+            case "DATETIME":
+                if (v instanceof Long) {
+                    verify(avroLogicalType instanceof LogicalTypes.LocalTimestampMillis
+                                    || avroLogicalType instanceof LogicalTypes.LocalTimestampMicros,
+                            "Expected LocalTimestamp logical type");
+                    long micros = avroLogicalType instanceof LogicalTypes.LocalTimestampMillis ? (Long) v * 1000 : (Long) v;
+                    return ScalarEncoders.formatDatetime(micros);
+                }
+                if (v instanceof java.time.LocalDateTime) {
+                    return v.toString();
+                }
                 verify(v instanceof CharSequence, "Expected CharSequence (String), got %s", v.getClass());
                 return v.toString();
             case "DATE":
-                if (avroType == Type.INT) {
-                    verify(v instanceof org.joda.time.LocalDate, "Expected org.joda.time.LocalDate, got %s",
-                            v.getClass());
-                    verifyNotNull(avroLogicalType, "Expected Date logical type");
+                if (v instanceof Integer) {
                     verify(avroLogicalType instanceof LogicalTypes.Date, "Expected Date logical type");
+                    return ScalarEncoders.formatDate((Integer) v);
+                }
+                if (v instanceof LocalDate) {
                     return formatDate((LocalDate) v);
-                } else {
-                    verify(v instanceof CharSequence, "Expected CharSequence (String), got %s", v.getClass());
+                }
+                if (v instanceof java.time.LocalDate) {
                     return v.toString();
                 }
+                verify(v instanceof CharSequence, "Expected CharSequence (String), got %s", v.getClass());
+                return v.toString();
             case "TIME":
-                if (avroType == Type.LONG) {
-                    verify(v instanceof Long, "Expected Long, got %s", v.getClass());
-                    verifyNotNull(avroLogicalType, "Expected TimeMicros logical type");
-                    verify(
-                            avroLogicalType instanceof LogicalTypes.TimeMicros,
-                            "Expected TimeMicros logical type");
-                    return formatTime((Long) v);
-                } else {
-                    verify(v instanceof CharSequence, "Expected CharSequence (String), got %s", v.getClass());
-                    return v.toString();
+                if (v instanceof Long) {
+                    verify(avroLogicalType instanceof LogicalTypes.TimeMicros, "Expected TimeMicros logical type");
+                    return ScalarEncoders.formatTime((Long) v);
+                }
+                if (v instanceof Integer) {
+                    verify(avroLogicalType instanceof LogicalTypes.TimeMillis, "Expected TimeMillis logical type");
+                    return ScalarEncoders.formatTime((Integer) v * 1000L);
+                }
+                if (v instanceof LocalTime) {
+                    return ScalarEncoders.formatTime(((LocalTime) v).toNanoOfDay() / 1000);
                 }
+                if (v instanceof org.joda.time.LocalTime) {
+                    return ScalarEncoders.formatTime(((org.joda.time.LocalTime) v).getMillisOfDay() * 1000L);
+                }
+                verify(v instanceof CharSequence, "Expected CharSequence (String), got %s", v.getClass());
+                return v.toString();
             case "INTEGER":
                 verify(v instanceof Integer, "Expected Integer, got %s", v.getClass());
                 return v;
             case "INT64":
             case "LONG":
-                verify(v instanceof Long, "Expected Long, got %s", v.getClass());
-                return v;
+                verify(v instanceof Long || v instanceof Integer, "Expected Long, got %s", v.getClass());
+                return ((Number) v).longValue();
             case "FLOAT64":
-                verify(v instanceof Double, "Expected Dpuble, got %s", v.getClass());
-                return v;
+                verify(v instanceof Double || v instanceof Float, "Expected Double, got %s", v.getClass());
+                return ((Number) v).doubleValue();
             case "FLOAT":
                 verify(v instanceof Float, "Expected Float, got %s", v.getClass());
                 return v;
             case "NUMERIC":
-                // NUMERIC data types are represented as BYTES with the DECIMAL logical type. They are
-                // converted back to Strings with precision and scale determined by the logical type.
-                verify(v instanceof ByteBuffer, "Expected ByteBuffer, got %s", v.getClass());
+            case "BIGNUMERIC":
+                // NUMERIC and BIGNUMERIC data types are represented as BYTES or FIXED with the DECIMAL
+                // logical type. They are converted back to Strings with precision and scale
+                // determined by the logical type.
                 verifyNotNull(avroLogicalType, "Expected Decimal logical type");
                 verify(avroLogicalType instanceof LogicalTypes.Decimal, "Expected Decimal logical type");
-                BigDecimal numericValue =
-                        new Conversions.DecimalConversion()
-                                .fromBytes((ByteBuffer) v, Schema.create(avroType), avroLogicalType);
-                return numericValue.toString();
+                if (v instanceof BigDecimal) {
+                    return ((BigDecimal) v).toPlainString();
+                }
+                LogicalTypes.Decimal decimal = (LogicalTypes.Decimal) avroLogicalType;
+                if (v instanceof GenericFixed) {
+                    return ScalarEncoders.formatDecimal(((GenericFixed) v).bytes(), decimal);
+                }
+                verify(v instanceof ByteBuffer, "Expected ByteBuffer, got %s", v.getClass());
+                return ScalarEncoders.formatDecimal((ByteBuffer) v, decimal);
             case "BOOLEAN":
+            case "BOOL":
                 verify(v instanceof Boolean, "Expected Boolean, got %s", v.getClass());
                 return v;
             case "TIMESTAMP":
-                // TIMESTAMP data types are represented as JodaTime DateTime type.
+                if (v instanceof Long) {
+                    verify(avroLogicalType instanceof LogicalTypes.TimestampMillis
+                                    || avroLogicalType instanceof LogicalTypes.TimestampMicros,
+                            "Expected Timestamp logical type");
+                    return ScalarEncoders.formatTimestamp(
+                            avroLogicalType instanceof LogicalTypes.TimestampMillis ? (Long) v * 1000 : (Long) v);
+                }
+                if (v instanceof Instant) {
+                    Instant instant = (Instant) v;
+                    return ScalarEncoders.formatTimestamp(instant.getEpochSecond() * 1_000_000 + instant.getNano() / 1000);
+                }
                 verify(v instanceof DateTime, "Expected Long, got %s", v.getClass());
                 return formatTimestamp((DateTime) v);
             case "STRUCT":
+            case "RECORD":
+                // Generated specific records are GenericRecords too, so this only falls back to
+                // positional access for hand-written SpecificRecords.
+                if (v instanceof GenericRecord) {
+                    return convertGenericRecordToTableRow((GenericRecord) v, fieldSchema.getFields());
+                }
                 verify(v instanceof SpecificRecord, "Expected SpecificRecord, got %s", v.getClass());
                 return convertSpecificRecordToTableRow((SpecificRecord) v, fieldSchema.getFields());
-            case "RECORD":
-                verify(v instanceof GenericRecord, "Expected GenericRecord, got %s", v.getClass());
-                return convertGenericRecordToTableRow((GenericRecord) v, fieldSchema.getFields());
             case "BYTES":
+                if (v instanceof GenericFixed) {
+                    return ScalarEncoders.formatBase64(((GenericFixed) v).bytes());
+                }
                 verify(v instanceof ByteBuffer, "Expected ByteBuffer, got %s", v.getClass());
-                ByteBuffer byteBuffer = (ByteBuffer) v;
-                byte[] bytes = new byte[byteBuffer.limit()];
-                byteBuffer.get(bytes);
-                return BaseEncoding.base64().encode(bytes);
+                // Encoded in place, leaving the record's buffer as it was.
+                return ScalarEncoders.formatBase64((ByteBuffer) v);
             default:
                 throw new UnsupportedOperationException(
                         String.format(
@@ -366,26 +391,75 @@ public class BigQueryAvroUtils {
                 unionTypes.get(1).getType(), unionTypes.get(1).getLogicalType(), fieldSchema, v);
     }
 
-    static Schema toGenericAvroSchema(String schemaName, List<TableFieldSchema> fieldSchemas) {
+    /**
+     * The Avro schema BigQuery would export rows of {@code fieldSchemas} with: INT64 as long,
+     * NUMERIC and BIGNUMERIC as decimal bytes, TIMESTAMP and TIME in microseconds, DATE as days,
+     * and DATETIME and GEOGRAPHY as strings. Nested records are named after their field, in a
+     * namespace per level so repeated field names do not collide.
+     */
+    public static Schema toGenericAvroSchema(String schemaName, List<TableFieldSchema> fieldSchemas) {
+        return toGenericAvroSchema(schemaName, "org.apache.beam.sdk.io.gcp.bigquery", fieldSchemas);
+    }
+
+    private static Schema toGenericAvroSchema(String schemaName, String namespace, List<TableFieldSchema> fieldSchemas) {
         List<Field> avroFields = new ArrayList<>();
         for (TableFieldSchema bigQueryField : fieldSchemas) {
-            avroFields.add(convertField(bigQueryField));
+            avroFields.add(convertField(bigQueryField, namespace + "." + schemaName));
         }
         return Schema.createRecord(
                 schemaName,
-                "org.apache.beam.sdk.io.gcp.bigquery",
+                namespace,
                 "Translated Avro Schema for " + schemaName,
                 false,
                 avroFields);
     }
 
-    private static Field convertField(TableFieldSchema bigQueryField) {
-        Type avroType = BigQueryAvroMapper.getAvroTypes(bigQueryField.getType()).iterator().next();
+    private static Field convertField(TableFieldSchema bigQueryField, String namespace) {
         Schema elementSchema;
-        if (avroType == Type.RECORD) {
-            elementSchema = toGenericAvroSchema(bigQueryField.getName(), bigQueryField.getFields());
-        } else {
-            elementSchema = Schema.create(avroType);
+        switch (bigQueryField.getType()) {
+            case "STRING":
+            case "GEOGRAPHY":
+            case "DATETIME":
+                elementSchema = Schema.create(Type.STRING);
+                break;
+            case "BYTES":
+                elementSchema = Schema.create(Type.BYTES);
+                break;
+            case "INTEGER":
+            case "INT64":
+                elementSchema = Schema.create(Type.LONG);
+                break;
+            case "FLOAT":
+            case "FLOAT64":
+                elementSchema = Schema.create(Type.DOUBLE);
+                break;
+            case "BOOLEAN":
+            case "BOOL":
+                elementSchema = Schema.create(Type.BOOLEAN);
+                break;
+            case "NUMERIC":
+                elementSchema = LogicalTypes.decimal(38, 9).addToSchema(Schema.create(Type.BYTES));
+                break;
+            case AvroBigQueryTypes.BIGNUMERIC:
+                elementSchema = LogicalTypes.decimal(77, 38).addToSchema(Schema.create(Type.BYTES));
+                break;
+            case "TIMESTAMP":
+                elementSchema = LogicalTypes.timestampMicros().addToSchema(Schema.create(Type.LONG));
+                break;
+            case "DATE":
+                elementSchema = LogicalTypes.date().addToSchema(Schema.create(Type.INT));
+                break;
+            case "TIME":
+                elementSchema = LogicalTypes.timeMicros().addToSchema(Schema.create(Type.LONG));
+                break;
+            case "RECORD":
+            case "STRUCT":
+                elementSchema = toGenericAvroSchema(bigQueryField.getName(), namespace, bigQueryField.getFields());
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        String.format("Unsupported BigQuery type %s for field %s", bigQueryField.getType(),
+                                bigQueryField.getName()));
         }
         Schema fieldSchema;
         if (bigQueryField.getMode() == null || "NULLABLE".equals(bigQueryField.getMode())) {
@@ -423,88 +497,24 @@ public class BigQueryAvroUtils {
         return getTableFieldSchema(schema, false);
     }
 
+    /**
+     * One column per field, typed by {@link AvroBigQueryTypes}. With {@code onlyNonOptional},
+     * fields that may be null are left out.
+     */
     private static List<TableFieldSchema> getTableFieldSchema(Schema schema, boolean onlyNonOptional) {
         List<TableFieldSchema> tableFieldSchemas = new ArrayList<>();
         if (schema != null) {
             for (Schema.Field field : schema.getFields()) {
-                String type = getBqType(field);
-                if ("UNION".equals(type)) {
-                    if (onlyNonOptional) {
-                        return tableFieldSchemas;
-                    } else {
-                        Type insideType = field.schema().getType();
-                        List<Schema> types = field.schema().getTypes();
-
-                        if (types.size() != 2) {
-                            throw new RuntimeException("Union type in Avro serializer schema must only contain two types");
-                        }
-
-                        if (types.get(0).getType().equals(Type.NULL)) {
-                            insideType = types.get(1).getType();
-                        } else {
-                            insideType = types.get(0).getType();
-                        }
-                        TableFieldSchema tfs = new TableFieldSchema().setName(field.name()).setType(insideType.toString()).setMode("NULLABLE");
-                        tableFieldSchemas.add(tfs);
-                    }
-                } else if ("ARRAY".equals(type)) {
-                    Schema childSchema = field.schema().getElementType();
-                    if (childSchema.getType() == Schema.Type.RECORD) {
-                        List<TableFieldSchema> child = getTableFieldSchema(field.schema().getElementType());
-                        TableFieldSchema tfs =
-                                new TableFieldSchema()
-                                        .setName(field.name())
-                                        .setType("STRUCT")
-                                        .setFields(child)
-                                        .setMode("REPEATED");
-                        tableFieldSchemas.add(tfs);
-                    } else {
-
-                        TableFieldSchema tfs =
-                                new TableFieldSchema()
-                                        .setName(field.name())
-                                        .setType(getBqType(childSchema.getFields().get(0)))
-                                        .setMode("REPEATED");
-                        tableFieldSchemas.add(tfs);
-                    }
-                    // Create repeatable table field
-                    // Handle non struct in array
-
-                } else if ("RECORD".equals(type)) {
-                    TableFieldSchema tfs =
-                            new TableFieldSchema()
-                                    .setName(field.name())
-                                    .setType("STRUCT")
-                                    .setFields(getTableFieldSchema(field.schema()));
-                    tableFieldSchemas.add(tfs);
-                } else if (type != null) {
-                    TableFieldSchema tfs =
-                            new TableFieldSchema().setName(field.name()).setType(type).setMode("REQUIRED");
-                    tableFieldSchemas.add(tfs);
+                if (onlyNonOptional && field.schema().isNullable()) {
+                    continue;
                 }
+                tableFieldSchemas.add(AvroBigQueryTypes.tableFieldSchema(field.name(), field.schema()));
             }
         }
         return tableFieldSchemas;
     }
 
-
-
     static String getBqType(Schema.Field field) {
-        Schema t = field.schema();
-
-        String logicalType = null;
-        if (field.schema().getLogicalType() != null) {
-            logicalType = field.schema().getLogicalType().getName();
-        }
-
-        if (t.getType().equals(Schema.Type.LONG)
-                && "timestamp-millis".equals(logicalType)) {
-            return "TIMESTAMP";
-        } else if (t.getType().equals(Schema.Type.INT)
-                && "date".equals(logicalType)) {
-            return "DATE";
-        } else {
-            return BigQueryAvroUtils.BigQueryAvroMapper.getBigQueryTypes(t.getType());
-        }
+        return AvroBigQueryTypes.typeOf(field.schema());
     }
 }
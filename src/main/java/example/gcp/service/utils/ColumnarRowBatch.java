@@ -0,0 +1,540 @@
+package example.gcp.service.utils;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.api.services.bigquery.model.TableRow;
+import com.google.api.services.bigquery.model.TableSchema;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.util.Utf8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-oriented buffer of rows converted from Avro records. INT64, FLOAT64 and BOOL columns are
+ * kept in primitive arrays, STRING columns are dictionary encoded while their values repeat, and
+ * every column tracks nulls in a bitmap. Timestamps, dates and times read as Avro longs and ints
+ * stay longs until written. Columns without a primitive layout (numerics, structs, repeated fields) hold the same values {@link BigQueryAvroUtils} would put into a
+ * {@link TableRow}.
+ *
+ * <p>Rows can be written straight to newline-delimited JSON, the format accepted by BigQuery load
+ * jobs, without materializing a {@link TableRow} per row. Not thread-safe.
+ */
+public class ColumnarRowBatch {
+    private static final JsonFactory JSON = new ObjectMapper().getFactory();
+    private static final int INITIAL_CAPACITY = 256;
+
+    private abstract static class Column {
+        final String name;
+        final int pos;
+        final BitSet nulls = new BitSet();
+
+        Column(String name, int pos) {
+            this.name = name;
+            this.pos = pos;
+        }
+
+        abstract void grow(int capacity);
+
+        abstract void set(int row, Object value);
+
+        abstract Object get(int row);
+
+        abstract void write(JsonGenerator gen, int row) throws IOException;
+
+        abstract long estimatedBytes(int rows);
+    }
+
+    private static final class LongColumn extends Column {
+        private long[] values = new long[INITIAL_CAPACITY];
+
+        LongColumn(String name, int pos) {
+            super(name, pos);
+        }
+
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        void set(int row, Object value) {
+            values[row] = ((Number) value).longValue();
+        }
+
+        Object get(int row) {
+            return values[row];
+        }
+
+        void write(JsonGenerator gen, int row) throws IOException {
+            gen.writeNumber(values[row]);
+        }
+
+        long estimatedBytes(int rows) {
+            return 8L * values.length;
+        }
+    }
+
+    private static final class DoubleColumn extends Column {
+        private double[] values = new double[INITIAL_CAPACITY];
+
+        DoubleColumn(String name, int pos) {
+            super(name, pos);
+        }
+
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        void set(int row, Object value) {
+            values[row] = ((Number) value).doubleValue();
+        }
+
+        Object get(int row) {
+            return values[row];
+        }
+
+        void write(JsonGenerator gen, int row) throws IOException {
+            gen.writeNumber(values[row]);
+        }
+
+        long estimatedBytes(int rows) {
+            return 8L * values.length;
+        }
+    }
+
+    private static final class BooleanColumn extends Column {
+        private final BitSet values = new BitSet();
+
+        BooleanColumn(String name, int pos) {
+            super(name, pos);
+        }
+
+        void grow(int capacity) {
+        }
+
+        void set(int row, Object value) {
+            values.set(row, (Boolean) value);
+        }
+
+        Object get(int row) {
+            return values.get(row);
+        }
+
+        void write(JsonGenerator gen, int row) throws IOException {
+            gen.writeBoolean(values.get(row));
+        }
+
+        long estimatedBytes(int rows) {
+            return rows / 8 + 1;
+        }
+    }
+
+    /**
+     * Stores each distinct string once and an int code per row. If the column turns out not to be
+     * repetitive (more than half of the first rows are distinct) it falls back to plain storage,
+     * since a dictionary would then only add overhead.
+     */
+    private static final class StringColumn extends Column {
+        private static final int DICTIONARY_PROBE_ROWS = 1024;
+
+        private final Map<Utf8, Integer> codes = new HashMap<>();
+        private final List<Utf8> dictionary = new ArrayList<>();
+        private final List<String> strings = new ArrayList<>();
+        private int[] rowCodes = new int[INITIAL_CAPACITY];
+        private String[] plain;
+
+        StringColumn(String name, int pos) {
+            super(name, pos);
+        }
+
+        void grow(int capacity) {
+            if (plain != null) {
+                plain = Arrays.copyOf(plain, capacity);
+            } else {
+                rowCodes = Arrays.copyOf(rowCodes, capacity);
+            }
+        }
+
+        void set(int row, Object value) {
+            if (plain != null) {
+                plain[row] = value.toString();
+                return;
+            }
+            Utf8 key = value instanceof Utf8 ? (Utf8) value : new Utf8(value.toString());
+            Integer code = codes.get(key);
+            if (code == null) {
+                code = dictionary.size();
+                // Records are reused by readers, so the key must be copied before it is kept.
+                Utf8 copy = new Utf8(key);
+                codes.put(copy, code);
+                dictionary.add(copy);
+                strings.add(null);
+                if (row >= DICTIONARY_PROBE_ROWS && dictionary.size() > row / 2) {
+                    toPlain(row);
+                    plain[row] = value.toString();
+                    return;
+                }
+            }
+            rowCodes[row] = code;
+        }
+
+        private void toPlain(int rows) {
+            plain = new String[rowCodes.length];
+            for (int row = 0; row < rows; row++) {
+                if (!nulls.get(row)) {
+                    plain[row] = string(rowCodes[row]);
+                }
+            }
+            rowCodes = null;
+            codes.clear();
+            dictionary.clear();
+            strings.clear();
+        }
+
+        private String string(int code) {
+            String s = strings.get(code);
+            if (s == null) {
+                s = dictionary.get(code).toString();
+                strings.set(code, s);
+            }
+            return s;
+        }
+
+        Object get(int row) {
+            return plain != null ? plain[row] : string(rowCodes[row]);
+        }
+
+        void write(JsonGenerator gen, int row) throws IOException {
+            if (plain != null) {
+                gen.writeString(plain[row]);
+            } else {
+                Utf8 utf8 = dictionary.get(rowCodes[row]);
+                gen.writeUTF8String(utf8.getBytes(), 0, utf8.getByteLength());
+            }
+        }
+
+        long estimatedBytes(int rows) {
+            if (plain != null) {
+                long bytes = 8L * plain.length;
+                for (int row = 0; row < rows; row++) {
+                    if (plain[row] != null) {
+                        bytes += 40 + plain[row].length();
+                    }
+                }
+                return bytes;
+            }
+            long bytes = 4L * rowCodes.length;
+            for (Utf8 value : dictionary) {
+                bytes += 64 + value.getByteLength();
+            }
+            return bytes;
+        }
+
+        int dictionarySize() {
+            return plain != null ? -1 : dictionary.size();
+        }
+    }
+
+    private static final class ObjectColumn extends Column {
+        private final Schema avroSchema;
+        private final TableFieldSchema fieldSchema;
+        private Object[] values = new Object[INITIAL_CAPACITY];
+
+        ObjectColumn(String name, int pos, Schema avroSchema, TableFieldSchema fieldSchema) {
+            super(name, pos);
+            this.avroSchema = avroSchema;
+            this.fieldSchema = fieldSchema;
+        }
+
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        void set(int row, Object value) {
+            values[row] = BigQueryAvroUtils.convertCell(avroSchema, fieldSchema, value);
+        }
+
+        Object get(int row) {
+            return values[row];
+        }
+
+        void write(JsonGenerator gen, int row) throws IOException {
+            gen.writeObject(values[row]);
+        }
+
+        long estimatedBytes(int rows) {
+            return 64L * values.length;
+        }
+    }
+
+    /**
+     * TIMESTAMP, DATETIME, DATE and TIME values read as raw Avro numbers. They are kept as longs
+     * and only encoded when written, through {@link ScalarEncoders} into this column's char buffer,
+     * so neither appending nor writing NDJSON allocates per cell. Values that arrive as objects
+     * (specific records generated with logical type conversions) are converted as usual.
+     */
+    private static final class TemporalColumn extends Column {
+        private final String type;
+        private final long unit;
+        private final Schema avroSchema;
+        private final TableFieldSchema fieldSchema;
+        private final char[] chars = new char[ScalarEncoders.TIMESTAMP_LENGTH];
+        private long[] values = new long[INITIAL_CAPACITY];
+        private Object[] converted;
+
+        TemporalColumn(String name, int pos, Schema avroSchema, TableFieldSchema fieldSchema) {
+            super(name, pos);
+            this.type = fieldSchema.getType();
+            this.avroSchema = avroSchema;
+            this.fieldSchema = fieldSchema;
+            String logicalType = AvroBigQueryTypes.nonNull(avroSchema).getLogicalType().getName();
+            // Everything but dates is encoded from microseconds.
+            this.unit = logicalType.endsWith("-millis") ? 1000 : 1;
+        }
+
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+            if (converted != null) {
+                converted = Arrays.copyOf(converted, capacity);
+            }
+        }
+
+        void set(int row, Object value) {
+            if (value instanceof Long || value instanceof Integer) {
+                values[row] = ((Number) value).longValue() * unit;
+                if (converted != null) {
+                    converted[row] = null;
+                }
+                return;
+            }
+            if (converted == null) {
+                converted = new Object[values.length];
+            }
+            converted[row] = BigQueryAvroUtils.convertCell(avroSchema, fieldSchema, value);
+        }
+
+        Object get(int row) {
+            if (converted != null && converted[row] != null) {
+                return converted[row];
+            }
+            return new String(chars, 0, encode(values[row]));
+        }
+
+        void write(JsonGenerator gen, int row) throws IOException {
+            if (converted != null && converted[row] != null) {
+                gen.writeObject(converted[row]);
+                return;
+            }
+            gen.writeString(chars, 0, encode(values[row]));
+        }
+
+        private int encode(long value) {
+            switch (type) {
+                case "TIMESTAMP":
+                    return ScalarEncoders.writeTimestamp(value, chars, 0);
+                case "DATETIME":
+                    return ScalarEncoders.writeDatetime(value, 'T', chars, 0);
+                case "DATE":
+                    return ScalarEncoders.writeDate(value, chars, 0);
+                default:
+                    return ScalarEncoders.writeTime(value, chars, 0);
+            }
+        }
+
+        long estimatedBytes(int rows) {
+            return 8L * values.length + (converted != null ? 64L * converted.length : 0);
+        }
+    }
+
+    private final TableSchema tableSchema;
+    private final Column[] columns;
+    private int rows;
+    private int capacity = INITIAL_CAPACITY;
+
+    public ColumnarRowBatch(Schema avroSchema, TableSchema tableSchema) {
+        this.tableSchema = tableSchema;
+        List<TableFieldSchema> fields = tableSchema.getFields();
+        this.columns = new Column[fields.size()];
+        for (int i = 0; i < columns.length; i++) {
+            TableFieldSchema field = fields.get(i);
+            Schema.Field avroField = avroSchema.getField(field.getName());
+            if (avroField == null) {
+                throw new IllegalArgumentException("Avro schema has no field " + field.getName());
+            }
+            columns[i] = column(field, avroField);
+        }
+    }
+
+    public static ColumnarRowBatch of(Schema avroSchema, boolean onlyNonOptional) {
+        return new ColumnarRowBatch(avroSchema, onlyNonOptional
+                ? BigQueryAvroUtils.getOnlyNonOptionalTableSchema(avroSchema)
+                : BigQueryAvroUtils.getTableSchema(avroSchema));
+    }
+
+    private static Column column(TableFieldSchema field, Schema.Field avroField) {
+        String name = field.getName();
+        int pos = avroField.pos();
+        if ("REPEATED".equals(field.getMode())) {
+            return new ObjectColumn(name, pos, avroField.schema(), field);
+        }
+        switch (field.getType()) {
+            case "INT64":
+            case "INTEGER":
+            case "LONG":
+            case "INT":
+                return new LongColumn(name, pos);
+            case "FLOAT64":
+            case "FLOAT":
+            case "DOUBLE":
+                return new DoubleColumn(name, pos);
+            case "BOOLEAN":
+            case "BOOL":
+                return new BooleanColumn(name, pos);
+            case "STRING":
+                return new StringColumn(name, pos);
+            case "TIMESTAMP":
+            case "DATETIME":
+            case "DATE":
+            case "TIME":
+                Schema value = AvroBigQueryTypes.nonNull(avroField.schema());
+                if (value.getLogicalType() != null
+                        && (value.getType() == Schema.Type.LONG || value.getType() == Schema.Type.INT)) {
+                    return new TemporalColumn(name, pos, avroField.schema(), field);
+                }
+                return new ObjectColumn(name, pos, avroField.schema(), field);
+            default:
+                return new ObjectColumn(name, pos, avroField.schema(), field);
+        }
+    }
+
+    /**
+     * Copies the record's values into the batch. The record itself is not retained, so readers
+     * may reuse it for the next row.
+     */
+    public void append(IndexedRecord record) {
+        if (rows == capacity) {
+            capacity *= 2;
+            for (Column column : columns) {
+                column.grow(capacity);
+            }
+        }
+        for (Column column : columns) {
+            Object value = record.get(column.pos);
+            if (value == null) {
+                column.nulls.set(rows);
+            } else {
+                column.set(rows, value);
+            }
+        }
+        rows++;
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    public TableSchema getTableSchema() {
+        return tableSchema;
+    }
+
+    /**
+     * Value of a cell as it would appear in a {@link TableRow}, or null.
+     */
+    public Object get(int row, int column) {
+        Column c = columns[column];
+        return c.nulls.get(row) ? null : c.get(row);
+    }
+
+    public TableRow toTableRow(int row) {
+        TableRow tableRow = new TableRow();
+        for (int i = 0; i < columns.length; i++) {
+            Object value = get(row, i);
+            if (value != null) {
+                tableRow.set(columns[i].name, value);
+            }
+        }
+        return tableRow;
+    }
+
+    /**
+     * Writes one JSON object per row, omitting null cells like BigQuery's JSON export does.
+     */
+    public void writeNdjson(OutputStream out) throws IOException {
+        JsonGenerator gen = JSON.createGenerator(out, JsonEncoding.UTF8);
+        gen.setRootValueSeparator(null);
+        for (int row = 0; row < rows; row++) {
+            writeRow(gen, row);
+            gen.writeRaw('\n');
+        }
+        gen.flush();
+    }
+
+    public void writeRow(JsonGenerator gen, int row) throws IOException {
+        gen.writeStartObject();
+        for (Column column : columns) {
+            if (!column.nulls.get(row)) {
+                gen.writeFieldName(column.name);
+                column.write(gen, row);
+            }
+        }
+        gen.writeEndObject();
+    }
+
+    /**
+     * Dictionary size of a STRING column, or -1 if the column is not dictionary encoded.
+     */
+    public int dictionarySize(String columnName) {
+        for (Column column : columns) {
+            if (column.name.equals(columnName) && column instanceof StringColumn) {
+                return ((StringColumn) column).dictionarySize();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Rough heap footprint of the buffered data, for sizing batches.
+     */
+    public long estimatedBytes() {
+        long bytes = 0;
+        for (Column column : columns) {
+            bytes += column.estimatedBytes(rows) + column.nulls.size() / 8;
+        }
+        return bytes;
+    }
+
+    public void clear() {
+        for (int i = 0; i < columns.length; i++) {
+            Column old = columns[i];
+            columns[i] = copyOf(old);
+        }
+        rows = 0;
+        capacity = INITIAL_CAPACITY;
+    }
+
+    private static Column copyOf(Column column) {
+        if (column instanceof LongColumn) {
+            return new LongColumn(column.name, column.pos);
+        } else if (column instanceof DoubleColumn) {
+            return new DoubleColumn(column.name, column.pos);
+        } else if (column instanceof BooleanColumn) {
+            return new BooleanColumn(column.name, column.pos);
+        } else if (column instanceof StringColumn) {
+            return new StringColumn(column.name, column.pos);
+        } else if (column instanceof TemporalColumn) {
+            TemporalColumn temporal = (TemporalColumn) column;
+            return new TemporalColumn(temporal.name, temporal.pos, temporal.avroSchema, temporal.fieldSchema);
+        }
+        ObjectColumn objects = (ObjectColumn) column;
+        return new ObjectColumn(objects.name, objects.pos, objects.avroSchema, objects.fieldSchema);
+    }
+}
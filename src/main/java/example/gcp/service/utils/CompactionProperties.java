@@ -0,0 +1,25 @@
+package example.gcp.service.utils;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Objects smaller than {@code maxObjectSize} are merged with others of the same route and schema.
+ * A batch is flushed when it reaches {@code maxBatchObjects} or {@code maxBatchBytes}, or when
+ * {@code window} has passed since its first object arrived.
+ */
+@Component
+@ConfigurationProperties(prefix = "load.compaction")
+@Data
+public class CompactionProperties {
+    private boolean enabled = false;
+    private long maxObjectSize = 1024 * 1024;
+    private int maxBatchObjects = 500;
+    private long maxBatchBytes = 128L * 1024 * 1024;
+    private Duration window = Duration.ofSeconds(10);
+    private String prefix = "compacted/";
+    private int flushThreads = 2;
+}
@@ -0,0 +1,39 @@
+package example.gcp.service.utils;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Where and how {@link LoadDataflowImpl} runs. {@code runner} is {@code dataflow} or
+ * {@code direct}. {@code templateLocation} turns on launching prebuilt templates; one template is
+ * kept per writer schema below it. {@code singlePassWrite} and {@code avroWrite} choose the write
+ * graph; {@code avroWrite} only applies to the single-pass graph and is rejected without it. Both
+ * are off until their effect on a real Dataflow job has been measured, so the default is the
+ * original two-write TableRow graph.
+ */
+@Component
+@ConfigurationProperties(prefix = "load.dataflow")
+@Data
+public class DataflowProperties {
+    private String runner = "dataflow";
+    private String project = "buoyant-braid-293112";
+    private String region = "europe-west4";
+    private String bucket = "spring-bucket-programoleg1";
+    private String dataset = "bq_load_avro";
+    private String tableAll = "avro_all";
+    private String tableNonOptional = "avro_non_optional";
+    private String stagingLocation = "gs://spring-bucket-programoleg1/staging";
+    private String tempLocation = "gs://spring-bucket-programoleg1/tmp";
+    private String templateLocation;
+    private Duration pollInterval = Duration.ofSeconds(10);
+    private String localDirectory;
+    private boolean singlePassWrite = false;
+    private boolean avroWrite = false;
+
+    public boolean isDirect() {
+        return "direct".equals(runner);
+    }
+}
@@ -0,0 +1,34 @@
+package example.gcp.service.utils;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Per-file choice between streaming inserts, load jobs and Dataflow. Files of at most
+ * {@code streamingMaxBytes} bytes and an estimated {@code streamingMaxRows} rows are streamed;
+ * with {@code dataflowEnabled}, files of at least {@code dataflowMinBytes} go to Dataflow; the rest
+ * use load jobs. While the scheduler queue holds {@code busyQueueDepth} or more files, or load
+ * jobs average more than {@code loadJobMaxLatency}, both limits are stretched by
+ * {@code busyFactor} to take work off the load job path. Latency averages weigh each sample by
+ * {@code latencyAlpha}; streaming or Dataflow is skipped while its average exceeds its
+ * {@code maxLatency}, and each skip decays the average until the engine is tried again.
+ */
+@Component
+@ConfigurationProperties(prefix = "load.engine")
+@Data
+public class EngineRouterProperties {
+    private boolean enabled = false;
+    private long streamingMaxBytes = 1024 * 1024;
+    private long streamingMaxRows = 10_000;
+    private Duration streamingMaxLatency = Duration.ofSeconds(30);
+    private boolean dataflowEnabled = false;
+    private long dataflowMinBytes = 2L * 1024 * 1024 * 1024;
+    private Duration dataflowMaxLatency = Duration.ofMinutes(30);
+    private Duration loadJobMaxLatency = Duration.ofMinutes(10);
+    private int busyQueueDepth = 32;
+    private double busyFactor = 4.0;
+    private double latencyAlpha = 0.2;
+}
@@ -0,0 +1,169 @@
+package example.gcp.service.utils;
+
+import com.google.common.io.CountingInputStream;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Schema-agnostic Avro reading built on {@link GenericDatumReader}, so files of any schema can be
+ * ingested without generated classes.
+ *
+ * <p>Readers are cached per thread and (writer, reader) schema fingerprint pair.
+ * {@link GenericDatumReader} is not thread-safe, as it fills unsynchronized caches while reading,
+ * so each ingest thread gets readers of its own; the {@code ResolvingDecoder} a reader builds for
+ * its schema pair is reused with it. Record and decoder instances are reused across the records of
+ * a file.
+ */
+public class GenericRecordReaders {
+    private GenericRecordReaders() {
+    }
+
+    private static final class Key {
+        private final long writer;
+        private final long reader;
+
+        private Key(long writer, long reader) {
+            this.writer = writer;
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return writer == other.writer && reader == other.reader;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(writer, reader);
+        }
+    }
+
+    private static final ThreadLocal<Map<Key, GenericDatumReader<GenericRecord>>> READERS =
+            ThreadLocal.withInitial(HashMap::new);
+    private static final Map<Schema, Long> FINGERPRINTS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<BinaryDecoder> DECODER = new ThreadLocal<>();
+
+    /**
+     * 64-bit Rabin fingerprint of the schema's parsing canonical form. Two schemas that differ only
+     * in docs, aliases or field order of JSON attributes share a fingerprint.
+     */
+    public static long fingerprint(Schema schema) {
+        return FINGERPRINTS.computeIfAbsent(schema, SchemaNormalization::parsingFingerprint64);
+    }
+
+    /**
+     * Returns the calling thread's cached reader that resolves data written with {@code writer}
+     * into {@code reader}. Pass the writer schema as reader to read records as written. The reader
+     * must not be handed to other threads.
+     */
+    public static GenericDatumReader<GenericRecord> readerFor(Schema writer, Schema reader) {
+        return READERS.get().computeIfAbsent(new Key(fingerprint(writer), fingerprint(reader)),
+                key -> new GenericDatumReader<>(writer, reader));
+    }
+
+    /**
+     * Reads only the container header and returns the writer schema.
+     */
+    public static Schema readSchema(InputStream in) throws IOException {
+        try (DataFileStream<GenericRecord> stream = new DataFileStream<>(in, new GenericDatumReader<>())) {
+            return stream.getSchema();
+        }
+    }
+
+    /**
+     * Estimates the record count of a container file of {@code objectSize} bytes from its header
+     * and the header of its first block, assuming later blocks pack records as densely as the
+     * first. Reads no further than the first block header, so {@code in} may be a short range read.
+     */
+    public static long estimateRows(InputStream in, long objectSize) throws IOException {
+        CountingInputStream counting = new CountingInputStream(in);
+        BinaryDecoder decoder = DecoderFactory.get().directBinaryDecoder(counting, null);
+        byte[] magic = new byte[DataFileConstants.MAGIC.length];
+        decoder.readFixed(magic);
+        if (!Arrays.equals(magic, DataFileConstants.MAGIC)) {
+            throw new IOException("Not an Avro data file");
+        }
+        for (long entries = decoder.readMapStart(); entries != 0; entries = decoder.mapNext()) {
+            for (long i = 0; i < entries; i++) {
+                decoder.skipString();
+                decoder.skipBytes();
+            }
+        }
+        decoder.skipFixed(DataFileConstants.SYNC_SIZE);
+        long header = counting.getCount();
+        long blockRows;
+        long blockBytes;
+        try {
+            blockRows = decoder.readLong();
+            blockBytes = decoder.readLong();
+        } catch (EOFException e) {
+            return 0;
+        }
+        long block = counting.getCount() - header + blockBytes + DataFileConstants.SYNC_SIZE;
+        return (long) Math.ceil((double) (objectSize - header) / block * blockRows);
+    }
+
+    /**
+     * Streams every record of an Avro container file to {@code consumer}, resolved into
+     * {@code readerSchema} (or the writer schema when null). The record passed to the consumer is
+     * reused for the next record, so consumers must copy anything they keep.
+     *
+     * @return number of records read
+     */
+    public static long forEach(InputStream in, Schema readerSchema, Consumer<GenericRecord> consumer)
+            throws IOException {
+        try (DataFileStream<GenericRecord> stream = new DataFileStream<>(in, new GenericDatumReader<>())) {
+            Schema writer = stream.getSchema();
+            GenericDatumReader<GenericRecord> reader = readerFor(writer, readerSchema == null ? writer : readerSchema);
+            // Blocks are decoded here rather than by the stream so that the cached reader is never
+            // handed to DataFileStream, which would call setSchema on it.
+            GenericRecord record = null;
+            long count = 0;
+            while (stream.hasNext()) {
+                ByteBuffer block = stream.nextBlock();
+                long records = stream.getBlockCount();
+                BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(
+                        block.array(), block.arrayOffset() + block.position(), block.remaining(), DECODER.get());
+                DECODER.set(decoder);
+                for (long i = 0; i < records; i++) {
+                    record = reader.read(record, decoder);
+                    consumer.accept(record);
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Decodes a single binary-encoded datum written with {@code writer}, reusing {@code reuse}
+     * and the calling thread's decoder.
+     */
+    public static GenericRecord decode(byte[] datum, Schema writer, Schema reader, GenericRecord reuse)
+            throws IOException {
+        BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(datum, DECODER.get());
+        DECODER.set(decoder);
+        return readerFor(writer, reader == null ? writer : reader).read(reuse, decoder);
+    }
+}
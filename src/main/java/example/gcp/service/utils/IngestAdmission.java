@@ -0,0 +1,121 @@
+package example.gcp.service.utils;
+
+import example.gcp.service.AdmissionRejectedException;
+import example.gcp.service.StorageObject;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admits objects for ingest against a budget of in-flight bytes, weighted by the size in their
+ * notification. Loading materializes object content, so memory grows with the sum of the sizes
+ * being loaded rather than with their number; a few concurrent multi-gigabyte files would
+ * otherwise exhaust the heap. Waiting is first come, first served, so a large object is not
+ * starved by a stream of small ones. An object larger than the whole budget is charged the whole
+ * budget and runs alone.
+ */
+@Component
+@Slf4j
+public class IngestAdmission {
+    private static final long UNIT = 1024;
+
+    /**
+     * Bytes held by one admitted object, returned on {@link #close()}.
+     */
+    public final class Permit implements AutoCloseable {
+        private final int units;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Permit(int units) {
+            this.units = units;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true) && units > 0) {
+                inFlightBytes.addAndGet(-units * UNIT);
+                permits.release(units);
+            }
+        }
+    }
+
+    private final boolean enabled;
+    private final long capacityBytes;
+    private final int capacityUnits;
+    private final long unknownSizeBytes;
+    private final long maxWaitNanos;
+    private final Semaphore permits;
+    private final AtomicLong inFlightBytes = new AtomicLong();
+    private final Counter deferred;
+    private final Counter rejected;
+    private final Timer waitTimer;
+
+    public IngestAdmission(AdmissionProperties properties, MeterRegistry registry) {
+        this.enabled = properties.isEnabled();
+        long capacity = properties.getMaxBytes() != null
+                ? properties.getMaxBytes()
+                : (long) (Runtime.getRuntime().maxMemory() * properties.getHeapFraction());
+        this.capacityUnits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, capacity / UNIT));
+        this.capacityBytes = capacityUnits * UNIT;
+        this.unknownSizeBytes = properties.getUnknownSizeBytes();
+        this.maxWaitNanos = properties.getMaxWait().toNanos();
+        this.permits = new Semaphore(capacityUnits, true);
+        Gauge.builder("ingest.admission.inflight.bytes", inFlightBytes, AtomicLong::get).register(registry);
+        Gauge.builder("ingest.admission.capacity.bytes", this, admission -> admission.capacityBytes).register(registry);
+        Gauge.builder("ingest.admission.waiting", permits, Semaphore::getQueueLength).register(registry);
+        this.deferred = Counter.builder("ingest.admission.deferred").register(registry);
+        this.rejected = Counter.builder("ingest.admission.rejected").register(registry);
+        this.waitTimer = Timer.builder("ingest.admission.wait").register(registry);
+        if (enabled) {
+            log.info("In-flight ingest budget is " + capacityBytes + " bytes");
+        }
+    }
+
+    /**
+     * Takes {@code object}'s size from the budget, waiting up to the configured time for it to
+     * fit.
+     *
+     * @throws AdmissionRejectedException if it still does not fit after waiting
+     */
+    public Permit admit(StorageObject object) throws InterruptedException {
+        if (!enabled) {
+            return new Permit(0);
+        }
+        int units = unitsOf(object);
+        if (!permits.tryAcquire(units, 0, TimeUnit.NANOSECONDS)) {
+            deferred.increment();
+            long started = System.nanoTime();
+            boolean acquired = permits.tryAcquire(units, maxWaitNanos, TimeUnit.NANOSECONDS);
+            waitTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            if (!acquired) {
+                rejected.increment();
+                throw new AdmissionRejectedException("No room in the in-flight budget for " + object.getUri()
+                        + " (" + units * UNIT + " of " + capacityBytes + " bytes, " + inFlightBytes.get() + " in flight)");
+            }
+        }
+        inFlightBytes.addAndGet(units * UNIT);
+        return new Permit(units);
+    }
+
+    private int unitsOf(StorageObject object) {
+        long size = object.getSize() != null ? object.getSize() : unknownSizeBytes;
+        long units = (size + UNIT - 1) / UNIT;
+        return (int) Math.max(1, Math.min(capacityUnits, units));
+    }
+
+    public long inFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    public long capacityBytes() {
+        return capacityBytes;
+    }
+}
@@ -0,0 +1,292 @@
+package example.gcp.service.utils;
+
+import example.gcp.service.StorageObject;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped log of stage transitions per object generation, so that a restarted
+ * instance or a redelivered notification resumes from the last completed stage instead of
+ * reloading both tables.
+ *
+ * <p>Each entry is {@code [length][crc32][payload]}; replay stops at the first torn or corrupt
+ * entry. Appends only copy into the mapping and return at once. A flusher thread forces the
+ * mapping to disk every {@code flushInterval} for all entries written since the last flush (group
+ * commit) and completes their futures, so callers that need durability can wait for it and the
+ * rest never do. When the file is full it is rewritten with the live state only.
+ */
+@Component
+@Slf4j
+public class IngestJournal {
+    private static final int ENTRY_HEADER = 8;
+
+    /**
+     * Replayed state of one object generation.
+     */
+    public static final class Progress {
+        private boolean fetched;
+        private boolean deleted;
+        private final Map<String, String> jobIds = new HashMap<>();
+        private final Map<String, Integer> attempts = new HashMap<>();
+        private final Set<String> committed = new HashSet<>();
+
+        public synchronized boolean isFetched() {
+            return fetched;
+        }
+
+        public synchronized boolean isDeleted() {
+            return deleted;
+        }
+
+        public synchronized boolean isCommitted(String table) {
+            return committed.contains(table);
+        }
+
+        /**
+         * JobId of the last load job submitted for {@code table}, or null.
+         */
+        public synchronized String getJobId(String table) {
+            return jobIds.get(table);
+        }
+
+        public synchronized int getAttempts(String table) {
+            return attempts.getOrDefault(table, 0);
+        }
+
+        private synchronized void apply(IngestStage stage, String table, String jobId, int attempt) {
+            switch (stage) {
+                case FETCHED:
+                    fetched = true;
+                    break;
+                case JOB_SUBMITTED:
+                    jobIds.put(table, jobId);
+                    attempts.merge(table, attempt, Math::max);
+                    break;
+                case COMMITTED:
+                    committed.add(table);
+                    break;
+                case DELETED:
+                    deleted = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown stage " + stage);
+            }
+        }
+    }
+
+    private final JournalProperties properties;
+    private final Map<String, Progress> progress = new ConcurrentHashMap<>();
+    private final Object appendLock = new Object();
+    private List<CompletableFuture<Void>> waiting = new ArrayList<>();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private ScheduledExecutorService flusher;
+
+    public IngestJournal(JournalProperties properties) throws IOException {
+        this.properties = properties;
+        if (!properties.isEnabled()) {
+            return;
+        }
+        Path path = Paths.get(properties.getPath());
+        map(path);
+        replay();
+        log.info("Journal " + path + " replayed " + progress.size() + " objects");
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getFlushInterval().toNanos();
+        flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    private void map(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, properties.getFileSize());
+    }
+
+    private void replay() {
+        buffer.position(0);
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= ENTRY_HEADER) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                return;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                log.warn("Journal entry at " + start + " is corrupt, replay stops there");
+                buffer.position(start);
+                return;
+            }
+            String[] fields = new String(payload, StandardCharsets.UTF_8).split("\t", -1);
+            progress.computeIfAbsent(fields[0], key -> new Progress()).apply(
+                    IngestStage.valueOf(fields[1]), fields[2], fields[3], Integer.parseInt(fields[4]));
+        }
+    }
+
+    public static String key(StorageObject object) {
+        return object.getBucket() + "/" + object.getName() + "#" + object.getGeneration();
+    }
+
+    /**
+     * Replayed state of {@code object}, or null if the journal has never seen it.
+     */
+    public Progress progress(StorageObject object) {
+        return progress.get(key(object));
+    }
+
+    public CompletableFuture<Void> record(StorageObject object, IngestStage stage) {
+        return record(object, stage, "", "", 0);
+    }
+
+    /**
+     * Appends a transition. The returned future completes once the entry is on disk.
+     */
+    public CompletableFuture<Void> record(StorageObject object, IngestStage stage, String table, String jobId, int attempt) {
+        if (!properties.isEnabled()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String key = key(object);
+        progress.computeIfAbsent(key, k -> new Progress()).apply(stage, table, jobId, attempt);
+        byte[] payload = String.join("\t", key, stage.name(), table, jobId, Integer.toString(attempt))
+                .getBytes(StandardCharsets.UTF_8);
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        synchronized (appendLock) {
+            if (buffer.remaining() < ENTRY_HEADER + payload.length) {
+                compact();
+            }
+            write(buffer, payload);
+            waiting.add(durable);
+        }
+        return durable;
+    }
+
+    private static void write(MappedByteBuffer target, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        target.putInt(payload.length);
+        target.putInt((int) crc.getValue());
+        target.put(payload);
+    }
+
+    private void flush() {
+        List<CompletableFuture<Void>> batch;
+        MappedByteBuffer mapped;
+        synchronized (appendLock) {
+            if (waiting.isEmpty()) {
+                return;
+            }
+            batch = waiting;
+            waiting = new ArrayList<>();
+            mapped = buffer;
+        }
+        mapped.force();
+        for (CompletableFuture<Void> durable : batch) {
+            durable.complete(null);
+        }
+    }
+
+    /**
+     * Rewrites the journal with the state of objects that are not finished yet. Called with
+     * {@code appendLock} held.
+     */
+    private void compact() {
+        Path path = Paths.get(properties.getPath());
+        Path tmp = Paths.get(properties.getPath() + ".tmp");
+        try {
+            Files.deleteIfExists(tmp);
+            try (FileChannel tmpChannel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer compacted = tmpChannel.map(FileChannel.MapMode.READ_WRITE, 0, properties.getFileSize());
+                progress.entrySet().removeIf(entry -> entry.getValue().isDeleted());
+                for (Map.Entry<String, Progress> entry : progress.entrySet()) {
+                    for (String line : live(entry.getKey(), entry.getValue())) {
+                        write(compacted, line.getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+                compacted.force();
+            }
+            buffer.force();
+            channel.close();
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            map(path);
+            replayPosition();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to compact journal " + path, e);
+        }
+        if (buffer.remaining() < properties.getFileSize() / 4) {
+            log.warn("Journal is still " + buffer.position() + " bytes after compaction; raise load.journal.file-size");
+        }
+    }
+
+    private void replayPosition() {
+        buffer.position(0);
+        while (buffer.remaining() >= ENTRY_HEADER) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length <= 0) {
+                buffer.position(start);
+                return;
+            }
+            buffer.position(start + ENTRY_HEADER + length);
+        }
+    }
+
+    private static List<String> live(String key, Progress state) {
+        List<String> lines = new ArrayList<>();
+        synchronized (state) {
+            if (state.fetched) {
+                lines.add(String.join("\t", key, IngestStage.FETCHED.name(), "", "", "0"));
+            }
+            for (Map.Entry<String, String> job : state.jobIds.entrySet()) {
+                lines.add(String.join("\t", key, IngestStage.JOB_SUBMITTED.name(), job.getKey(), job.getValue(),
+                        Integer.toString(state.attempts.getOrDefault(job.getKey(), 0))));
+            }
+            for (String table : state.committed) {
+                lines.add(String.join("\t", key, IngestStage.COMMITTED.name(), table, "", "0"));
+            }
+        }
+        return lines;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (flusher == null) {
+            return;
+        }
+        flusher.shutdown();
+        flush();
+        channel.close();
+    }
+}
@@ -0,0 +1,275 @@
+package example.gcp.service.utils;
+
+import example.gcp.service.StorageObject;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs ingest work on a fixed pool of workers fed from per-size lanes, so a burst of small files
+ * is not stuck behind a few multi-gigabyte uploads. Workers pick lanes by stride scheduling
+ * weighted by each lane's share; a task that has waited longer than the aging threshold is taken
+ * first regardless of its lane, so large files are never starved. Objects are admitted by
+ * {@link IngestAdmission} before they are queued, so the bytes waiting or running stay within the
+ * in-flight budget.
+ */
+@Component
+@Slf4j
+public class IngestScheduler {
+    private static final long STRIDE_SCALE = 1_000_000L;
+
+    private final class Lane {
+        private final String name;
+        private final Long maxSize;
+        private final long stride;
+        private final ArrayDeque<Task<?>> queue = new ArrayDeque<>();
+        private final Timer waitTimer;
+        private final Timer executionTimer;
+        private long pass;
+
+        private Lane(IngestSchedulerProperties.Lane config, MeterRegistry registry) {
+            this.name = config.getName();
+            this.maxSize = config.getMaxSize();
+            this.stride = STRIDE_SCALE / Math.max(1, config.getShare());
+            Gauge.builder("ingest.lane.queue.depth", this, Lane::depth)
+                    .tag("lane", name)
+                    .register(registry);
+            this.waitTimer = Timer.builder("ingest.lane.wait").tag("lane", name).register(registry);
+            this.executionTimer = Timer.builder("ingest.lane.execution").tag("lane", name).register(registry);
+        }
+
+        private int depth() {
+            lock.lock();
+            try {
+                return queue.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class Task<T> {
+        private final Callable<T> callable;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final long enqueuedAt = System.nanoTime();
+        private Lane lane;
+
+        private Task(Callable<T> callable) {
+            this.callable = callable;
+        }
+    }
+
+    private final List<Lane> lanes = new ArrayList<>();
+    private final long agingThresholdNanos;
+    private final RoutingTable routingTable;
+    private final IngestAdmission ingestAdmission;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final List<Thread> workers = new ArrayList<>();
+    private long globalPass;
+    private volatile boolean running = true;
+
+    @Autowired
+    public IngestScheduler(IngestSchedulerProperties properties, RoutingTable routingTable,
+                           IngestAdmission ingestAdmission, MeterRegistry registry) {
+        if (properties.getLanes().isEmpty()) {
+            throw new IllegalArgumentException("load.scheduler.lanes must not be empty");
+        }
+        for (IngestSchedulerProperties.Lane lane : properties.getLanes()) {
+            lanes.add(new Lane(lane, registry));
+        }
+        this.agingThresholdNanos = properties.getAgingThreshold().toNanos();
+        this.routingTable = routingTable;
+        this.ingestAdmission = ingestAdmission;
+        for (int i = 0; i < properties.getWorkers(); i++) {
+            Thread worker = new Thread(this::work, "ingest-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Admits {@code object}, queues {@code task} in its lane and blocks until it has run. Runtime
+     * exceptions thrown by the task are rethrown unchanged so callers see the original failure.
+     *
+     * @throws example.gcp.service.AdmissionRejectedException if the in-flight budget has no room
+     *                                                        for the object in time
+     * @throws RejectedExecutionException                     if the scheduler shuts down before
+     *                                                        the task has run
+     */
+    public <T> T execute(StorageObject object, Callable<T> task) throws InterruptedException {
+        Task<T> queued = new Task<>(task);
+        IngestAdmission.Permit permit = ingestAdmission.admit(object);
+        // Released when the task finishes, not when the caller stops waiting for it.
+        queued.result.whenComplete((result, error) -> permit.close());
+        enqueue(laneFor(object), queued);
+        try {
+            return queued.result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Ingest task failed for " + object.getUri(), e.getCause());
+        }
+    }
+
+    private Lane laneFor(StorageObject object) {
+        Route route = routingTable.isEmpty() ? null : routingTable.match(object.getBucket(), object.getName());
+        if (route != null && route.getLane() != null) {
+            for (Lane lane : lanes) {
+                if (lane.name.equals(route.getLane())) {
+                    return lane;
+                }
+            }
+            log.warn("Route " + route.getId() + " names unknown lane " + route.getLane());
+        }
+        Long size = object.getSize();
+        if (size != null) {
+            for (Lane lane : lanes) {
+                if (lane.maxSize == null || size <= lane.maxSize) {
+                    return lane;
+                }
+            }
+        }
+        // Unknown sizes are treated as large rather than allowed to jump the small-file lane.
+        return lanes.get(lanes.size() - 1);
+    }
+
+    private void enqueue(Lane lane, Task<?> task) {
+        lock.lock();
+        try {
+            if (!running) {
+                task.result.completeExceptionally(new RejectedExecutionException("Ingest scheduler is shut down"));
+                return;
+            }
+            if (lane.queue.isEmpty()) {
+                // A lane returning from idle must not bank the turns it skipped.
+                lane.pass = Math.max(lane.pass, globalPass);
+            }
+            task.lane = lane;
+            lane.queue.addLast(task);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Task<?> next() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                Task<?> task = pick();
+                if (task != null) {
+                    return task;
+                }
+                notEmpty.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Task<?> pick() {
+        long now = System.nanoTime();
+        Lane chosen = null;
+        long oldestOverdue = Long.MAX_VALUE;
+        for (Lane lane : lanes) {
+            Task<?> head = lane.queue.peekFirst();
+            if (head != null && now - head.enqueuedAt >= agingThresholdNanos && head.enqueuedAt < oldestOverdue) {
+                chosen = lane;
+                oldestOverdue = head.enqueuedAt;
+            }
+        }
+        if (chosen == null) {
+            for (Lane lane : lanes) {
+                if (!lane.queue.isEmpty() && (chosen == null || lane.pass < chosen.pass)) {
+                    chosen = lane;
+                }
+            }
+        }
+        if (chosen == null) {
+            return null;
+        }
+        globalPass = Math.max(globalPass, chosen.pass);
+        chosen.pass += chosen.stride;
+        return chosen.queue.pollFirst();
+    }
+
+    private void work() {
+        while (running) {
+            Task<?> task;
+            try {
+                task = next();
+            } catch (InterruptedException e) {
+                return;
+            }
+            run(task);
+        }
+    }
+
+    private <T> void run(Task<T> task) {
+        long started = System.nanoTime();
+        task.lane.waitTimer.record(started - task.enqueuedAt, TimeUnit.NANOSECONDS);
+        try {
+            task.result.complete(task.callable.call());
+        } catch (Throwable t) {
+            task.result.completeExceptionally(t);
+        } finally {
+            task.lane.executionTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public int queueDepth() {
+        lock.lock();
+        try {
+            int depth = 0;
+            for (Lane lane : lanes) {
+                depth += lane.queue.size();
+            }
+            return depth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the workers and fails every task still queued, so callers blocked in
+     * {@link #execute} return and their admission permits are released.
+     */
+    @PreDestroy
+    public void shutdown() {
+        List<Task<?>> abandoned = new ArrayList<>();
+        lock.lock();
+        try {
+            running = false;
+            for (Lane lane : lanes) {
+                abandoned.addAll(lane.queue);
+                lane.queue.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Task<?> task : abandoned) {
+            task.result.completeExceptionally(new RejectedExecutionException("Ingest scheduler is shut down"));
+        }
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+}
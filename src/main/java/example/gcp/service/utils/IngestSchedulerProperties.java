@@ -0,0 +1,42 @@
+package example.gcp.service.utils;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@Component
+@ConfigurationProperties(prefix = "load.scheduler")
+@Data
+public class IngestSchedulerProperties {
+    private int workers = 8;
+    private Duration agingThreshold = Duration.ofSeconds(30);
+    private List<Lane> lanes = new ArrayList<>(Arrays.asList(
+            new Lane("small", 16L * 1024 * 1024, 6),
+            new Lane("medium", 512L * 1024 * 1024, 3),
+            new Lane("large", null, 1)));
+
+    /**
+     * Objects up to {@code maxSize} bytes (inclusive) go to the first lane that fits; a lane
+     * without {@code maxSize} takes everything else. {@code share} is the lane's relative
+     * weight when workers pick the next task.
+     */
+    @Data
+    public static class Lane {
+        private String name;
+        private Long maxSize;
+        private int share = 1;
+
+        public Lane() {}
+
+        public Lane(String name, Long maxSize, int share) {
+            this.name = name;
+            this.maxSize = maxSize;
+            this.share = share;
+        }
+    }
+}
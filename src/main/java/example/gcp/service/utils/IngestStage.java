@@ -0,0 +1,11 @@
+package example.gcp.service.utils;
+
+/**
+ * Stage transitions recorded in the {@link IngestJournal} for one object generation.
+ */
+public enum IngestStage {
+    FETCHED,
+    JOB_SUBMITTED,
+    COMMITTED,
+    DELETED
+}
@@ -0,0 +1,139 @@
+package example.gcp.service.utils;
+
+import example.gcp.service.StorageObject;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.context.propagation.ContextPropagators;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import io.opentelemetry.exporter.logging.LoggingSpanExporter;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SdkTracerProviderBuilder;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Spans for the ingest path. The span of a notification continues the trace found in the
+ * {@code traceparent}/{@code tracestate} attributes of its Pub/Sub message, if any; the stages it
+ * runs (GCS reads, schema extraction, load job submit and wait, deletion) are its children.
+ */
+@Component
+public class IngestTracing {
+    public static final AttributeKey<String> BUCKET = AttributeKey.stringKey("gcs.bucket");
+    public static final AttributeKey<String> OBJECT = AttributeKey.stringKey("gcs.object");
+    public static final AttributeKey<Long> GENERATION = AttributeKey.longKey("gcs.generation");
+    public static final AttributeKey<Long> OBJECT_SIZE = AttributeKey.longKey("gcs.object.size");
+    public static final AttributeKey<String> SCHEMA_FINGERPRINT = AttributeKey.stringKey("avro.schema.fingerprint");
+    public static final AttributeKey<String> TABLE = AttributeKey.stringKey("bigquery.table");
+    public static final AttributeKey<String> JOB_ID = AttributeKey.stringKey("bigquery.job.id");
+
+    private static final String INSTRUMENTATION = "example.gcp";
+
+    private static final TextMapGetter<Map<String, String>> ATTRIBUTES = new TextMapGetter<Map<String, String>>() {
+        @Override
+        public Iterable<String> keys(Map<String, String> carrier) {
+            return carrier.keySet();
+        }
+
+        @Override
+        public String get(Map<String, String> carrier, String key) {
+            return carrier == null ? null : carrier.get(key);
+        }
+    };
+
+    private final OpenTelemetry openTelemetry;
+    private final Tracer tracer;
+
+    @Autowired
+    public IngestTracing(TracingProperties properties) {
+        this(create(properties));
+    }
+
+    public IngestTracing(OpenTelemetry openTelemetry) {
+        this.openTelemetry = openTelemetry;
+        this.tracer = openTelemetry.getTracer(INSTRUMENTATION);
+    }
+
+    private static OpenTelemetry create(TracingProperties properties) {
+        if (!properties.isEnabled()) {
+            return OpenTelemetry.noop();
+        }
+        SdkTracerProviderBuilder tracerProvider = SdkTracerProvider.builder();
+        if ("logging".equals(properties.getExporter())) {
+            tracerProvider.addSpanProcessor(BatchSpanProcessor.builder(new LoggingSpanExporter()).build());
+        } else if (!"none".equals(properties.getExporter())) {
+            throw new IllegalArgumentException("Unknown load.tracing.exporter " + properties.getExporter());
+        }
+        return OpenTelemetrySdk.builder()
+                .setTracerProvider(tracerProvider.build())
+                .setPropagators(ContextPropagators.create(W3CTraceContextPropagator.getInstance()))
+                .build();
+    }
+
+    /**
+     * Starts the root span of one notification, as a child of the trace carried by {@code attributes}.
+     */
+    public Span startIngest(String name, StorageObject object, Map<String, String> attributes) {
+        Context parent = openTelemetry.getPropagators().getTextMapPropagator()
+                .extract(Context.root(), attributes, ATTRIBUTES);
+        Span span = tracer.spanBuilder(name)
+                .setParent(parent)
+                .setSpanKind(SpanKind.CONSUMER)
+                .setAttribute(BUCKET, object.getBucket())
+                .setAttribute(OBJECT, object.getName())
+                .startSpan();
+        if (object.getGeneration() != null) {
+            span.setAttribute(GENERATION, object.getGeneration());
+        }
+        if (object.getSize() != null) {
+            span.setAttribute(OBJECT_SIZE, object.getSize());
+        }
+        return span;
+    }
+
+    /**
+     * Starts a child of the current span.
+     */
+    public Span start(String name) {
+        return tracer.spanBuilder(name).startSpan();
+    }
+
+    /**
+     * Runs {@code stage} in a child span of the current span, recording any exception it throws.
+     */
+    public <T> T inSpan(String name, Function<Span, T> stage) {
+        Span span = start(name);
+        try (Scope ignored = span.makeCurrent()) {
+            return stage.apply(span);
+        } catch (RuntimeException e) {
+            failed(span, e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (openTelemetry instanceof OpenTelemetrySdk) {
+            ((OpenTelemetrySdk) openTelemetry).getSdkTracerProvider().shutdown();
+        }
+    }
+
+    public static void failed(Span span, Throwable e) {
+        span.recordException(e);
+        span.setStatus(StatusCode.ERROR);
+    }
+}
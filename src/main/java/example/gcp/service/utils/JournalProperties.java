@@ -0,0 +1,17 @@
+package example.gcp.service.utils;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Component
+@ConfigurationProperties(prefix = "load.journal")
+@Data
+public class JournalProperties {
+    private boolean enabled = false;
+    private String path = "/tmp/ingest.journal";
+    private int fileSize = 64 * 1024 * 1024;
+    private Duration flushInterval = Duration.ofMillis(5);
+}
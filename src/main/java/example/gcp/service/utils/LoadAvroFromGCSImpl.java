@@ -1,137 +1,746 @@
 package example.gcp.service.utils;
 
+import com.google.cloud.ReadChannel;
 import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryError;
 import com.google.cloud.bigquery.BigQueryException;
-import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.Field;
 import com.google.cloud.bigquery.FormatOptions;
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.InsertAllResponse;
 import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobConfiguration;
+import com.google.cloud.bigquery.JobId;
 import com.google.cloud.bigquery.JobInfo;
 import com.google.cloud.bigquery.LoadJobConfiguration;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import com.google.cloud.bigquery.StandardTableDefinition;
 import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableInfo;
 import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
-import com.google.cloud.storage.StorageOptions;
-import example.gcp.Client;
+import com.google.common.hash.Hashing;
+import example.gcp.service.BackendUnavailableException;
 import example.gcp.service.LoadAvroFromGCS;
-import example.gcp.service.utils.AvroToBigQueryHelper;
-import lombok.Data;
+import example.gcp.service.QuotaExhaustedException;
+import example.gcp.service.RouteBusyException;
+import example.gcp.service.StorageObject;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Scope;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.avro.Schema;
-import org.apache.avro.file.DataFileReader;
-import org.apache.avro.file.SeekableByteArrayInput;
-import org.apache.avro.io.DatumReader;
-import org.apache.avro.specific.SpecificDatumReader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Predicate;
 
 @Service
-@Data
 @Slf4j
 public class LoadAvroFromGCSImpl implements LoadAvroFromGCS {
     private static final String TABLE_AVRO_ALL = "avro_all";
     private static final String TABLE_AVRO_NON_OPTIONAL = "avro_non_optional";
-    private String datasetName = "bq_load_avro";
-    private String bucketName = "spring-bucket-programoleg1";
-    private static Schema schemaAll = null;
-    private static com.google.cloud.bigquery.Schema schemaBQNonOptional = null;
-    private BigQuery bigquery = BigQueryOptions.getDefaultInstance().getService();
-    private Storage storage = StorageOptions.getDefaultInstance().getService();
-
-    private Blob getBlob(String name, Long generation) {
-        BlobId blobId = BlobId.of(bucketName, name, generation);
+    private static final int HTTP_CONFLICT = 409;
+    private static final String QUOTA_EXCEEDED = "quotaExceeded";
+    private static final String RATE_LIMIT_EXCEEDED = "rateLimitExceeded";
+    private static final String INSERT_ALL = "insertAll";
+    private static final int INSERT_ALL_ROWS = 500;
+    private static final String QUARANTINE_REASON = "quarantine-reason";
+    private static final Duration STAGING_TTL = Duration.ofDays(1);
+    private final String datasetName;
+    private final String bucketName;
+    private final BigQuery bigquery;
+    private final Storage storage;
+    private final RoutingTable routingTable;
+    private final AvroTranscoder avroTranscoder;
+    private final CompactionProperties compactionProperties;
+    private final IngestJournal ingestJournal;
+    private final LoadJobQuotaGovernor loadJobQuotaGovernor;
+    private final IngestTracing ingestTracing;
+    private final BackendGuards backendGuards;
+    private final AvroContainerValidator avroContainerValidator;
+
+    /**
+     * {@code bucketName} and {@code datasetName} are the source and destination used when no
+     * routes are configured.
+     */
+    @Autowired
+    public LoadAvroFromGCSImpl(@Lazy Storage storage, @Lazy BigQuery bigquery,
+                               @Value("${load.default-bucket:spring-bucket-programoleg1}") String bucketName,
+                               @Value("${load.default-dataset:bq_load_avro}") String datasetName,
+                               RoutingTable routingTable, AvroTranscoder avroTranscoder,
+                               CompactionProperties compactionProperties, IngestJournal ingestJournal,
+                               LoadJobQuotaGovernor loadJobQuotaGovernor, IngestTracing ingestTracing,
+                               BackendGuards backendGuards, AvroContainerValidator avroContainerValidator) {
+        this.storage = storage;
+        this.bigquery = bigquery;
+        this.bucketName = bucketName;
+        this.datasetName = datasetName;
+        this.routingTable = routingTable;
+        this.avroTranscoder = avroTranscoder;
+        this.compactionProperties = compactionProperties;
+        this.ingestJournal = ingestJournal;
+        this.loadJobQuotaGovernor = loadJobQuotaGovernor;
+        this.ingestTracing = ingestTracing;
+        this.backendGuards = backendGuards;
+        this.avroContainerValidator = avroContainerValidator;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    private Blob getBlob(StorageObject object) {
+        BlobId blobId = BlobId.of(object.getBucket(), object.getName(), object.getGeneration());
         log.info("blobId: " + blobId);
-        return storage.get(blobId);
+        return ingestTracing.inSpan("gcs.getBlob", span -> {
+            Blob blob = backendGuards.getGcs().read("get", () -> storage.get(blobId));
+            if (blob != null && blob.getSize() != null) {
+                span.setAttribute(IngestTracing.OBJECT_SIZE, blob.getSize());
+            }
+            return blob;
+        });
     }
 
     public boolean load(String name, Long generation) {
-        Blob blob = getBlob(name, generation);
+        return load(new StorageObject(bucketName, name, generation));
+    }
+
+    public boolean load(StorageObject object) {
+        if (isOwnOutput(object)) {
+            log.info("Ignoring notification for transcoded or compacted object " + object.getUri());
+            return true;
+        }
+        Route route = route(object);
+        if (route == null) {
+            log.warn("No route for " + object.getUri());
+            return false;
+        }
+        if (!routingTable.tryAcquire(route)) {
+            throw new RouteBusyException("Route " + route.getId() + " is at its concurrency limit");
+        }
+        try {
+            return load(object, route);
+        } finally {
+            routingTable.release(route);
+        }
+    }
+
+    private boolean load(StorageObject object, Route route) {
+        IngestJournal.Progress progress = ingestJournal.progress(object);
+        if (progress != null && progress.isDeleted()) {
+            log.info("Object " + object.getUri() + " was already ingested");
+            return true;
+        }
+        List<TableId> tables = pendingTables(object, route);
+        if (tables.isEmpty()) {
+            // Every table committed before the object could be deleted; nothing to download.
+            return deleteObject(object);
+        }
+        Blob blob = getBlob(object);
         log.info("blob: " + blob);
+        if (blob == null) {
+            log.warn("Object " + object.getUri() + " no longer exists, nothing to load");
+            return true;
+        }
+        ingestJournal.record(object, IngestStage.FETCHED);
+
+        // Taken before the download, so a route out of budget refuses redeliveries cheaply; given
+        // back if the object turns out to need no job.
+        acquireQuota(tables);
+        boolean submitting = false;
+        try {
+            // Not hedged: a second download of the whole object would sit outside the admission budget.
+            byte[] content = backendGuards.getGcs().call(blob::getContent);
+            String problem = validate(object, content);
+            if (problem != null) {
+                return quarantine(object, problem);
+            }
+            Schema schema = readSchema(content);
+            if (schema == null) {
+                log.warn("Object " + object.getUri() + " is not an Avro container file");
+                return false;
+            }
+            submitting = true;
+            return load(object, route, content, schema);
+        } finally {
+            if (!submitting) {
+                loadJobQuotaGovernor.release(tables);
+            }
+        }
+    }
+
+    private Schema readSchema(byte[] content) {
+        return ingestTracing.inSpan("avro.schema", span -> {
+            Schema writer = getSchemaAll(new ByteArrayInputStream(content));
+            if (writer != null) {
+                span.setAttribute(IngestTracing.SCHEMA_FINGERPRINT,
+                        Long.toHexString(GenericRecordReaders.fingerprint(writer)));
+            }
+            return writer;
+        });
+    }
+
+    private boolean load(StorageObject object, Route route, byte[] content, Schema schema) {
+        AvroTranscoder.Result transcoded = transcode(object, content);
+        StorageObject source = transcoded == null ? object : transcoded.getTarget();
+        try {
+            return load(LoadContext.of(object, source, route, schema)) && deleteObject(object);
+        } finally {
+            if (transcoded != null) {
+                deleteObject(transcoded.getTarget());
+            }
+        }
+    }
+
+    /**
+     * Appends the rows of {@code object} with streaming inserts instead of load jobs, for files
+     * too small to be worth a load job from the daily budget. Insert ids are derived from the
+     * object generation, table and row, so BigQuery drops rows of a retried file on a best-effort
+     * basis.
+     */
+    public boolean loadStreaming(StorageObject object) {
+        if (isOwnOutput(object)) {
+            log.info("Ignoring notification for transcoded or compacted object " + object.getUri());
+            return true;
+        }
+        Route route = route(object);
+        if (route == null) {
+            log.warn("No route for " + object.getUri());
+            return false;
+        }
+        if (!routingTable.tryAcquire(route)) {
+            throw new RouteBusyException("Route " + route.getId() + " is at its concurrency limit");
+        }
+        try {
+            return loadStreaming(object, route);
+        } finally {
+            routingTable.release(route);
+        }
+    }
+
+    private boolean loadStreaming(StorageObject object, Route route) {
+        IngestJournal.Progress progress = ingestJournal.progress(object);
+        if (progress != null && progress.isDeleted()) {
+            log.info("Object " + object.getUri() + " was already ingested");
+            return true;
+        }
+        Blob blob = getBlob(object);
+        if (blob == null) {
+            log.warn("Object " + object.getUri() + " no longer exists, nothing to load");
+            return true;
+        }
+        ingestJournal.record(object, IngestStage.FETCHED);
+        byte[] content = backendGuards.getGcs().call(blob::getContent);
+        String problem = validate(object, content);
+        if (problem != null) {
+            return quarantine(object, problem);
+        }
+        try {
+            Schema schema = GenericRecordReaders.readSchema(new ByteArrayInputStream(content));
+            for (TableId tableId : pendingTables(object, route)) {
+                boolean nonOptional = route.getLoadPolicy().loadsNonOptional()
+                        && tableId.getTable().equals(route.getTableNonOptional());
+                ColumnarRowBatch batch = ColumnarRowBatch.of(schema, nonOptional);
+                GenericRecordReaders.forEach(new ByteArrayInputStream(content), null, batch::append);
+                if (!insertAll(object, tableId, batch)) {
+                    return false;
+                }
+            }
+        } catch (BackendUnavailableException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Streaming insert of " + object.getUri() + " failed \n" + e.toString());
+            return false;
+        }
+        return deleteObject(object);
+    }
+
+    /**
+     * Loads {@code object} with another engine, under the same guards as {@link #load}: the
+     * route's concurrency limit, the journal, container validation and the load job budget. The
+     * container is validated as a stream, since files sent to other engines may be too large to
+     * hold. The object is deleted once {@code engine} has loaded it.
+     */
+    public boolean loadWith(StorageObject object, Predicate<StorageObject> engine, String description) {
+        if (isOwnOutput(object)) {
+            log.info("Ignoring notification for transcoded or compacted object " + object.getUri());
+            return true;
+        }
+        Route route = route(object);
+        if (route == null) {
+            log.warn("No route for " + object.getUri());
+            return false;
+        }
+        if (!routingTable.tryAcquire(route)) {
+            throw new RouteBusyException("Route " + route.getId() + " is at its concurrency limit");
+        }
+        try {
+            IngestJournal.Progress progress = ingestJournal.progress(object);
+            if (progress != null && progress.isDeleted()) {
+                log.info("Object " + object.getUri() + " was already ingested");
+                return true;
+            }
+            if (getBlob(object) == null) {
+                log.warn("Object " + object.getUri() + " no longer exists, nothing to load");
+                return true;
+            }
+            ingestJournal.record(object, IngestStage.FETCHED);
+            String problem = validateStored(object);
+            if (problem != null) {
+                return quarantine(object, problem);
+            }
+            List<TableId> tables = pendingTables(object, route);
+            if (tables.isEmpty()) {
+                return deleteObject(object);
+            }
+            acquireQuota(object, route);
+            if (!engine.test(object)) {
+                log.warn(description + " load of " + object.getUri() + " failed");
+                return false;
+            }
+            for (TableId tableId : tables) {
+                ingestJournal.record(object, IngestStage.COMMITTED, tableId.getDataset() + "." + tableId.getTable(),
+                        description, 0);
+            }
+            return deleteObject(object);
+        } finally {
+            routingTable.release(route);
+        }
+    }
+
+    private boolean insertAll(StorageObject object, TableId tableId, ColumnarRowBatch batch) {
+        String table = tableId.getDataset() + "." + tableId.getTable();
+        for (int from = 0; from < batch.size(); from += INSERT_ALL_ROWS) {
+            InsertAllRequest.Builder request = InsertAllRequest.newBuilder(tableId);
+            int to = Math.min(batch.size(), from + INSERT_ALL_ROWS);
+            for (int row = from; row < to; row++) {
+                request.addRow(insertId(object, table, row), batch.toTableRow(row));
+            }
+            InsertAllResponse response = ingestTracing.inSpan("bigquery.insertAll", span -> {
+                span.setAttribute(IngestTracing.TABLE, table);
+                return backendGuards.getBigquery().call(() -> bigquery.insertAll(request.build()));
+            });
+            if (response.hasErrors()) {
+                log.warn("Streaming insert into " + table + " failed: " + response.getInsertErrors());
+                return false;
+            }
+        }
+        ingestJournal.record(object, IngestStage.COMMITTED, table, INSERT_ALL, 0);
+        log.info(batch.size() + " rows of " + object.getUri() + " streamed into " + table);
+        return true;
+    }
+
+    private static String insertId(StorageObject object, String table, int row) {
+        return Hashing.sha256()
+                .hashString(IngestJournal.key(object) + "|" + table + "|" + row, StandardCharsets.UTF_8)
+                .toString().substring(0, 32);
+    }
 
-        SeekableByteArrayInput input = new SeekableByteArrayInput(blob.getContent());
+    /**
+     * Loads a file merged by {@link SmallFileCompactor} into the tables of {@code route} and deletes
+     * its members once both loads have committed. The merged file itself is always removed.
+     */
+    public boolean loadCompacted(StorageObject merged, Schema schema, Route route, List<StorageObject> members) {
+        if (!routingTable.tryAcquire(route)) {
+            // The members are still in the bucket and are merged again on redelivery.
+            deleteObject(merged);
+            throw new RouteBusyException("Route " + route.getId() + " is at its concurrency limit");
+        }
+        try {
+            acquireQuota(merged, route);
+            boolean loaded = load(LoadContext.of(merged, merged, route, schema));
+            if (loaded) {
+                for (StorageObject member : members) {
+                    deleteObject(member);
+                }
+            }
+            return loaded;
+        } finally {
+            routingTable.release(route);
+            deleteObject(merged);
+        }
+    }
+
+    /**
+     * Loads {@code objects}, which share {@code schema} and {@code route}, with one multi-URI load
+     * job per table and deletes them once both are committed. {@code batch} names the set in the
+     * journal and in job ids, so it must be derived from the members. Every member is validated
+     * first; invalid ones are quarantined and the batch fails without a job, so that the caller
+     * retries the remaining members under a name derived from them.
+     */
+    public boolean loadBatch(StorageObject batch, List<StorageObject> objects, Schema schema, Route route) {
+        if (!routingTable.tryAcquire(route)) {
+            throw new RouteBusyException("Route " + route.getId() + " is at its concurrency limit");
+        }
+        try {
+            int quarantined = 0;
+            for (StorageObject object : objects) {
+                String problem = validateStored(object);
+                if (problem != null) {
+                    quarantine(object, problem);
+                    quarantined++;
+                }
+            }
+            if (quarantined > 0) {
+                log.warn("Quarantined " + quarantined + " of " + objects.size() + " objects of " + batch.getUri()
+                        + ", not loading the batch");
+                return false;
+            }
+            acquireQuota(batch, route);
+            List<String> sourceUris = new ArrayList<>();
+            for (StorageObject object : objects) {
+                sourceUris.add(object.getUri());
+            }
+            boolean loaded = load(LoadContext.of(batch, sourceUris, route, schema));
+            if (loaded) {
+                for (StorageObject object : objects) {
+                    deleteObject(object);
+                }
+                ingestJournal.record(batch, IngestStage.DELETED);
+            }
+            return loaded;
+        } finally {
+            routingTable.release(route);
+        }
+    }
+
+    /**
+     * True if the journal has seen {@code object}: a load of it is in flight, or committed some of
+     * its tables before stopping.
+     */
+    public boolean isStarted(StorageObject object) {
+        return ingestJournal.progress(object) != null;
+    }
+
+    /**
+     * True for objects written by the transcoding or compaction stages, which are loaded by the
+     * stage that wrote them.
+     */
+    public boolean isOwnOutput(StorageObject object) {
+        return avroTranscoder.isTranscoded(object)
+                || (compactionProperties.isEnabled() && object.getName().startsWith(compactionProperties.getPrefix()))
+                || object.getName().startsWith(avroContainerValidator.getQuarantinePrefix());
+    }
+
+    /**
+     * Runs the {@link AvroContainerValidator} over {@code content} when validation is enabled.
+     *
+     * @return what is wrong with the container, or null if it is intact
+     */
+    public String validate(StorageObject object, byte[] content) {
+        return validate(object, new ByteArrayInputStream(content));
+    }
 
-        schemaAll = getSchemaAll(input);
-        schemaBQNonOptional = getSchemaBQNonOptional();
+    /**
+     * Validates {@code object} as a stream read from GCS, for objects that are not held in memory.
+     */
+    private String validateStored(StorageObject object) {
+        if (!avroContainerValidator.isEnabled()) {
+            return null;
+        }
+        try (ReadChannel reader = storage.reader(BlobId.of(object.getBucket(), object.getName(), object.getGeneration()))) {
+            return validate(object, Channels.newInputStream(reader));
+        }
+    }
+
+    private String validate(StorageObject object, InputStream content) {
+        if (!avroContainerValidator.isEnabled()) {
+            return null;
+        }
+        return ingestTracing.inSpan("avro.validate", span -> {
+            try {
+                AvroContainerValidator.Summary summary = avroContainerValidator.validate(content);
+                log.info("Object " + object.getUri() + " is a valid container of " + summary.getRecords()
+                        + " records in " + summary.getBlocks() + " blocks");
+                return null;
+            } catch (AvroContainerValidator.InvalidContainerException e) {
+                return e.getMessage();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Moves a corrupt or truncated object under the quarantine prefix of its bucket, with the
+     * problem in its metadata, before any job is submitted for it. Loading it again could never
+     * succeed, so the notification is acknowledged once the object has been moved.
+     */
+    public boolean quarantine(StorageObject object, String problem) {
+        log.warn("Object " + object.getUri() + " is not a valid Avro container, quarantining it: " + problem);
+        BlobInfo target = BlobInfo.newBuilder(object.getBucket(), avroContainerValidator.getQuarantinePrefix() + object.getName())
+                .setMetadata(Collections.singletonMap(QUARANTINE_REASON,
+                        problem.length() > 1024 ? problem.substring(0, 1024) : problem))
+                .build();
+        Storage.CopyRequest copy = Storage.CopyRequest.newBuilder()
+                .setSource(BlobId.of(object.getBucket(), object.getName(), object.getGeneration()))
+                .setTarget(target)
+                .build();
+        ingestTracing.inSpan("gcs.quarantine", span -> backendGuards.getGcs().call(() -> storage.copy(copy).getResult()));
+        return deleteObject(object);
+    }
+
+    /**
+     * Takes one load job from the budget of each table {@code object} still has to be loaded into.
+     */
+    private void acquireQuota(StorageObject object, Route route) {
+        acquireQuota(pendingTables(object, route));
+    }
+
+    private void acquireQuota(List<TableId> tables) {
+        if (!loadJobQuotaGovernor.tryAcquire(tables)) {
+            throw new QuotaExhaustedException("Load job quota for " + tables + " is exhausted");
+        }
+    }
+
+    /**
+     * Destination tables of {@code route} under its load policy.
+     */
+    public List<TableId> tables(Route route) {
+        List<TableId> tables = new ArrayList<>();
+        if (route.getLoadPolicy().loadsAll()) {
+            tables.add(TableId.of(route.getDataset(), route.getTableAll()));
+        }
+        if (route.getLoadPolicy().loadsNonOptional()) {
+            tables.add(TableId.of(route.getDataset(), route.getTableNonOptional()));
+        }
+        return tables;
+    }
+
+    private List<TableId> pendingTables(StorageObject object, Route route) {
+        List<TableId> tables = tables(route);
+        IngestJournal.Progress progress = ingestJournal.progress(object);
+        if (progress != null) {
+            tables.removeIf(tableId -> progress.isCommitted(tableId.getDataset() + "." + tableId.getTable()));
+        }
+        return tables;
+    }
 
-        return runLoadAvroFromGCS(name) && runLoadAvroFromGCSNonOptionalFields(name) && deleteObject(name);
+    /**
+     * Transcodes the already downloaded {@code content} of {@code object}. Transcoding only saves
+     * bytes, so any failure falls back to loading the original object.
+     */
+    private AvroTranscoder.Result transcode(StorageObject object, byte[] content) {
+        try {
+            return avroTranscoder.transcode(storage, object, new ByteArrayInputStream(content));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Transcoding " + object.getUri() + " failed, loading the original \n" + e.toString());
+            return null;
+        }
     }
 
-    private com.google.cloud.bigquery.Schema getSchemaBQNonOptional() {
-        List<com.google.cloud.bigquery.Field> fieldsBQ = new ArrayList<>();
-        for (Schema.Field f : schemaAll.getFields()) {
-            if (f.schema().isNullable()) {
-                continue;
+    /**
+     * Without configured routes the service keeps its historical behaviour: objects in
+     * {@code bucketName} go to {@code datasetName}.
+     */
+    public Route route(StorageObject object) {
+        if (routingTable.isEmpty()) {
+            if (!bucketName.equals(object.getBucket())) {
+                return null;
             }
-            com.google.cloud.bigquery.Field fieldBQ = com.google.cloud.bigquery.Field.of(f.name(), AvroToBigQueryHelper.convertAvroFieldTypeToBigQueryFieldType(f));
-            fieldsBQ.add(fieldBQ);
+            Route route = new Route(bucketName, "", datasetName);
+            route.setMaxConcurrency(Integer.MAX_VALUE);
+            return route;
         }
-        return com.google.cloud.bigquery.Schema.of(fieldsBQ);
+        return routingTable.match(object.getBucket(), object.getName());
     }
 
-    private Schema getSchemaAll(SeekableByteArrayInput input) {
+    private Schema getSchemaAll(InputStream input) {
         try {
-            DatumReader<Client> datumReader = new SpecificDatumReader<>();
-            DataFileReader<Client> dataFileReader = new DataFileReader<>(input, datumReader);
-            return dataFileReader.getSchema();
+            return GenericRecordReaders.readSchema(input);
         } catch (IOException e) {
             System.out.println(e.getMessage());
         }
         return null;
     }
 
-    private boolean runLoadAvroFromGCS(String name) {
-        String sourceUri = "gs://" + bucketName + "/" + name;
-        return loadAvroFromGCS(datasetName, TABLE_AVRO_ALL, sourceUri);
+    /**
+     * Loads the context's sources into the tables its route's load policy names.
+     */
+    private boolean load(LoadContext context) {
+        LoadPolicy policy = context.getRoute().getLoadPolicy();
+        return (!policy.loadsAll() || loadAvroFromGCS(context))
+                && (!policy.loadsNonOptional() || loadAvroNonOptionalFields(context));
     }
 
-    private boolean runLoadAvroFromGCSNonOptionalFields(String name) {
-        String sourceUri = "gs://" + bucketName + "/" + name;
-        return loadAvroNonOptionalFields(datasetName, TABLE_AVRO_NON_OPTIONAL, sourceUri);
-    }
+    private boolean loadAvroFromGCS(LoadContext context) {
+        Route route = context.getRoute();
+        TableId tableId = TableId.of(route.getDataset(), route.getTableAll());
 
-    private boolean loadAvroFromGCS(String datasetName, String tableName, String sourceUri) {
-        try {
-            TableId tableId = TableId.of(datasetName, tableName);
+        // Logical types load as the columns AvroBigQueryTypes maps them to, rather than as their
+        // underlying INTEGER or BYTES.
+        LoadJobConfiguration loadConfig = LoadJobConfiguration.newBuilder(tableId, context.getSourceUris())
+                .setFormatOptions(FormatOptions.avro())
+                .setUseAvroLogicalTypes(true)
+                .build();
 
-            LoadJobConfiguration loadConfig = LoadJobConfiguration.of(tableId, sourceUri, FormatOptions.avro());
+        if (route.isUpsert()) {
+            List<String> columns = new ArrayList<>();
+            for (Schema.Field field : context.getSchema().getFields()) {
+                columns.add(field.name());
+            }
+            return upsert(context, loadConfig, columns, "Avro all");
+        }
+        return runLoadJob(context.getObject(), loadConfig, "Avro all");
+    }
 
-            Job job = bigquery.create(JobInfo.of(loadConfig));
-            job = job.waitFor();
-            if (job.isDone()) {
-                log.info("Avro all from GCS successfully loaded in a table");
-                return true;
-            } else {
-                log.warn("BigQuery was unable to load into the table due to an error:" + job.getStatus().getError());
-                return false;
+    private boolean loadAvroNonOptionalFields(LoadContext context) {
+        Route route = context.getRoute();
+        TableId tableId = TableId.of(route.getDataset(), route.getTableNonOptional());
+        LoadJobConfiguration loadConfig = LoadJobConfiguration.newBuilder(tableId, context.getSourceUris())
+                .setFormatOptions(FormatOptions.avro())
+                .setUseAvroLogicalTypes(true)
+                .setSchema(context.getNonOptionalSchema())
+                .build();
+
+        if (route.isUpsert()) {
+            List<String> columns = new ArrayList<>();
+            for (Field field : context.getNonOptionalSchema().getFields()) {
+                columns.add(field.getName());
             }
-        } catch (BigQueryException | InterruptedException e) {
-            log.warn("Column not added during load append \n" + e.toString());
+            return upsert(context, loadConfig, columns, "Avro non optional");
+        }
+        return runLoadJob(context.getObject(), loadConfig, "Avro non optional");
+    }
+
+    /**
+     * Loads the batch into a staging table of its own and merges it into the destination of
+     * {@code loadConfig} on the route's upsert key, so re-sent or corrected rows replace the rows
+     * they repeat instead of accumulating as duplicates. The staging table is named after the
+     * batch and overwritten by each load, so a retried batch reuses it, and it is kept until the
+     * merge has succeeded. It is created with an expiration before anything is loaded into it, so
+     * a batch whose merge never succeeds does not leave it behind.
+     */
+    private boolean upsert(LoadContext context, LoadJobConfiguration loadConfig, List<String> columns,
+                           String description) {
+        StorageObject object = context.getObject();
+        Route route = context.getRoute();
+        TableId target = loadConfig.getDestinationTable();
+        String table = target.getDataset() + "." + target.getTable();
+        if (!columns.containsAll(route.getUpsertKey()) || !columns.contains(route.getUpsertOrderBy())) {
+            log.warn("Upsert key " + route.getUpsertKey() + " or order column " + route.getUpsertOrderBy()
+                    + " is not among the columns of " + object.getUri() + " loaded into " + table);
             return false;
         }
+        IngestJournal.Progress progress = ingestJournal.progress(object);
+        if (progress != null && progress.isCommitted(table)) {
+            log.info(description + " already merged into " + table + " for " + object.getUri());
+            return true;
+        }
+        TableId staging = TableId.of(target.getDataset(), stagingTable(object, target));
+        createStaging(staging);
+        LoadJobConfiguration stagingConfig = loadConfig.toBuilder()
+                .setDestinationTable(staging)
+                .setCreateDisposition(JobInfo.CreateDisposition.CREATE_IF_NEEDED)
+                .setWriteDisposition(JobInfo.WriteDisposition.WRITE_TRUNCATE)
+                .build();
+        if (!runLoadJob(object, stagingConfig, description + " staging")) {
+            return false;
+        }
+        QueryJobConfiguration merge = QueryJobConfiguration.newBuilder(
+                UpsertScript.of(target, staging, columns, route, STAGING_TTL))
+                .setUseLegacySql(false)
+                .build();
+        return runJob(object, target, merge, description + " merge");
     }
 
-    private boolean loadAvroNonOptionalFields(String datasetName, String tableName, String sourceUri) {
+    private void createStaging(TableId staging) {
+        TableInfo info = TableInfo.newBuilder(staging, StandardTableDefinition.newBuilder().build())
+                .setExpirationTime(System.currentTimeMillis() + STAGING_TTL.toMillis())
+                .build();
         try {
-            if (schemaBQNonOptional == null) {
-                schemaBQNonOptional = getSchemaBQNonOptional();
+            backendGuards.getBigquery().call(() -> bigquery.create(info));
+        } catch (BigQueryException e) {
+            if (e.getCode() != HTTP_CONFLICT) {
+                throw e;
             }
+            // Left by an earlier attempt at this batch, which already gave it an expiration.
+        }
+    }
+
+    private static String stagingTable(StorageObject object, TableId target) {
+        return target.getTable() + "_staging_" + Hashing.sha256()
+                .hashString(IngestJournal.key(object) + "|" + target.getTable(), StandardCharsets.UTF_8)
+                .toString().substring(0, 16);
+    }
 
-            TableId tableId = TableId.of(datasetName, tableName);
-            LoadJobConfiguration loadConfig = LoadJobConfiguration.newBuilder(tableId, sourceUri)
-                    .setFormatOptions(FormatOptions.avro())
-                    .setSchema(schemaBQNonOptional)
-                    .build();
+    /**
+     * Runs a load job for {@code object} unless the journal shows it already committed. A job
+     * submitted before a restart is waited for instead of submitted again. Job ids are derived
+     * from the object generation, table and attempt, so a submission whose journal entry never
+     * reached disk is found again by id rather than duplicated. A job found by id that has already
+     * failed is not the answer to a retry, so the next attempt's id is tried instead; this also
+     * lets failed files load again when the journal is disabled.
+     */
+    private boolean runLoadJob(StorageObject object, LoadJobConfiguration loadConfig, String description) {
+        return runJob(object, loadConfig.getDestinationTable(), loadConfig, description);
+    }
 
-            Job job = bigquery.create(JobInfo.of(loadConfig));
-            job = job.waitFor();
-            if (job.isDone()) {
-                log.info("Avro non optional from GCS successfully loaded in a table");
+    /**
+     * Runs {@code config} as the job that commits {@code object} into {@code tableId}, with the
+     * journal and job id handling described at {@link #runLoadJob}.
+     */
+    private boolean runJob(StorageObject object, TableId tableId, JobConfiguration config, String description) {
+        String table = tableId.getDataset() + "." + tableId.getTable();
+        IngestJournal.Progress progress = ingestJournal.progress(object);
+        if (progress != null && progress.isCommitted(table)) {
+            log.info(description + " already loaded into " + table + " for " + object.getUri());
+            return true;
+        }
+        try {
+            Job job = null;
+            if (progress != null && progress.getJobId(table) != null) {
+                job = backendGuards.getBigquery().call(() -> bigquery.getJob(JobId.of(progress.getJobId(table))));
+                if (job != null && job.isDone() && job.getStatus().getError() != null) {
+                    job = null;
+                }
+            }
+            int attempt = progress == null ? 1 : progress.getAttempts(table) + 1;
+            while (job == null) {
+                JobId jobId = JobId.of(jobId(object, table, attempt));
+                ingestJournal.record(object, IngestStage.JOB_SUBMITTED, table, jobId.getJob(), attempt);
+                try {
+                    job = submit(jobId, config, table);
+                    break;
+                } catch (BigQueryException e) {
+                    if (e.getCode() != HTTP_CONFLICT) {
+                        reportQuota(tableId, e.getError());
+                        throw e;
+                    }
+                    Job existing = backendGuards.getBigquery().call(() -> bigquery.getJob(jobId));
+                    if (existing == null || !existing.isDone() || existing.getStatus().getError() == null) {
+                        job = existing;
+                        break;
+                    }
+                    attempt++;
+                    log.info("Job " + jobId.getJob() + " for " + table + " already failed, submitting attempt " + attempt);
+                }
+            }
+            job = waitFor(job, table);
+            if (job != null && job.getStatus().getError() == null) {
+                ingestJournal.record(object, IngestStage.COMMITTED, table, job.getJobId().getJob(), 0);
+                log.info(description + " from GCS successfully loaded in a table");
                 return true;
             } else {
-                log.warn("BigQuery was unable to load into the table due to an error:" + job.getStatus().getError());
+                if (job != null) {
+                    reportQuota(tableId, job.getStatus().getError());
+                }
+                log.warn("BigQuery was unable to load into the table due to an error:"
+                        + (job == null ? "job not found" : job.getStatus().getError()));
                 return false;
             }
         } catch (BigQueryException | InterruptedException e) {
@@ -140,9 +749,56 @@ public class LoadAvroFromGCSImpl implements LoadAvroFromGCS {
         }
     }
 
-    private boolean deleteObject(String objectName) {
-        if (storage.delete(bucketName, objectName)) {
-            log.info("Object " + objectName + " was deleted from " + bucketName);
+    private Job submit(JobId jobId, JobConfiguration config, String table) {
+        return ingestTracing.inSpan("bigquery.load.submit", span -> {
+            span.setAttribute(IngestTracing.TABLE, table);
+            span.setAttribute(IngestTracing.JOB_ID, jobId.getJob());
+            return backendGuards.getBigquery().call(
+                    () -> bigquery.create(JobInfo.newBuilder(config).setJobId(jobId).build()));
+        });
+    }
+
+    private Job waitFor(Job job, String table) throws InterruptedException {
+        if (job == null) {
+            return null;
+        }
+        Span span = ingestTracing.start("bigquery.load.wait");
+        span.setAttribute(IngestTracing.TABLE, table);
+        span.setAttribute(IngestTracing.JOB_ID, job.getJobId().getJob());
+        try (Scope ignored = span.makeCurrent()) {
+            return job.waitFor();
+        } catch (InterruptedException | RuntimeException e) {
+            IngestTracing.failed(span, e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    private void reportQuota(TableId tableId, BigQueryError error) {
+        if (error == null) {
+            return;
+        }
+        if (QUOTA_EXCEEDED.equals(error.getReason())) {
+            loadJobQuotaGovernor.exhausted(tableId, true);
+        } else if (RATE_LIMIT_EXCEEDED.equals(error.getReason())) {
+            loadJobQuotaGovernor.exhausted(tableId, false);
+        }
+    }
+
+    private static String jobId(StorageObject object, String table, int attempt) {
+        return "ingest_" + Hashing.sha256()
+                .hashString(IngestJournal.key(object) + "|" + table + "|" + attempt, StandardCharsets.UTF_8)
+                .toString().substring(0, 40);
+    }
+
+    public boolean deleteObject(StorageObject object) {
+        boolean deleted = ingestTracing.inSpan("gcs.delete",
+                span -> backendGuards.getGcs().call(
+                        () -> storage.delete(BlobId.of(object.getBucket(), object.getName(), object.getGeneration()))));
+        if (deleted) {
+            log.info("Object " + object.getName() + " was deleted from " + object.getBucket());
+            ingestJournal.record(object, IngestStage.DELETED);
             return true;
         }
         log.warn("Deletion unsuccessful");
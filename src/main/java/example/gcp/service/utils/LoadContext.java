@@ -0,0 +1,45 @@
+package example.gcp.service.utils;
+
+import com.google.cloud.bigquery.Field;
+import example.gcp.service.StorageObject;
+import lombok.Value;
+import org.apache.avro.Schema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything one load needs, fixed before its first job is submitted: the object the journal and
+ * job ids are keyed on, the URIs to load, the route, and the writer schema with the BigQuery
+ * schema of its non-optional fields. Built per request, so concurrent loads of files with
+ * different schemas share no mutable state.
+ */
+@Value
+public class LoadContext {
+    StorageObject object;
+    List<String> sourceUris;
+    Route route;
+    Schema schema;
+    com.google.cloud.bigquery.Schema nonOptionalSchema;
+
+    public static LoadContext of(StorageObject object, List<String> sourceUris, Route route, Schema schema) {
+        return new LoadContext(object, Collections.unmodifiableList(new ArrayList<>(sourceUris)), route, schema,
+                nonOptionalSchema(schema));
+    }
+
+    public static LoadContext of(StorageObject object, StorageObject source, Route route, Schema schema) {
+        return of(object, Collections.singletonList(source.getUri()), route, schema);
+    }
+
+    private static com.google.cloud.bigquery.Schema nonOptionalSchema(Schema schema) {
+        List<Field> fieldsBQ = new ArrayList<>();
+        for (Schema.Field f : schema.getFields()) {
+            if (f.schema().isNullable()) {
+                continue;
+            }
+            fieldsBQ.add(AvroToBigQueryHelper.convertAvroFieldToBigQueryField(f));
+        }
+        return com.google.cloud.bigquery.Schema.of(fieldsBQ);
+    }
+}
@@ -1,49 +1,109 @@
 package example.gcp.service.utils;
 
+import com.google.api.services.bigquery.model.TableFieldSchema;
 import com.google.api.services.bigquery.model.TableReference;
 import com.google.api.services.bigquery.model.TableRow;
 import com.google.api.services.bigquery.model.TableSchema;
-import com.google.cloud.bigquery.BigQuery;
-import com.google.cloud.bigquery.BigQueryOptions;
-import com.google.cloud.bigquery.Schema;
+import com.google.api.services.dataflow.Dataflow;
+import com.google.api.services.dataflow.model.Job;
+import com.google.api.services.dataflow.model.LaunchTemplateParameters;
 import example.gcp.Client;
 import example.gcp.service.LoadAvroFromGCS;
+import example.gcp.service.StorageObject;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.specific.SpecificRecord;
 import org.apache.beam.runners.dataflow.DataflowRunner;
+import org.apache.beam.runners.dataflow.options.DataflowPipelineDebugOptions;
 import org.apache.beam.runners.dataflow.options.DataflowPipelineOptions;
+import org.apache.beam.runners.direct.DirectRunner;
 import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.PipelineResult;
+import org.apache.beam.sdk.coders.AvroCoder;
 import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.io.AvroIO;
+import org.apache.beam.sdk.io.FileSystems;
+import org.apache.beam.sdk.io.fs.MatchResult;
+import org.apache.beam.sdk.io.gcp.bigquery.AvroWriteRequest;
+import org.apache.beam.sdk.io.gcp.bigquery.BigQueryHelpers;
 import org.apache.beam.sdk.io.gcp.bigquery.BigQueryIO;
+import org.apache.beam.sdk.io.gcp.bigquery.DynamicDestinations;
+import org.apache.beam.sdk.io.gcp.bigquery.TableDestination;
 import org.apache.beam.sdk.io.gcp.bigquery.TableRowJsonCoder;
+import org.apache.beam.sdk.options.Description;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.options.ValueProvider;
+import org.apache.beam.sdk.options.ValueProvider.StaticValueProvider;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.ParDo;
 import org.apache.beam.sdk.transforms.SerializableFunction;
+import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.ValueInSingleWindow;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import static org.apache.beam.sdk.io.gcp.bigquery.BigQueryIO.Write.CreateDisposition.CREATE_IF_NEEDED;
 import static org.apache.beam.sdk.io.gcp.bigquery.BigQueryIO.Write.WriteDisposition.WRITE_APPEND;
 
+/**
+ * Loads Avro files into the two tables with a Beam pipeline. Everything that used to be hard-coded
+ * comes from {@link DataflowProperties}.
+ *
+ * <p>With {@code templateLocation} set, the graph is built and staged once per writer schema as a
+ * classic template and every file is a launch of that template with the file as its
+ * {@code inputFile} parameter, so a launch costs an API call instead of a jar upload and graph
+ * construction. With {@code runner=direct} the same graph runs in process, and with
+ * {@code localDirectory} set it reads objects from that directory instead of GCS.
+ */
+@Component
+@Slf4j
 public class LoadDataflowImpl implements LoadAvroFromGCS {
+    private static final Set<String> TERMINAL_STATES = new HashSet<>(Arrays.asList(
+            "JOB_STATE_DONE", "JOB_STATE_FAILED", "JOB_STATE_CANCELLED", "JOB_STATE_UPDATED", "JOB_STATE_DRAINED"));
 
-    private static String table1 = "avro_all";
-    private static String table2 = "avro_non_optional";
-    private static String datasetName = "bq_load_avro";
-    private static String bucket = "gs://spring-bucket-programoleg1/";
-    private static String projectId = "buoyant-braid-293112";
-    private static String region = "europe-west4";
-    private static String subscription = "cloud-run-spring";
+    /**
+     * Options of the load pipeline; {@code inputFile} is the template parameter.
+     */
+    public interface AvroLoadOptions extends DataflowPipelineOptions {
+        @Description("Avro file or file pattern to load")
+        ValueProvider<String> getInputFile();
 
-    private static String bucketName = "spring-bucket-programoleg1";
+        void setInputFile(ValueProvider<String> value);
+    }
 
-    private static Schema schemaNonOptional = null;
-    private static BigQuery bigquery = BigQueryOptions.getDefaultInstance().getService();
+    private final DataflowProperties properties;
+    private final Set<String> builtTemplates = ConcurrentHashMap.newKeySet();
 
-    private static org.apache.avro.Schema schema;
+    @Autowired
+    public LoadDataflowImpl(DataflowProperties properties) {
+        if (properties.isAvroWrite() && !properties.isSinglePassWrite()) {
+            throw new IllegalArgumentException("load.dataflow.avro-write needs load.dataflow.single-pass-write, "
+                    + "the only graph that writes Avro");
+        }
+        this.properties = properties;
+    }
 
     public static TableRow convertJsonToTableRow(String json) {
         TableRow row;
@@ -58,31 +118,81 @@ public class LoadDataflowImpl implements LoadAvroFromGCS {
         return row;
     }
 
+    /**
+     * Derived once per JVM; the parsers below only refer to them, so nothing is rebuilt per record.
+     */
+    private static final TableSchema CLIENT_TABLE_SCHEMA = BigQueryAvroUtils.getTableSchema(Client.SCHEMA$);
+    private static final TableSchema CLIENT_NON_OPTIONAL_TABLE_SCHEMA =
+            BigQueryAvroUtils.getOnlyNonOptionalTableSchema(Client.SCHEMA$);
+
     private static final SerializableFunction TABLE_ROW_PARSER =
             (SerializableFunction<SpecificRecord, TableRow>) specificRecord -> BigQueryAvroUtils.convertSpecificRecordToTableRow(
-                    specificRecord, BigQueryAvroUtils.getTableSchema(Client.SCHEMA$));
+                    specificRecord, CLIENT_TABLE_SCHEMA);
 
     private static final SerializableFunction NON_OPTIONAL_TABLE_ROW_PARSER =
             (SerializableFunction<SpecificRecord, TableRow>) specificRecord -> BigQueryAvroUtils.convertSpecificRecordToTableRow(
-                    specificRecord, BigQueryAvroUtils.getOnlyNonOptionalTableSchema(Client.SCHEMA$));
+                    specificRecord, CLIENT_NON_OPTIONAL_TABLE_SCHEMA);
 
-    public static boolean pipeline(String name) {
-        TableReference tableReferenceAll = (new TableReference()).setDatasetId(datasetName).setProjectId(projectId).setTableId(table1);
-        TableReference tableReferenceNonOptional = (new TableReference()).setDatasetId(datasetName).setProjectId(projectId).setTableId(table2);
+    public boolean pipeline(String name) {
+        return pipelineFrom("gs://" + properties.getBucket() + "/" + name + ".avro");
+    }
 
-        DataflowPipelineOptions options = PipelineOptionsFactory.as(DataflowPipelineOptions.class);
-        options.setStagingLocation("gs://spring-bucket-programoleg1/staging");
-        options.setTempLocation("gs://spring-bucket-programoleg1/tmp");
-        options.setProject(projectId);
-        options.setRunner(DataflowRunner.class);
-        options.setRegion(region);
+    private boolean pipelineFrom(String sourceUri) {
+        AvroLoadOptions options = options();
+        FileSystems.setDefaultPipelineOptions(options);
+        org.apache.avro.Schema writerSchema = readWriterSchema(sourceUri);
+
+        if (properties.getTemplateLocation() != null && !properties.isDirect()) {
+            return launchTemplate(options, writerSchema, sourceUri);
+        }
+        Pipeline pipeline = build(options, StaticValueProvider.of(sourceUri), writerSchema);
+        PipelineResult.State state = pipeline.run().waitUntilFinish();
+        log.info("Pipeline for " + sourceUri + " finished in state " + state);
+        return state == PipelineResult.State.DONE;
+    }
+
+    private AvroLoadOptions options() {
+        AvroLoadOptions options = PipelineOptionsFactory.as(AvroLoadOptions.class);
+        options.setProject(properties.getProject());
+        options.setRegion(properties.getRegion());
+        options.setTempLocation(properties.getTempLocation());
+        if (properties.isDirect()) {
+            options.setRunner(DirectRunner.class);
+        } else {
+            options.setRunner(DataflowRunner.class);
+            options.setStagingLocation(properties.getStagingLocation());
+        }
+        return options;
+    }
+
+    private Pipeline build(AvroLoadOptions options, ValueProvider<String> source, org.apache.avro.Schema writerSchema) {
+        TableReference tableReferenceAll = new TableReference().setProjectId(properties.getProject())
+                .setDatasetId(properties.getDataset()).setTableId(properties.getTableAll());
+        TableReference tableReferenceNonOptional = new TableReference().setProjectId(properties.getProject())
+                .setDatasetId(properties.getDataset()).setTableId(properties.getTableNonOptional());
 
         Pipeline pipeline = Pipeline.create(options);
 
-        PCollection<Client> records = pipeline.apply("Read Avro files", AvroIO.read(Client.class).from("gs://" + bucketName + "/" + name + ".avro"));
+        if (properties.isSinglePassWrite()) {
+            PCollection<GenericRecord> records = pipeline.apply("Read Avro files",
+                    AvroIO.readGenericRecords(writerSchema).from(source));
+            if (properties.isAvroWrite()) {
+                applyAvroSinglePass(records, writerSchema, tableReferenceAll, tableReferenceNonOptional);
+            } else {
+                applySinglePass(records, writerSchema, tableReferenceAll, tableReferenceNonOptional);
+            }
+            return pipeline;
+        }
 
-        TableSchema ts = BigQueryAvroUtils.getTableSchema(Client.SCHEMA$);
-        TableSchema tsno = BigQueryAvroUtils.getOnlyNonOptionalTableSchema(Client.SCHEMA$);
+        if (GenericRecordReaders.fingerprint(writerSchema) != GenericRecordReaders.fingerprint(Client.SCHEMA$)) {
+            applyGeneric(pipeline, source, writerSchema, tableReferenceAll, tableReferenceNonOptional);
+            return pipeline;
+        }
+
+        PCollection<Client> records = pipeline.apply("Read Avro files", AvroIO.read(Client.class).from(source));
+
+        TableSchema ts = CLIENT_TABLE_SCHEMA;
+        TableSchema tsno = CLIENT_NON_OPTIONAL_TABLE_SCHEMA;
 
         records.apply("Write all to BigQuery",
                 BigQueryIO.writeTableRows()
@@ -100,12 +210,376 @@ public class LoadDataflowImpl implements LoadAvroFromGCS {
                         .withWriteDisposition(WRITE_APPEND)
                         .withFormatFunction(NON_OPTIONAL_TABLE_ROW_PARSER));
 
-        pipeline.run().waitUntilFinish();
-        return true;
+        return pipeline;
+    }
+
+    /**
+     * Launches the template built for the file's writer schema, building and staging it first if
+     * this is the first file with that schema, and waits for the job to finish.
+     */
+    private boolean launchTemplate(AvroLoadOptions options, org.apache.avro.Schema writerSchema, String sourceUri) {
+        String templatePath = properties.getTemplateLocation() + "/"
+                + Long.toHexString(GenericRecordReaders.fingerprint(writerSchema));
+        ensureTemplate(templatePath, writerSchema);
+        Dataflow dataflow = options.as(DataflowPipelineDebugOptions.class).getDataflowClient();
+        try {
+            LaunchTemplateParameters parameters = new LaunchTemplateParameters()
+                    .setJobName("avro-load-" + UUID.randomUUID())
+                    .setParameters(Collections.singletonMap("inputFile", sourceUri));
+            Job job = dataflow.projects().locations().templates()
+                    .launch(properties.getProject(), properties.getRegion(), parameters)
+                    .setGcsPath(templatePath)
+                    .execute()
+                    .getJob();
+            log.info("Launched template " + templatePath + " for " + sourceUri + " as job " + job.getId());
+            String state = waitForJob(dataflow, job.getId());
+            log.info("Job " + job.getId() + " for " + sourceUri + " finished in state " + state);
+            return "JOB_STATE_DONE".equals(state);
+        } catch (IOException e) {
+            log.warn("Template launch for " + sourceUri + " failed \n" + e.toString());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void ensureTemplate(String templatePath, org.apache.avro.Schema writerSchema) {
+        if (builtTemplates.contains(templatePath)) {
+            return;
+        }
+        synchronized (builtTemplates) {
+            if (builtTemplates.contains(templatePath)) {
+                return;
+            }
+            if (!exists(templatePath)) {
+                AvroLoadOptions options = options();
+                options.setTemplateLocation(templatePath);
+                long started = System.nanoTime();
+                build(options, options.getInputFile(), writerSchema).run();
+                log.info("Built template " + templatePath + " in "
+                        + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started) + "s");
+            }
+            builtTemplates.add(templatePath);
+        }
+    }
+
+    private static boolean exists(String path) {
+        try {
+            return FileSystems.match(path).status() == MatchResult.Status.OK;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private String waitForJob(Dataflow dataflow, String jobId) throws IOException, InterruptedException {
+        while (true) {
+            String state = dataflow.projects().locations().jobs()
+                    .get(properties.getProject(), properties.getRegion(), jobId)
+                    .execute()
+                    .getCurrentState();
+            if (TERMINAL_STATES.contains(state)) {
+                return state;
+            }
+            Thread.sleep(properties.getPollInterval().toMillis());
+        }
+    }
+
+    /**
+     * Object path of {@code object} as this pipeline reads it: its GCS URI, or a path under
+     * {@code localDirectory} when one is configured.
+     */
+    private String sourceOf(StorageObject object) {
+        if (properties.getLocalDirectory() != null) {
+            return Paths.get(properties.getLocalDirectory(), object.getName()).toString();
+        }
+        return object.getUri();
+    }
+
+    /**
+     * Reads files of any schema as {@link GenericRecord}s, for writers that have no generated class.
+     */
+    private static void applyGeneric(Pipeline pipeline, ValueProvider<String> source, org.apache.avro.Schema writerSchema,
+                                     TableReference tableReferenceAll, TableReference tableReferenceNonOptional) {
+        PCollection<GenericRecord> records = pipeline.apply("Read generic Avro files",
+                AvroIO.readGenericRecords(writerSchema).from(source));
+
+        records.apply("Write all to BigQuery",
+                BigQueryIO.<GenericRecord>write()
+                        .to(tableReferenceAll)
+                        .withSchema(BigQueryAvroUtils.getTableSchema(writerSchema))
+                        .withCreateDisposition(CREATE_IF_NEEDED)
+                        .withWriteDisposition(WRITE_APPEND)
+                        .withFormatFunction(new GenericRecordToTableRow(writerSchema.toString(), false)));
+
+        records.apply("Write non optional to BigQuery",
+                BigQueryIO.<GenericRecord>write()
+                        .to(tableReferenceNonOptional)
+                        .withSchema(BigQueryAvroUtils.getOnlyNonOptionalTableSchema(writerSchema))
+                        .withCreateDisposition(CREATE_IF_NEEDED)
+                        .withWriteDisposition(WRITE_APPEND)
+                        .withFormatFunction(new GenericRecordToTableRow(writerSchema.toString(), true)));
+    }
+
+    /**
+     * Converts every record into its full row once, derives the non-optional row from it and writes
+     * both to their tables with a single BigQueryIO write keyed by table spec. Each record still
+     * becomes two keyed elements, one per table, so this saves a conversion and a write transform
+     * but not shuffle volume.
+     */
+    private static void applySinglePass(PCollection<GenericRecord> records, org.apache.avro.Schema schema,
+                                        TableReference tableReferenceAll, TableReference tableReferenceNonOptional) {
+        String allSpec = BigQueryHelpers.toTableSpec(tableReferenceAll);
+        String nonOptionalSpec = BigQueryHelpers.toTableSpec(tableReferenceNonOptional);
+        records.apply("Convert to rows per table",
+                ParDo.of(new ToDestinationRows(schema.toString(), allSpec, nonOptionalSpec)))
+                .setCoder(KvCoder.of(StringUtf8Coder.of(), TableRowJsonCoder.of()))
+                .apply("Write all and non optional to BigQuery",
+                        BigQueryIO.<KV<String, TableRow>>write()
+                                .to(new TwoTableDestinations<TableRow>(schema.toString(), allSpec, nonOptionalSpec))
+                                .withFormatFunction(KV::getValue)
+                                .withCreateDisposition(CREATE_IF_NEEDED)
+                                .withWriteDisposition(WRITE_APPEND));
+    }
+
+    /**
+     * Like {@link #applySinglePass}, but BigQueryIO writes its load files as Avro straight from the
+     * records: the all-fields table gets each record as read, the non-optional table its projection
+     * on that table's fields. Logical types are kept, as a load job of the original file would.
+     */
+    private static void applyAvroSinglePass(PCollection<GenericRecord> records, org.apache.avro.Schema schema,
+                                            TableReference tableReferenceAll, TableReference tableReferenceNonOptional) {
+        String allSpec = BigQueryHelpers.toTableSpec(tableReferenceAll);
+        String nonOptionalSpec = BigQueryHelpers.toTableSpec(tableReferenceNonOptional);
+        records.apply("Key by table",
+                ParDo.of(new ToDestinationRecords(allSpec, nonOptionalSpec)))
+                .setCoder(KvCoder.of(StringUtf8Coder.of(), AvroCoder.of(schema)))
+                .apply("Write all and non optional to BigQuery as Avro",
+                        BigQueryIO.<KV<String, GenericRecord>>write()
+                                .to(new TwoTableDestinations<GenericRecord>(schema.toString(), allSpec, nonOptionalSpec))
+                                .withAvroFormatFunction(new ProjectRecord())
+                                .withAvroSchemaFactory(new ProjectWriterSchema(schema.toString()))
+                                .useAvroLogicalTypes()
+                                .withCreateDisposition(CREATE_IF_NEEDED)
+                                .withWriteDisposition(WRITE_APPEND));
+    }
+
+    static class ToDestinationRecords extends DoFn<GenericRecord, KV<String, GenericRecord>> {
+        private final String allSpec;
+        private final String nonOptionalSpec;
+
+        ToDestinationRecords(String allSpec, String nonOptionalSpec) {
+            this.allSpec = allSpec;
+            this.nonOptionalSpec = nonOptionalSpec;
+        }
+
+        @ProcessElement
+        public void processElement(@Element GenericRecord record, OutputReceiver<KV<String, GenericRecord>> out) {
+            out.output(KV.of(allSpec, record));
+            out.output(KV.of(nonOptionalSpec, record));
+        }
+    }
+
+    /**
+     * Avro schema of a destination's load files: the writer schema restricted to the destination
+     * table's top-level fields, in table order. Schemas are cached per worker by field list.
+     */
+    static class ProjectWriterSchema implements SerializableFunction<TableSchema, org.apache.avro.Schema> {
+        private final String avroSchemaJson;
+        private transient org.apache.avro.Schema writerSchema;
+        private transient Map<List<String>, org.apache.avro.Schema> projections;
+
+        ProjectWriterSchema(String avroSchemaJson) {
+            this.avroSchemaJson = avroSchemaJson;
+        }
+
+        @Override
+        public synchronized org.apache.avro.Schema apply(TableSchema tableSchema) {
+            if (writerSchema == null) {
+                writerSchema = new org.apache.avro.Schema.Parser().parse(avroSchemaJson);
+                projections = new HashMap<>();
+            }
+            List<String> names = new ArrayList<>();
+            for (TableFieldSchema field : tableSchema.getFields()) {
+                names.add(field.getName());
+            }
+            return projections.computeIfAbsent(names, this::project);
+        }
+
+        private org.apache.avro.Schema project(List<String> names) {
+            if (names.size() == writerSchema.getFields().size()) {
+                return writerSchema;
+            }
+            List<org.apache.avro.Schema.Field> fields = new ArrayList<>();
+            for (String name : names) {
+                org.apache.avro.Schema.Field field = writerSchema.getField(name);
+                fields.add(new org.apache.avro.Schema.Field(field, field.schema()));
+            }
+            return org.apache.avro.Schema.createRecord(writerSchema.getName(), writerSchema.getDoc(),
+                    writerSchema.getNamespace(), false, fields);
+        }
+    }
+
+    /**
+     * Returns the record itself when the file schema has all its fields, otherwise a copy holding
+     * only the file schema's fields.
+     */
+    static class ProjectRecord
+            implements SerializableFunction<AvroWriteRequest<KV<String, GenericRecord>>, GenericRecord> {
+        @Override
+        public GenericRecord apply(AvroWriteRequest<KV<String, GenericRecord>> request) {
+            GenericRecord record = request.getElement().getValue();
+            org.apache.avro.Schema target = request.getSchema();
+            if (target.getFields().size() == record.getSchema().getFields().size()) {
+                return record;
+            }
+            GenericData.Record projected = new GenericData.Record(target);
+            for (org.apache.avro.Schema.Field field : target.getFields()) {
+                projected.put(field.pos(), record.get(field.name()));
+            }
+            return projected;
+        }
+    }
+
+    /**
+     * Emits the full row of a record keyed by the all-fields table, and its projection on the
+     * non-optional fields keyed by the other table. The projection reuses the converted cells, which
+     * are the same for both tables because non-optional fields are required in both schemas.
+     */
+    static class ToDestinationRows extends DoFn<GenericRecord, KV<String, TableRow>> {
+        private final String avroSchemaJson;
+        private final String allSpec;
+        private final String nonOptionalSpec;
+        private transient TableSchema tableSchema;
+        private transient List<String> nonOptionalFields;
+
+        ToDestinationRows(String avroSchemaJson, String allSpec, String nonOptionalSpec) {
+            this.avroSchemaJson = avroSchemaJson;
+            this.allSpec = allSpec;
+            this.nonOptionalSpec = nonOptionalSpec;
+        }
+
+        @Setup
+        public void setup() {
+            org.apache.avro.Schema schema = new org.apache.avro.Schema.Parser().parse(avroSchemaJson);
+            tableSchema = BigQueryAvroUtils.getTableSchema(schema);
+            nonOptionalFields = new ArrayList<>();
+            for (TableFieldSchema field : BigQueryAvroUtils.getOnlyNonOptionalTableSchema(schema).getFields()) {
+                nonOptionalFields.add(field.getName());
+            }
+        }
+
+        @ProcessElement
+        public void processElement(@Element GenericRecord record, OutputReceiver<KV<String, TableRow>> out) {
+            TableRow row = BigQueryAvroUtils.convertGenericRecordToTableRow(record, tableSchema);
+            TableRow nonOptional = new TableRow();
+            for (String field : nonOptionalFields) {
+                Object value = row.get(field);
+                if (value != null) {
+                    nonOptional.set(field, value);
+                }
+            }
+            out.output(KV.of(allSpec, row));
+            out.output(KV.of(nonOptionalSpec, nonOptional));
+        }
+    }
+
+    /**
+     * Routes rows to the table spec they are keyed by; table schemas are derived once per worker.
+     */
+    static class TwoTableDestinations<V> extends DynamicDestinations<KV<String, V>, String> {
+        private final String avroSchemaJson;
+        private final String allSpec;
+        private final String nonOptionalSpec;
+        private transient TableSchema allSchema;
+        private transient TableSchema nonOptionalSchema;
+
+        TwoTableDestinations(String avroSchemaJson, String allSpec, String nonOptionalSpec) {
+            this.avroSchemaJson = avroSchemaJson;
+            this.allSpec = allSpec;
+            this.nonOptionalSpec = nonOptionalSpec;
+        }
+
+        @Override
+        public String getDestination(ValueInSingleWindow<KV<String, V>> element) {
+            return element.getValue().getKey();
+        }
+
+        @Override
+        public TableDestination getTable(String destination) {
+            return new TableDestination(destination, null);
+        }
+
+        @Override
+        public synchronized TableSchema getSchema(String destination) {
+            if (allSchema == null) {
+                org.apache.avro.Schema schema = new org.apache.avro.Schema.Parser().parse(avroSchemaJson);
+                allSchema = BigQueryAvroUtils.getTableSchema(schema);
+                nonOptionalSchema = BigQueryAvroUtils.getOnlyNonOptionalTableSchema(schema);
+            }
+            if (allSpec.equals(destination)) {
+                return allSchema;
+            }
+            if (nonOptionalSpec.equals(destination)) {
+                return nonOptionalSchema;
+            }
+            throw new IllegalArgumentException("Unknown destination " + destination);
+        }
+    }
+
+    private static org.apache.avro.Schema readWriterSchema(String sourceUri) {
+        try (InputStream in = Channels.newInputStream(
+                FileSystems.open(FileSystems.matchSingleFileSpec(sourceUri).resourceId()))) {
+            return GenericRecordReaders.readSchema(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read Avro header of " + sourceUri, e);
+        }
+    }
+
+    /**
+     * Converts {@link GenericRecord}s using a table schema derived once per worker from the Avro
+     * schema JSON, which is what gets serialized with the function.
+     */
+    static class GenericRecordToTableRow implements SerializableFunction<GenericRecord, TableRow> {
+        private final String avroSchemaJson;
+        private final boolean onlyNonOptional;
+        private transient TableSchema tableSchema;
+
+        GenericRecordToTableRow(String avroSchemaJson, boolean onlyNonOptional) {
+            this.avroSchemaJson = avroSchemaJson;
+            this.onlyNonOptional = onlyNonOptional;
+        }
+
+        @Override
+        public TableRow apply(GenericRecord record) {
+            if (tableSchema == null) {
+                org.apache.avro.Schema schema = new org.apache.avro.Schema.Parser().parse(avroSchemaJson);
+                tableSchema = onlyNonOptional
+                        ? BigQueryAvroUtils.getOnlyNonOptionalTableSchema(schema)
+                        : BigQueryAvroUtils.getTableSchema(schema);
+            }
+            return BigQueryAvroUtils.convertGenericRecordToTableRow(record, tableSchema);
+        }
+    }
+
+    /**
+     * True if the pipeline writes where {@code route} loads: the same dataset and both of its
+     * tables. The pipeline's destinations come from {@link DataflowProperties}, not from routes.
+     */
+    public boolean writesTo(Route route) {
+        return route.getLoadPolicy() == LoadPolicy.ALL_AND_NON_OPTIONAL
+                && properties.getDataset().equals(route.getDataset())
+                && properties.getTableAll().equals(route.getTableAll())
+                && properties.getTableNonOptional().equals(route.getTableNonOptional());
     }
 
     @Override
     public boolean load(String name, Long generation) {
         return pipeline(name);
     }
+
+    @Override
+    public boolean load(StorageObject object) {
+        return pipelineFrom(sourceOf(object));
+    }
 }
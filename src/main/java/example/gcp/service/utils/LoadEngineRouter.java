@@ -0,0 +1,181 @@
+package example.gcp.service.utils;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.BlobId;
+import example.gcp.service.LoadAvroFromGCS;
+import example.gcp.service.StorageObject;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LoadAvroFromGCS} that picks an engine per file: streaming inserts for tiny files, load
+ * jobs for the bulk, and Dataflow for very large files. The choice uses the object size, a row
+ * estimate from the container header, the scheduler's queue depth and each engine's observed
+ * latency. Every decision is counted in {@code load.engine.decisions} by engine and reason.
+ * Dataflow is only chosen for routes whose destination is the one the pipeline writes to, and runs
+ * under the same route, journal, validation and quota guards as a load job. Disabled, every file
+ * goes to load jobs as before.
+ */
+@Component
+@Slf4j
+public class LoadEngineRouter implements LoadAvroFromGCS {
+    private static final int HEADER_CHUNK_SIZE = 64 * 1024;
+
+    public enum Engine {
+        STREAMING, LOAD_JOB, DATAFLOW
+    }
+
+    private final EngineRouterProperties properties;
+    private final LoadAvroFromGCSImpl loadAvroFromGCSImpl;
+    private final LoadDataflowImpl loadDataflowImpl;
+    private final IngestScheduler ingestScheduler;
+    private final MeterRegistry registry;
+    private final Map<Engine, double[]> latencyMillis = new EnumMap<>(Engine.class);
+
+    @Autowired
+    public LoadEngineRouter(EngineRouterProperties properties, LoadAvroFromGCSImpl loadAvroFromGCSImpl,
+                            LoadDataflowImpl loadDataflowImpl, IngestScheduler ingestScheduler,
+                            MeterRegistry registry) {
+        this.properties = properties;
+        this.loadAvroFromGCSImpl = loadAvroFromGCSImpl;
+        this.loadDataflowImpl = loadDataflowImpl;
+        this.ingestScheduler = ingestScheduler;
+        this.registry = registry;
+        for (Engine engine : Engine.values()) {
+            double[] average = new double[1];
+            latencyMillis.put(engine, average);
+            Gauge.builder("load.engine.latency", average, a -> a[0])
+                    .tag("engine", engine.name().toLowerCase())
+                    .baseUnit("milliseconds")
+                    .register(registry);
+        }
+    }
+
+    @Override
+    public boolean load(String name, Long generation) {
+        return loadAvroFromGCSImpl.load(name, generation);
+    }
+
+    @Override
+    public boolean load(StorageObject object) {
+        Engine engine = choose(object);
+        long started = System.nanoTime();
+        boolean loaded = false;
+        try {
+            switch (engine) {
+                case STREAMING:
+                    loaded = loadAvroFromGCSImpl.loadStreaming(object);
+                    break;
+                case DATAFLOW:
+                    loaded = loadAvroFromGCSImpl.loadWith(object, loadDataflowImpl::load, "Dataflow");
+                    break;
+                default:
+                    loaded = loadAvroFromGCSImpl.load(object);
+            }
+            return loaded;
+        } finally {
+            long elapsed = System.nanoTime() - started;
+            observe(engine, TimeUnit.NANOSECONDS.toMillis(elapsed));
+            registry.timer("load.engine.duration", "engine", engine.name().toLowerCase(),
+                    "outcome", loaded ? "loaded" : "failed").record(elapsed, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Chooses the engine for {@code object} and counts the decision.
+     */
+    public Engine choose(StorageObject object) {
+        if (!properties.isEnabled() || object.getSize() == null) {
+            return decide(Engine.LOAD_JOB, "default");
+        }
+        Route route = loadAvroFromGCSImpl.route(object);
+        if (route != null && route.isUpsert()) {
+            // Streaming inserts and Dataflow append; only load jobs go through the staging merge.
+            return decide(Engine.LOAD_JOB, "upsert");
+        }
+        long size = object.getSize();
+        boolean busy = ingestScheduler.queueDepth() >= properties.getBusyQueueDepth()
+                || latency(Engine.LOAD_JOB) > properties.getLoadJobMaxLatency().toMillis();
+        double stretch = busy ? properties.getBusyFactor() : 1.0;
+        String reason = busy ? "busy" : "size";
+
+        if (properties.isDataflowEnabled() && size >= properties.getDataflowMinBytes() / stretch) {
+            if (route == null || !loadDataflowImpl.writesTo(route)) {
+                return decide(Engine.LOAD_JOB, "destination");
+            }
+            if (admit(Engine.DATAFLOW, properties.getDataflowMaxLatency().toMillis())) {
+                return decide(Engine.DATAFLOW, reason);
+            }
+            return decide(Engine.LOAD_JOB, "latency");
+        }
+        if (size <= properties.getStreamingMaxBytes() * stretch) {
+            if (!admit(Engine.STREAMING, properties.getStreamingMaxLatency().toMillis())) {
+                return decide(Engine.LOAD_JOB, "latency");
+            }
+            long rows = estimateRows(object);
+            if (rows < 0 || rows > properties.getStreamingMaxRows() * stretch) {
+                return decide(Engine.LOAD_JOB, "rows");
+            }
+            return decide(Engine.STREAMING, reason);
+        }
+        return decide(Engine.LOAD_JOB, reason);
+    }
+
+    private Engine decide(Engine engine, String reason) {
+        registry.counter("load.engine.decisions", "engine", engine.name().toLowerCase(), "reason", reason).increment();
+        return engine;
+    }
+
+    /**
+     * True while the engine's latency average is within {@code maxMillis}. A refusal decays the
+     * average, so an engine that was slow once is retried after enough skipped files.
+     */
+    private boolean admit(Engine engine, long maxMillis) {
+        double[] average = latencyMillis.get(engine);
+        synchronized (average) {
+            if (average[0] <= maxMillis) {
+                return true;
+            }
+            average[0] *= 1 - properties.getLatencyAlpha();
+            return false;
+        }
+    }
+
+    private void observe(Engine engine, long millis) {
+        double[] average = latencyMillis.get(engine);
+        synchronized (average) {
+            average[0] = average[0] == 0 ? millis
+                    : average[0] + properties.getLatencyAlpha() * (millis - average[0]);
+        }
+    }
+
+    private double latency(Engine engine) {
+        double[] average = latencyMillis.get(engine);
+        synchronized (average) {
+            return average[0];
+        }
+    }
+
+    /**
+     * Row estimate from the first chunk of the object, or -1 when the header cannot be read.
+     */
+    private long estimateRows(StorageObject object) {
+        BlobId blobId = BlobId.of(object.getBucket(), object.getName(), object.getGeneration());
+        try (ReadChannel reader = loadAvroFromGCSImpl.getStorage().reader(blobId)) {
+            reader.setChunkSize(HEADER_CHUNK_SIZE);
+            return GenericRecordReaders.estimateRows(Channels.newInputStream(reader), object.getSize());
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot estimate rows of " + object.getUri() + ": " + e.toString());
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package example.gcp.service.utils;
+
+import com.google.cloud.bigquery.TableId;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Token-bucket governor for BigQuery load jobs, one bucket per destination table. Every job
+ * spends a rate token and one unit of the table's daily budget. As the daily budget runs low the
+ * governor asks batching stages to wait longer, so the remaining jobs carry more data each.
+ */
+@Component
+@Slf4j
+public class LoadJobQuotaGovernor {
+
+    private final class Budget {
+        private final String table;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+        private LocalDate day = today();
+        private int used;
+
+        private Budget(String table) {
+            this.table = table;
+            this.tokens = properties.getBurst();
+            Gauge.builder("bigquery.load.quota.remaining", this, Budget::remaining)
+                    .tag("table", table)
+                    .register(registry);
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(properties.getBurst(), tokens + (now - refilledAt) / 1e9 * properties.getJobsPerSecond());
+            refilledAt = now;
+            LocalDate current = today();
+            if (!current.equals(day)) {
+                day = current;
+                used = 0;
+            }
+        }
+
+        private synchronized double remaining() {
+            refill();
+            return Math.max(0, properties.getDailyJobs() - used);
+        }
+    }
+
+    private final LoadJobQuotaProperties properties;
+    private final MeterRegistry registry;
+    private final ZoneId resetZone;
+    private final Map<String, Budget> budgets = new ConcurrentHashMap<>();
+
+    public LoadJobQuotaGovernor(LoadJobQuotaProperties properties, MeterRegistry registry) {
+        this.properties = properties;
+        this.registry = registry;
+        this.resetZone = ZoneId.of(properties.getResetZone());
+    }
+
+    private LocalDate today() {
+        return LocalDate.now(resetZone);
+    }
+
+    private Budget budget(TableId tableId) {
+        String table = tableId.getDataset() + "." + tableId.getTable();
+        return budgets.computeIfAbsent(table, Budget::new);
+    }
+
+    /**
+     * Takes one job from the budget of every table in {@code tables}, or from none of them.
+     */
+    public boolean tryAcquire(List<TableId> tables) {
+        if (!properties.isEnabled() || tables.isEmpty()) {
+            return true;
+        }
+        Budget[] acquired = new Budget[tables.size()];
+        for (int i = 0; i < tables.size(); i++) {
+            Budget budget = budget(tables.get(i));
+            synchronized (budget) {
+                budget.refill();
+                if (budget.tokens < 1 || budget.used >= properties.getDailyJobs()) {
+                    release(acquired, i);
+                    return false;
+                }
+                budget.tokens -= 1;
+                budget.used++;
+            }
+            acquired[i] = budget;
+        }
+        return true;
+    }
+
+    /**
+     * Gives back the jobs taken by {@link #tryAcquire} for {@code tables} when no job was submitted
+     * after all.
+     */
+    public void release(List<TableId> tables) {
+        if (!properties.isEnabled() || tables.isEmpty()) {
+            return;
+        }
+        Budget[] acquired = new Budget[tables.size()];
+        for (int i = 0; i < tables.size(); i++) {
+            acquired[i] = budget(tables.get(i));
+        }
+        release(acquired, acquired.length);
+    }
+
+    private static void release(Budget[] acquired, int count) {
+        for (int i = 0; i < count; i++) {
+            synchronized (acquired[i]) {
+                acquired[i].tokens += 1;
+                // The day may have rolled over since the job was taken.
+                acquired[i].used = Math.max(0, acquired[i].used - 1);
+            }
+        }
+    }
+
+    /**
+     * Called when BigQuery itself reports a quota or rate limit for {@code tableId}, which means
+     * the configured budget is more generous than the real one.
+     */
+    public void exhausted(TableId tableId, boolean daily) {
+        Budget budget = budget(tableId);
+        synchronized (budget) {
+            budget.refill();
+            budget.tokens = 0;
+            if (daily) {
+                budget.used = Math.max(budget.used, properties.getDailyJobs());
+            }
+        }
+        log.warn("BigQuery reported " + (daily ? "daily quota" : "rate limit") + " exhaustion for " + budget.table);
+    }
+
+    /**
+     * Fraction of the daily budget left for {@code tableId}, between 0 and 1.
+     */
+    public double remainingFraction(TableId tableId) {
+        if (!properties.isEnabled()) {
+            return 1;
+        }
+        return budget(tableId).remaining() / properties.getDailyJobs();
+    }
+
+    /**
+     * Factor by which batching windows for {@code tables} should be stretched: 1 while more than
+     * {@code tightenBelow} of every budget is left, then inversely proportional to what remains.
+     */
+    public double windowMultiplier(List<TableId> tables) {
+        double multiplier = 1;
+        for (TableId table : tables) {
+            double remaining = remainingFraction(table);
+            if (remaining < properties.getTightenBelow()) {
+                multiplier = Math.max(multiplier, remaining <= 0
+                        ? properties.getMaxWindowMultiplier()
+                        : Math.min(properties.getMaxWindowMultiplier(), properties.getTightenBelow() / remaining));
+            }
+        }
+        return multiplier;
+    }
+}
@@ -0,0 +1,24 @@
+package example.gcp.service.utils;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Load job budget per destination table. BigQuery allows 1,500 load jobs per table per day and
+ * limits how fast a table's metadata can be updated; {@code jobsPerSecond} and {@code burst}
+ * shape the rate, {@code dailyJobs} the daily total. Batching windows are widened once less than
+ * {@code tightenBelow} of the daily budget is left, by at most {@code maxWindowMultiplier}.
+ */
+@Component
+@ConfigurationProperties(prefix = "load.quota")
+@Data
+public class LoadJobQuotaProperties {
+    private boolean enabled = true;
+    private int dailyJobs = 1500;
+    private double jobsPerSecond = 0.5;
+    private int burst = 5;
+    private String resetZone = "America/Los_Angeles";
+    private double tightenBelow = 0.5;
+    private double maxWindowMultiplier = 16;
+}
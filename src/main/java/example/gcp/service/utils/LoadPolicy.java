@@ -0,0 +1,18 @@
+package example.gcp.service.utils;
+
+/**
+ * Which destination tables a route loads an object into.
+ */
+public enum LoadPolicy {
+    ALL_AND_NON_OPTIONAL,
+    ALL,
+    NON_OPTIONAL;
+
+    public boolean loadsAll() {
+        return this != NON_OPTIONAL;
+    }
+
+    public boolean loadsNonOptional() {
+        return this != ALL;
+    }
+}
@@ -0,0 +1,227 @@
+package example.gcp.service.utils;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import example.gcp.service.StorageObject;
+import lombok.Value;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a Pub/Sub push request carrying a Cloud Storage notification in one pass. The envelope is
+ * walked with a streaming parser, {@code message.data} is Base64-decoded straight into a buffer
+ * reused by the calling thread, and the notification inside is walked again for the handful of
+ * fields the loader needs. No tree, intermediate {@code String} of the payload or bean is built.
+ */
+public final class PubSubPushParser {
+    public static final String INVALID_MESSAGE = "Bad Request: invalid Pub/Sub message format";
+    public static final String INVALID_DATA =
+            "Error: Invalid Pub/Sub message: data property is not valid base64 encoded JSON";
+    public static final String INVALID_NOTIFICATION =
+            "Error: Invalid Cloud Storage notification: expected name and bucket properties";
+
+    /**
+     * Buffers that grew past this are not kept for the next request.
+     */
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final ThreadLocal<Buffer> BUFFER = ThreadLocal.withInitial(Buffer::new);
+
+    @Value
+    public static class Notification {
+        String messageId;
+        Map<String, String> attributes;
+        StorageObject object;
+        String timeCreated;
+    }
+
+    /**
+     * Thrown for a push that cannot be loaded; the message is suitable for the 400 response.
+     */
+    public static class InvalidPushException extends IllegalArgumentException {
+        public InvalidPushException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private static final class Buffer extends ByteArrayOutputStream {
+        private Buffer() {
+            super(1024);
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+    }
+
+    private PubSubPushParser() {
+    }
+
+    public static Notification parse(byte[] push) {
+        Buffer buffer = BUFFER.get();
+        try {
+            return parse(push, buffer);
+        } finally {
+            buffer.reset();
+            if (buffer.array().length > MAX_RETAINED_BUFFER) {
+                BUFFER.remove();
+            }
+        }
+    }
+
+    private static Notification parse(byte[] push, Buffer data) {
+        String messageId = null;
+        Map<String, String> attributes = Collections.emptyMap();
+        boolean message = false;
+        boolean decoded = false;
+        try (JsonParser parser = JSON.createParser(push)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new InvalidPushException(INVALID_MESSAGE, null);
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (!"message".equals(field) || token != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    continue;
+                }
+                message = true;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String messageField = parser.getCurrentName();
+                    token = parser.nextToken();
+                    if ("data".equals(messageField) && token == JsonToken.VALUE_STRING) {
+                        decode(parser, data);
+                        decoded = true;
+                    } else if ("messageId".equals(messageField) && token == JsonToken.VALUE_STRING) {
+                        messageId = parser.getText();
+                    } else if ("attributes".equals(messageField) && token == JsonToken.START_OBJECT) {
+                        attributes = readAttributes(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new InvalidPushException(INVALID_MESSAGE, e);
+        }
+        if (!message) {
+            throw new InvalidPushException(INVALID_MESSAGE, null);
+        }
+        if (!decoded) {
+            throw new InvalidPushException(INVALID_DATA, null);
+        }
+        return notification(data.array(), data.size(), messageId, attributes);
+    }
+
+    /**
+     * Reads a notification delivered without the push envelope, as a pull subscriber receives it.
+     */
+    public static Notification parseData(byte[] data, String messageId, Map<String, String> attributes) {
+        return notification(data, data.length, messageId, attributes);
+    }
+
+    private static void decode(JsonParser parser, Buffer data) {
+        try {
+            parser.readBinaryValue(Base64Variants.MIME_NO_LINEFEEDS, data);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new InvalidPushException(INVALID_DATA, e);
+        }
+    }
+
+    private static Map<String, String> readAttributes(JsonParser parser) throws IOException {
+        Map<String, String> attributes = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.VALUE_STRING) {
+                attributes.put(key, parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return attributes;
+    }
+
+    private static Notification notification(byte[] data, int length, String messageId,
+                                             Map<String, String> attributes) {
+        String name = null;
+        String bucket = null;
+        Long generation = null;
+        Long size = null;
+        String timeCreated = null;
+        try (JsonParser parser = JSON.createParser(data, 0, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new InvalidPushException(INVALID_DATA, null);
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                switch (field) {
+                    case "name":
+                        name = parser.getValueAsString();
+                        break;
+                    case "bucket":
+                        bucket = parser.getValueAsString();
+                        break;
+                    case "generation":
+                        generation = readLong(parser);
+                        break;
+                    case "size":
+                        size = readLong(parser);
+                        break;
+                    case "timeCreated":
+                        timeCreated = parser.getValueAsString();
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            if (parser.currentToken() != JsonToken.END_OBJECT) {
+                throw new InvalidPushException(INVALID_DATA, null);
+            }
+        } catch (IOException | NumberFormatException e) {
+            throw new InvalidPushException(INVALID_DATA, e);
+        }
+        if (name == null || bucket == null) {
+            throw new InvalidPushException(INVALID_NOTIFICATION, null);
+        }
+        return new Notification(messageId, attributes, new StorageObject(bucket, name, generation, size), timeCreated);
+    }
+
+    /**
+     * Cloud Storage sends 64-bit values as JSON strings; they are parsed from the parser's own
+     * character buffer.
+     */
+    private static Long readLong(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        if (parser.currentToken() != JsonToken.VALUE_STRING) {
+            throw new NumberFormatException("Expected an integer, got " + parser.currentToken());
+        }
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        if (length == 0 || length > 19) {
+            throw new NumberFormatException("Not a long: " + parser.getText());
+        }
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                throw new NumberFormatException("Not a long: " + parser.getText());
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
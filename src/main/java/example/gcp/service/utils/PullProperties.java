@@ -0,0 +1,31 @@
+package example.gcp.service.utils;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Pull delivery of Cloud Storage notifications. {@code subscription} is either a full
+ * {@code projects/<project>/subscriptions/<name>} path or a name in the default project. At most
+ * {@code maxOutstandingMessages} messages and {@code maxOutstandingBytes} bytes are held at once;
+ * ack deadlines of held messages are extended for up to {@code maxAckExtensionPeriod}. Messages
+ * refused for lack of capacity are nacked only after {@code refusedNackDelay}. When
+ * {@code emulatorHost} is set (it defaults to {@code PUBSUB_EMULATOR_HOST}) the subscriber talks
+ * plaintext to a local emulator without credentials.
+ */
+@Component
+@ConfigurationProperties(prefix = "load.pull")
+@Data
+public class PullProperties {
+    private boolean enabled = false;
+    private String subscription;
+    private long maxOutstandingMessages = 8;
+    private long maxOutstandingBytes = 16L * 1024 * 1024;
+    private Duration maxAckExtensionPeriod = Duration.ofMinutes(60);
+    private Duration refusedNackDelay = Duration.ofSeconds(30);
+    private int parallelPullCount = 1;
+    private int executorThreads = 8;
+    private String emulatorHost = System.getenv("PUBSUB_EMULATOR_HOST");
+}
@@ -0,0 +1,181 @@
+package example.gcp.service.utils;
+
+import com.google.api.gax.batching.FlowControlSettings;
+import com.google.api.gax.batching.FlowController;
+import com.google.api.gax.core.InstantiatingExecutorProvider;
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.GrpcTransportChannel;
+import com.google.api.gax.rpc.FixedTransportChannelProvider;
+import com.google.cloud.ServiceOptions;
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
+import com.google.cloud.pubsub.v1.Subscriber;
+import com.google.pubsub.v1.ProjectSubscriptionName;
+import com.google.pubsub.v1.PubsubMessage;
+import example.gcp.service.AdmissionRejectedException;
+import example.gcp.service.BackendUnavailableException;
+import example.gcp.service.QuotaExhaustedException;
+import example.gcp.service.RouteBusyException;
+import example.gcp.service.StorageObject;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Pulls Cloud Storage notifications from a subscription instead of waiting for pushes to
+ * {@code /load}. Flow control caps how many messages are held at once, so the service runs at the
+ * concurrency it is configured for rather than at the rate Pub/Sub delivers. The client library
+ * keeps extending the ack deadline of every held message while its load jobs run.
+ *
+ * <p>A message is acked when its object was loaded or cannot be parsed, and nacked for immediate
+ * redelivery when the load failed. A load refused because the route, the load job budget, the
+ * in-flight budget or a backend has no capacity right now is nacked only after
+ * {@code refusedNackDelay}; redelivering it at once would only read the object and be refused
+ * again. The message keeps its flow control slot meanwhile, so no new work is pulled either.
+ */
+@Component
+@ConditionalOnProperty(prefix = "load.pull", name = "enabled", havingValue = "true")
+@Slf4j
+public class PullSubscriber {
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final PullProperties properties;
+    private final LoadEngineRouter loadEngineRouter;
+    private final IngestScheduler ingestScheduler;
+    private final SmallFileCompactor smallFileCompactor;
+    private final IngestTracing ingestTracing;
+    private final ScheduledExecutorService delayedNacks = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "pull-delayed-nack");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<AckReplyConsumer> refusedMessages = ConcurrentHashMap.newKeySet();
+    private ManagedChannel emulatorChannel;
+    private Subscriber subscriber;
+
+    @Autowired
+    public PullSubscriber(PullProperties properties, LoadEngineRouter loadEngineRouter,
+                          IngestScheduler ingestScheduler, SmallFileCompactor smallFileCompactor,
+                          IngestTracing ingestTracing) {
+        this.properties = properties;
+        this.loadEngineRouter = loadEngineRouter;
+        this.ingestScheduler = ingestScheduler;
+        this.smallFileCompactor = smallFileCompactor;
+        this.ingestTracing = ingestTracing;
+    }
+
+    @PostConstruct
+    public void start() {
+        ProjectSubscriptionName subscription = subscriptionName(properties.getSubscription());
+        Subscriber.Builder builder = Subscriber.newBuilder(subscription, this::receive)
+                .setFlowControlSettings(FlowControlSettings.newBuilder()
+                        .setMaxOutstandingElementCount(properties.getMaxOutstandingMessages())
+                        .setMaxOutstandingRequestBytes(properties.getMaxOutstandingBytes())
+                        .setLimitExceededBehavior(FlowController.LimitExceededBehavior.Block)
+                        .build())
+                .setMaxAckExtensionPeriod(org.threeten.bp.Duration.ofMillis(
+                        properties.getMaxAckExtensionPeriod().toMillis()))
+                .setParallelPullCount(properties.getParallelPullCount())
+                .setExecutorProvider(InstantiatingExecutorProvider.newBuilder()
+                        .setExecutorThreadCount(properties.getExecutorThreads())
+                        .build());
+        if (properties.getEmulatorHost() != null && !properties.getEmulatorHost().isEmpty()) {
+            emulatorChannel = ManagedChannelBuilder.forTarget(properties.getEmulatorHost()).usePlaintext().build();
+            builder.setChannelProvider(FixedTransportChannelProvider.create(GrpcTransportChannel.create(emulatorChannel)))
+                    .setCredentialsProvider(NoCredentialsProvider.create());
+        }
+        subscriber = builder.build();
+        subscriber.startAsync().awaitRunning();
+        log.info("Pulling from " + subscription + " with at most " + properties.getMaxOutstandingMessages()
+                + " messages and " + properties.getMaxOutstandingBytes() + " bytes outstanding");
+    }
+
+    private static ProjectSubscriptionName subscriptionName(String subscription) {
+        if (subscription == null || subscription.isEmpty()) {
+            throw new IllegalStateException("load.pull.subscription must be set when load.pull.enabled is true");
+        }
+        if (ProjectSubscriptionName.isParsableFrom(subscription)) {
+            return ProjectSubscriptionName.parse(subscription);
+        }
+        return ProjectSubscriptionName.of(ServiceOptions.getDefaultProjectId(), subscription);
+    }
+
+    public void receive(PubsubMessage message, AckReplyConsumer consumer) {
+        StorageObject object;
+        try {
+            object = PubSubPushParser.parseData(message.getData().toByteArray(), message.getMessageId(),
+                    message.getAttributesMap()).getObject();
+        } catch (PubSubPushParser.InvalidPushException e) {
+            log.error("Dropping message " + message.getMessageId() + ": " + e.getMessage());
+            consumer.ack();
+            return;
+        }
+        boolean loaded = false;
+        boolean refused = false;
+        Span span = ingestTracing.startIngest("PullSubscriber.receive", object, message.getAttributesMap());
+        try (Scope ignored = span.makeCurrent()) {
+            CompletableFuture<Boolean> compacted = smallFileCompactor.add(object);
+            loaded = compacted != null
+                    ? compacted.get()
+                    : ingestScheduler.execute(object, Context.current().wrap(() -> loadEngineRouter.load(object)));
+        } catch (ExecutionException | RuntimeException e) {
+            IngestTracing.failed(span, e);
+            refused = isRefusal(e instanceof ExecutionException ? e.getCause() : e);
+            log.warn("Load of " + object.getUri() + (refused ? " was refused, message will be redelivered in "
+                    + properties.getRefusedNackDelay() : " failed, message will be redelivered") + " \n" + e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            span.end();
+        }
+        if (loaded) {
+            consumer.ack();
+        } else if (refused) {
+            refusedMessages.add(consumer);
+            delayedNacks.schedule(() -> nackRefused(consumer), properties.getRefusedNackDelay().toMillis(),
+                    TimeUnit.MILLISECONDS);
+        } else {
+            consumer.nack();
+        }
+    }
+
+    private void nackRefused(AckReplyConsumer consumer) {
+        if (refusedMessages.remove(consumer)) {
+            consumer.nack();
+        }
+    }
+
+    private static boolean isRefusal(Throwable e) {
+        return e instanceof QuotaExhaustedException || e instanceof RouteBusyException
+                || e instanceof AdmissionRejectedException || e instanceof BackendUnavailableException;
+    }
+
+    @PreDestroy
+    public void stop() throws TimeoutException {
+        if (subscriber != null) {
+            subscriber.stopAsync().awaitTerminated(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        // Hand refused messages back now rather than leaving them to their ack deadlines.
+        delayedNacks.shutdownNow();
+        refusedMessages.forEach(this::nackRefused);
+        if (emulatorChannel != null) {
+            emulatorChannel.shutdown();
+        }
+    }
+}
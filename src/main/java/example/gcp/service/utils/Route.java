@@ -0,0 +1,44 @@
+package example.gcp.service.utils;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps a bucket/prefix pattern to its destination. {@code bucket} is either an exact bucket
+ * name or a pattern ending in {@code *}; {@code prefix} is matched against the object name.
+ * {@code lane}, when set, pins the route to a scheduler lane instead of choosing one by size.
+ * With {@code upsertKey} set, each batch is merged into its tables on those columns instead of
+ * appended, and {@code upsertOrderBy} is required: of several rows for one key the one with the
+ * greatest value wins, within a batch and against the stored row.
+ */
+@Data
+public class Route {
+    private String bucket;
+    private String prefix = "";
+    private String dataset;
+    private String tableAll = "avro_all";
+    private String tableNonOptional = "avro_non_optional";
+    private LoadPolicy loadPolicy = LoadPolicy.ALL_AND_NON_OPTIONAL;
+    private int maxConcurrency = 4;
+    private String lane;
+    private List<String> upsertKey = new ArrayList<>();
+    private String upsertOrderBy;
+
+    public Route() {}
+
+    public Route(String bucket, String prefix, String dataset) {
+        this.bucket = bucket;
+        this.prefix = prefix;
+        this.dataset = dataset;
+    }
+
+    public String getId() {
+        return bucket + "/" + prefix;
+    }
+
+    public boolean isUpsert() {
+        return upsertKey != null && !upsertKey.isEmpty();
+    }
+}
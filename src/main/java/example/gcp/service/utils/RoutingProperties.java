@@ -0,0 +1,15 @@
+package example.gcp.service.utils;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Component
+@ConfigurationProperties(prefix = "load.routing")
+@Data
+public class RoutingProperties {
+    private List<Route> routes = new ArrayList<>();
+}
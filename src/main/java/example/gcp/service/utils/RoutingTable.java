@@ -0,0 +1,157 @@
+package example.gcp.service.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Resolves a bucket and object name to a {@link Route}. Routes are compiled once into two levels
+ * of character tries: one over bucket patterns and one per bucket pattern over object prefixes,
+ * so a lookup costs one walk over the bucket name and one over the object name regardless of how
+ * many routes are configured.
+ */
+@Component
+@Slf4j
+public class RoutingTable {
+
+    private static final class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private Route route;
+        private Node exactBucket;
+        private Node wildcardBucket;
+
+        private Node child(char c) {
+            return children.computeIfAbsent(c, k -> new Node());
+        }
+    }
+
+    private final Node buckets = new Node();
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+    private final List<Route> routes;
+
+    @Autowired
+    public RoutingTable(RoutingProperties properties) {
+        this(properties.getRoutes());
+    }
+
+    public RoutingTable(List<Route> routes) {
+        this.routes = new ArrayList<>(routes);
+        for (Route route : routes) {
+            add(route);
+        }
+    }
+
+    private void add(Route route) {
+        String pattern = route.getBucket();
+        if (pattern == null || pattern.isEmpty() || route.getDataset() == null) {
+            throw new IllegalArgumentException("Route needs a bucket pattern and a dataset: " + route);
+        }
+        if (route.isUpsert() && (route.getUpsertOrderBy() == null || route.getUpsertOrderBy().isEmpty())) {
+            // Without it, which of several rows for a key is kept would be arbitrary.
+            throw new IllegalArgumentException("Upsert route needs an upsert-order-by column: " + route);
+        }
+        boolean wildcard = pattern.endsWith("*");
+        String literal = wildcard ? pattern.substring(0, pattern.length() - 1) : pattern;
+
+        Node bucketNode = buckets;
+        for (int i = 0; i < literal.length(); i++) {
+            bucketNode = bucketNode.child(literal.charAt(i));
+        }
+        Node prefixes;
+        if (wildcard) {
+            if (bucketNode.wildcardBucket == null) {
+                bucketNode.wildcardBucket = new Node();
+            }
+            prefixes = bucketNode.wildcardBucket;
+        } else {
+            if (bucketNode.exactBucket == null) {
+                bucketNode.exactBucket = new Node();
+            }
+            prefixes = bucketNode.exactBucket;
+        }
+
+        String prefix = route.getPrefix() == null ? "" : route.getPrefix();
+        Node prefixNode = prefixes;
+        for (int i = 0; i < prefix.length(); i++) {
+            prefixNode = prefixNode.child(prefix.charAt(i));
+        }
+        if (prefixNode.route != null) {
+            throw new IllegalArgumentException("Duplicate route for " + route.getId());
+        }
+        prefixNode.route = route;
+        permits.put(route.getId(), new Semaphore(route.getMaxConcurrency()));
+        log.info("Route " + route.getId() + " -> " + route.getDataset());
+    }
+
+    public boolean isEmpty() {
+        return routes.isEmpty();
+    }
+
+    public List<Route> getRoutes() {
+        return routes;
+    }
+
+    /**
+     * Returns the route with the most specific bucket pattern (exact names before wildcards,
+     * longer wildcards before shorter ones) and, within it, the longest matching object prefix.
+     * Returns null when nothing matches.
+     */
+    public Route match(String bucket, String name) {
+        List<Node> candidates = new ArrayList<>();
+        Node node = buckets;
+        if (node.wildcardBucket != null) {
+            candidates.add(node.wildcardBucket);
+        }
+        for (int i = 0; i < bucket.length() && node != null; i++) {
+            node = node.children.get(bucket.charAt(i));
+            if (node != null && node.wildcardBucket != null) {
+                candidates.add(node.wildcardBucket);
+            }
+        }
+        if (node != null && node.exactBucket != null) {
+            candidates.add(node.exactBucket);
+        }
+
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            Route route = longestPrefix(candidates.get(i), name);
+            if (route != null) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    private static Route longestPrefix(Node prefixes, String name) {
+        Route found = prefixes.route;
+        Node node = prefixes;
+        for (int i = 0; i < name.length(); i++) {
+            node = node.children.get(name.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.route != null) {
+                found = node.route;
+            }
+        }
+        return found;
+    }
+
+    public boolean tryAcquire(Route route) {
+        return permitsOf(route).tryAcquire();
+    }
+
+    public void release(Route route) {
+        permitsOf(route).release();
+    }
+
+    private Semaphore permitsOf(Route route) {
+        return permits.computeIfAbsent(route.getId(), id -> new Semaphore(route.getMaxConcurrency()));
+    }
+}
@@ -0,0 +1,429 @@
+package example.gcp.service.utils;
+
+import org.apache.avro.Conversions;
+import org.apache.avro.LogicalTypes;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes BigQuery's JSON text for TIMESTAMP, DATETIME, DATE, TIME, NUMERIC and BYTES values
+ * straight into a caller's char buffer, with no intermediate objects: no {@code LocalDate} or
+ * {@code DateTimeFormatter}, no {@code BigDecimal} for decimals that fit a long, and no copy of
+ * the bytes being Base64-encoded. The {@code write} methods return the offset after the last char
+ * written; the {@code format} methods build one String through a per-thread scratch buffer.
+ *
+ * <p>Output matches what {@link BigQueryAvroUtils} produced with {@code java.time} formatting:
+ * fractions of a second are omitted when zero and otherwise given to the millisecond or, when
+ * needed, the microsecond. The {@code parse} methods read the same text back, along with the
+ * other forms BigQuery writes into JSON.
+ */
+public final class ScalarEncoders {
+    static final long MICROS_PER_DAY = 86_400_000_000L;
+
+    /**
+     * Room for any output of {@link #writeTimestamp}: {@code yyyy-MM-dd HH:mm:ss.SSSSSS UTC} is 30
+     * chars, and the signed six-digit years microseconds in a long can reach add three.
+     */
+    public static final int TIMESTAMP_LENGTH = 33;
+
+    private static final char[] DIGITS = "0123456789".toCharArray();
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final char[] UTC = " UTC".toCharArray();
+
+    private static final Conversions.DecimalConversion DECIMAL_CONVERSION = new Conversions.DecimalConversion();
+    private static final ThreadLocal<char[]> SCRATCH = ThreadLocal.withInitial(() -> new char[64]);
+
+    private ScalarEncoders() {
+    }
+
+    /**
+     * {@code yyyy-MM-dd HH:mm:ss[.fraction] UTC} for microseconds since epoch.
+     */
+    public static int writeTimestamp(long micros, char[] out, int off) {
+        off = writeDatetime(micros, ' ', out, off);
+        System.arraycopy(UTC, 0, out, off, UTC.length);
+        return off + UTC.length;
+    }
+
+    /**
+     * Microseconds since epoch as a UTC wall clock time, with date and time separated by
+     * {@code separator}.
+     */
+    public static int writeDatetime(long micros, char separator, char[] out, int off) {
+        off = writeDate(Math.floorDiv(micros, MICROS_PER_DAY), out, off);
+        out[off++] = separator;
+        return writeTime(Math.floorMod(micros, MICROS_PER_DAY), out, off);
+    }
+
+    /**
+     * {@code yyyy-MM-dd} for days since epoch in the proleptic Gregorian calendar.
+     */
+    public static int writeDate(long days, char[] out, int off) {
+        // Howard Hinnant's days_from_civil inverse, on eras of 400 years starting 0000-03-01.
+        long z = days + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long dayOfEra = z - era * 146_097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1_460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            // Signed and five-digit years are rare enough to go through java.time.
+            return writeString(java.time.LocalDate.ofEpochDay(days).toString(), out, off);
+        }
+        off = writeDigits((int) year, 4, out, off);
+        out[off++] = '-';
+        off = writeDigits(month, 2, out, off);
+        out[off++] = '-';
+        return writeDigits(day, 2, out, off);
+    }
+
+    /**
+     * {@code HH:mm:ss[.fraction]} for microseconds since midnight.
+     */
+    public static int writeTime(long microsOfDay, char[] out, int off) {
+        long seconds = microsOfDay / 1_000_000;
+        int fraction = (int) (microsOfDay % 1_000_000);
+        off = writeDigits((int) (seconds / 3600), 2, out, off);
+        out[off++] = ':';
+        off = writeDigits((int) (seconds / 60 % 60), 2, out, off);
+        out[off++] = ':';
+        off = writeDigits((int) (seconds % 60), 2, out, off);
+        if (fraction == 0) {
+            return off;
+        }
+        out[off++] = '.';
+        if (fraction % 1000 == 0) {
+            return writeDigits(fraction / 1000, 3, out, off);
+        }
+        return writeDigits(fraction, 6, out, off);
+    }
+
+    /**
+     * The plain decimal text of a big-endian two's complement unscaled value, as
+     * {@code BigDecimal.toPlainString} gives it. Does not consume {@code unscaled}.
+     *
+     * @param out must have room for {@link #decimalLength} chars
+     */
+    public static int writeDecimal(ByteBuffer unscaled, LogicalTypes.Decimal decimal, char[] out, int off) {
+        int length = unscaled.remaining();
+        if (length == 0 || length > 8) {
+            return writeString(DECIMAL_CONVERSION.fromBytes(unscaled, null, decimal).toPlainString(), out, off);
+        }
+        int position = unscaled.position();
+        long value = unscaled.get(position);
+        for (int i = 1; i < length; i++) {
+            value = value << 8 | (unscaled.get(position + i) & 0xff);
+        }
+        return writeDecimal(value, decimal.getScale(), out, off);
+    }
+
+    /**
+     * Like {@link #writeDecimal(ByteBuffer, LogicalTypes.Decimal, char[], int)} for a fixed value.
+     */
+    public static int writeDecimal(byte[] unscaled, LogicalTypes.Decimal decimal, char[] out, int off) {
+        if (unscaled.length == 0 || unscaled.length > 8) {
+            return writeString(new java.math.BigDecimal(new java.math.BigInteger(unscaled), decimal.getScale())
+                    .toPlainString(), out, off);
+        }
+        long value = unscaled[0];
+        for (int i = 1; i < unscaled.length; i++) {
+            value = value << 8 | (unscaled[i] & 0xff);
+        }
+        return writeDecimal(value, decimal.getScale(), out, off);
+    }
+
+    private static int writeDecimal(long unscaled, int scale, char[] out, int off) {
+        if (unscaled == Long.MIN_VALUE) {
+            return writeString(java.math.BigDecimal.valueOf(unscaled, scale).toPlainString(), out, off);
+        }
+        if (unscaled < 0) {
+            out[off++] = '-';
+            unscaled = -unscaled;
+        }
+        int digits = digitCount(unscaled);
+        if (scale == 0) {
+            return writeDigits(unscaled, digits, out, off);
+        }
+        int integerDigits = digits - scale;
+        if (integerDigits <= 0) {
+            out[off++] = '0';
+            out[off++] = '.';
+            for (int i = integerDigits; i < 0; i++) {
+                out[off++] = '0';
+            }
+            return writeDigits(unscaled, digits, out, off);
+        }
+        long divisor = POWERS_OF_TEN[scale];
+        off = writeDigits(unscaled / divisor, integerDigits, out, off);
+        out[off++] = '.';
+        return writeDigits(unscaled % divisor, scale, out, off);
+    }
+
+    /**
+     * Chars {@link #writeDecimal} may need for a value of {@code length} bytes.
+     */
+    public static int decimalLength(int length, LogicalTypes.Decimal decimal) {
+        // 19 digits and a sign for a long, and up to scale + 2 for "0." and leading zeros; a
+        // longer value has at most three digits per byte.
+        return (length > 8 ? Math.max(decimal.getPrecision(), 3 * length) : 20) + decimal.getScale() + 2;
+    }
+
+    /**
+     * Standard Base64 with padding of the buffer's remaining bytes. Does not consume {@code bytes}.
+     *
+     * @param out must have room for {@link #base64Length} chars
+     */
+    public static int writeBase64(ByteBuffer bytes, char[] out, int off) {
+        int position = bytes.position();
+        int end = bytes.limit();
+        int i = position;
+        for (; i + 3 <= end; i += 3) {
+            int group = (bytes.get(i) & 0xff) << 16 | (bytes.get(i + 1) & 0xff) << 8 | (bytes.get(i + 2) & 0xff);
+            off = writeGroup(group, 4, out, off);
+        }
+        if (end - i == 1) {
+            off = writeGroup((bytes.get(i) & 0xff) << 16, 2, out, off);
+        } else if (end - i == 2) {
+            off = writeGroup((bytes.get(i) & 0xff) << 16 | (bytes.get(i + 1) & 0xff) << 8, 3, out, off);
+        }
+        return off;
+    }
+
+    public static int writeBase64(byte[] bytes, char[] out, int off) {
+        int i = 0;
+        for (; i + 3 <= bytes.length; i += 3) {
+            off = writeGroup((bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff), 4, out, off);
+        }
+        if (bytes.length - i == 1) {
+            off = writeGroup((bytes[i] & 0xff) << 16, 2, out, off);
+        } else if (bytes.length - i == 2) {
+            off = writeGroup((bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8, 3, out, off);
+        }
+        return off;
+    }
+
+    public static int base64Length(int length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    /**
+     * Writes the first {@code chars} of the four Base64 chars of a 24-bit group, padding the rest.
+     */
+    private static int writeGroup(int group, int chars, char[] out, int off) {
+        out[off] = BASE64[group >>> 18 & 0x3f];
+        out[off + 1] = BASE64[group >>> 12 & 0x3f];
+        out[off + 2] = chars > 2 ? BASE64[group >>> 6 & 0x3f] : '=';
+        out[off + 3] = chars > 3 ? BASE64[group & 0x3f] : '=';
+        return off + 4;
+    }
+
+    public static String formatTimestamp(long micros) {
+        char[] out = scratch(TIMESTAMP_LENGTH);
+        return new String(out, 0, writeTimestamp(micros, out, 0));
+    }
+
+    public static String formatDatetime(long micros) {
+        char[] out = scratch(TIMESTAMP_LENGTH);
+        return new String(out, 0, writeDatetime(micros, 'T', out, 0));
+    }
+
+    public static String formatDate(long days) {
+        char[] out = scratch(TIMESTAMP_LENGTH);
+        return new String(out, 0, writeDate(days, out, 0));
+    }
+
+    public static String formatTime(long microsOfDay) {
+        char[] out = scratch(TIMESTAMP_LENGTH);
+        return new String(out, 0, writeTime(microsOfDay, out, 0));
+    }
+
+    public static String formatDecimal(ByteBuffer unscaled, LogicalTypes.Decimal decimal) {
+        char[] out = scratch(decimalLength(unscaled.remaining(), decimal));
+        return new String(out, 0, writeDecimal(unscaled, decimal, out, 0));
+    }
+
+    public static String formatDecimal(byte[] unscaled, LogicalTypes.Decimal decimal) {
+        char[] out = scratch(decimalLength(unscaled.length, decimal));
+        return new String(out, 0, writeDecimal(unscaled, decimal, out, 0));
+    }
+
+    public static String formatBase64(ByteBuffer bytes) {
+        char[] out = scratch(base64Length(bytes.remaining()));
+        return new String(out, 0, writeBase64(bytes, out, 0));
+    }
+
+    public static String formatBase64(byte[] bytes) {
+        char[] out = scratch(base64Length(bytes.length));
+        return new String(out, 0, writeBase64(bytes, out, 0));
+    }
+
+    /**
+     * Microseconds since epoch of a TIMESTAMP as BigQuery writes it to JSON: {@code yyyy-MM-dd
+     * HH:mm:ss[.fraction]} with a {@code ' '} or {@code 'T'} separator, followed by nothing,
+     * {@code UTC}, {@code Z} or a {@code +HH:mm} offset; or a number of seconds since epoch, as
+     * {@code tabledata.list} returns it. Digits past the microsecond are truncated.
+     */
+    public static long parseTimestamp(CharSequence text) {
+        int length = text.length();
+        if (length < 19 || text.charAt(4) != '-') {
+            try {
+                return new java.math.BigDecimal(text.toString()).movePointRight(6)
+                        .setScale(0, java.math.RoundingMode.FLOOR).longValueExact();
+            } catch (ArithmeticException | NumberFormatException e) {
+                throw unparseable("TIMESTAMP", text);
+            }
+        }
+        char separator = text.charAt(10);
+        if (separator != ' ' && separator != 'T') {
+            throw unparseable("TIMESTAMP", text);
+        }
+        int end = endOfTime(text, 11);
+        long micros = parseDate(text, 0) * MICROS_PER_DAY + parseTime(text, 11, end);
+        while (end < length && text.charAt(end) == ' ') {
+            end++;
+        }
+        if (end == length || "UTC".contentEquals(text.subSequence(end, length)) || end == length - 1 && text.charAt(end) == 'Z') {
+            return micros;
+        }
+        char sign = text.charAt(end);
+        if (length - end != 6 || sign != '+' && sign != '-' || text.charAt(end + 3) != ':') {
+            throw unparseable("TIMESTAMP", text);
+        }
+        long offsetMinutes = digits(text, end + 1, 2) * 60 + digits(text, end + 4, 2);
+        return micros - (sign == '+' ? 1 : -1) * offsetMinutes * 60_000_000L;
+    }
+
+    /**
+     * Days since epoch of a {@code yyyy-MM-dd} DATE.
+     */
+    public static int parseDate(CharSequence text) {
+        if (text.length() != 10) {
+            throw unparseable("DATE", text);
+        }
+        return (int) parseDate(text, 0);
+    }
+
+    /**
+     * Microseconds since midnight of a {@code HH:mm:ss[.fraction]} TIME.
+     */
+    public static long parseTime(CharSequence text) {
+        int end = endOfTime(text, 0);
+        if (end != text.length()) {
+            throw unparseable("TIME", text);
+        }
+        return parseTime(text, 0, end);
+    }
+
+    private static long parseDate(CharSequence text, int start) {
+        if (text.charAt(start + 4) != '-' || text.charAt(start + 7) != '-') {
+            throw unparseable("DATE", text);
+        }
+        long year = digits(text, start, 4);
+        int month = (int) digits(text, start + 5, 2);
+        int day = (int) digits(text, start + 8, 2);
+        if (month < 1 || month > 12 || day < 1 || day > 31) {
+            throw unparseable("DATE", text);
+        }
+        // Howard Hinnant's days_from_civil, the inverse of writeDate.
+        year -= month <= 2 ? 1 : 0;
+        long era = Math.floorDiv(year, 400);
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097 + dayOfEra - 719_468;
+    }
+
+    /**
+     * The index just past {@code HH:mm:ss} and any fraction starting at {@code start}.
+     */
+    private static int endOfTime(CharSequence text, int start) {
+        int end = start + 8;
+        if (end > text.length()) {
+            throw unparseable("TIME", text);
+        }
+        if (end < text.length() && text.charAt(end) == '.') {
+            end++;
+            while (end < text.length() && text.charAt(end) >= '0' && text.charAt(end) <= '9') {
+                end++;
+            }
+        }
+        return end;
+    }
+
+    private static long parseTime(CharSequence text, int start, int end) {
+        if (text.charAt(start + 2) != ':' || text.charAt(start + 5) != ':') {
+            throw unparseable("TIME", text);
+        }
+        long micros = (digits(text, start, 2) * 3600 + digits(text, start + 3, 2) * 60 + digits(text, start + 6, 2))
+                * 1_000_000;
+        int fractionDigits = Math.min(end - start - 9, 6);
+        if (fractionDigits > 0) {
+            micros += digits(text, start + 9, fractionDigits) * POWERS_OF_TEN[6 - fractionDigits];
+        }
+        return micros;
+    }
+
+    private static long digits(CharSequence text, int start, int count) {
+        long value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                throw unparseable("number", text);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static IllegalArgumentException unparseable(String type, CharSequence text) {
+        return new IllegalArgumentException("Unparseable " + type + ": " + text);
+    }
+
+    /**
+     * This thread's scratch buffer, grown to at least {@code length} chars.
+     */
+    private static char[] scratch(int length) {
+        char[] out = SCRATCH.get();
+        if (out.length < length) {
+            out = new char[Math.max(length, out.length * 2)];
+            SCRATCH.set(out);
+        }
+        return out;
+    }
+
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private static int digitCount(long value) {
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Writes {@code value} as exactly {@code width} digits, zero-padded on the left.
+     */
+    private static int writeDigits(long value, int width, char[] out, int off) {
+        for (int i = off + width - 1; i >= off; i--) {
+            out[i] = DIGITS[(int) (value % 10)];
+            value /= 10;
+        }
+        return off + width;
+    }
+
+    private static int writeString(String s, char[] out, int off) {
+        s.getChars(0, s.length(), out, off);
+        return off + s.length();
+    }
+}
@@ -0,0 +1,314 @@
+package example.gcp.service.utils;
+
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.common.hash.Hashing;
+import com.google.common.io.CountingOutputStream;
+import example.gcp.service.StorageObject;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects small uploads that share a bucket, route and writer schema and loads them as one
+ * merged container file, so a burst of tiny files costs one pair of load jobs instead of one pair
+ * per file. Merging copies compressed blocks with {@link DataFileWriter#appendAllFrom} and never
+ * decodes records. The originals are deleted only after the merged file is committed; until then
+ * each notification is held open and acknowledged with the batch's outcome. Buffered members are
+ * admitted by {@link IngestAdmission} like any other ingest, and hold their bytes of the in-flight
+ * budget until the merged file is written. Members are validated before they join a batch. A
+ * notification redelivered while its object is buffered or being flushed waits for the same
+ * outcome instead of adding the object a second time.
+ */
+@Component
+@Slf4j
+public class SmallFileCompactor {
+
+    private static final class Batch {
+        private final String key;
+        private final Route route;
+        private final String bucket;
+        private final Schema schema;
+        private final List<StorageObject> members = new ArrayList<>();
+        private final List<byte[]> contents = new ArrayList<>();
+        private final List<IngestAdmission.Permit> permits = new ArrayList<>();
+        private final List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        private long bytes;
+        private ScheduledFuture<?> timer;
+
+        private Batch(String key, Route route, String bucket, Schema schema) {
+            this.key = key;
+            this.route = route;
+            this.bucket = bucket;
+            this.schema = schema;
+        }
+    }
+
+    private final CompactionProperties properties;
+    private final LoadAvroFromGCSImpl loadAvroFromGCSImpl;
+    private final IngestScheduler ingestScheduler;
+    private final LoadJobQuotaGovernor loadJobQuotaGovernor;
+    private final IngestAdmission ingestAdmission;
+    private final Map<String, Batch> open = new HashMap<>();
+    // Outcome of every object that is buffered or being flushed, by journal key.
+    private final Map<String, CompletableFuture<Boolean>> pending = new HashMap<>();
+    private final ScheduledExecutorService timers;
+    private final ExecutorService flushers;
+
+    @Autowired
+    public SmallFileCompactor(CompactionProperties properties, LoadAvroFromGCSImpl loadAvroFromGCSImpl,
+                              IngestScheduler ingestScheduler, LoadJobQuotaGovernor loadJobQuotaGovernor,
+                              IngestAdmission ingestAdmission) {
+        this.properties = properties;
+        this.loadAvroFromGCSImpl = loadAvroFromGCSImpl;
+        this.ingestScheduler = ingestScheduler;
+        this.loadJobQuotaGovernor = loadJobQuotaGovernor;
+        this.ingestAdmission = ingestAdmission;
+        this.timers = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "compaction-timer"));
+        this.flushers = Executors.newFixedThreadPool(properties.getFlushThreads(),
+                runnable -> daemon(runnable, "compaction-flush"));
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    public boolean isCompacted(StorageObject object) {
+        return properties.isEnabled() && object.getName().startsWith(properties.getPrefix());
+    }
+
+    /**
+     * Adds a small object to its batch.
+     *
+     * @return a future completed with the batch's load outcome, or with the outcome of quarantining
+     * the object when it is not a valid container, or null when the object is not eligible and
+     * should be loaded on its own
+     * @throws example.gcp.service.AdmissionRejectedException if the in-flight budget has no room
+     *                                                        for the object in time
+     */
+    public CompletableFuture<Boolean> add(StorageObject object) throws InterruptedException {
+        if (!properties.isEnabled() || object.getSize() == null
+                || object.getSize() >= properties.getMaxObjectSize() || isCompacted(object)) {
+            return null;
+        }
+        Route route = loadAvroFromGCSImpl.route(object);
+        if (route == null) {
+            return null;
+        }
+        String member = IngestJournal.key(object);
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        synchronized (this) {
+            CompletableFuture<Boolean> existing = pending.putIfAbsent(member, result);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        IngestAdmission.Permit permit;
+        try {
+            permit = ingestAdmission.admit(object);
+        } catch (InterruptedException | RuntimeException e) {
+            abandon(member, result);
+            throw e;
+        }
+        byte[] content;
+        String problem;
+        Schema schema = null;
+        try {
+            Storage storage = loadAvroFromGCSImpl.getStorage();
+            content = storage.readAllBytes(BlobId.of(object.getBucket(), object.getName(), object.getGeneration()));
+            // A corrupt member would fail the whole merged load, so it is quarantined on its own.
+            problem = loadAvroFromGCSImpl.validate(object, content);
+            if (problem == null) {
+                schema = GenericRecordReaders.readSchema(new ByteArrayInputStream(content));
+            }
+        } catch (IOException | RuntimeException e) {
+            permit.close();
+            abandon(member, result);
+            log.warn("Not compacting " + object.getUri() + ": " + e.toString());
+            return null;
+        }
+        if (problem != null) {
+            permit.close();
+            boolean quarantined = false;
+            try {
+                quarantined = loadAvroFromGCSImpl.quarantine(object, problem);
+            } finally {
+                synchronized (this) {
+                    pending.remove(member);
+                }
+                result.complete(quarantined);
+            }
+            return result;
+        }
+
+        String key = object.getBucket() + "|" + route.getId() + "|" + Long.toHexString(GenericRecordReaders.fingerprint(schema));
+        Batch full = null;
+        synchronized (this) {
+            Batch batch = open.get(key);
+            if (batch != null && !batch.schema.equals(schema)) {
+                // Same canonical form but different docs or properties; appendAllFrom needs equal schemas.
+                permit.close();
+                abandon(member, result);
+                return null;
+            }
+            if (batch == null) {
+                batch = new Batch(key, route, object.getBucket(), schema);
+                Batch expiring = batch;
+                batch.timer = timers.schedule(() -> flushers.execute(() -> expire(expiring)),
+                        windowFor(route).toMillis(), TimeUnit.MILLISECONDS);
+                open.put(key, batch);
+            }
+            batch.members.add(object);
+            batch.contents.add(content);
+            batch.permits.add(permit);
+            batch.results.add(result);
+            batch.bytes += content.length;
+            if (batch.members.size() >= properties.getMaxBatchObjects() || batch.bytes >= properties.getMaxBatchBytes()) {
+                open.remove(key);
+                batch.timer.cancel(false);
+                full = batch;
+            }
+        }
+        if (full != null) {
+            Batch flushing = full;
+            flushers.execute(() -> flush(flushing));
+        }
+        return result;
+    }
+
+    /**
+     * Gives up on compacting {@code member}. The caller loads the object on its own, so a
+     * redelivery that attached to it in the meantime is told to retry.
+     */
+    private void abandon(String member, CompletableFuture<Boolean> result) {
+        synchronized (this) {
+            pending.remove(member);
+        }
+        result.complete(false);
+    }
+
+    /**
+     * Batches wait longer as the route's load job budget runs low, so fewer and larger jobs are
+     * spent on the rest of the day.
+     */
+    private Duration windowFor(Route route) {
+        double multiplier = loadJobQuotaGovernor.windowMultiplier(loadAvroFromGCSImpl.tables(route));
+        return Duration.ofMillis((long) (properties.getWindow().toMillis() * multiplier));
+    }
+
+    private void expire(Batch batch) {
+        synchronized (this) {
+            if (open.get(batch.key) != batch) {
+                return;
+            }
+            open.remove(batch.key);
+        }
+        flush(batch);
+    }
+
+    private void flush(Batch batch) {
+        boolean loaded = false;
+        try {
+            StorageObject merged;
+            try {
+                merged = merge(batch);
+            } finally {
+                // The merged file is loaded from GCS, so the buffered members are no longer needed.
+                batch.contents.clear();
+                batch.permits.forEach(IngestAdmission.Permit::close);
+            }
+            log.info("Compacted " + batch.members.size() + " objects (" + batch.bytes + " bytes) into " + merged.getUri());
+            loaded = ingestScheduler.execute(merged,
+                    () -> loadAvroFromGCSImpl.loadCompacted(merged, batch.schema, batch.route, batch.members));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Compaction of " + batch.members.size() + " objects failed \n" + e.toString());
+        }
+        synchronized (this) {
+            for (StorageObject member : batch.members) {
+                pending.remove(IngestJournal.key(member));
+            }
+        }
+        for (CompletableFuture<Boolean> result : batch.results) {
+            result.complete(loaded);
+        }
+    }
+
+    private StorageObject merge(Batch batch) throws IOException {
+        String name = properties.getPrefix() + Long.toHexString(GenericRecordReaders.fingerprint(batch.schema))
+                + "/" + batchName(batch.members) + ".avro";
+        BlobInfo info = BlobInfo.newBuilder(batch.bucket, name).setContentType("avro/binary").build();
+        Storage storage = loadAvroFromGCSImpl.getStorage();
+        CountingOutputStream out;
+        try (WriteChannel writer = storage.writer(info);
+             DataFileWriter<GenericRecord> fileWriter = new DataFileWriter<>(new GenericDatumWriter<>())) {
+            out = new CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(writer)));
+            boolean created = false;
+            for (byte[] content : batch.contents) {
+                try (DataFileStream<GenericRecord> stream =
+                             new DataFileStream<>(new ByteArrayInputStream(content), new GenericDatumReader<>())) {
+                    if (!created) {
+                        // Take the first member's codec so that most blocks can be copied raw.
+                        String codec = stream.getMetaString(DataFileConstants.CODEC);
+                        fileWriter.setCodec(CodecFactory.fromString(codec == null ? DataFileConstants.NULL_CODEC : codec));
+                        fileWriter.create(batch.schema, out);
+                        created = true;
+                    }
+                    fileWriter.appendAllFrom(stream, false);
+                }
+            }
+        }
+        return new StorageObject(batch.bucket, name, null, out.getCount());
+    }
+
+    /**
+     * Names a merged file after its members, so that a batch redelivered after committing only one
+     * of its tables resumes under the same journal entries and job ids instead of loading again.
+     */
+    private static String batchName(List<StorageObject> members) {
+        List<String> keys = new ArrayList<>();
+        for (StorageObject member : members) {
+            keys.add(IngestJournal.key(member));
+        }
+        Collections.sort(keys);
+        return Hashing.sha256().hashString(String.join("\n", keys), StandardCharsets.UTF_8).toString().substring(0, 40);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timers.shutdownNow();
+        flushers.shutdown();
+    }
+}
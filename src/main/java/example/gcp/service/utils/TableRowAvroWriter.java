@@ -0,0 +1,446 @@
+package example.gcp.service.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.api.services.bigquery.model.TableSchema;
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.Encoder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes BigQuery-shaped rows, {@code TableRow}s or newline-delimited JSON as BigQuery exports
+ * it, into an Avro container file with the schema {@link BigQueryAvroUtils#toGenericAvroSchema}
+ * derives from the table schema. The schema is compiled once into a writer per column, and rows
+ * are encoded straight into the {@link DataFileWriter}'s block encoder without building a
+ * {@code GenericRecord}; NDJSON is parsed token by token into a reused slot per column.
+ *
+ * <p>Accepts the JSON representations of both export and {@code tabledata.list}: numbers may be
+ * strings, TIMESTAMPs formatted or seconds since epoch, and BYTES Base64. Not thread-safe.
+ */
+public class TableRowAvroWriter implements Closeable {
+    // The caller owns the NDJSON stream.
+    private static final JsonFactory JSON = new ObjectMapper().getFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    /**
+     * Encodes one BigQuery JSON value as its Avro counterpart.
+     */
+    private abstract static class ColumnWriter {
+        final String name;
+
+        ColumnWriter(String name) {
+            this.name = name;
+        }
+
+        abstract void write(Object value, Encoder out) throws IOException;
+
+        /**
+         * Reads the value at the parser's current token into the form {@link #write} accepts.
+         */
+        Object read(JsonParser parser) throws IOException {
+            switch (parser.currentToken()) {
+                case VALUE_NULL:
+                    return null;
+                case VALUE_STRING:
+                    return parser.getText();
+                case VALUE_NUMBER_INT:
+                    return parser.getLongValue();
+                case VALUE_NUMBER_FLOAT:
+                    return parser.getDecimalValue();
+                case VALUE_TRUE:
+                    return Boolean.TRUE;
+                case VALUE_FALSE:
+                    return Boolean.FALSE;
+                default:
+                    throw new IOException("Unexpected " + parser.currentToken() + " for column " + name);
+            }
+        }
+    }
+
+    private static final class StringWriter extends ColumnWriter {
+        StringWriter(String name) {
+            super(name);
+        }
+
+        void write(Object value, Encoder out) throws IOException {
+            out.writeString(value.toString());
+        }
+    }
+
+    private static final class BytesWriter extends ColumnWriter {
+        BytesWriter(String name) {
+            super(name);
+        }
+
+        void write(Object value, Encoder out) throws IOException {
+            if (value instanceof byte[]) {
+                out.writeBytes((byte[]) value);
+            } else if (value instanceof ByteBuffer) {
+                out.writeBytes((ByteBuffer) value);
+            } else {
+                out.writeBytes(Base64.getDecoder().decode(value.toString()));
+            }
+        }
+    }
+
+    private static final class LongWriter extends ColumnWriter {
+        LongWriter(String name) {
+            super(name);
+        }
+
+        void write(Object value, Encoder out) throws IOException {
+            out.writeLong(value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString()));
+        }
+    }
+
+    private static final class DoubleWriter extends ColumnWriter {
+        DoubleWriter(String name) {
+            super(name);
+        }
+
+        void write(Object value, Encoder out) throws IOException {
+            out.writeDouble(value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString()));
+        }
+    }
+
+    private static final class BooleanWriter extends ColumnWriter {
+        BooleanWriter(String name) {
+            super(name);
+        }
+
+        void write(Object value, Encoder out) throws IOException {
+            out.writeBoolean(value instanceof Boolean ? (Boolean) value : Boolean.parseBoolean(value.toString()));
+        }
+    }
+
+    private static final class DecimalWriter extends ColumnWriter {
+        private final int scale;
+
+        DecimalWriter(String name, int scale) {
+            super(name);
+            this.scale = scale;
+        }
+
+        void write(Object value, Encoder out) throws IOException {
+            BigDecimal decimal = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+            out.writeBytes(decimal.setScale(scale, RoundingMode.UNNECESSARY).unscaledValue().toByteArray());
+        }
+    }
+
+    private static final class TimestampWriter extends ColumnWriter {
+        TimestampWriter(String name) {
+            super(name);
+        }
+
+        void write(Object value, Encoder out) throws IOException {
+            out.writeLong(value instanceof Number
+                    ? ScalarEncoders.parseTimestamp(value.toString())
+                    : ScalarEncoders.parseTimestamp((CharSequence) value));
+        }
+    }
+
+    private static final class DateWriter extends ColumnWriter {
+        DateWriter(String name) {
+            super(name);
+        }
+
+        void write(Object value, Encoder out) throws IOException {
+            out.writeInt(ScalarEncoders.parseDate((CharSequence) value));
+        }
+    }
+
+    private static final class TimeWriter extends ColumnWriter {
+        TimeWriter(String name) {
+            super(name);
+        }
+
+        void write(Object value, Encoder out) throws IOException {
+            out.writeLong(ScalarEncoders.parseTime((CharSequence) value));
+        }
+    }
+
+    /**
+     * A NULLABLE column: a union of null and the column's type.
+     */
+    private static final class NullableWriter extends ColumnWriter {
+        private final ColumnWriter value;
+
+        NullableWriter(ColumnWriter value) {
+            super(value.name);
+            this.value = value;
+        }
+
+        void write(Object v, Encoder out) throws IOException {
+            if (v == null) {
+                out.writeIndex(0);
+            } else {
+                out.writeIndex(1);
+                value.write(v, out);
+            }
+        }
+
+        Object read(JsonParser parser) throws IOException {
+            return parser.currentToken() == JsonToken.VALUE_NULL ? null : value.read(parser);
+        }
+    }
+
+    private static final class RepeatedWriter extends ColumnWriter {
+        private final ColumnWriter element;
+
+        RepeatedWriter(ColumnWriter element) {
+            super(element.name);
+            this.element = element;
+        }
+
+        void write(Object value, Encoder out) throws IOException {
+            Collection<?> elements = value == null ? null : (Collection<?>) value;
+            out.writeArrayStart();
+            if (elements != null && !elements.isEmpty()) {
+                out.setItemCount(elements.size());
+                for (Object e : elements) {
+                    out.startItem();
+                    element.write(e, out);
+                }
+            }
+            out.writeArrayEnd();
+        }
+
+        Object read(JsonParser parser) throws IOException {
+            if (parser.currentToken() == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            if (parser.currentToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected an array for column " + name);
+            }
+            List<Object> elements = new ArrayList<>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                elements.add(element.read(parser));
+            }
+            return elements;
+        }
+    }
+
+    /**
+     * A STRUCT column or the row itself. Accepts a {@code Map} such as a {@code TableRow}, or the
+     * {@code Object[]} of column values {@link #read} produces.
+     */
+    private static final class RecordWriter extends ColumnWriter {
+        private final ColumnWriter[] columns;
+        private final Map<String, Integer> positions = new HashMap<>();
+
+        RecordWriter(String name, List<TableFieldSchema> fields) {
+            super(name);
+            this.columns = new ColumnWriter[fields.size()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = compile(fields.get(i));
+                positions.put(fields.get(i).getName(), i);
+            }
+        }
+
+        void write(Object value, Encoder out) throws IOException {
+            if (value instanceof Object[]) {
+                Object[] values = (Object[]) value;
+                for (int i = 0; i < columns.length; i++) {
+                    checkRequired(columns[i], values[i]);
+                    columns[i].write(values[i], out);
+                }
+                return;
+            }
+            Map<?, ?> row = (Map<?, ?>) value;
+            for (ColumnWriter column : columns) {
+                Object v = row.get(column.name);
+                checkRequired(column, v);
+                column.write(v, out);
+            }
+        }
+
+        private void checkRequired(ColumnWriter column, Object value) throws IOException {
+            if (value == null && !(column instanceof NullableWriter || column instanceof RepeatedWriter)) {
+                throw new IOException("REQUIRED column " + column.name + " is missing");
+            }
+        }
+
+        Object read(JsonParser parser) throws IOException {
+            return read(parser, new Object[columns.length]);
+        }
+
+        /**
+         * Reads the object at the parser's current START_OBJECT into {@code values}, leaving
+         * columns it does not mention null and skipping fields the schema does not have.
+         */
+        Object[] read(JsonParser parser, Object[] values) throws IOException {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected an object for " + name);
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                Integer position = positions.get(parser.getCurrentName());
+                parser.nextToken();
+                if (position == null) {
+                    parser.skipChildren();
+                } else {
+                    values[position] = columns[position].read(parser);
+                }
+            }
+            return values;
+        }
+    }
+
+    private static ColumnWriter compile(TableFieldSchema field) {
+        String name = field.getName();
+        ColumnWriter writer;
+        switch (field.getType()) {
+            case "STRING":
+            case "GEOGRAPHY":
+            case "DATETIME":
+                writer = new StringWriter(name);
+                break;
+            case "BYTES":
+                writer = new BytesWriter(name);
+                break;
+            case "INTEGER":
+            case "INT64":
+                writer = new LongWriter(name);
+                break;
+            case "FLOAT":
+            case "FLOAT64":
+                writer = new DoubleWriter(name);
+                break;
+            case "BOOLEAN":
+            case "BOOL":
+                writer = new BooleanWriter(name);
+                break;
+            case "NUMERIC":
+                writer = new DecimalWriter(name, 9);
+                break;
+            case AvroBigQueryTypes.BIGNUMERIC:
+                writer = new DecimalWriter(name, 38);
+                break;
+            case "TIMESTAMP":
+                writer = new TimestampWriter(name);
+                break;
+            case "DATE":
+                writer = new DateWriter(name);
+                break;
+            case "TIME":
+                writer = new TimeWriter(name);
+                break;
+            case "RECORD":
+            case "STRUCT":
+                writer = new RecordWriter(name, field.getFields());
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported BigQuery type " + field.getType() + " for field " + name);
+        }
+        if ("REPEATED".equals(field.getMode())) {
+            return new RepeatedWriter(writer);
+        }
+        if (field.getMode() == null || "NULLABLE".equals(field.getMode())) {
+            return new NullableWriter(writer);
+        }
+        return writer;
+    }
+
+    /**
+     * Hands rows to {@link DataFileWriter} as the values {@link RecordWriter} takes.
+     */
+    private static final class RowDatumWriter implements DatumWriter<Object> {
+        private final RecordWriter row;
+
+        RowDatumWriter(RecordWriter row) {
+            this.row = row;
+        }
+
+        @Override
+        public void setSchema(Schema schema) {
+        }
+
+        @Override
+        public void write(Object datum, Encoder out) throws IOException {
+            row.write(datum, out);
+        }
+    }
+
+    private final Schema schema;
+    private final RecordWriter row;
+    private final Object[] values;
+    private final DataFileWriter<Object> writer;
+    private long rows;
+
+    /**
+     * @param codec compression applied to each block
+     * @param blockSize approximate uncompressed bytes per block, between 32 and 2^30
+     */
+    public TableRowAvroWriter(TableSchema tableSchema, String recordName, OutputStream out,
+                              CodecFactory codec, int blockSize) throws IOException {
+        this.schema = BigQueryAvroUtils.toGenericAvroSchema(recordName, tableSchema.getFields());
+        this.row = new RecordWriter(recordName, tableSchema.getFields());
+        this.values = new Object[tableSchema.getFields().size()];
+        this.writer = new DataFileWriter<>(new RowDatumWriter(row))
+                .setCodec(codec)
+                .setSyncInterval(blockSize)
+                .create(schema, out);
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    public long getRowCount() {
+        return rows;
+    }
+
+    /**
+     * Appends a row given as a map from column name to BigQuery JSON value, such as a
+     * {@code TableRow}. Columns missing from the map are written as null.
+     */
+    public void write(Map<String, ?> tableRow) throws IOException {
+        writer.append(tableRow);
+        rows++;
+    }
+
+    /**
+     * Appends every row of a newline-delimited JSON stream, as BigQuery exports tables.
+     *
+     * @return rows written
+     */
+    public long writeNdjson(InputStream in) throws IOException {
+        long written = 0;
+        try (JsonParser parser = JSON.createParser(in)) {
+            while (parser.nextToken() != null) {
+                Arrays.fill(values, null);
+                writer.append(row.read(parser, values));
+                written++;
+            }
+        }
+        rows += written;
+        return written;
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,17 @@
+package example.gcp.service.utils;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@code exporter} is {@code logging} to write finished spans to the application log, or
+ * {@code none} to record spans without exporting them.
+ */
+@Component
+@ConfigurationProperties(prefix = "load.tracing")
+@Data
+public class TracingProperties {
+    private boolean enabled = false;
+    private String exporter = "logging";
+}
@@ -0,0 +1,26 @@
+package example.gcp.service.utils;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Policy for re-encoding incoming Avro files before they are loaded. Files whose container codec
+ * is in {@code sourceCodecs} and that are at least {@code minSize} bytes are rewritten with
+ * {@code targetCodec} under {@code prefix} in {@code bucket} (the source bucket when unset).
+ */
+@Component
+@ConfigurationProperties(prefix = "load.transcode")
+@Data
+public class TranscodeProperties {
+    private boolean enabled = false;
+    private String targetCodec = "snappy";
+    private List<String> sourceCodecs = new ArrayList<>(Arrays.asList("null", "deflate"));
+    private long minSize = 0;
+    private String bucket;
+    private String prefix = "transcoded/";
+}
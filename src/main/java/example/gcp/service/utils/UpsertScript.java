@@ -0,0 +1,76 @@
+package example.gcp.service.utils;
+
+import com.google.cloud.bigquery.TableId;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Builds the script that merges one batch from its staging table into the destination table of
+ * an upsert route. The script runs as a single query job: it renews the staging table's
+ * expiration so a retried merge does not race it, creates the destination from the staging
+ * schema if it does not exist yet, merges with one {@code MERGE} statement and drops the staging
+ * table. Rows of the batch are reduced to the latest one per key by the route's order column
+ * first, as {@code MERGE} rejects a target row matched by several source rows, and a stored row
+ * is only replaced by a row that is at least as recent, so a late redelivery of an old batch
+ * cannot overwrite a correction.
+ */
+public final class UpsertScript {
+    private static final String RANK = "_upsert_rank";
+
+    private UpsertScript() {
+    }
+
+    /**
+     * @param columns top-level columns of the batch; must include the route's upsert key and order
+     *                column
+     */
+    public static String of(TableId target, TableId staging, List<String> columns, Route route, Duration stagingTtl) {
+        List<String> key = route.getUpsertKey();
+        String partition = key.stream().map(UpsertScript::quote).collect(Collectors.joining(", "));
+        String order = quote(route.getUpsertOrderBy());
+        String on = key.stream()
+                .map(column -> "target." + quote(column) + " = source." + quote(column))
+                .collect(Collectors.joining(" AND "));
+        String update = columns.stream()
+                .filter(column -> !key.contains(column))
+                .map(column -> quote(column) + " = source." + quote(column))
+                .collect(Collectors.joining(", "));
+        String insertColumns = columns.stream().map(UpsertScript::quote).collect(Collectors.joining(", "));
+        String insertValues = columns.stream().map(column -> "source." + quote(column)).collect(Collectors.joining(", "));
+
+        StringBuilder script = new StringBuilder()
+                .append("ALTER TABLE ").append(quote(staging))
+                .append(" SET OPTIONS (expiration_timestamp = TIMESTAMP_ADD(CURRENT_TIMESTAMP(), INTERVAL ")
+                .append(stagingTtl.getSeconds()).append(" SECOND));\n")
+                .append("CREATE TABLE IF NOT EXISTS ").append(quote(target))
+                .append(" AS SELECT * FROM ").append(quote(staging)).append(" WHERE FALSE;\n")
+                .append("MERGE ").append(quote(target)).append(" AS target\n")
+                .append("USING (\n")
+                .append("  SELECT * EXCEPT (").append(RANK).append(") FROM (\n")
+                .append("    SELECT *, ROW_NUMBER() OVER (PARTITION BY ").append(partition)
+                .append(" ORDER BY ").append(order).append(" DESC) AS ").append(RANK).append("\n")
+                .append("    FROM ").append(quote(staging)).append(")\n")
+                .append("  WHERE ").append(RANK).append(" = 1) AS source\n")
+                .append("ON ").append(on).append("\n");
+        if (!update.isEmpty()) {
+            script.append("WHEN MATCHED AND (target.").append(order).append(" IS NULL OR source.").append(order)
+                    .append(" >= target.").append(order).append(") THEN UPDATE SET ").append(update).append("\n");
+        }
+        return script
+                .append("WHEN NOT MATCHED THEN INSERT (").append(insertColumns).append(") VALUES (")
+                .append(insertValues).append(");\n")
+                .append("DROP TABLE ").append(quote(staging)).append(";")
+                .toString();
+    }
+
+    private static String quote(TableId table) {
+        return "`" + (table.getProject() == null ? "" : table.getProject() + ".")
+                + table.getDataset() + "." + table.getTable() + "`";
+    }
+
+    private static String quote(String column) {
+        return "`" + column + "`";
+    }
+}
@@ -0,0 +1,21 @@
+package example.gcp.service.utils;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Integrity checks run on every Avro container before it is loaded. Every
+ * {@code sampleEveryBlocks}-th block, starting with the first, is also decoded against the
+ * writer schema (0 turns decoding off). Blocks claiming more than {@code maxBlockBytes} are taken
+ * as corrupt. Files that fail are moved under {@code quarantinePrefix} in their own bucket.
+ */
+@Component
+@ConfigurationProperties(prefix = "load.validation")
+@Data
+public class ValidationProperties {
+    private boolean enabled = true;
+    private int sampleEveryBlocks = 16;
+    private long maxBlockBytes = 256L * 1024 * 1024;
+    private String quarantinePrefix = "quarantine/";
+}
@@ -0,0 +1,145 @@
+package example.gcp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobId;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.JobStatus;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import example.gcp.service.utils.IngestAdmission;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Floods {@code /load} with notifications of large files and checks that no more of them are
+ * loaded at once than fit in the in-flight budget, although there are more ingest workers than
+ * that, and that every request is eventually loaded.
+ */
+@SpringBootTest(properties = {
+        "load.default-bucket=flood",
+        "load.quota.enabled=false",
+        "load.admission.max-bytes=1073741824",
+        "load.admission.max-wait=60s",
+        "load.scheduler.workers=8"})
+@AutoConfigureMockMvc
+public class AdmissionFloodTest {
+    private static final long FILE_SIZE = 256L * 1024 * 1024;
+    private static final int REQUESTS = 24;
+    private static final AtomicInteger ACTIVE = new AtomicInteger();
+    private static final AtomicInteger PEAK = new AtomicInteger();
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private IngestAdmission ingestAdmission;
+    @Autowired
+    private MeterRegistry registry;
+
+    @TestConfiguration
+    static class StandIns {
+        @Bean
+        @Primary
+        public Storage floodStorage() throws IOException {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            try (DataFileWriter<Client> writer = new DataFileWriter<>(new SpecificDatumWriter<>(Client.class))) {
+                writer.create(Client.SCHEMA$, content);
+                writer.append(new Client(1L, "flood", null, null));
+            }
+            Blob blob = mock(Blob.class);
+            when(blob.getContent()).thenReturn(content.toByteArray());
+            Storage storage = mock(Storage.class);
+            when(storage.get(any(BlobId.class))).thenReturn(blob);
+            when(storage.delete(any(BlobId.class))).thenReturn(true);
+            return storage;
+        }
+
+        @Bean
+        @Primary
+        public BigQuery floodBigQuery() throws InterruptedException {
+            Job job = mock(Job.class);
+            JobStatus status = mock(JobStatus.class);
+            when(job.getStatus()).thenReturn(status);
+            when(job.getJobId()).thenReturn(JobId.of("flood"));
+            when(job.waitFor()).thenAnswer(invocation -> {
+                PEAK.accumulateAndGet(ACTIVE.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(50);
+                } finally {
+                    ACTIVE.decrementAndGet();
+                }
+                return job;
+            });
+            BigQuery bigquery = mock(BigQuery.class);
+            when(bigquery.create(any(JobInfo.class))).thenReturn(job);
+            return bigquery;
+        }
+    }
+
+    private byte[] pushBody(int i) throws IOException {
+        String notification = String.format(
+                "{\"bucket\":\"flood\",\"name\":\"large/%d.avro\",\"generation\":\"%d\",\"size\":\"%d\"}",
+                i, i + 1, FILE_SIZE);
+        Body body = new Body();
+        body.setMassage("m" + i, "2020-09-13T12:26:40Z",
+                Base64.getEncoder().encodeToString(notification.getBytes(StandardCharsets.UTF_8)));
+        return objectMapper.writeValueAsBytes(body);
+    }
+
+    @Test
+    public void shouldKeepLargeFilesWithinTheInFlightBudget() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(REQUESTS);
+        try {
+            List<Future<Integer>> statuses = new ArrayList<>();
+            for (int i = 0; i < REQUESTS; i++) {
+                byte[] body = pushBody(i);
+                statuses.add(executor.submit(() -> mockMvc.perform(post("/load")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body)).andReturn().getResponse().getStatus()));
+            }
+            for (Future<Integer> status : statuses) {
+                assertEquals(200, status.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(PEAK.get() <= 4, "peak concurrent loads " + PEAK.get());
+        assertTrue(PEAK.get() > 1, "loads never overlapped");
+        assertEquals(0, ingestAdmission.inFlightBytes());
+        assertTrue(registry.get("ingest.admission.deferred").counter().count() > 0);
+        assertEquals(0, registry.get("ingest.admission.rejected").counter().count());
+    }
+}
@@ -0,0 +1,166 @@
+package example.gcp;
+
+import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.api.services.bigquery.model.TableRow;
+import com.google.cloud.bigquery.Field;
+import example.gcp.service.utils.AvroBigQueryTypes;
+import example.gcp.service.utils.AvroToBigQueryHelper;
+import example.gcp.service.utils.BigQueryAvroUtils;
+import example.gcp.service.utils.ColumnarRowBatch;
+import org.apache.avro.Conversions;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AvroBigQueryTypesTest {
+
+    private static Schema logical(Schema.Type type, org.apache.avro.LogicalType logicalType) {
+        return logicalType.addToSchema(Schema.create(type));
+    }
+
+    private static final Schema NUMERIC = logical(Schema.Type.BYTES, LogicalTypes.decimal(38, 9));
+    private static final Schema BIGNUMERIC = logical(Schema.Type.BYTES, LogicalTypes.decimal(40, 2));
+    private static final Schema TIMESTAMP = logical(Schema.Type.LONG, LogicalTypes.timestampMicros());
+    private static final Schema TIME = logical(Schema.Type.INT, LogicalTypes.timeMillis());
+    private static final Schema DATE = logical(Schema.Type.INT, LogicalTypes.date());
+    private static final Schema DATETIME = logical(Schema.Type.LONG, LogicalTypes.localTimestampMillis());
+
+    private static final Schema ADDRESS = SchemaBuilder.record("Address").fields()
+            .requiredString("street")
+            .optionalInt("number")
+            .endRecord();
+
+    private static final Schema ROW = SchemaBuilder.record("Row").fields()
+            .name("amount").type(NUMERIC).noDefault()
+            .name("big").type(BIGNUMERIC).noDefault()
+            .name("at").type(TIMESTAMP).noDefault()
+            .name("time").type(TIME).noDefault()
+            .name("day").type(DATE).noDefault()
+            .name("local").type(DATETIME).noDefault()
+            .name("hash").type().fixed("Hash").size(4).noDefault()
+            .name("color").type().enumeration("Color").symbols("RED", "GREEN").noDefault()
+            .name("address").type(ADDRESS).noDefault()
+            .name("tags").type().array().items().stringType().noDefault()
+            .name("attributes").type().map().values().longType().noDefault()
+            .name("count").type().intType().noDefault()
+            .name("note").type().optional().bytesType()
+            .endRecord();
+
+    private static TableFieldSchema column(String name) {
+        return BigQueryAvroUtils.getTableSchema(ROW).getFields().stream()
+                .filter(field -> field.getName().equals(name))
+                .findFirst()
+                .orElseThrow(IllegalArgumentException::new);
+    }
+
+    private static String typeAndMode(String name) {
+        TableFieldSchema column = column(name);
+        return column.getType() + " " + column.getMode();
+    }
+
+    @Test
+    public void shouldMapEveryTypeToItsNativeColumn() {
+        assertEquals("NUMERIC REQUIRED", typeAndMode("amount"));
+        assertEquals("BIGNUMERIC REQUIRED", typeAndMode("big"));
+        assertEquals("TIMESTAMP REQUIRED", typeAndMode("at"));
+        assertEquals("TIME REQUIRED", typeAndMode("time"));
+        assertEquals("DATE REQUIRED", typeAndMode("day"));
+        assertEquals("DATETIME REQUIRED", typeAndMode("local"));
+        assertEquals("BYTES REQUIRED", typeAndMode("hash"));
+        assertEquals("STRING REQUIRED", typeAndMode("color"));
+        assertEquals("STRUCT REQUIRED", typeAndMode("address"));
+        assertEquals("STRING REPEATED", typeAndMode("tags"));
+        assertEquals("STRUCT REPEATED", typeAndMode("attributes"));
+        assertEquals("INT64 REQUIRED", typeAndMode("count"));
+        assertEquals("BYTES NULLABLE", typeAndMode("note"));
+
+        List<String> address = column("address").getFields().stream()
+                .map(field -> field.getName() + " " + field.getType() + " " + field.getMode())
+                .collect(Collectors.toList());
+        assertEquals(Arrays.asList("street STRING REQUIRED", "number INT64 NULLABLE"), address);
+        assertEquals("key", column("attributes").getFields().get(0).getName());
+        assertEquals("INT64", column("attributes").getFields().get(1).getType());
+    }
+
+    @Test
+    public void shouldRejectUnionsBigQueryCannotRepresent() {
+        Schema union = SchemaBuilder.unionOf().stringType().and().longType().endUnion();
+        assertThrows(IllegalArgumentException.class, () -> AvroBigQueryTypes.typeOf(union));
+    }
+
+    @Test
+    public void shouldLeaveOutOnlyNullableFields() {
+        List<String> names = BigQueryAvroUtils.getOnlyNonOptionalTableSchema(ROW).getFields().stream()
+                .map(TableFieldSchema::getName)
+                .collect(Collectors.toList());
+        assertEquals(12, names.size());
+        assertEquals("count", names.get(names.size() - 1));
+    }
+
+    @Test
+    public void shouldBuildNestedLoadJobFields() {
+        Field address = AvroToBigQueryHelper.convertAvroFieldToBigQueryField(ROW.getField("address"));
+        assertEquals("RECORD", address.getType().name());
+        assertEquals(2, address.getSubFields().size());
+        assertEquals(Field.Mode.REPEATED,
+                AvroToBigQueryHelper.convertAvroFieldToBigQueryField(ROW.getField("tags")).getMode());
+        assertEquals("BIGNUMERIC",
+                AvroToBigQueryHelper.convertAvroFieldToBigQueryField(ROW.getField("big")).getType().name());
+    }
+
+    @Test
+    public void shouldConvertRawGenericValues() {
+        Conversions.DecimalConversion decimals = new Conversions.DecimalConversion();
+        GenericRecord address = new GenericData.Record(ADDRESS);
+        address.put("street", "Main");
+        GenericRecord record = new GenericData.Record(ROW);
+        record.put("amount", decimals.toBytes(new BigDecimal("0.000000100"), NUMERIC, NUMERIC.getLogicalType()));
+        record.put("big", decimals.toBytes(new BigDecimal("12.50"), BIGNUMERIC, BIGNUMERIC.getLogicalType()));
+        record.put("at", 1_600_000_000_123_456L);
+        record.put("time", 45_296_789);
+        record.put("day", 18_628);
+        record.put("local", 1_600_000_000_000L);
+        record.put("hash", new GenericData.Fixed(ROW.getField("hash").schema(), new byte[]{1, 2, 3, 4}));
+        record.put("color", new GenericData.EnumSymbol(ROW.getField("color").schema(), "GREEN"));
+        record.put("address", address);
+        record.put("tags", Arrays.asList("a", "b"));
+        record.put("attributes", Collections.singletonMap("k", 7L));
+        record.put("count", 3);
+        record.put("note", ByteBuffer.wrap("hi".getBytes(StandardCharsets.UTF_8)));
+
+        ColumnarRowBatch batch = ColumnarRowBatch.of(ROW, false);
+        batch.append(record);
+        batch.append(record);
+        TableRow row = batch.toTableRow(1);
+
+        assertEquals("0.000000100", row.get("amount"));
+        assertEquals("12.50", row.get("big"));
+        assertEquals("2020-09-13 12:26:40.123456 UTC", row.get("at"));
+        assertEquals("12:34:56.789", row.get("time"));
+        assertEquals("2021-01-01", row.get("day"));
+        assertEquals("2020-09-13T12:26:40", row.get("local"));
+        assertEquals("AQIDBA==", row.get("hash"));
+        assertEquals("GREEN", row.get("color"));
+        assertEquals(new TableRow().set("street", "Main"), row.get("address"));
+        assertNull(((TableRow) row.get("address")).get("number"));
+        assertEquals(Arrays.asList("a", "b"), row.get("tags"));
+        assertEquals(Collections.singletonList(new TableRow().set("key", "k").set("value", 7L)), row.get("attributes"));
+        assertEquals(3L, row.get("count"));
+        assertEquals("aGk=", row.get("note"));
+    }
+}
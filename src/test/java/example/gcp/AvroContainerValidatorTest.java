@@ -0,0 +1,200 @@
+package example.gcp;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.CopyWriter;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.contrib.nio.testing.LocalStorageHelper;
+import example.gcp.service.StorageObject;
+import example.gcp.service.utils.AvroContainerValidator;
+import example.gcp.service.utils.LoadAvroFromGCSImpl;
+import example.gcp.service.utils.LoadPolicy;
+import example.gcp.service.utils.Route;
+import example.gcp.service.utils.ValidationProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AvroContainerValidatorTest {
+    private static final int RECORDS = 2_000;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private AvroContainerValidator validator(int sampleEveryBlocks) {
+        ValidationProperties properties = new ValidationProperties();
+        properties.setSampleEveryBlocks(sampleEveryBlocks);
+        return new AvroContainerValidator(properties, registry);
+    }
+
+    /**
+     * A file of {@link #RECORDS} clients in many small blocks.
+     */
+    private static byte[] file(CodecFactory codec) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DataFileWriter<Client> writer = new DataFileWriter<>(new SpecificDatumWriter<>(Client.class))) {
+            writer.setCodec(codec).setSyncInterval(1024).create(Client.SCHEMA$, out);
+            for (int i = 0; i < RECORDS; i++) {
+                writer.append(new Client((long) i, "client" + i, i % 3 == 0 ? null : "555-" + i, null));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static int headerLength() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataFileWriter<Client> writer = new DataFileWriter<>(new SpecificDatumWriter<>(Client.class));
+        writer.setCodec(CodecFactory.nullCodec()).create(Client.SCHEMA$, out);
+        writer.flush();
+        return out.size();
+    }
+
+    private String problem(byte[] content) {
+        return assertThrows(AvroContainerValidator.InvalidContainerException.class,
+                () -> validator(1).validate(new ByteArrayInputStream(content))).getMessage();
+    }
+
+    @Test
+    public void shouldWalkEveryBlockOfIntactFiles() throws Exception {
+        for (CodecFactory codec : Arrays.asList(CodecFactory.nullCodec(), CodecFactory.deflateCodec(6), CodecFactory.snappyCodec())) {
+            byte[] content = file(codec);
+            for (int every : new int[]{0, 1, 16}) {
+                AvroContainerValidator.Summary summary = validator(every).validate(new ByteArrayInputStream(content));
+                assertEquals(RECORDS, summary.getRecords(), codec + " every " + every);
+                assertEquals(content.length, summary.getBytes());
+                assertEquals(Client.SCHEMA$, summary.getSchema());
+                assertTrue(summary.getBlocks() > 16);
+                long expectedSampled = every == 0 ? 0 : (summary.getBlocks() + every - 1) / every;
+                assertEquals(expectedSampled, summary.getSampledBlocks());
+            }
+        }
+        assertEquals(9, registry.get("ingest.validation").tag("result", "valid").counter().count());
+    }
+
+    @Test
+    public void shouldDescribeWhatIsWrongWithBrokenFiles() throws Exception {
+        byte[] content = file(CodecFactory.nullCodec());
+        int header = headerLength();
+
+        assertTrue(problem("{\"id\": 1}".getBytes()).contains("bad magic bytes"));
+        assertTrue(problem(Arrays.copyOf(content, header - 4)).contains("truncated"));
+        assertTrue(problem(Arrays.copyOf(content, content.length - 5)).contains("truncated"));
+
+        byte[] badSync = content.clone();
+        badSync[badSync.length - 1] ^= 1;
+        assertTrue(problem(badSync).contains("Sync marker mismatch"));
+
+        // The first block's record count, one varint right after the header, claims one record less.
+        byte[] shortCount = content.clone();
+        shortCount[header] -= 2;
+        String countMismatch = problem(shortCount);
+        assertTrue(countMismatch.contains("holds more data than"), countMismatch);
+
+        byte[] snappy = file(CodecFactory.snappyCodec());
+        snappy[header + 10] ^= 0x55;
+        String undecodable = problem(snappy);
+        assertTrue(undecodable.startsWith("Block 0"), undecodable);
+
+        assertEquals(6, registry.get("ingest.validation").tag("result", "invalid").counter().count());
+    }
+
+    @Test
+    public void shouldRethrowFailuresOfTheStreamItself() throws Exception {
+        byte[] content = file(CodecFactory.nullCodec());
+        InputStream failing = new FilterInputStream(new ByteArrayInputStream(content, 0, content.length / 2)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read < 0) {
+                    throw new IOException("connection reset");
+                }
+                return read;
+            }
+        };
+
+        IOException e = assertThrows(IOException.class, () -> validator(1).validate(failing));
+        assertEquals("connection reset", e.getMessage());
+    }
+
+    @Test
+    public void shouldQuarantineBrokenFilesBeforeSubmittingJobs() throws Exception {
+        byte[] content = file(CodecFactory.nullCodec());
+        Blob blob = mock(Blob.class);
+        when(blob.getContent()).thenReturn(Arrays.copyOf(content, content.length / 2));
+        Storage storage = mock(Storage.class);
+        when(storage.get(any(BlobId.class))).thenReturn(blob);
+        when(storage.copy(any(Storage.CopyRequest.class))).thenReturn(mock(CopyWriter.class));
+        when(storage.delete(any(BlobId.class))).thenReturn(true);
+        BigQuery bigquery = mock(BigQuery.class);
+        LoadAvroFromGCSImpl loadAvroFromGCSImpl = new LoadAvroFromGCSImplBuilder()
+                .storage(storage)
+                .bigquery(bigquery)
+                .avroContainerValidator(validator(16))
+                .build();
+
+        assertTrue(loadAvroFromGCSImpl.load(new StorageObject("bucket", "avro/broken.avro", 7L, null)));
+
+        ArgumentCaptor<Storage.CopyRequest> copy = ArgumentCaptor.forClass(Storage.CopyRequest.class);
+        verify(storage).copy(copy.capture());
+        assertEquals(BlobId.of("bucket", "avro/broken.avro", 7L), copy.getValue().getSource());
+        assertEquals("quarantine/avro/broken.avro", copy.getValue().getTarget().getName());
+        assertTrue(copy.getValue().getTarget().getMetadata().get("quarantine-reason").contains("truncated"));
+        verify(storage).delete(BlobId.of("bucket", "avro/broken.avro", 7L));
+        verify(bigquery, never()).create(any(JobInfo.class));
+
+        assertTrue(loadAvroFromGCSImpl.isOwnOutput(new StorageObject("bucket", "quarantine/avro/broken.avro", 8L, null)));
+    }
+
+    @Test
+    public void shouldQuarantineBrokenBatchMembersBeforeSubmittingJobs() throws Exception {
+        byte[] content = file(CodecFactory.nullCodec());
+        Storage storage = LocalStorageHelper.getOptions().getService();
+        storage.create(BlobInfo.newBuilder("bucket", "avro/intact.avro").build(), content);
+        storage.create(BlobInfo.newBuilder("bucket", "avro/broken.avro").build(), Arrays.copyOf(content, content.length / 2));
+        BigQuery bigquery = mock(BigQuery.class);
+        Route route = new Route("bucket", "", "dataset");
+        route.setLoadPolicy(LoadPolicy.ALL);
+        LoadAvroFromGCSImpl loadAvroFromGCSImpl = new LoadAvroFromGCSImplBuilder()
+                .storage(storage)
+                .bigquery(bigquery)
+                .route(route)
+                .avroContainerValidator(validator(16))
+                .build();
+
+        assertFalse(loadAvroFromGCSImpl.loadBatch(new StorageObject("bucket", "backfill/batch", null),
+                Arrays.asList(new StorageObject("bucket", "avro/intact.avro", null, (long) content.length),
+                        new StorageObject("bucket", "avro/broken.avro", null, (long) content.length / 2)),
+                Client.SCHEMA$, route));
+
+        // The broken member is moved aside and no job is submitted for a set that no longer exists.
+        assertNull(storage.get(BlobId.of("bucket", "avro/broken.avro")));
+        assertTrue(storage.get(BlobId.of("bucket", "quarantine/avro/broken.avro"))
+                .getMetadata().get("quarantine-reason").contains("truncated"));
+        assertNotNull(storage.get(BlobId.of("bucket", "avro/intact.avro")));
+        verify(bigquery, never()).create(any(JobInfo.class));
+    }
+}
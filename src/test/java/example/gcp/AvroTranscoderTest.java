@@ -0,0 +1,93 @@
+package example.gcp;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.contrib.nio.testing.LocalStorageHelper;
+import example.gcp.service.StorageObject;
+import example.gcp.service.utils.AvroTranscoder;
+import example.gcp.service.utils.GenericRecordReaders;
+import example.gcp.service.utils.TranscodeProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AvroTranscoderTest {
+
+    private final Storage storage = LocalStorageHelper.getOptions().getService();
+
+    private static byte[] file(int records) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataFileWriter<Client> writer = new DataFileWriter<>(new SpecificDatumWriter<>(Client.class))) {
+            writer.create(Client.SCHEMA$, bytes);
+            for (int i = 0; i < records; i++) {
+                writer.append(new Client((long) i, "client" + i, null, "Street " + (i % 10)));
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private StorageObject upload(String name, int records) throws Exception {
+        byte[] bytes = file(records);
+        BlobInfo info = storage.create(BlobInfo.newBuilder("bucket", name).build(), bytes);
+        return new StorageObject("bucket", name, info.getGeneration(), (long) bytes.length);
+    }
+
+    private static AvroTranscoder zstd() {
+        TranscodeProperties properties = new TranscodeProperties();
+        properties.setEnabled(true);
+        properties.setTargetCodec("zstd");
+        return new AvroTranscoder(properties, new SimpleMeterRegistry());
+    }
+
+    @Test
+    public void shouldRecompressBlocksWithTargetCodec() throws Exception {
+        AvroTranscoder transcoder = zstd();
+        StorageObject object = upload("avro/clients.avro", 5000);
+
+        AvroTranscoder.Result result = transcoder.transcode(storage, object);
+
+        assertEquals("null", result.getSourceCodec());
+        assertTrue(result.getBytesSaved() > 0);
+        assertTrue(transcoder.isTranscoded(result.getTarget()));
+        byte[] transcoded = storage.readAllBytes(BlobId.of("bucket", result.getTarget().getName()));
+        assertEquals(result.getBytesOut(), transcoded.length);
+        try (DataFileStream<GenericRecord> stream =
+                     new DataFileStream<>(new ByteArrayInputStream(transcoded), new GenericDatumReader<>())) {
+            assertEquals("zstandard", stream.getMetaString("avro.codec"));
+        }
+        assertEquals(5000, GenericRecordReaders.forEach(new ByteArrayInputStream(transcoded), null, record -> {
+        }));
+    }
+
+    @Test
+    public void shouldTranscodeContentAlreadyInMemory() throws Exception {
+        byte[] content = file(5000);
+        // Never uploaded, so the transcoder can only have read the bytes it was given.
+        StorageObject object = new StorageObject("bucket", "avro/in-memory.avro", 1L, (long) content.length);
+
+        AvroTranscoder.Result result = zstd().transcode(storage, object, new ByteArrayInputStream(content));
+
+        assertEquals(content.length, result.getBytesIn());
+        byte[] transcoded = storage.readAllBytes(BlobId.of("bucket", result.getTarget().getName()));
+        assertEquals(5000, GenericRecordReaders.forEach(new ByteArrayInputStream(transcoded), null, record -> {
+        }));
+    }
+
+    @Test
+    public void shouldSkipDisabledPolicy() throws Exception {
+        AvroTranscoder transcoder = new AvroTranscoder(new TranscodeProperties(), new SimpleMeterRegistry());
+        assertNull(transcoder.transcode(storage, upload("clients.avro", 10)));
+    }
+}
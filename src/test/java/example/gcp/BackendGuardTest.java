@@ -0,0 +1,121 @@
+package example.gcp;
+
+import com.google.cloud.storage.StorageException;
+import example.gcp.service.BackendUnavailableException;
+import example.gcp.service.utils.BackendGuard;
+import example.gcp.service.utils.BackendProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BackendGuardTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private static BackendProperties.Backend breaker() {
+        BackendProperties.Backend properties = new BackendProperties.Backend();
+        properties.setWindow(10);
+        properties.setMinimumCalls(4);
+        properties.setFailureRate(0.5);
+        properties.setOpenDuration(Duration.ofMillis(100));
+        properties.setHalfOpenCalls(1);
+        return properties;
+    }
+
+    private static Object fail(int code) {
+        throw new StorageException(code, "backend says " + code);
+    }
+
+    @Test
+    public void shouldOpenOnServerErrorsAndCloseAfterTrialCall() throws Exception {
+        BackendGuard guard = new BackendGuard("gcs", breaker(), registry);
+        for (int i = 0; i < 4; i++) {
+            assertThrows(StorageException.class, () -> guard.call(() -> fail(503)));
+        }
+
+        AtomicInteger calls = new AtomicInteger();
+        assertThrows(BackendUnavailableException.class, () -> guard.call(calls::incrementAndGet));
+        assertEquals(0, calls.get());
+        assertEquals(1, registry.get("backend.breaker.open").gauge().value());
+
+        Thread.sleep(150);
+        assertEquals(1, (int) guard.call(calls::incrementAndGet));
+        assertEquals(2, (int) guard.call(calls::incrementAndGet));
+        assertEquals(0, registry.get("backend.breaker.open").gauge().value());
+    }
+
+    @Test
+    public void shouldIgnoreClientErrors() {
+        BackendGuard guard = new BackendGuard("gcs", breaker(), registry);
+        for (int i = 0; i < 10; i++) {
+            assertThrows(StorageException.class, () -> guard.call(() -> fail(404)));
+        }
+        assertEquals("ok", guard.call(() -> "ok"));
+    }
+
+    @Test
+    public void shouldReturnTheFasterOfTwoHedgedReads() {
+        BackendProperties.Backend properties = new BackendProperties.Backend();
+        properties.setHedgeEnabled(true);
+        properties.setHedgeMaxDelay(Duration.ofMillis(50));
+        BackendGuard guard = new BackendGuard("gcs", properties, registry);
+        CountDownLatch stuck = new CountDownLatch(1);
+        AtomicInteger attempts = new AtomicInteger();
+
+        long started = System.nanoTime();
+        String result = guard.read("get", () -> {
+            if (attempts.incrementAndGet() == 1) {
+                try {
+                    stuck.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "slow";
+            }
+            return "fast";
+        });
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        stuck.countDown();
+        guard.shutdown();
+
+        assertEquals("fast", result);
+        assertEquals(2, attempts.get());
+        assertEquals(1, registry.get("backend.hedged.reads").counter().count());
+        assertTrue(elapsed < 5_000, "took " + elapsed + "ms");
+    }
+
+    @Test
+    public void shouldTuneTheHedgeDelayPerOperation() {
+        BackendProperties.Backend properties = new BackendProperties.Backend();
+        properties.setHedgeEnabled(true);
+        properties.setHedgeMinDelay(Duration.ofMillis(1));
+        properties.setHedgeMaxDelay(Duration.ofSeconds(2));
+        BackendGuard guard = new BackendGuard("gcs", properties, registry);
+
+        // Fast metadata reads bring their own hedge delay down to the minimum...
+        for (int i = 0; i < 64; i++) {
+            guard.read("get", () -> "metadata");
+        }
+        // ...but a slower kind of read keeps the delay learned from its own latencies.
+        double hedged = registry.get("backend.hedged.reads").counter().count();
+        assertEquals("listing", guard.read("list", () -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "listing";
+        }));
+        guard.shutdown();
+
+        assertEquals(hedged, registry.get("backend.hedged.reads").counter().count());
+    }
+}
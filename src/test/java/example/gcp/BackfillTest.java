@@ -0,0 +1,149 @@
+package example.gcp;
+
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.contrib.nio.testing.LocalStorageHelper;
+import example.gcp.service.StorageObject;
+import example.gcp.service.utils.Backfill;
+import example.gcp.service.utils.BackfillProperties;
+import example.gcp.service.utils.LoadAvroFromGCSImpl;
+import example.gcp.service.utils.Route;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BackfillTest {
+    private static final Schema NARROW = SchemaBuilder.record("Client").fields()
+            .requiredLong("id").endRecord();
+    private static final Schema WIDE = SchemaBuilder.record("Client").fields()
+            .requiredLong("id").optionalString("name").endRecord();
+
+    private final Storage storage = LocalStorageHelper.getOptions().getService();
+    private final LoadAvroFromGCSImpl loadAvroFromGCSImpl = mock(LoadAvroFromGCSImpl.class);
+    private final Route route = new Route("bucket", "avro/", "dataset");
+    private final BackfillProperties properties = new BackfillProperties();
+    private Backfill backfill;
+
+    @TempDir
+    Path cursors;
+
+    @BeforeEach
+    public void setUp() {
+        properties.setCursorDirectory(cursors.toString());
+        properties.setMaxUrisPerJob(2);
+        when(loadAvroFromGCSImpl.getStorage()).thenReturn(storage);
+        when(loadAvroFromGCSImpl.route(any())).thenReturn(route);
+        backfill = new Backfill(properties, loadAvroFromGCSImpl);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        backfill.shutdown();
+    }
+
+    private void upload(String name, Schema schema) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataFileWriter<GenericRecord> writer = new DataFileWriter<>(new GenericDatumWriter<>(schema))) {
+            writer.create(schema, bytes);
+            GenericRecord record = new GenericData.Record(schema);
+            record.put("id", 1L);
+            writer.append(record);
+        }
+        storage.create(BlobInfo.newBuilder("bucket", name).build(), bytes.toByteArray());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldGroupObjectsBySchemaIntoBoundedJobs() throws Exception {
+        upload("avro/1.avro", NARROW);
+        upload("avro/2.avro", WIDE);
+        upload("avro/3.avro", NARROW);
+        upload("avro/4.avro", NARROW);
+        upload("other/5.avro", NARROW);
+        when(loadAvroFromGCSImpl.loadBatch(any(), anyList(), any(), eq(route))).thenReturn(true);
+
+        Backfill.Summary summary = backfill.run("gs://bucket/avro/", Duration.ZERO);
+
+        assertEquals(4, summary.getLoaded());
+        assertEquals(3, summary.getJobs());
+        assertTrue(summary.isComplete());
+        ArgumentCaptor<List<StorageObject>> members = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<Schema> schemas = ArgumentCaptor.forClass(Schema.class);
+        verify(loadAvroFromGCSImpl, times(3)).loadBatch(any(), members.capture(), schemas.capture(), eq(route));
+        List<Integer> narrowSizes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            if (schemas.getAllValues().get(i).equals(WIDE)) {
+                assertEquals("avro/2.avro", members.getAllValues().get(i).get(0).getName());
+            } else {
+                narrowSizes.add(members.getAllValues().get(i).size());
+            }
+        }
+        assertEquals(3, narrowSizes.stream().mapToInt(Integer::intValue).sum());
+    }
+
+    @Test
+    public void shouldKeepFailedObjectsForTheNextPass() throws Exception {
+        upload("avro/1.avro", NARROW);
+        upload("avro/2.avro", WIDE);
+        when(loadAvroFromGCSImpl.loadBatch(any(), anyList(), eq(NARROW), eq(route))).thenReturn(true);
+        when(loadAvroFromGCSImpl.loadBatch(any(), anyList(), eq(WIDE), eq(route))).thenReturn(false);
+
+        Backfill.Summary summary = backfill.run("gs://bucket/avro/", Duration.ZERO);
+
+        assertEquals(1, summary.getLoaded());
+        assertEquals(1, summary.getFailed());
+        assertFalse(summary.isComplete());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldResumeObjectsTheJournalHasSeenOnTheirOwn() throws Exception {
+        upload("avro/1.avro", NARROW);
+        upload("avro/2.avro", NARROW);
+        upload("avro/3.avro", NARROW);
+        // Its notification committed one table and stopped before the delete.
+        when(loadAvroFromGCSImpl.isStarted(argThat(object -> object.getName().equals("avro/2.avro")))).thenReturn(true);
+        when(loadAvroFromGCSImpl.load(any(StorageObject.class))).thenReturn(true);
+        when(loadAvroFromGCSImpl.loadBatch(any(), anyList(), any(), eq(route))).thenReturn(true);
+
+        Backfill.Summary summary = backfill.run("gs://bucket/avro/", Duration.ZERO);
+
+        assertEquals(3, summary.getLoaded());
+        assertTrue(summary.isComplete());
+        ArgumentCaptor<StorageObject> resumed = ArgumentCaptor.forClass(StorageObject.class);
+        verify(loadAvroFromGCSImpl).load(resumed.capture());
+        assertEquals("avro/2.avro", resumed.getValue().getName());
+        ArgumentCaptor<List<StorageObject>> members = ArgumentCaptor.forClass(List.class);
+        verify(loadAvroFromGCSImpl).loadBatch(any(), members.capture(), eq(NARROW), eq(route));
+        assertEquals(Arrays.asList("avro/1.avro", "avro/3.avro"),
+                members.getValue().stream().map(StorageObject::getName).sorted().collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,65 @@
+package example.gcp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.services.bigquery.model.TableRow;
+import example.gcp.service.utils.BigQueryAvroUtils;
+import example.gcp.service.utils.ColumnarRowBatch;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ColumnarRowBatchTest {
+
+    private static List<Client> clients(int count) {
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            clients.add(Client.newBuilder()
+                    .setId(i)
+                    .setName("client" + i)
+                    .setPhone(i % 3 == 0 ? null : "555-" + i)
+                    .setAddress(i % 5 == 0 ? null : "Street " + (i % 4))
+                    .build());
+        }
+        return clients;
+    }
+
+    @Test
+    public void shouldMatchTableRowConversion() throws Exception {
+        List<Client> clients = clients(100);
+        ColumnarRowBatch batch = ColumnarRowBatch.of(Client.SCHEMA$, false);
+        clients.forEach(batch::append);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        batch.writeNdjson(out);
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        ObjectMapper mapper = new ObjectMapper();
+
+        assertEquals(clients.size(), batch.size());
+        assertEquals(clients.size(), lines.length);
+        for (int i = 0; i < clients.size(); i++) {
+            TableRow expected = BigQueryAvroUtils.convertSpecificRecordToTableRow(
+                    clients.get(i), BigQueryAvroUtils.getTableSchema(Client.SCHEMA$));
+            assertEquals(expected, batch.toTableRow(i));
+            Map<?, ?> json = mapper.readValue(lines[i], Map.class);
+            assertEquals(expected.keySet(), json.keySet());
+            assertEquals(((Number) expected.get("id")).longValue(), ((Number) json.get("id")).longValue());
+        }
+    }
+
+    @Test
+    public void shouldDictionaryEncodeOnlyRepetitiveStrings() {
+        ColumnarRowBatch batch = ColumnarRowBatch.of(Client.SCHEMA$, false);
+        clients(5000).forEach(batch::append);
+
+        assertEquals(4, batch.dictionarySize("address"));
+        assertEquals(-1, batch.dictionarySize("name"));
+        assertEquals("Street 1", batch.get(1, 3));
+        assertEquals("client4999", batch.get(4999, 1));
+    }
+}
@@ -0,0 +1,82 @@
+package example.gcp;
+
+import example.gcp.service.utils.GenericRecordReaders;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GenericRecordReadersTest {
+
+    @Test
+    public void shouldReadAnySchemaAsWritten() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        try (InputStream in = new ClassPathResource("client1.avro").getInputStream()) {
+            long count = GenericRecordReaders.forEach(in, null, record -> ids.add((Long) record.get("id")));
+            assertEquals(count, ids.size());
+        }
+        try (InputStream in = new ClassPathResource("client1.avro").getInputStream()) {
+            Schema writer = GenericRecordReaders.readSchema(in);
+            assertEquals(GenericRecordReaders.fingerprint(Client.SCHEMA$), GenericRecordReaders.fingerprint(writer));
+        }
+    }
+
+    @Test
+    public void shouldResolveIntoReaderSchemaAndReuseRecords() throws Exception {
+        Schema projection = SchemaBuilder.record("Client").namespace("example.gcp").fields()
+                .requiredLong("id")
+                .optionalString("email")
+                .endRecord();
+        List<GenericRecord> seen = new ArrayList<>();
+        try (InputStream in = new ClassPathResource("client1.avro").getInputStream()) {
+            GenericRecordReaders.forEach(in, projection, record -> {
+                assertEquals(projection, record.getSchema());
+                assertNull(record.get("email"));
+                seen.add(record);
+            });
+        }
+        for (GenericRecord record : seen) {
+            assertSame(seen.get(0), record);
+        }
+        assertSame(GenericRecordReaders.readerFor(Client.SCHEMA$, projection),
+                GenericRecordReaders.readerFor(Client.SCHEMA$, projection));
+        GenericDatumReader<GenericRecord> mine = GenericRecordReaders.readerFor(Client.SCHEMA$, projection);
+        GenericDatumReader<GenericRecord> other = CompletableFuture
+                .supplyAsync(() -> GenericRecordReaders.readerFor(Client.SCHEMA$, projection)).get();
+        assertNotSame(mine, other);
+    }
+
+    @Test
+    public void shouldEstimateRowsFromFirstBlock() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataFileWriter<Client> writer = new DataFileWriter<>(new SpecificDatumWriter<>(Client.class))) {
+            writer.setSyncInterval(4096);
+            writer.create(Client.SCHEMA$, bytes);
+            for (int i = 0; i < 10_000; i++) {
+                writer.append(new Client((long) i, "client" + i, null, "Street " + (i % 10)));
+            }
+        }
+        byte[] file = bytes.toByteArray();
+
+        long estimate = GenericRecordReaders.estimateRows(new ByteArrayInputStream(file, 0, 8192), file.length);
+
+        assertTrue(estimate > 9_000 && estimate < 11_000, "estimate " + estimate);
+    }
+}
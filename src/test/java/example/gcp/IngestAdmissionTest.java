@@ -0,0 +1,155 @@
+package example.gcp;
+
+import example.gcp.service.AdmissionRejectedException;
+import example.gcp.service.StorageObject;
+import example.gcp.service.utils.AdmissionProperties;
+import example.gcp.service.utils.IngestAdmission;
+import example.gcp.service.utils.IngestScheduler;
+import example.gcp.service.utils.IngestSchedulerProperties;
+import example.gcp.service.utils.RoutingTable;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IngestAdmissionTest {
+    private static final long MIB = 1024 * 1024;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private IngestAdmission admission(Duration maxWait) {
+        AdmissionProperties properties = new AdmissionProperties();
+        properties.setMaxBytes(10 * MIB);
+        properties.setUnknownSizeBytes(4 * MIB);
+        properties.setMaxWait(maxWait);
+        return new IngestAdmission(properties, registry);
+    }
+
+    private static StorageObject object(String name, Long size) {
+        return new StorageObject("bucket", name, 1L, size);
+    }
+
+    @Test
+    public void shouldRejectObjectsThatDoNotFitInTime() throws Exception {
+        IngestAdmission admission = admission(Duration.ofMillis(50));
+
+        IngestAdmission.Permit first = admission.admit(object("a", 6 * MIB));
+        IngestAdmission.Permit unknown = admission.admit(object("b", null));
+        assertEquals(10 * MIB, admission.inFlightBytes());
+        assertThrows(AdmissionRejectedException.class, () -> admission.admit(object("c", 1L)));
+
+        first.close();
+        first.close();
+        IngestAdmission.Permit third = admission.admit(object("c", MIB));
+        assertEquals(5 * MIB, admission.inFlightBytes());
+        third.close();
+        unknown.close();
+
+        assertEquals(0, registry.get("ingest.admission.inflight.bytes").gauge().value());
+        assertEquals(1, registry.get("ingest.admission.rejected").counter().count());
+        assertEquals(1, registry.get("ingest.admission.deferred").counter().count());
+    }
+
+    @Test
+    public void shouldAdmitWaitingObjectsInArrivalOrder() throws Exception {
+        IngestAdmission admission = admission(Duration.ofSeconds(10));
+        IngestAdmission.Permit running = admission.admit(object("running", 8 * MIB));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        CompletableFuture<IngestAdmission.Permit> large =
+                CompletableFuture.supplyAsync(() -> admit(admission, "large", 9 * MIB), executor);
+        while (registry.get("ingest.admission.waiting").gauge().value() < 1) {
+            Thread.sleep(1);
+        }
+        CompletableFuture<IngestAdmission.Permit> small =
+                CompletableFuture.supplyAsync(() -> admit(admission, "small", MIB), executor);
+        Thread.sleep(100);
+        // The small object would fit, but must not overtake the large one already waiting.
+        assertFalse(small.isDone());
+
+        running.close();
+        large.get(5, TimeUnit.SECONDS);
+        small.get(5, TimeUnit.SECONDS);
+        assertEquals(10 * MIB, admission.inFlightBytes());
+        executor.shutdown();
+    }
+
+    @Test
+    public void shouldRunObjectsLargerThanTheBudgetAlone() throws Exception {
+        IngestAdmission admission = admission(Duration.ofMillis(50));
+
+        IngestAdmission.Permit huge = admission.admit(object("huge", 100 * MIB));
+        assertEquals(admission.capacityBytes(), admission.inFlightBytes());
+        assertThrows(AdmissionRejectedException.class, () -> admission.admit(object("small", 1L)));
+        huge.close();
+        admission.admit(object("small", 1L)).close();
+        assertEquals(0, admission.inFlightBytes());
+    }
+
+    @Test
+    public void shouldReleaseQueuedObjectsWhenTheSchedulerShutsDown() throws Exception {
+        IngestAdmission admission = admission(Duration.ofSeconds(10));
+        IngestSchedulerProperties properties = new IngestSchedulerProperties();
+        properties.setWorkers(1);
+        IngestScheduler scheduler = new IngestScheduler(properties, new RoutingTable(Collections.emptyList()),
+                admission, registry);
+        CountDownLatch running = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> execute(scheduler, "first", () -> {
+            running.countDown();
+            new CountDownLatch(1).await();
+            return true;
+        }), executor);
+        running.await();
+        CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(
+                () -> execute(scheduler, "queued", () -> true), executor);
+        while (scheduler.queueDepth() < 1) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, registry.get("ingest.lane.queue.depth").tag("lane", "small").gauge().value());
+
+        scheduler.shutdown();
+        ExecutionException rejected = assertThrows(ExecutionException.class, () -> queued.get(5, TimeUnit.SECONDS));
+        assertTrue(rejected.getCause() instanceof RejectedExecutionException, rejected.toString());
+        assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+        // Permits are released by the completing thread, possibly just after the callers return.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (admission.inFlightBytes() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, admission.inFlightBytes());
+        assertThrows(RejectedExecutionException.class, () -> scheduler.execute(object("late", 1L), () -> true));
+        executor.shutdown();
+    }
+
+    private static boolean execute(IngestScheduler scheduler, String name, Callable<Boolean> task) {
+        try {
+            return scheduler.execute(object(name, MIB), task);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static IngestAdmission.Permit admit(IngestAdmission admission, String name, long size) {
+        try {
+            return admission.admit(object(name, size));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
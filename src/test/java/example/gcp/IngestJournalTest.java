@@ -0,0 +1,89 @@
+package example.gcp;
+
+import example.gcp.service.StorageObject;
+import example.gcp.service.utils.IngestJournal;
+import example.gcp.service.utils.IngestStage;
+import example.gcp.service.utils.JournalProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IngestJournalTest {
+
+    @TempDir
+    Path dir;
+
+    private final StorageObject object = new StorageObject("bucket", "avro/client1.avro", 42L);
+
+    private JournalProperties properties(int fileSize) {
+        JournalProperties properties = new JournalProperties();
+        properties.setEnabled(true);
+        properties.setPath(dir.resolve("ingest.journal").toString());
+        properties.setFileSize(fileSize);
+        return properties;
+    }
+
+    @Test
+    public void shouldResumeFromLastRecordedStage() throws Exception {
+        IngestJournal journal = new IngestJournal(properties(4096));
+        journal.record(object, IngestStage.FETCHED);
+        journal.record(object, IngestStage.JOB_SUBMITTED, "ds.avro_all", "job-1", 1);
+        journal.record(object, IngestStage.COMMITTED, "ds.avro_all", "job-1", 0);
+        journal.record(object, IngestStage.JOB_SUBMITTED, "ds.avro_non_optional", "job-2", 1)
+                .get(5, TimeUnit.SECONDS);
+        journal.close();
+
+        IngestJournal.Progress progress = new IngestJournal(properties(4096)).progress(object);
+        assertTrue(progress.isFetched());
+        assertTrue(progress.isCommitted("ds.avro_all"));
+        assertFalse(progress.isCommitted("ds.avro_non_optional"));
+        assertEquals("job-2", progress.getJobId("ds.avro_non_optional"));
+        assertEquals(1, progress.getAttempts("ds.avro_non_optional"));
+        assertFalse(progress.isDeleted());
+    }
+
+    @Test
+    public void shouldStopReplayAtTornEntry() throws Exception {
+        IngestJournal journal = new IngestJournal(properties(4096));
+        journal.record(object, IngestStage.FETCHED);
+        journal.record(object, IngestStage.COMMITTED, "ds.avro_all", "job-1", 0).get(5, TimeUnit.SECONDS);
+        journal.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(dir.resolve("ingest.journal").toFile(), "rw")) {
+            // Corrupt the last payload byte of the second entry.
+            int first = 8 + file.readInt();
+            file.seek(first);
+            int second = file.readInt();
+            file.seek(first + 8 + second - 1);
+            file.write('X');
+        }
+
+        IngestJournal.Progress progress = new IngestJournal(properties(4096)).progress(object);
+        assertTrue(progress.isFetched());
+        assertFalse(progress.isCommitted("ds.avro_all"));
+    }
+
+    @Test
+    public void shouldCompactFinishedObjectsWhenFull() throws Exception {
+        IngestJournal journal = new IngestJournal(properties(2048));
+        for (long generation = 0; generation < 100; generation++) {
+            StorageObject done = new StorageObject("bucket", "avro/done.avro", generation);
+            journal.record(done, IngestStage.FETCHED);
+            journal.record(done, IngestStage.DELETED);
+        }
+        journal.record(object, IngestStage.COMMITTED, "ds.avro_all", "job-1", 0).get(5, TimeUnit.SECONDS);
+        journal.close();
+
+        IngestJournal reopened = new IngestJournal(properties(2048));
+        assertTrue(reopened.progress(object).isCommitted("ds.avro_all"));
+        assertNull(reopened.progress(new StorageObject("bucket", "avro/done.avro", 0L)));
+    }
+}
@@ -0,0 +1,187 @@
+package example.gcp;
+
+import example.gcp.service.StorageObject;
+import example.gcp.service.utils.AdmissionProperties;
+import example.gcp.service.utils.IngestAdmission;
+import example.gcp.service.utils.IngestScheduler;
+import example.gcp.service.utils.IngestSchedulerProperties;
+import example.gcp.service.utils.RoutingTable;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives a single-worker scheduler with two lanes, {@code small} for objects up to 100 bytes and
+ * {@code large} for the rest. A blocking task holds the worker while the lanes fill, so the order
+ * the queued tasks run in shows how the worker picks lanes.
+ */
+public class IngestSchedulerTest {
+    private static final long SMALL = 10;
+    private static final long LARGE = 1000;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private final List<String> ran = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private IngestScheduler scheduler;
+
+    @AfterEach
+    public void tearDown() {
+        release.countDown();
+        scheduler.shutdown();
+        callers.shutdownNow();
+    }
+
+    private IngestScheduler scheduler(int smallShare, int largeShare, Duration agingThreshold) {
+        IngestSchedulerProperties properties = new IngestSchedulerProperties();
+        properties.setWorkers(1);
+        properties.setAgingThreshold(agingThreshold);
+        properties.setLanes(Arrays.asList(
+                new IngestSchedulerProperties.Lane("small", 100L, smallShare),
+                new IngestSchedulerProperties.Lane("large", null, largeShare)));
+        return new IngestScheduler(properties, new RoutingTable(Collections.emptyList()),
+                new IngestAdmission(new AdmissionProperties(), registry), registry);
+    }
+
+    /**
+     * Occupies the only worker with a task from the lane of {@code size} until {@link #release}.
+     */
+    private CompletableFuture<Boolean> block(long size) throws InterruptedException {
+        CompletableFuture<Boolean> blocker = submit("blocker", size, () -> {
+            blocked.countDown();
+            release.await();
+        });
+        blocked.await();
+        return blocker;
+    }
+
+    private interface Body {
+        void run() throws Exception;
+    }
+
+    private CompletableFuture<Boolean> submit(String name, long size, Body body) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return scheduler.execute(new StorageObject("b", name, 1L, size), () -> {
+                    body.run();
+                    return true;
+                });
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }, callers);
+    }
+
+    private CompletableFuture<Boolean> submit(String lane, long size) {
+        return submit(lane, size, () -> ran.add(lane));
+    }
+
+    private void awaitQueueDepth(int depth) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (scheduler.queueDepth() < depth && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(depth, scheduler.queueDepth());
+    }
+
+    private static void awaitAll(List<CompletableFuture<Boolean>> results) throws Exception {
+        for (CompletableFuture<Boolean> result : results) {
+            assertTrue(result.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void shouldSplitTheWorkerByShareWhileBothLanesAreBacklogged() throws Exception {
+        scheduler = scheduler(3, 1, Duration.ofHours(1));
+        block(SMALL);
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            results.add(submit("small", SMALL));
+            results.add(submit("large", LARGE));
+        }
+        awaitQueueDepth(80);
+
+        release.countDown();
+        awaitAll(results);
+        List<String> contended = ran.subList(0, 40);
+        assertEquals(30, Collections.frequency(contended, "small"), contended.toString());
+        assertEquals(10, Collections.frequency(contended, "large"), contended.toString());
+    }
+
+    @Test
+    public void shouldPromoteAStarvedLaneOnceItsHeadPassesTheAgingThreshold() throws Exception {
+        scheduler = scheduler(1000, 1, Duration.ofMillis(50));
+        // The blocker puts the large lane a full stride behind, so by share alone it would wait
+        // for a thousand small tasks.
+        block(LARGE);
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        results.add(submit("large", LARGE));
+        awaitQueueDepth(1);
+        Thread.sleep(100);
+        for (int i = 0; i < 20; i++) {
+            results.add(submit("small", SMALL));
+        }
+        awaitQueueDepth(21);
+
+        release.countDown();
+        awaitAll(results);
+        assertEquals("large", ran.get(0), ran.toString());
+    }
+
+    @Test
+    public void shouldKeepAStarvedLaneWaitingBelowTheAgingThreshold() throws Exception {
+        scheduler = scheduler(1000, 1, Duration.ofHours(1));
+        block(LARGE);
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        results.add(submit("large", LARGE));
+        awaitQueueDepth(1);
+        for (int i = 0; i < 20; i++) {
+            results.add(submit("small", SMALL));
+        }
+        awaitQueueDepth(21);
+
+        release.countDown();
+        awaitAll(results);
+        assertEquals("large", ran.get(20), ran.toString());
+    }
+
+    @Test
+    public void shouldFailEveryQueuedTaskOnShutdown() throws Exception {
+        scheduler = scheduler(3, 1, Duration.ofHours(1));
+        CompletableFuture<Boolean> blocker = block(SMALL);
+        List<CompletableFuture<Boolean>> queued = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            queued.add(submit("small", SMALL));
+            queued.add(submit("large", LARGE));
+        }
+        awaitQueueDepth(6);
+
+        scheduler.shutdown();
+        for (CompletableFuture<Boolean> result : queued) {
+            ExecutionException rejected = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+            assertTrue(rejected.getCause() instanceof RejectedExecutionException, rejected.toString());
+        }
+        assertEquals(0, scheduler.queueDepth());
+        assertTrue(ran.isEmpty(), ran.toString());
+        // The running task is interrupted rather than rejected.
+        assertThrows(ExecutionException.class, () -> blocker.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,69 @@
+package example.gcp;
+
+import example.gcp.service.StorageObject;
+import example.gcp.service.utils.IngestTracing;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.context.propagation.ContextPropagators;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class IngestTracingTest {
+    private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+    private static final String PARENT_ID = "00f067aa0ba902b7";
+
+    private final InMemorySpanExporter exporter = InMemorySpanExporter.create();
+    private final IngestTracing ingestTracing = new IngestTracing(OpenTelemetrySdk.builder()
+            .setTracerProvider(SdkTracerProvider.builder()
+                    .addSpanProcessor(SimpleSpanProcessor.create(exporter))
+                    .build())
+            .setPropagators(ContextPropagators.create(W3CTraceContextPropagator.getInstance()))
+            .build());
+
+    @Test
+    public void shouldContinueTraceFromMessageAttributes() {
+        Map<String, String> attributes =
+                Collections.singletonMap("traceparent", "00-" + TRACE_ID + "-" + PARENT_ID + "-01");
+        Span span = ingestTracing.startIngest("LoadController.load",
+                new StorageObject("b", "avro/client1.avro", 7L, 305L), attributes);
+        try (Scope ignored = span.makeCurrent()) {
+            ingestTracing.inSpan("gcs.getBlob", stage -> null);
+        } finally {
+            span.end();
+        }
+
+        List<SpanData> spans = exporter.getFinishedSpanItems();
+        assertEquals(2, spans.size());
+        SpanData stage = spans.get(0);
+        SpanData ingest = spans.get(1);
+        assertEquals(TRACE_ID, ingest.getTraceId());
+        assertEquals(PARENT_ID, ingest.getParentSpanId());
+        assertEquals(305L, ingest.getAttributes().get(IngestTracing.OBJECT_SIZE));
+        assertEquals(TRACE_ID, stage.getTraceId());
+        assertEquals(ingest.getSpanId(), stage.getParentSpanId());
+    }
+
+    @Test
+    public void shouldRecordFailedStages() {
+        assertThrows(IllegalStateException.class, () -> ingestTracing.inSpan("bigquery.load.submit", stage -> {
+            throw new IllegalStateException("quotaExceeded");
+        }));
+
+        SpanData stage = exporter.getFinishedSpanItems().get(0);
+        assertEquals(StatusCode.ERROR, stage.getStatus().getStatusCode());
+        assertEquals("exception", stage.getEvents().get(0).getName());
+    }
+}
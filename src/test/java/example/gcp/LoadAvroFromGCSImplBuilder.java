@@ -0,0 +1,96 @@
+package example.gcp;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.storage.Storage;
+import example.gcp.service.utils.AvroContainerValidator;
+import example.gcp.service.utils.AvroTranscoder;
+import example.gcp.service.utils.BackendGuards;
+import example.gcp.service.utils.BackendProperties;
+import example.gcp.service.utils.CompactionProperties;
+import example.gcp.service.utils.IngestJournal;
+import example.gcp.service.utils.IngestTracing;
+import example.gcp.service.utils.JournalProperties;
+import example.gcp.service.utils.LoadAvroFromGCSImpl;
+import example.gcp.service.utils.LoadJobQuotaGovernor;
+import example.gcp.service.utils.LoadJobQuotaProperties;
+import example.gcp.service.utils.Route;
+import example.gcp.service.utils.RoutingTable;
+import example.gcp.service.utils.TranscodeProperties;
+import example.gcp.service.utils.ValidationProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.opentelemetry.api.OpenTelemetry;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Builds a {@link LoadAvroFromGCSImpl} for tests, writing to {@code dataset} from {@code bucket}
+ * with every collaborator at its defaults except the load job quota, which is off. Tests override
+ * only what they exercise.
+ */
+public class LoadAvroFromGCSImplBuilder {
+    private Storage storage = mock(Storage.class);
+    private BigQuery bigquery = mock(BigQuery.class);
+    private RoutingTable routingTable = new RoutingTable(Collections.emptyList());
+    private MeterRegistry registry = new SimpleMeterRegistry();
+    private IngestJournal ingestJournal;
+    private LoadJobQuotaGovernor loadJobQuotaGovernor;
+    private AvroContainerValidator avroContainerValidator;
+
+    public LoadAvroFromGCSImplBuilder storage(Storage storage) {
+        this.storage = storage;
+        return this;
+    }
+
+    public LoadAvroFromGCSImplBuilder bigquery(BigQuery bigquery) {
+        this.bigquery = bigquery;
+        return this;
+    }
+
+    public LoadAvroFromGCSImplBuilder route(Route route) {
+        return routingTable(new RoutingTable(Collections.singletonList(route)));
+    }
+
+    public LoadAvroFromGCSImplBuilder routingTable(RoutingTable routingTable) {
+        this.routingTable = routingTable;
+        return this;
+    }
+
+    public LoadAvroFromGCSImplBuilder registry(MeterRegistry registry) {
+        this.registry = registry;
+        return this;
+    }
+
+    public LoadAvroFromGCSImplBuilder ingestJournal(IngestJournal ingestJournal) {
+        this.ingestJournal = ingestJournal;
+        return this;
+    }
+
+    public LoadAvroFromGCSImplBuilder loadJobQuotaGovernor(LoadJobQuotaGovernor loadJobQuotaGovernor) {
+        this.loadJobQuotaGovernor = loadJobQuotaGovernor;
+        return this;
+    }
+
+    public LoadAvroFromGCSImplBuilder avroContainerValidator(AvroContainerValidator avroContainerValidator) {
+        this.avroContainerValidator = avroContainerValidator;
+        return this;
+    }
+
+    public LoadAvroFromGCSImpl build() throws IOException {
+        LoadJobQuotaProperties quota = new LoadJobQuotaProperties();
+        quota.setEnabled(false);
+        return new LoadAvroFromGCSImpl(storage, bigquery, "bucket", "dataset",
+                routingTable,
+                new AvroTranscoder(new TranscodeProperties(), registry),
+                new CompactionProperties(),
+                ingestJournal != null ? ingestJournal : new IngestJournal(new JournalProperties()),
+                loadJobQuotaGovernor != null ? loadJobQuotaGovernor : new LoadJobQuotaGovernor(quota, registry),
+                new IngestTracing(OpenTelemetry.noop()),
+                new BackendGuards(new BackendProperties(), registry),
+                avroContainerValidator != null ? avroContainerValidator
+                        : new AvroContainerValidator(new ValidationProperties(), registry));
+    }
+}
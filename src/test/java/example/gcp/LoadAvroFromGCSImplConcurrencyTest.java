@@ -0,0 +1,157 @@
+package example.gcp;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobId;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.JobStatus;
+import com.google.cloud.bigquery.LoadJobConfiguration;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import example.gcp.service.StorageObject;
+import example.gcp.service.utils.LoadAvroFromGCSImpl;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Loads files of distinct schemas from many threads against a shared service whose BigQuery
+ * calls take a fixed time, and checks that every job carries its own file's schema. Throughput
+ * against the number of threads is measured by
+ * {@link example.gcp.benchmark.LoadThroughputBenchmark}.
+ */
+public class LoadAvroFromGCSImplConcurrencyTest {
+    private static final int SCHEMAS = 8;
+    private static final int FILES = 64;
+    private static final long JOB_MILLIS = 10;
+
+    private final Map<String, byte[]> contents = new ConcurrentHashMap<>();
+    private final Queue<LoadJobConfiguration> submitted = new ConcurrentLinkedQueue<>();
+    private LoadAvroFromGCSImpl loadAvroFromGCSImpl;
+
+    private static Schema schema(int k) {
+        return SchemaBuilder.record("Row").fields()
+                .requiredLong("id")
+                .requiredString("name_" + k)
+                .optionalString("note")
+                .endRecord();
+    }
+
+    private static byte[] file(int k) throws IOException {
+        Schema schema = schema(k);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataFileWriter<GenericRecord> writer = new DataFileWriter<>(new GenericDatumWriter<>(schema))) {
+            writer.create(schema, bytes);
+            GenericRecord record = new GenericData.Record(schema);
+            record.put("id", (long) k);
+            record.put("name_" + k, "row" + k);
+            writer.append(record);
+        }
+        return bytes.toByteArray();
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        Storage storage = mock(Storage.class);
+        when(storage.get(any(BlobId.class))).thenAnswer(invocation -> {
+            BlobId blobId = invocation.getArgument(0);
+            byte[] content = contents.get(blobId.getName());
+            Blob blob = mock(Blob.class);
+            when(blob.getContent()).thenReturn(content);
+            return blob;
+        });
+        when(storage.delete(any(BlobId.class))).thenReturn(true);
+
+        Job job = mock(Job.class);
+        JobStatus status = mock(JobStatus.class);
+        when(job.getStatus()).thenReturn(status);
+        when(job.getJobId()).thenReturn(JobId.of("job"));
+        when(job.waitFor()).thenAnswer(invocation -> {
+            Thread.sleep(JOB_MILLIS);
+            return job;
+        });
+        BigQuery bigquery = mock(BigQuery.class);
+        when(bigquery.create(any(JobInfo.class))).thenAnswer(invocation -> {
+            JobInfo info = invocation.getArgument(0);
+            submitted.add(info.getConfiguration());
+            return job;
+        });
+
+        loadAvroFromGCSImpl = new LoadAvroFromGCSImplBuilder()
+                .storage(storage)
+                .bigquery(bigquery)
+                .build();
+    }
+
+    /**
+     * Uploads {@link #FILES} files cycling through the schemas and loads them on {@code threads}
+     * threads.
+     */
+    private void loadAll(int threads, String prefix) throws Exception {
+        List<StorageObject> objects = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            int k = i % SCHEMAS;
+            String name = prefix + "/" + k + "/" + i + ".avro";
+            contents.put(name, file(k));
+            objects.add(new StorageObject("bucket", name, (long) i, null));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (StorageObject object : objects) {
+                results.add(executor.submit(() -> loadAvroFromGCSImpl.load(object)));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldLoadEachFileWithItsOwnSchema() throws Exception {
+        loadAll(16, "correctness");
+
+        int nonOptionalJobs = 0;
+        for (LoadJobConfiguration config : submitted) {
+            if (config.getSchema() == null) {
+                continue;
+            }
+            nonOptionalJobs++;
+            String uri = config.getSourceUris().get(0);
+            int k = Integer.parseInt(uri.split("/")[4]);
+            List<String> fields = config.getSchema().getFields().stream().map(Field::getName).collect(Collectors.toList());
+            assertEquals(Arrays.asList("id", "name_" + k), fields, uri);
+        }
+        assertEquals(FILES, nonOptionalJobs);
+        assertEquals(2 * FILES, submitted.size());
+    }
+}
@@ -9,7 +9,15 @@ import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.BucketInfo;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.testing.RemoteStorageHelper;
+import example.gcp.service.utils.AvroContainerValidator;
+import example.gcp.service.utils.AvroTranscoder;
+import example.gcp.service.utils.BackendGuards;
+import example.gcp.service.utils.CompactionProperties;
+import example.gcp.service.utils.IngestJournal;
+import example.gcp.service.utils.IngestTracing;
 import example.gcp.service.utils.LoadAvroFromGCSImpl;
+import example.gcp.service.utils.LoadJobQuotaGovernor;
+import example.gcp.service.utils.RoutingTable;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -30,7 +38,21 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 @AutoConfigureMockMvc
 public class LoadAvroFromGCSImplTest {
     @Autowired
-    private LoadAvroFromGCSImpl loadAvroFromGCSImpl;
+    private RoutingTable routingTable;
+    @Autowired
+    private AvroTranscoder avroTranscoder;
+    @Autowired
+    private CompactionProperties compactionProperties;
+    @Autowired
+    private IngestJournal ingestJournal;
+    @Autowired
+    private LoadJobQuotaGovernor loadJobQuotaGovernor;
+    @Autowired
+    private IngestTracing ingestTracing;
+    @Autowired
+    private BackendGuards backendGuards;
+    @Autowired
+    private AvroContainerValidator avroContainerValidator;
 
     private BigQuery bigquery;
     private Storage storage;
@@ -71,10 +93,9 @@ public class LoadAvroFromGCSImplTest {
 
     @Test
     public void shouldReturnTrueBigQueryTablesHaveDone() throws Exception {
-        loadAvroFromGCSImpl.setBigquery(bigquery);
-        loadAvroFromGCSImpl.setStorage(storage);
-        loadAvroFromGCSImpl.setBucketName(bucket);
-        loadAvroFromGCSImpl.setDatasetName(dataset);
+        LoadAvroFromGCSImpl loadAvroFromGCSImpl = new LoadAvroFromGCSImpl(storage, bigquery, bucket, dataset,
+                routingTable, avroTranscoder, compactionProperties, ingestJournal, loadJobQuotaGovernor,
+                ingestTracing, backendGuards, avroContainerValidator);
 
         assertTrue(loadAvroFromGCSImpl.load(name, blob.getGeneration()));
     }
@@ -7,6 +7,7 @@ import static org.mockito.Mockito.when;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import example.gcp.service.StorageObject;
 import example.gcp.service.utils.LoadAvroFromGCSImpl;
 import org.junit.jupiter.api.Test;
 
@@ -100,7 +101,11 @@ public class LoadControllerTest {
 
         JsonObject data = JsonParser.parseString(jsonNotEncoded).getAsJsonObject();
 
-        when(loadAvroFromGCSImpl.load(data.get("name").getAsString(), data.get("generation").getAsLong())).thenReturn(false);
+        when(loadAvroFromGCSImpl.load(new StorageObject(
+                data.get("bucket").getAsString(),
+                data.get("name").getAsString(),
+                data.get("generation").getAsLong(),
+                data.get("size").getAsLong()))).thenReturn(false);
         this.mockMvc.perform(post("/load")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(objectMapper.writeValueAsString(body)))
@@ -120,7 +125,11 @@ public class LoadControllerTest {
 
         JsonObject data = JsonParser.parseString(jsonNotEncoded).getAsJsonObject();
 
-        when(loadAvroFromGCSImpl.load(data.get("name").getAsString(), data.get("generation").getAsLong())).thenReturn(true);
+        when(loadAvroFromGCSImpl.load(new StorageObject(
+                data.get("bucket").getAsString(),
+                data.get("name").getAsString(),
+                data.get("generation").getAsLong(),
+                data.get("size").getAsLong()))).thenReturn(true);
         this.mockMvc.perform(post("/load")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(objectMapper.writeValueAsString(body)))
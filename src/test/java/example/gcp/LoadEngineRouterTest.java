@@ -0,0 +1,187 @@
+package example.gcp;
+
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.contrib.nio.testing.LocalStorageHelper;
+import example.gcp.service.StorageObject;
+import example.gcp.service.utils.AdmissionProperties;
+import example.gcp.service.utils.DataflowProperties;
+import example.gcp.service.utils.EngineRouterProperties;
+import example.gcp.service.utils.IngestAdmission;
+import example.gcp.service.utils.IngestScheduler;
+import example.gcp.service.utils.IngestSchedulerProperties;
+import example.gcp.service.utils.LoadAvroFromGCSImpl;
+import example.gcp.service.utils.LoadDataflowImpl;
+import example.gcp.service.utils.LoadEngineRouter;
+import example.gcp.service.utils.LoadPolicy;
+import example.gcp.service.utils.Route;
+import example.gcp.service.utils.RoutingTable;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LoadEngineRouterTest {
+
+    private final Storage storage = LocalStorageHelper.getOptions().getService();
+    private final LoadAvroFromGCSImpl loadAvroFromGCSImpl = mock(LoadAvroFromGCSImpl.class);
+    private final LoadDataflowImpl loadDataflowImpl = mock(LoadDataflowImpl.class);
+    private final EngineRouterProperties properties = new EngineRouterProperties();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private IngestScheduler ingestScheduler;
+    private LoadEngineRouter router;
+
+    @BeforeEach
+    public void setUp() {
+        properties.setEnabled(true);
+        properties.setStreamingMaxRows(100);
+        when(loadAvroFromGCSImpl.getStorage()).thenReturn(storage);
+        ingestScheduler = new IngestScheduler(new IngestSchedulerProperties(),
+                new RoutingTable(Collections.emptyList()), new IngestAdmission(new AdmissionProperties(), registry), registry);
+        router = new LoadEngineRouter(properties, loadAvroFromGCSImpl, loadDataflowImpl, ingestScheduler, registry);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        ingestScheduler.shutdown();
+    }
+
+    private StorageObject upload(String name, int records) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataFileWriter<Client> writer = new DataFileWriter<>(new SpecificDatumWriter<>(Client.class))) {
+            writer.setSyncInterval(1024);
+            writer.create(Client.SCHEMA$, bytes);
+            for (int i = 0; i < records; i++) {
+                writer.append(new Client((long) i, "client" + i, null, "Street " + (i % 10)));
+            }
+        }
+        BlobInfo info = storage.create(BlobInfo.newBuilder("bucket", name).build(), bytes.toByteArray());
+        return new StorageObject("bucket", name, info.getGeneration(), (long) bytes.size());
+    }
+
+    private double decisions(LoadEngineRouter.Engine engine, String reason) {
+        return registry.counter("load.engine.decisions", "engine", engine.name().toLowerCase(), "reason", reason).count();
+    }
+
+    @Test
+    public void shouldStreamSmallFilesAndLoadTheRest() throws Exception {
+        StorageObject small = upload("avro/small.avro", 20);
+        StorageObject manyRows = upload("avro/rows.avro", 2000);
+        when(loadAvroFromGCSImpl.loadStreaming(small)).thenReturn(true);
+        when(loadAvroFromGCSImpl.load(manyRows)).thenReturn(true);
+
+        assertTrue(router.load(small));
+        assertTrue(router.load(manyRows));
+
+        verify(loadAvroFromGCSImpl).loadStreaming(small);
+        verify(loadAvroFromGCSImpl).load(manyRows);
+        assertEquals(1, decisions(LoadEngineRouter.Engine.STREAMING, "size"));
+        assertEquals(1, decisions(LoadEngineRouter.Engine.LOAD_JOB, "rows"));
+    }
+
+    @Test
+    public void shouldOnlyUseLoadJobsForUpsertRoutes() throws Exception {
+        StorageObject small = upload("avro/small.avro", 20);
+        Route route = new Route("bucket", "avro/", "dataset");
+        route.setUpsertKey(Collections.singletonList("id"));
+        route.setUpsertOrderBy("updated_at");
+        when(loadAvroFromGCSImpl.route(small)).thenReturn(route);
+        when(loadAvroFromGCSImpl.load(small)).thenReturn(true);
+
+        assertTrue(router.load(small));
+
+        verify(loadAvroFromGCSImpl).load(small);
+        assertEquals(1, decisions(LoadEngineRouter.Engine.LOAD_JOB, "upsert"));
+    }
+
+    @Test
+    public void shouldSendLargeFilesToDataflowThroughTheLoadGuards() throws Exception {
+        properties.setDataflowEnabled(true);
+        properties.setDataflowMinBytes(1);
+        StorageObject object = upload("avro/large.avro", 20);
+        Route route = new Route("bucket", "avro/", "bq_load_avro");
+        when(loadAvroFromGCSImpl.route(object)).thenReturn(route);
+        when(loadDataflowImpl.writesTo(route)).thenReturn(true);
+        when(loadAvroFromGCSImpl.loadWith(eq(object), any(), eq("Dataflow"))).thenReturn(true);
+
+        assertTrue(router.load(object));
+
+        verify(loadAvroFromGCSImpl).loadWith(eq(object), any(), eq("Dataflow"));
+        assertEquals(1, decisions(LoadEngineRouter.Engine.DATAFLOW, "size"));
+    }
+
+    @Test
+    public void shouldKeepRoutesDataflowDoesNotWriteToOnLoadJobs() throws Exception {
+        properties.setDataflowEnabled(true);
+        properties.setDataflowMinBytes(1);
+        StorageObject object = upload("avro/large.avro", 20);
+        Route route = new Route("bucket", "avro/", "tenant_a");
+        when(loadAvroFromGCSImpl.route(object)).thenReturn(route);
+        when(loadAvroFromGCSImpl.load(object)).thenReturn(true);
+
+        assertTrue(router.load(object));
+
+        verify(loadAvroFromGCSImpl).load(object);
+        verify(loadDataflowImpl, never()).load(any(StorageObject.class));
+        assertEquals(1, decisions(LoadEngineRouter.Engine.LOAD_JOB, "destination"));
+    }
+
+    @Test
+    public void shouldOnlyWriteWithDataflowWhereItsPipelineWrites() {
+        LoadDataflowImpl dataflow = new LoadDataflowImpl(new DataflowProperties());
+        Route route = new Route("bucket", "avro/", "bq_load_avro");
+        assertTrue(dataflow.writesTo(route));
+        route.setLoadPolicy(LoadPolicy.ALL);
+        assertFalse(dataflow.writesTo(route));
+        assertFalse(dataflow.writesTo(new Route("bucket", "avro/", "tenant_a")));
+    }
+
+    @Test
+    public void shouldRejectAvroWritesWithoutTheSinglePassGraph() {
+        DataflowProperties dataflowProperties = new DataflowProperties();
+        dataflowProperties.setAvroWrite(true);
+
+        assertThrows(IllegalArgumentException.class, () -> new LoadDataflowImpl(dataflowProperties));
+
+        dataflowProperties.setSinglePassWrite(true);
+        new LoadDataflowImpl(dataflowProperties);
+    }
+
+    @Test
+    public void shouldSkipSlowEngines() throws Exception {
+        properties.setStreamingMaxLatency(Duration.ofMillis(5));
+        StorageObject object = upload("avro/small.avro", 20);
+        when(loadAvroFromGCSImpl.loadStreaming(object)).thenAnswer(invocation -> {
+            Thread.sleep(50);
+            return true;
+        });
+
+        router.load(object);
+
+        assertEquals(LoadEngineRouter.Engine.LOAD_JOB, router.choose(object));
+        assertEquals(1, decisions(LoadEngineRouter.Engine.LOAD_JOB, "latency"));
+    }
+
+    @Test
+    public void shouldUseLoadJobsWhenDisabled() throws Exception {
+        properties.setEnabled(false);
+        assertEquals(LoadEngineRouter.Engine.LOAD_JOB, router.choose(upload("avro/small.avro", 1)));
+    }
+}
@@ -0,0 +1,117 @@
+package example.gcp;
+
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.CopyWriter;
+import com.google.cloud.storage.Storage;
+import example.gcp.service.QuotaExhaustedException;
+import example.gcp.service.StorageObject;
+import example.gcp.service.utils.LoadAvroFromGCSImpl;
+import example.gcp.service.utils.LoadJobQuotaGovernor;
+import example.gcp.service.utils.LoadJobQuotaProperties;
+import example.gcp.service.utils.LoadPolicy;
+import example.gcp.service.utils.Route;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LoadJobQuotaGovernorTest {
+
+    private final TableId all = TableId.of("bq_load_avro", "avro_all");
+    private final TableId nonOptional = TableId.of("bq_load_avro", "avro_non_optional");
+
+    private LoadJobQuotaGovernor governor(int dailyJobs, int burst) {
+        LoadJobQuotaProperties properties = new LoadJobQuotaProperties();
+        properties.setDailyJobs(dailyJobs);
+        properties.setBurst(burst);
+        properties.setJobsPerSecond(0.001);
+        return new LoadJobQuotaGovernor(properties, new SimpleMeterRegistry());
+    }
+
+    @Test
+    public void shouldLimitBurstPerTable() {
+        LoadJobQuotaGovernor governor = governor(100, 2);
+        assertTrue(governor.tryAcquire(Collections.singletonList(all)));
+        assertTrue(governor.tryAcquire(Collections.singletonList(all)));
+        assertFalse(governor.tryAcquire(Collections.singletonList(all)));
+        assertTrue(governor.tryAcquire(Collections.singletonList(nonOptional)));
+    }
+
+    @Test
+    public void shouldAcquireAllTablesOrNone() {
+        LoadJobQuotaGovernor governor = governor(100, 1);
+        assertTrue(governor.tryAcquire(Collections.singletonList(nonOptional)));
+        assertFalse(governor.tryAcquire(Arrays.asList(all, nonOptional)));
+        assertTrue(governor.tryAcquire(Collections.singletonList(all)));
+    }
+
+    @Test
+    public void shouldWidenWindowsAsDailyBudgetRunsOut() {
+        LoadJobQuotaGovernor governor = governor(8, 8);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(governor.tryAcquire(Collections.singletonList(all)));
+        }
+        assertEquals(1, governor.windowMultiplier(Collections.singletonList(all)), 1e-9);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(governor.tryAcquire(Collections.singletonList(all)));
+        }
+        assertEquals(4, governor.windowMultiplier(Collections.singletonList(all)), 1e-9);
+
+        governor.exhausted(all, true);
+        assertEquals(0, governor.remainingFraction(all), 1e-9);
+        assertEquals(16, governor.windowMultiplier(Arrays.asList(all, nonOptional)), 1e-9);
+        assertFalse(governor.tryAcquire(Collections.singletonList(all)));
+    }
+
+    @Test
+    public void shouldGiveBackJobsThatWereNotSubmitted() {
+        LoadJobQuotaGovernor governor = governor(100, 1);
+        assertTrue(governor.tryAcquire(Arrays.asList(all, nonOptional)));
+        assertFalse(governor.tryAcquire(Collections.singletonList(all)));
+
+        governor.release(Arrays.asList(all, nonOptional));
+
+        assertEquals(1, governor.remainingFraction(all), 1e-9);
+        assertTrue(governor.tryAcquire(Arrays.asList(all, nonOptional)));
+    }
+
+    @Test
+    public void shouldRefuseObjectsBeforeDownloadingThem() throws Exception {
+        Blob blob = mock(Blob.class);
+        when(blob.getContent()).thenReturn(new byte[]{'n', 'o', 't', ' ', 'a', 'v', 'r', 'o'});
+        Storage storage = mock(Storage.class);
+        when(storage.get(any(BlobId.class))).thenReturn(blob);
+        when(storage.copy(any(Storage.CopyRequest.class))).thenReturn(mock(CopyWriter.class));
+        when(storage.delete(any(BlobId.class))).thenReturn(true);
+        Route route = new Route("bucket", "", "bq_load_avro");
+        route.setLoadPolicy(LoadPolicy.ALL);
+        LoadJobQuotaGovernor governor = governor(100, 1);
+        LoadAvroFromGCSImpl loadAvroFromGCSImpl = new LoadAvroFromGCSImplBuilder()
+                .storage(storage)
+                .route(route)
+                .loadJobQuotaGovernor(governor)
+                .build();
+
+        // A quarantined object submits no job, so its job goes back to the budget.
+        assertTrue(loadAvroFromGCSImpl.load(new StorageObject("bucket", "broken.avro", 1L, null)));
+        assertEquals(1, governor.remainingFraction(all), 1e-9);
+
+        assertTrue(governor.tryAcquire(Collections.singletonList(all)));
+        assertThrows(QuotaExhaustedException.class,
+                () -> loadAvroFromGCSImpl.load(new StorageObject("bucket", "refused.avro", 1L, null)));
+        verify(blob, times(1)).getContent();
+    }
+}
@@ -0,0 +1,148 @@
+package example.gcp;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobId;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.JobStatus;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import example.gcp.service.StorageObject;
+import example.gcp.service.utils.IngestJournal;
+import example.gcp.service.utils.IngestStage;
+import example.gcp.service.utils.JournalProperties;
+import example.gcp.service.utils.LoadAvroFromGCSImpl;
+import example.gcp.service.utils.LoadPolicy;
+import example.gcp.service.utils.Route;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Redelivers files whose earlier loads failed or were cut short, against a BigQuery stand-in that
+ * keeps jobs by id and rejects duplicate ids with 409 as BigQuery does.
+ */
+public class LoadJobRetryTest {
+    private final Map<String, Job> jobs = new HashMap<>();
+    private final List<String> created = new ArrayList<>();
+    private final Queue<BigQueryError> outcomes = new LinkedList<>();
+    private Blob blob;
+    private Storage storage;
+
+    private Job job(JobId jobId, BigQueryError error) {
+        Job job = mock(Job.class);
+        JobStatus status = mock(JobStatus.class);
+        when(status.getError()).thenReturn(error);
+        when(job.getStatus()).thenReturn(status);
+        when(job.getJobId()).thenReturn(jobId);
+        when(job.isDone()).thenReturn(true);
+        try {
+            when(job.waitFor()).thenReturn(job);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        return job;
+    }
+
+    @TempDir
+    Path dir;
+
+    private LoadAvroFromGCSImpl loadAvroFromGCSImpl() throws Exception {
+        return loadAvroFromGCSImpl(new IngestJournal(new JournalProperties()));
+    }
+
+    private LoadAvroFromGCSImpl loadAvroFromGCSImpl(IngestJournal ingestJournal) throws Exception {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (DataFileWriter<Client> writer = new DataFileWriter<>(new SpecificDatumWriter<>(Client.class))) {
+            writer.create(Client.SCHEMA$, content);
+            writer.append(new Client(1L, "client", null, null));
+        }
+        Blob blob = mock(Blob.class);
+        when(blob.getContent()).thenReturn(content.toByteArray());
+        this.blob = blob;
+        storage = mock(Storage.class);
+        when(storage.get(any(BlobId.class))).thenReturn(blob);
+        when(storage.delete(any(BlobId.class))).thenReturn(true);
+
+        BigQuery bigquery = mock(BigQuery.class);
+        when(bigquery.create(any(JobInfo.class))).thenAnswer(invocation -> {
+            JobId jobId = ((JobInfo) invocation.getArgument(0)).getJobId();
+            if (jobs.containsKey(jobId.getJob())) {
+                throw new BigQueryException(409, "Already Exists: Job " + jobId.getJob());
+            }
+            created.add(jobId.getJob());
+            Job job = job(jobId, outcomes.poll());
+            jobs.put(jobId.getJob(), job);
+            return job;
+        });
+        when(bigquery.getJob(any(JobId.class))).thenAnswer(invocation -> jobs.get(((JobId) invocation.getArgument(0)).getJob()));
+
+        Route route = new Route("bucket", "", "dataset");
+        route.setLoadPolicy(LoadPolicy.ALL);
+        return new LoadAvroFromGCSImplBuilder()
+                .storage(storage)
+                .bigquery(bigquery)
+                .route(route)
+                .ingestJournal(ingestJournal)
+                .build();
+    }
+
+    @Test
+    public void shouldResubmitJobsThatFailedBeforeWithoutTheJournal() throws Exception {
+        outcomes.addAll(Arrays.asList(new BigQueryError("invalid", "dataset.avro_all", "Provided schema does not match"),
+                new BigQueryError("backendError", "dataset.avro_all", "Internal error")));
+        LoadAvroFromGCSImpl loadAvroFromGCSImpl = loadAvroFromGCSImpl();
+        StorageObject object = new StorageObject("bucket", "avro/client.avro", 5L, null);
+
+        assertFalse(loadAvroFromGCSImpl.load(object));
+        assertFalse(loadAvroFromGCSImpl.load(object));
+        assertTrue(loadAvroFromGCSImpl.load(object));
+
+        // Every redelivery skips the ids of jobs that already failed and submits the next attempt.
+        assertEquals(3, created.size());
+        assertNotEquals(created.get(0), created.get(1));
+        assertNotEquals(created.get(1), created.get(2));
+    }
+
+    @Test
+    public void shouldDeleteWithoutDownloadingWhenEveryTableHasCommitted() throws Exception {
+        JournalProperties properties = new JournalProperties();
+        properties.setEnabled(true);
+        properties.setPath(dir.resolve("ingest.journal").toString());
+        IngestJournal ingestJournal = new IngestJournal(properties);
+        StorageObject object = new StorageObject("bucket", "avro/client.avro", 5L, null);
+        // Committed before a crash that came ahead of the delete.
+        ingestJournal.record(object, IngestStage.COMMITTED, "dataset.avro_all", "job", 0).get();
+
+        assertTrue(loadAvroFromGCSImpl(ingestJournal).load(object));
+
+        verify(blob, never()).getContent();
+        verify(storage).delete(BlobId.of("bucket", "avro/client.avro", 5L));
+        assertTrue(created.isEmpty());
+        ingestJournal.close();
+    }
+}
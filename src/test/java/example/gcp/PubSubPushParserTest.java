@@ -0,0 +1,58 @@
+package example.gcp;
+
+import example.gcp.service.StorageObject;
+import example.gcp.service.utils.PubSubPushParser;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PubSubPushParserTest {
+
+    private static byte[] push(String notification, String extra) {
+        String data = Base64.getEncoder().encodeToString(notification.getBytes(StandardCharsets.UTF_8));
+        return ("{\"subscription\":\"projects/p/subscriptions/s\",\"message\":{" + extra
+                + "\"data\":\"" + data + "\",\"messageId\":\"42\"}}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void shouldReadNotificationFields() {
+        PubSubPushParser.Notification notification = PubSubPushParser.parse(push(
+                "{\"kind\":\"storage#object\",\"metadata\":{\"a\":[1,2]},\"name\":\"avro/client1.avro\","
+                        + "\"bucket\":\"b\",\"generation\":\"1605284869777239\",\"size\":305,"
+                        + "\"timeCreated\":\"2020-11-13T16:27:49.777Z\"}",
+                "\"attributes\":{\"traceparent\":\"00-abc-def-01\"},"));
+
+        assertEquals(new StorageObject("b", "avro/client1.avro", 1605284869777239L, 305L), notification.getObject());
+        assertEquals("2020-11-13T16:27:49.777Z", notification.getTimeCreated());
+        assertEquals("42", notification.getMessageId());
+        assertEquals("00-abc-def-01", notification.getAttributes().get("traceparent"));
+    }
+
+    @Test
+    public void shouldLeaveMissingOptionalFieldsNull() {
+        StorageObject object = PubSubPushParser.parse(push("{\"name\":\"n\",\"bucket\":\"b\",\"size\":null}", ""))
+                .getObject();
+
+        assertNull(object.getGeneration());
+        assertNull(object.getSize());
+    }
+
+    @Test
+    public void shouldRejectInvalidPushes() {
+        assertEquals(PubSubPushParser.INVALID_MESSAGE, assertThrows(PubSubPushParser.InvalidPushException.class,
+                () -> PubSubPushParser.parse("{\"message\":null}".getBytes(StandardCharsets.UTF_8))).getMessage());
+        assertEquals(PubSubPushParser.INVALID_DATA, assertThrows(PubSubPushParser.InvalidPushException.class,
+                () -> PubSubPushParser.parse("{\"message\":{\"data\":\"{not base64}\"}}".getBytes(StandardCharsets.UTF_8)))
+                .getMessage());
+        assertEquals(PubSubPushParser.INVALID_DATA, assertThrows(PubSubPushParser.InvalidPushException.class,
+                () -> PubSubPushParser.parse(push("{\"name\":\"n\",\"bucket\":\"b\",\"generation\":\"x1\"}", "")))
+                .getMessage());
+        assertEquals(PubSubPushParser.INVALID_NOTIFICATION, assertThrows(PubSubPushParser.InvalidPushException.class,
+                () -> PubSubPushParser.parse(push("{\"name\":null,\"bucket\":\"b\"}", ""))).getMessage());
+    }
+}
@@ -0,0 +1,202 @@
+package example.gcp;
+
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.GrpcTransportChannel;
+import com.google.api.gax.rpc.FixedTransportChannelProvider;
+import com.google.api.gax.rpc.TransportChannelProvider;
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
+import com.google.cloud.pubsub.v1.Publisher;
+import com.google.cloud.pubsub.v1.SubscriptionAdminClient;
+import com.google.cloud.pubsub.v1.SubscriptionAdminSettings;
+import com.google.cloud.pubsub.v1.TopicAdminClient;
+import com.google.cloud.pubsub.v1.TopicAdminSettings;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.ProjectSubscriptionName;
+import com.google.pubsub.v1.PubsubMessage;
+import com.google.pubsub.v1.PushConfig;
+import com.google.pubsub.v1.TopicName;
+import example.gcp.service.QuotaExhaustedException;
+import example.gcp.service.StorageObject;
+import example.gcp.service.utils.AdmissionProperties;
+import example.gcp.service.utils.CompactionProperties;
+import example.gcp.service.utils.DataflowProperties;
+import example.gcp.service.utils.EngineRouterProperties;
+import example.gcp.service.utils.IngestAdmission;
+import example.gcp.service.utils.IngestScheduler;
+import example.gcp.service.utils.IngestSchedulerProperties;
+import example.gcp.service.utils.IngestTracing;
+import example.gcp.service.utils.LoadAvroFromGCSImpl;
+import example.gcp.service.utils.LoadDataflowImpl;
+import example.gcp.service.utils.LoadEngineRouter;
+import example.gcp.service.utils.LoadJobQuotaGovernor;
+import example.gcp.service.utils.LoadJobQuotaProperties;
+import example.gcp.service.utils.PullProperties;
+import example.gcp.service.utils.PullSubscriber;
+import example.gcp.service.utils.RoutingTable;
+import example.gcp.service.utils.SmallFileCompactor;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.opentelemetry.api.OpenTelemetry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PullSubscriberTest {
+    private static final String NOTIFICATION =
+            "{\"name\":\"avro/client1.avro\",\"bucket\":\"b\",\"generation\":\"7\",\"size\":\"305\"}";
+    private static final StorageObject OBJECT = new StorageObject("b", "avro/client1.avro", 7L, 305L);
+
+    private final LoadAvroFromGCSImpl loadAvroFromGCSImpl = mock(LoadAvroFromGCSImpl.class);
+    private final PullProperties properties = new PullProperties();
+    private IngestScheduler ingestScheduler;
+    private PullSubscriber pullSubscriber;
+
+    private static final class Reply implements AckReplyConsumer {
+        private volatile String outcome;
+
+        @Override
+        public void ack() {
+            outcome = "ack";
+        }
+
+        @Override
+        public void nack() {
+            outcome = "nack";
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ingestScheduler = new IngestScheduler(new IngestSchedulerProperties(),
+                new RoutingTable(Collections.emptyList()), new IngestAdmission(new AdmissionProperties(), registry), registry);
+        SmallFileCompactor compactor = new SmallFileCompactor(new CompactionProperties(), loadAvroFromGCSImpl,
+                ingestScheduler, new LoadJobQuotaGovernor(new LoadJobQuotaProperties(), registry),
+                new IngestAdmission(new AdmissionProperties(), registry));
+        LoadEngineRouter router = new LoadEngineRouter(new EngineRouterProperties(), loadAvroFromGCSImpl,
+                new LoadDataflowImpl(new DataflowProperties()), ingestScheduler, registry);
+        pullSubscriber = new PullSubscriber(properties, router, ingestScheduler, compactor,
+                new IngestTracing(OpenTelemetry.noop()));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        pullSubscriber.stop();
+        ingestScheduler.shutdown();
+    }
+
+    private static PubsubMessage message(String data) {
+        return PubsubMessage.newBuilder()
+                .setMessageId("1")
+                .setData(ByteString.copyFrom(data, StandardCharsets.UTF_8))
+                .build();
+    }
+
+    @Test
+    public void shouldAckLoadedAndNackFailedMessages() {
+        Reply loaded = new Reply();
+        when(loadAvroFromGCSImpl.load(OBJECT)).thenReturn(true);
+        pullSubscriber.receive(message(NOTIFICATION), loaded);
+        assertEquals("ack", loaded.outcome);
+
+        Reply failed = new Reply();
+        when(loadAvroFromGCSImpl.load(OBJECT)).thenReturn(false);
+        pullSubscriber.receive(message(NOTIFICATION), failed);
+        assertEquals("nack", failed.outcome);
+
+        Reply refused = new Reply();
+        when(loadAvroFromGCSImpl.load(OBJECT)).thenThrow(new IllegalStateException("busy"));
+        pullSubscriber.receive(message(NOTIFICATION), refused);
+        assertEquals("nack", refused.outcome);
+    }
+
+    @Test
+    public void shouldNackRefusedMessagesAfterTheDelay() throws Exception {
+        properties.setRefusedNackDelay(Duration.ofMillis(200));
+        Reply refused = new Reply();
+        when(loadAvroFromGCSImpl.load(OBJECT)).thenThrow(new QuotaExhaustedException("no load jobs left today"));
+        pullSubscriber.receive(message(NOTIFICATION), refused);
+        assertNull(refused.outcome);
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (refused.outcome == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals("nack", refused.outcome);
+    }
+
+    @Test
+    public void shouldNackRefusedMessagesOnStop() throws Exception {
+        properties.setRefusedNackDelay(Duration.ofHours(1));
+        Reply refused = new Reply();
+        when(loadAvroFromGCSImpl.load(OBJECT)).thenThrow(new QuotaExhaustedException("no load jobs left today"));
+        pullSubscriber.receive(message(NOTIFICATION), refused);
+        assertNull(refused.outcome);
+
+        pullSubscriber.stop();
+        assertEquals("nack", refused.outcome);
+    }
+
+    @Test
+    public void shouldAckUnparseableMessages() {
+        Reply reply = new Reply();
+        pullSubscriber.receive(message("{\"bucket\":\"b\"}"), reply);
+        assertEquals("ack", reply.outcome);
+    }
+
+    /**
+     * Run with {@code gcloud beta emulators pubsub start} and {@code PUBSUB_EMULATOR_HOST} set.
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "PUBSUB_EMULATOR_HOST", matches = ".+")
+    public void shouldLoadMessagesPulledFromEmulator() throws Exception {
+        String host = System.getenv("PUBSUB_EMULATOR_HOST");
+        ManagedChannel channel = ManagedChannelBuilder.forTarget(host).usePlaintext().build();
+        TransportChannelProvider channelProvider =
+                FixedTransportChannelProvider.create(GrpcTransportChannel.create(channel));
+        TopicName topic = TopicName.of("test-project", "avro-" + UUID.randomUUID());
+        ProjectSubscriptionName subscription = ProjectSubscriptionName.of("test-project", "load-" + UUID.randomUUID());
+        try (TopicAdminClient topics = TopicAdminClient.create(TopicAdminSettings.newBuilder()
+                .setTransportChannelProvider(channelProvider)
+                .setCredentialsProvider(NoCredentialsProvider.create())
+                .build());
+             SubscriptionAdminClient subscriptions = SubscriptionAdminClient.create(SubscriptionAdminSettings.newBuilder()
+                     .setTransportChannelProvider(channelProvider)
+                     .setCredentialsProvider(NoCredentialsProvider.create())
+                     .build())) {
+            topics.createTopic(topic);
+            subscriptions.createSubscription(subscription, topic, PushConfig.getDefaultInstance(), 10);
+        }
+        when(loadAvroFromGCSImpl.load(OBJECT)).thenReturn(true);
+        properties.setEnabled(true);
+        properties.setEmulatorHost(host);
+        properties.setSubscription(subscription.toString());
+        pullSubscriber.start();
+
+        Publisher publisher = Publisher.newBuilder(topic)
+                .setChannelProvider(channelProvider)
+                .setCredentialsProvider(NoCredentialsProvider.create())
+                .build();
+        publisher.publish(message(NOTIFICATION)).get();
+        publisher.shutdown();
+        publisher.awaitTermination(10, TimeUnit.SECONDS);
+
+        verify(loadAvroFromGCSImpl, timeout(10_000)).load(OBJECT);
+        channel.shutdown();
+    }
+}
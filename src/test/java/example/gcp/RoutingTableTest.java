@@ -0,0 +1,48 @@
+package example.gcp;
+
+import example.gcp.service.utils.Route;
+import example.gcp.service.utils.RoutingTable;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RoutingTableTest {
+
+    private final Route tenantDefault = new Route("tenant-*", "", "tenants");
+    private final Route tenantA = new Route("tenant-a", "", "tenant_a");
+    private final Route tenantAInvoices = new Route("tenant-a", "avro/invoices/", "tenant_a_invoices");
+    private final Route everything = new Route("*", "avro/", "catch_all");
+
+    private final RoutingTable routingTable =
+            new RoutingTable(Arrays.asList(tenantDefault, tenantA, tenantAInvoices, everything));
+
+    @Test
+    public void shouldPreferExactBucketAndLongestPrefix() {
+        assertEquals(tenantAInvoices, routingTable.match("tenant-a", "avro/invoices/2020/client1.avro"));
+        assertEquals(tenantA, routingTable.match("tenant-a", "avro/client1.avro"));
+    }
+
+    @Test
+    public void shouldFallBackToWildcardBuckets() {
+        assertEquals(tenantDefault, routingTable.match("tenant-b", "client1.avro"));
+        assertEquals(everything, routingTable.match("other", "avro/client1.avro"));
+        assertNull(routingTable.match("other", "json/client1.json"));
+    }
+
+    @Test
+    public void shouldLimitConcurrencyPerRoute() {
+        tenantA.setMaxConcurrency(1);
+        RoutingTable limited = new RoutingTable(Arrays.asList(tenantA, tenantDefault));
+
+        assertTrue(limited.tryAcquire(tenantA));
+        assertFalse(limited.tryAcquire(tenantA));
+        assertTrue(limited.tryAcquire(tenantDefault));
+        limited.release(tenantA);
+        assertTrue(limited.tryAcquire(tenantA));
+    }
+}
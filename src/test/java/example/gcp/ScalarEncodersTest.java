@@ -0,0 +1,105 @@
+package example.gcp;
+
+import example.gcp.service.utils.ScalarEncoders;
+import org.apache.avro.LogicalTypes;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the encoders against the {@code java.time}, {@code BigDecimal} and {@code Base64}
+ * output they replace.
+ */
+public class ScalarEncodersTest {
+    private static final DateTimeFormatter SECONDS = DateTimeFormatter.ofPattern("HH:mm:ss");
+    private static final DateTimeFormatter MILLIS = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+    private static final DateTimeFormatter MICROS = DateTimeFormatter.ofPattern("HH:mm:ss.SSSSSS");
+
+    private final Random random = new Random(42);
+
+    private static String time(long microsOfDay) {
+        DateTimeFormatter formatter = microsOfDay % 1_000_000 == 0 ? SECONDS
+                : microsOfDay % 1000 == 0 ? MILLIS : MICROS;
+        return LocalTime.ofNanoOfDay(microsOfDay * 1000).format(formatter);
+    }
+
+    private static String timestamp(long micros) {
+        LocalDateTime utc = LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1000, ZoneOffset.UTC);
+        return utc.toLocalDate() + " " + time(utc.toLocalTime().toNanoOfDay() / 1000) + " UTC";
+    }
+
+    @Test
+    public void shouldFormatTemporalValuesLikeJavaTime() {
+        long[] fixed = {0, -1, 1, 999_999, 1_000_000, 86_400_000_000L - 1, -86_400_000_000L,
+                951_782_400_000_000L, 253_402_300_799_999_999L, -62_135_596_800_000_000L};
+        for (long micros : fixed) {
+            assertEquals(timestamp(micros), ScalarEncoders.formatTimestamp(micros), "micros " + micros);
+        }
+        for (int i = 0; i < 100_000; i++) {
+            // Any instant from year 0 to 9999, at micro, milli or second precision.
+            long micros = -62_167_219_200_000_000L + (long) (random.nextDouble() * 315_537_897_600_000_000L);
+            micros -= micros % new long[]{1, 1000, 1_000_000}[i % 3];
+            assertEquals(timestamp(micros), ScalarEncoders.formatTimestamp(micros));
+        }
+        for (long days = -800_000; days < 3_000_000; days += 37) {
+            assertEquals(LocalDate.ofEpochDay(days).toString(), ScalarEncoders.formatDate(days));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            long microsOfDay = (long) (random.nextDouble() * 86_400_000_000L);
+            assertEquals(time(microsOfDay), ScalarEncoders.formatTime(microsOfDay));
+        }
+        assertEquals("2020-09-13T12:26:40.5", ScalarEncoders.formatDatetime(1_600_000_000_500_000L).substring(0, 21));
+    }
+
+    @Test
+    public void shouldFormatDecimalsLikeBigDecimal() {
+        LogicalTypes.Decimal[] types = {LogicalTypes.decimal(38, 9), LogicalTypes.decimal(18, 0),
+                LogicalTypes.decimal(76, 38), LogicalTypes.decimal(10, 2)};
+        for (int i = 0; i < 20_000; i++) {
+            LogicalTypes.Decimal type = types[i % types.length];
+            BigInteger unscaled = new BigInteger(1 + random.nextInt(i % 5 == 0 ? 120 : 63), random);
+            if (random.nextBoolean()) {
+                unscaled = unscaled.negate();
+            }
+            byte[] bytes = unscaled.toByteArray();
+            String expected = new BigDecimal(unscaled, type.getScale()).toPlainString();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            assertEquals(expected, ScalarEncoders.formatDecimal(buffer, type));
+            assertEquals(0, buffer.position());
+            assertEquals(expected, ScalarEncoders.formatDecimal(bytes, type));
+        }
+        byte[] minimum = BigInteger.valueOf(Long.MIN_VALUE).toByteArray();
+        assertEquals(BigDecimal.valueOf(Long.MIN_VALUE, 2).toPlainString(),
+                ScalarEncoders.formatDecimal(minimum, LogicalTypes.decimal(20, 2)));
+    }
+
+    @Test
+    public void shouldEncodeBase64InPlace() {
+        for (int length = 0; length < 300; length++) {
+            byte[] bytes = new byte[length + 5];
+            random.nextBytes(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 3, length).slice();
+            byte[] expected = new byte[length];
+            System.arraycopy(bytes, 3, expected, 0, length);
+            ByteBuffer offset = ByteBuffer.wrap(bytes);
+            offset.position(3).limit(3 + length);
+
+            assertEquals(Base64.getEncoder().encodeToString(expected), ScalarEncoders.formatBase64(buffer));
+            assertEquals(Base64.getEncoder().encodeToString(expected), ScalarEncoders.formatBase64(offset));
+            assertEquals(Base64.getEncoder().encodeToString(expected), ScalarEncoders.formatBase64(expected));
+            assertEquals(3, offset.position());
+        }
+    }
+}
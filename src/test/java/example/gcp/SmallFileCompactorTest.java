@@ -0,0 +1,182 @@
+package example.gcp;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.contrib.nio.testing.LocalStorageHelper;
+import example.gcp.service.RouteBusyException;
+import example.gcp.service.StorageObject;
+import example.gcp.service.utils.AdmissionProperties;
+import example.gcp.service.utils.CompactionProperties;
+import example.gcp.service.utils.IngestAdmission;
+import example.gcp.service.utils.IngestScheduler;
+import example.gcp.service.utils.IngestSchedulerProperties;
+import example.gcp.service.utils.LoadAvroFromGCSImpl;
+import example.gcp.service.utils.LoadJobQuotaGovernor;
+import example.gcp.service.utils.LoadJobQuotaProperties;
+import example.gcp.service.utils.Route;
+import example.gcp.service.utils.RoutingTable;
+import example.gcp.service.utils.SmallFileCompactor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SmallFileCompactorTest {
+    private final Storage storage = LocalStorageHelper.getOptions().getService();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final LoadAvroFromGCSImpl loadAvroFromGCSImpl = mock(LoadAvroFromGCSImpl.class);
+    private final Route route = new Route("bucket", "", "dataset");
+    private IngestAdmission admission;
+    private IngestScheduler ingestScheduler;
+    private SmallFileCompactor compactor;
+
+    @BeforeEach
+    public void setUp() {
+        when(loadAvroFromGCSImpl.getStorage()).thenReturn(storage);
+        when(loadAvroFromGCSImpl.route(any(StorageObject.class))).thenReturn(route);
+        CompactionProperties properties = new CompactionProperties();
+        properties.setEnabled(true);
+        properties.setMaxBatchObjects(2);
+        AdmissionProperties admissionProperties = new AdmissionProperties();
+        admissionProperties.setMaxBytes(64L * 1024 * 1024);
+        admission = new IngestAdmission(admissionProperties, registry);
+        ingestScheduler = new IngestScheduler(new IngestSchedulerProperties(),
+                new RoutingTable(Collections.emptyList()), admission, registry);
+        compactor = new SmallFileCompactor(properties, loadAvroFromGCSImpl, ingestScheduler,
+                new LoadJobQuotaGovernor(new LoadJobQuotaProperties(), registry), admission);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        compactor.shutdown();
+        ingestScheduler.shutdown();
+    }
+
+    private StorageObject upload(String name, long id) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataFileWriter<Client> writer = new DataFileWriter<>(new SpecificDatumWriter<>(Client.class))) {
+            writer.create(Client.SCHEMA$, bytes);
+            writer.append(new Client(id, "client" + id, null, null));
+        }
+        BlobInfo info = storage.create(BlobInfo.newBuilder("bucket", name).build(), bytes.toByteArray());
+        return new StorageObject("bucket", name, info.getGeneration(), (long) bytes.size());
+    }
+
+    private boolean compact(StorageObject first, StorageObject second) throws Exception {
+        CompletableFuture<Boolean> a = compactor.add(first);
+        CompletableFuture<Boolean> b = compactor.add(second);
+        boolean loaded = a.get(10, TimeUnit.SECONDS);
+        assertEquals(loaded, b.get(10, TimeUnit.SECONDS));
+        return loaded;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void shouldNameRedeliveredBatchesAfterTheirMembers() throws Exception {
+        StorageObject first = upload("avro/1.avro", 1);
+        StorageObject second = upload("avro/2.avro", 2);
+        when(loadAvroFromGCSImpl.loadCompacted(any(StorageObject.class), any(), any(Route.class), anyList()))
+                .thenReturn(false, true);
+
+        assertFalse(compact(first, second));
+        // Redelivered in the other order, the batch must resume under the same name.
+        assertTrue(compact(second, first));
+
+        ArgumentCaptor<StorageObject> merged = ArgumentCaptor.forClass(StorageObject.class);
+        ArgumentCaptor<List<StorageObject>> members = ArgumentCaptor.forClass(List.class);
+        verify(loadAvroFromGCSImpl, times(2)).loadCompacted(merged.capture(), any(), any(Route.class), members.capture());
+        assertEquals(merged.getAllValues().get(0).getName(), merged.getAllValues().get(1).getName());
+        assertTrue(merged.getValue().getName().startsWith("compacted/"), merged.getValue().getName());
+        assertEquals(2, members.getValue().size());
+        // Members hold admission only while buffered; the merged load is admitted on its own and
+        // released by the worker, possibly just after the batch outcome is reported.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (admission.inFlightBytes() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, admission.inFlightBytes());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void shouldAttachRedeliveriesToTheBufferedMember() throws Exception {
+        StorageObject first = upload("avro/1.avro", 1);
+        StorageObject second = upload("avro/2.avro", 2);
+        when(loadAvroFromGCSImpl.loadCompacted(any(StorageObject.class), any(), any(Route.class), anyList()))
+                .thenReturn(true);
+
+        CompletableFuture<Boolean> delivered = compactor.add(first);
+        CompletableFuture<Boolean> redelivered = compactor.add(first);
+        CompletableFuture<Boolean> other = compactor.add(second);
+
+        assertSame(delivered, redelivered);
+        assertTrue(delivered.get(10, TimeUnit.SECONDS));
+        assertTrue(other.get(10, TimeUnit.SECONDS));
+        ArgumentCaptor<List<StorageObject>> members = ArgumentCaptor.forClass(List.class);
+        verify(loadAvroFromGCSImpl).loadCompacted(any(StorageObject.class), any(), any(Route.class), members.capture());
+        assertEquals(Arrays.asList(first, second), members.getValue());
+    }
+
+    @Test
+    public void shouldQuarantineInvalidMembersInsteadOfBatchingThem() throws Exception {
+        StorageObject broken = upload("avro/broken.avro", 1);
+        when(loadAvroFromGCSImpl.validate(eq(broken), any(byte[].class))).thenReturn("truncated");
+        when(loadAvroFromGCSImpl.quarantine(broken, "truncated")).thenReturn(true);
+
+        CompletableFuture<Boolean> result = compactor.add(broken);
+
+        assertTrue(result.isDone());
+        assertTrue(result.get());
+        verify(loadAvroFromGCSImpl).quarantine(broken, "truncated");
+        verify(loadAvroFromGCSImpl, never()).loadCompacted(any(StorageObject.class), any(), any(Route.class), anyList());
+        assertEquals(0, admission.inFlightBytes());
+    }
+
+    @Test
+    public void shouldDeleteTheMergedFileWhenTheRouteIsBusy() throws Exception {
+        Route busy = new Route("bucket", "", "dataset");
+        busy.setMaxConcurrency(1);
+        RoutingTable routingTable = new RoutingTable(Collections.singletonList(busy));
+        LoadAvroFromGCSImpl loader = new LoadAvroFromGCSImplBuilder()
+                .storage(storage)
+                .routingTable(routingTable)
+                .build();
+        StorageObject merged = upload("compacted/batch.avro", 1);
+        StorageObject member = upload("avro/1.avro", 1);
+        assertTrue(routingTable.tryAcquire(busy));
+
+        assertThrows(RouteBusyException.class, () -> loader.loadCompacted(merged, Client.SCHEMA$, busy,
+                Collections.singletonList(member)));
+
+        // The merged copy goes; the member stays until a batch holding it is committed.
+        assertNull(storage.get(BlobId.of("bucket", "compacted/batch.avro")));
+        assertNotNull(storage.get(BlobId.of("bucket", "avro/1.avro")));
+    }
+}
@@ -0,0 +1,149 @@
+package example.gcp;
+
+import com.google.api.services.bigquery.model.TableRow;
+import example.gcp.service.utils.BigQueryAvroUtils;
+import example.gcp.service.utils.ColumnarRowBatch;
+import example.gcp.service.utils.TableRowAvroWriter;
+import org.apache.avro.Conversions;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TableRowAvroWriterTest {
+    private static final Schema NUMERIC = LogicalTypes.decimal(38, 9).addToSchema(Schema.create(Schema.Type.BYTES));
+
+    private static final Schema ROW = SchemaBuilder.record("Row").fields()
+            .requiredLong("id")
+            .optionalString("name")
+            .name("amount").type(NUMERIC).noDefault()
+            .name("at").type(LogicalTypes.timestampMicros().addToSchema(Schema.create(Schema.Type.LONG))).noDefault()
+            .name("day").type(LogicalTypes.date().addToSchema(Schema.create(Schema.Type.INT))).noDefault()
+            .name("time").type(LogicalTypes.timeMillis().addToSchema(Schema.create(Schema.Type.INT))).noDefault()
+            .name("payload").type().optional().bytesType()
+            .name("address").type().record("Address").fields()
+                .requiredString("street")
+                .optionalDouble("lat")
+                .endRecord().noDefault()
+            .name("tags").type().array().items().stringType().noDefault()
+            .name("attributes").type().map().values().longType().noDefault()
+            .endRecord();
+
+    private static List<GenericRecord> records(int count) {
+        Conversions.DecimalConversion decimals = new Conversions.DecimalConversion();
+        List<GenericRecord> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            GenericRecord address = new GenericData.Record(ROW.getField("address").schema());
+            address.put("street", "Street " + i % 7);
+            address.put("lat", i % 2 == 0 ? null : i / 3.0);
+            GenericRecord record = new GenericData.Record(ROW);
+            record.put("id", (long) i);
+            record.put("name", i % 3 == 0 ? null : "row" + i);
+            record.put("amount", decimals.toBytes(BigDecimal.valueOf(i * 1_000_001L, 9), NUMERIC, NUMERIC.getLogicalType()));
+            record.put("at", 1_600_000_000_000_000L + i * 1_234_567L);
+            record.put("day", 18_000 + i);
+            record.put("time", i * 1_001);
+            record.put("payload", i % 4 == 0 ? null : ByteBuffer.wrap(("p" + i).getBytes(StandardCharsets.UTF_8)));
+            record.put("address", address);
+            record.put("tags", i % 5 == 0 ? Collections.emptyList() : Arrays.asList("a" + i, "b"));
+            record.put("attributes", Collections.singletonMap("k" + i % 3, (long) i));
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static List<TableRow> readBack(byte[] avro) throws IOException {
+        List<TableRow> rows = new ArrayList<>();
+        try (DataFileStream<GenericRecord> reader =
+                     new DataFileStream<>(new ByteArrayInputStream(avro), new GenericDatumReader<>())) {
+            ColumnarRowBatch batch = ColumnarRowBatch.of(reader.getSchema(), false);
+            reader.forEach(batch::append);
+            for (int i = 0; i < batch.size(); i++) {
+                rows.add(batch.toTableRow(i));
+            }
+        }
+        return rows;
+    }
+
+    @Test
+    public void shouldRoundTripNdjsonAndTableRows() throws Exception {
+        ColumnarRowBatch batch = ColumnarRowBatch.of(ROW, false);
+        records(500).forEach(batch::append);
+        List<TableRow> expected = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            expected.add(batch.toTableRow(i));
+        }
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+        batch.writeNdjson(ndjson);
+
+        ByteArrayOutputStream fromNdjson = new ByteArrayOutputStream();
+        try (TableRowAvroWriter writer = new TableRowAvroWriter(batch.getTableSchema(), "Row", fromNdjson,
+                CodecFactory.deflateCodec(6), 4096)) {
+            assertEquals(500, writer.writeNdjson(new ByteArrayInputStream(ndjson.toByteArray())));
+        }
+        ByteArrayOutputStream fromTableRows = new ByteArrayOutputStream();
+        try (TableRowAvroWriter writer = new TableRowAvroWriter(batch.getTableSchema(), "Row", fromTableRows,
+                CodecFactory.nullCodec(), 64_000)) {
+            for (TableRow row : expected) {
+                writer.write(row);
+            }
+            assertEquals(500, writer.getRowCount());
+        }
+
+        assertEquals(expected, readBack(fromNdjson.toByteArray()));
+        assertEquals(expected, readBack(fromTableRows.toByteArray()));
+    }
+
+    @Test
+    public void shouldAcceptTabledataListValues() throws Exception {
+        Schema schema = SchemaBuilder.record("Event").fields()
+                .requiredLong("id")
+                .name("at").type(LogicalTypes.timestampMicros().addToSchema(Schema.create(Schema.Type.LONG))).noDefault()
+                .endRecord();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TableRowAvroWriter writer = new TableRowAvroWriter(BigQueryAvroUtils.getTableSchema(schema), "Event", out,
+                CodecFactory.nullCodec(), 64_000)) {
+            writer.write(new TableRow().set("id", "42").set("at", "1.600000000123456E9"));
+            writer.write(new TableRow().set("id", 43).set("at", "2020-09-13T14:26:40.5+02:00"));
+        }
+
+        List<TableRow> rows = readBack(out.toByteArray());
+        assertEquals(new TableRow().set("id", 42L).set("at", "2020-09-13 12:26:40.123456 UTC"), rows.get(0));
+        assertEquals(new TableRow().set("id", 43L).set("at", "2020-09-13 12:26:40.500 UTC"), rows.get(1));
+    }
+
+    @Test
+    public void shouldRejectMissingRequiredColumnsWithoutCorruptingTheFile() throws Exception {
+        Schema schema = SchemaBuilder.record("Event").fields().requiredLong("id").optionalString("note").endRecord();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TableRowAvroWriter writer = new TableRowAvroWriter(BigQueryAvroUtils.getTableSchema(schema), "Event", out,
+                CodecFactory.nullCodec(), 64_000)) {
+            writer.write(new TableRow().set("id", 1));
+            assertThrows(DataFileWriter.AppendWriteException.class, () -> writer.write(new TableRow().set("note", "x")));
+            writer.write(new TableRow().set("id", 2).set("note", "y"));
+        }
+
+        assertEquals(Arrays.asList(new TableRow().set("id", 1L), new TableRow().set("id", 2L).set("note", "y")),
+                readBack(out.toByteArray()));
+    }
+}
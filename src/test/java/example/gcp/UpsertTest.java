@@ -0,0 +1,212 @@
+package example.gcp;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobId;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.JobStatus;
+import com.google.cloud.bigquery.LoadJobConfiguration;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableInfo;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import example.gcp.service.StorageObject;
+import example.gcp.service.utils.LoadAvroFromGCSImpl;
+import example.gcp.service.utils.LoadPolicy;
+import example.gcp.service.utils.Route;
+import example.gcp.service.utils.RoutingTable;
+import example.gcp.service.utils.UpsertScript;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UpsertTest {
+    private static final Schema CLIENT = SchemaBuilder.record("Client").fields()
+            .requiredLong("id")
+            .requiredString("name")
+            .requiredLong("updated_at")
+            .endRecord();
+
+    private final List<JobInfo> submitted = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, Job> jobs = new HashMap<>();
+    private final Queue<BigQueryError> mergeOutcomes = new LinkedList<>();
+    private final Route route = new Route("bucket", "clients/", "dataset");
+    private Storage storage;
+    private BigQuery bigquery;
+
+    private static GenericRecord client(long id, String name, long updatedAt) {
+        GenericRecord record = new GenericData.Record(CLIENT);
+        record.put("id", id);
+        record.put("name", name);
+        record.put("updated_at", updatedAt);
+        return record;
+    }
+
+    private Job job(JobId jobId, BigQueryError error) throws InterruptedException {
+        Job job = mock(Job.class);
+        JobStatus status = mock(JobStatus.class);
+        when(status.getError()).thenReturn(error);
+        when(job.getStatus()).thenReturn(status);
+        when(job.getJobId()).thenReturn(jobId);
+        when(job.isDone()).thenReturn(true);
+        when(job.waitFor()).thenReturn(job);
+        return job;
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (DataFileWriter<GenericRecord> writer = new DataFileWriter<>(new GenericDatumWriter<>(CLIENT))) {
+            writer.create(CLIENT, content);
+            // Two rows for one key; the correction is the more recent one and must win.
+            writer.append(client(1L, "corrected", 2L));
+            writer.append(client(1L, "first", 1L));
+        }
+        Blob blob = mock(Blob.class);
+        when(blob.getContent()).thenReturn(content.toByteArray());
+        storage = mock(Storage.class);
+        when(storage.get(any(BlobId.class))).thenReturn(blob);
+        when(storage.delete(any(BlobId.class))).thenReturn(true);
+
+        // Keeps jobs by id and rejects duplicate ids with 409, as BigQuery does.
+        bigquery = mock(BigQuery.class);
+        when(bigquery.create(any(JobInfo.class))).thenAnswer(invocation -> {
+            JobInfo info = invocation.getArgument(0);
+            if (jobs.containsKey(info.getJobId().getJob())) {
+                throw new BigQueryException(409, "Already Exists: Job " + info.getJobId().getJob());
+            }
+            submitted.add(info);
+            BigQueryError error = info.getConfiguration() instanceof QueryJobConfiguration ? mergeOutcomes.poll() : null;
+            Job job = job(info.getJobId(), error);
+            jobs.put(info.getJobId().getJob(), job);
+            return job;
+        });
+        when(bigquery.getJob(any(JobId.class))).thenAnswer(invocation -> jobs.get(((JobId) invocation.getArgument(0)).getJob()));
+
+        route.setLoadPolicy(LoadPolicy.ALL);
+        route.setUpsertKey(Collections.singletonList("id"));
+        route.setUpsertOrderBy("updated_at");
+    }
+
+    private LoadAvroFromGCSImpl loadAvroFromGCSImpl() throws IOException {
+        return new LoadAvroFromGCSImplBuilder()
+                .storage(storage)
+                .bigquery(bigquery)
+                .route(route)
+                .build();
+    }
+
+    @Test
+    public void shouldLoadIntoStagingAndMergeOnTheKey() throws Exception {
+        long before = System.currentTimeMillis();
+        assertTrue(loadAvroFromGCSImpl().load(new StorageObject("bucket", "clients/1.avro", 3L, null)));
+
+        assertEquals(2, submitted.size());
+        LoadJobConfiguration staging = submitted.get(0).getConfiguration();
+        TableId stagingTable = staging.getDestinationTable();
+        assertEquals("dataset", stagingTable.getDataset());
+        assertTrue(stagingTable.getTable().startsWith("avro_all_staging_"), stagingTable.getTable());
+        assertEquals(JobInfo.WriteDisposition.WRITE_TRUNCATE, staging.getWriteDisposition());
+        assertEquals(Collections.singletonList("gs://bucket/clients/1.avro"), staging.getSourceUris());
+
+        // The staging table expires on its own even if no merge ever runs.
+        ArgumentCaptor<TableInfo> created = ArgumentCaptor.forClass(TableInfo.class);
+        verify(bigquery).create(created.capture());
+        assertEquals(stagingTable, created.getValue().getTableId());
+        assertTrue(created.getValue().getExpirationTime() >= before + Duration.ofHours(23).toMillis());
+
+        QueryJobConfiguration merge = submitted.get(1).getConfiguration();
+        assertFalse(merge.useLegacySql());
+        String script = merge.getQuery();
+        assertEquals(1, script.split("MERGE ").length - 1, script);
+        assertTrue(script.contains("MERGE `dataset.avro_all` AS target"), script);
+        assertTrue(script.contains("FROM `dataset." + stagingTable.getTable() + "`"), script);
+        assertTrue(script.contains("ROW_NUMBER() OVER (PARTITION BY `id` ORDER BY `updated_at` DESC)"), script);
+        assertTrue(script.contains("ON target.`id` = source.`id`"), script);
+        assertTrue(script.contains("WHEN MATCHED AND (target.`updated_at` IS NULL OR source.`updated_at` >= target.`updated_at`) "
+                + "THEN UPDATE SET `name` = source.`name`, `updated_at` = source.`updated_at`"), script);
+        assertTrue(script.contains("INSERT (`id`, `name`, `updated_at`)"), script);
+        assertTrue(script.endsWith("DROP TABLE `dataset." + stagingTable.getTable() + "`;"), script);
+    }
+
+    @Test
+    public void shouldResubmitAFailedMergeUnderTheNextJobId() throws Exception {
+        mergeOutcomes.add(new BigQueryError("invalidQuery", "dataset.avro_all", "Query error"));
+        LoadAvroFromGCSImpl loadAvroFromGCSImpl = loadAvroFromGCSImpl();
+        StorageObject object = new StorageObject("bucket", "clients/1.avro", 3L, null);
+
+        assertFalse(loadAvroFromGCSImpl.load(object));
+        assertTrue(loadAvroFromGCSImpl.load(object));
+
+        // The committed staging load is found again by id; only the merge is submitted twice.
+        assertEquals(3, submitted.size());
+        assertTrue(submitted.get(1).getConfiguration() instanceof QueryJobConfiguration);
+        assertTrue(submitted.get(2).getConfiguration() instanceof QueryJobConfiguration);
+        assertNotEquals(submitted.get(1).getJobId().getJob(), submitted.get(2).getJobId().getJob());
+    }
+
+    @Test
+    public void shouldRefuseRoutesWhoseKeyIsNotInTheFile() throws Exception {
+        route.setUpsertKey(Collections.singletonList("customer_id"));
+
+        assertFalse(loadAvroFromGCSImpl().load(new StorageObject("bucket", "clients/1.avro", 3L, null)));
+        assertTrue(submitted.isEmpty());
+        verify(bigquery, never()).create(any(TableInfo.class));
+    }
+
+    @Test
+    public void shouldRejectUpsertRoutesWithoutAnOrderColumn() {
+        route.setUpsertOrderBy(null);
+
+        assertThrows(IllegalArgumentException.class, () -> new RoutingTable(Collections.singletonList(route)));
+    }
+
+    @Test
+    public void shouldKeepTheLatestRowPerCompositeKey() {
+        route.setUpsertKey(Arrays.asList("tenant", "id"));
+
+        String script = UpsertScript.of(TableId.of("project", "dataset", "clients"), TableId.of("dataset", "clients_staging_1"),
+                Arrays.asList("tenant", "id", "updated_at"), route, Duration.ofHours(6));
+
+        assertTrue(script.startsWith("ALTER TABLE `dataset.clients_staging_1` SET OPTIONS "
+                + "(expiration_timestamp = TIMESTAMP_ADD(CURRENT_TIMESTAMP(), INTERVAL 21600 SECOND));"), script);
+        assertTrue(script.contains("CREATE TABLE IF NOT EXISTS `project.dataset.clients` AS SELECT * FROM "
+                + "`dataset.clients_staging_1` WHERE FALSE;"), script);
+        assertTrue(script.contains("PARTITION BY `tenant`, `id` ORDER BY `updated_at` DESC"), script);
+        assertTrue(script.contains("ON target.`tenant` = source.`tenant` AND target.`id` = source.`id`"), script);
+        assertTrue(script.contains("THEN UPDATE SET `updated_at` = source.`updated_at`\n"), script);
+    }
+}
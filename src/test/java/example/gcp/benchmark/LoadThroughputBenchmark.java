@@ -0,0 +1,154 @@
+package example.gcp.benchmark;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobId;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.JobStatus;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import example.gcp.LoadAvroFromGCSImplBuilder;
+import example.gcp.service.StorageObject;
+import example.gcp.service.utils.LoadAvroFromGCSImpl;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Files per second loaded by a shared {@link LoadAvroFromGCSImpl} from {@code threads} threads,
+ * with files cycling through distinct schemas and every BigQuery job taking a fixed
+ * {@value #JOB_MILLIS} ms. Throughput should grow close to linearly with the thread count while
+ * the service holds no lock across a job.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadThroughputBenchmark {
+    private static final int SCHEMAS = 8;
+    private static final int FILES = 64;
+    private static final long JOB_MILLIS = 10;
+
+    @Param({"1", "8"})
+    public int threads;
+
+    private final Map<String, byte[]> contents = new HashMap<>();
+    private final List<StorageObject> objects = new ArrayList<>();
+    private LoadAvroFromGCSImpl loadAvroFromGCSImpl;
+    private ExecutorService executor;
+
+    private static byte[] file(int k) throws IOException {
+        Schema schema = SchemaBuilder.record("Row").fields()
+                .requiredLong("id")
+                .requiredString("name_" + k)
+                .optionalString("note")
+                .endRecord();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataFileWriter<GenericRecord> writer = new DataFileWriter<>(new GenericDatumWriter<>(schema))) {
+            writer.create(schema, bytes);
+            GenericRecord record = new GenericData.Record(schema);
+            record.put("id", (long) k);
+            record.put("name_" + k, "row" + k);
+            writer.append(record);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        for (int i = 0; i < FILES; i++) {
+            int k = i % SCHEMAS;
+            String name = "load/" + k + "/" + i + ".avro";
+            contents.put(name, file(k));
+            objects.add(new StorageObject("bucket", name, (long) i, null));
+        }
+        Storage storage = mock(Storage.class);
+        Map<String, Blob> blobs = new HashMap<>();
+        for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+            Blob blob = mock(Blob.class);
+            when(blob.getContent()).thenReturn(content.getValue());
+            blobs.put(content.getKey(), blob);
+        }
+        when(storage.get(any(BlobId.class))).thenAnswer(invocation -> blobs.get(invocation.<BlobId>getArgument(0).getName()));
+        when(storage.delete(any(BlobId.class))).thenReturn(true);
+
+        Job job = mock(Job.class);
+        JobStatus status = mock(JobStatus.class);
+        when(job.getStatus()).thenReturn(status);
+        when(job.getJobId()).thenReturn(JobId.of("job"));
+        when(job.waitFor()).thenAnswer(invocation -> {
+            Thread.sleep(JOB_MILLIS);
+            return job;
+        });
+        BigQuery bigquery = mock(BigQuery.class);
+        when(bigquery.create(any(JobInfo.class))).thenReturn(job);
+
+        loadAvroFromGCSImpl = new LoadAvroFromGCSImplBuilder()
+                .storage(storage)
+                .bigquery(bigquery)
+                .build();
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES)
+    public int load() throws Exception {
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (StorageObject object : objects) {
+            results.add(executor.submit(() -> loadAvroFromGCSImpl.load(object)));
+        }
+        int loaded = 0;
+        for (Future<Boolean> result : results) {
+            if (result.get()) {
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LoadThroughputBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,72 @@
+package example.gcp.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import example.gcp.Body;
+import example.gcp.service.StorageObject;
+import example.gcp.service.utils.PubSubPushParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Push parsing as {@code LoadController} used to do it (Jackson bean, Base64 to String, Gson
+ * tree) against {@link PubSubPushParser}. Run {@link #main} from the IDE, or
+ * {@code org.openjdk.jmh.Main PushParsingBenchmark -prof gc} on the test classpath after
+ * {@code mvn test-compile} for allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PushParsingBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private byte[] push;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] notification = Files.readAllBytes(Paths.get("src/test/resources/obj.json"));
+        Body body = new Body();
+        body.setMassage("2070443601311540", "2020-11-13T16:27:50.031Z",
+                Base64.getEncoder().encodeToString(notification));
+        push = objectMapper.writeValueAsBytes(body);
+    }
+
+    @Benchmark
+    public StorageObject beanAndTree() throws IOException {
+        Body body = objectMapper.readValue(push, Body.class);
+        String decoded = new String(Base64.getDecoder().decode(body.getMessage().getData()));
+        JsonObject data = JsonParser.parseString(decoded).getAsJsonObject();
+        return new StorageObject(data.get("bucket").getAsString(), data.get("name").getAsString(),
+                data.get("generation").getAsLong(), data.get("size").getAsLong());
+    }
+
+    @Benchmark
+    public StorageObject streaming() {
+        return PubSubPushParser.parse(push).getObject();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PushParsingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,140 @@
+package example.gcp.benchmark;
+
+import com.google.common.io.BaseEncoding;
+import example.gcp.service.utils.ScalarEncoders;
+import org.apache.avro.Conversions;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatterBuilder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static java.time.temporal.ChronoField.HOUR_OF_DAY;
+import static java.time.temporal.ChronoField.MINUTE_OF_HOUR;
+import static java.time.temporal.ChronoField.NANO_OF_SECOND;
+import static java.time.temporal.ChronoField.SECOND_OF_MINUTE;
+
+/**
+ * One TIMESTAMP, DATE, TIME, NUMERIC and BYTES cell each, encoded the way
+ * {@code BigQueryAvroUtils} used to (Joda and {@code java.time} formatters, a new
+ * {@code DecimalConversion} per value, a copy of the bytes before Base64) against
+ * {@link ScalarEncoders} building Strings and writing into a reused buffer. {@link #main} runs
+ * with {@code -prof gc}; {@code gc.alloc.rate.norm} is the bytes allocated per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScalarEncodingBenchmark {
+    private static final int VALUES = 1024;
+    private static final DateTimeFormatter JODA_SECONDS = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss").withZoneUTC();
+    private static final java.time.format.DateTimeFormatter TIME_MICROS = new DateTimeFormatterBuilder()
+            .appendValue(HOUR_OF_DAY, 2)
+            .appendLiteral(':')
+            .appendValue(MINUTE_OF_HOUR, 2)
+            .appendLiteral(':')
+            .appendValue(SECOND_OF_MINUTE, 2)
+            .appendLiteral('.')
+            .appendFraction(NANO_OF_SECOND, 6, 6, false)
+            .toFormatter();
+    private static final LogicalTypes.Decimal DECIMAL = LogicalTypes.decimal(38, 9);
+    private static final Schema DECIMAL_SCHEMA = DECIMAL.addToSchema(Schema.create(Schema.Type.BYTES));
+
+    private final long[] timestamps = new long[VALUES];
+    private final int[] dates = new int[VALUES];
+    private final long[] times = new long[VALUES];
+    private final ByteBuffer[] decimals = new ByteBuffer[VALUES];
+    private final ByteBuffer[] bytes = new ByteBuffer[VALUES];
+    private final char[] chars = new char[256];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        Conversions.DecimalConversion conversion = new Conversions.DecimalConversion();
+        for (int i = 0; i < VALUES; i++) {
+            timestamps[i] = 1_600_000_000_000_000L + random.nextInt() * 1_000_000L + random.nextInt(1_000_000);
+            dates[i] = 18_000 + random.nextInt(2_000);
+            times[i] = (long) (random.nextDouble() * 86_400_000_000L);
+            decimals[i] = conversion.toBytes(BigDecimal.valueOf(random.nextLong() / 1000, 9), DECIMAL_SCHEMA, DECIMAL);
+            byte[] value = new byte[32];
+            random.nextBytes(value);
+            bytes[i] = ByteBuffer.wrap(value);
+        }
+    }
+
+    private int next() {
+        next = (next + 1) & (VALUES - 1);
+        return next;
+    }
+
+    @Benchmark
+    public void formatters(Blackhole blackhole) {
+        int i = next();
+        blackhole.consume(new DateTime(timestamps[i] / 1000, DateTimeZone.UTC).toString(JODA_SECONDS) + " UTC");
+        blackhole.consume(LocalDate.ofEpochDay(dates[i]).toString());
+        blackhole.consume(LocalTime.ofNanoOfDay(times[i] * 1000).format(TIME_MICROS));
+        blackhole.consume(new Conversions.DecimalConversion()
+                .fromBytes(decimals[i].duplicate(), DECIMAL_SCHEMA, DECIMAL).toPlainString());
+        ByteBuffer buffer = bytes[i].duplicate();
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.get(copy);
+        blackhole.consume(BaseEncoding.base64().encode(copy));
+    }
+
+    @Benchmark
+    public void encodersToString(Blackhole blackhole) {
+        int i = next();
+        blackhole.consume(ScalarEncoders.formatTimestamp(timestamps[i]));
+        blackhole.consume(ScalarEncoders.formatDate(dates[i]));
+        blackhole.consume(ScalarEncoders.formatTime(times[i]));
+        blackhole.consume(ScalarEncoders.formatDecimal(decimals[i], DECIMAL));
+        blackhole.consume(ScalarEncoders.formatBase64(bytes[i]));
+    }
+
+    /**
+     * How {@code ColumnarRowBatch} writes NDJSON: straight from the reused buffer.
+     */
+    @Benchmark
+    public int encodersToBuffer() {
+        int i = next();
+        int off = ScalarEncoders.writeTimestamp(timestamps[i], chars, 0);
+        off = ScalarEncoders.writeDate(dates[i], chars, off);
+        off = ScalarEncoders.writeTime(times[i], chars, off);
+        off = ScalarEncoders.writeDecimal(decimals[i], DECIMAL, chars, off);
+        return ScalarEncoders.writeBase64(bytes[i], chars, off);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ScalarEncodingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
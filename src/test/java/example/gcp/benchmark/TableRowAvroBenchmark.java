@@ -0,0 +1,157 @@
+package example.gcp.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.api.services.bigquery.model.TableRow;
+import com.google.api.services.bigquery.model.TableSchema;
+import com.google.common.io.ByteStreams;
+import example.gcp.service.utils.BigQueryAvroUtils;
+import example.gcp.service.utils.TableRowAvroWriter;
+import org.apache.avro.Conversions;
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows per second re-encoded from BigQuery JSON into an Avro container, by
+ * {@link TableRowAvroWriter} from NDJSON and from {@link TableRow}s, against the straightforward
+ * route of binding each line to a Map and building a {@link GenericRecord} for
+ * {@link GenericDatumWriter}. Output goes to a null stream so only encoding is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableRowAvroBenchmark {
+    private static final int ROWS = 10_000;
+    private static final DateTimeFormatter TIMESTAMP =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss[.SSSSSS][.SSS] 'UTC'");
+
+    @Param({"null", "deflate", "snappy"})
+    public String codec;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private TableSchema tableSchema;
+    private Schema avroSchema;
+    private byte[] ndjson;
+    private List<TableRow> tableRows;
+
+    @Setup
+    public void setUp() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        tableRows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            TableRow row = new TableRow()
+                    .set("id", i)
+                    .set("amount", BigDecimal.valueOf(i * 1_000_001L, 9).toPlainString())
+                    .set("at", "2020-09-13 12:26:" + (10 + i % 50) + "." + (100_000 + i) + " UTC")
+                    .set("tags", Arrays.asList("a", "b" + i % 10));
+            if (i % 3 != 0) {
+                row.set("name", "customer-" + i);
+            }
+            tableRows.add(row);
+            lines.append(objectMapper.writeValueAsString(row)).append('\n');
+        }
+        ndjson = lines.toString().getBytes(StandardCharsets.UTF_8);
+        tableSchema = new TableSchema().setFields(Arrays.asList(
+                new TableFieldSchema().setName("id").setType("INT64").setMode("REQUIRED"),
+                new TableFieldSchema().setName("name").setType("STRING").setMode("NULLABLE"),
+                new TableFieldSchema().setName("amount").setType("NUMERIC").setMode("REQUIRED"),
+                new TableFieldSchema().setName("at").setType("TIMESTAMP").setMode("REQUIRED"),
+                new TableFieldSchema().setName("tags").setType("STRING").setMode("REPEATED")));
+        avroSchema = BigQueryAvroUtils.toGenericAvroSchema("Row", tableSchema.getFields());
+    }
+
+    private TableRowAvroWriter writer() throws IOException {
+        return new TableRowAvroWriter(tableSchema, "Row", ByteStreams.nullOutputStream(),
+                CodecFactory.fromString(codec), 64_000);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long ndjson() throws IOException {
+        try (TableRowAvroWriter writer = writer()) {
+            return writer.writeNdjson(new ByteArrayInputStream(ndjson));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long tableRows() throws IOException {
+        try (TableRowAvroWriter writer = writer()) {
+            for (TableRow row : tableRows) {
+                writer.write(row);
+            }
+            return writer.getRowCount();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long mapsToGenericRecords() throws IOException {
+        Conversions.DecimalConversion decimals = new Conversions.DecimalConversion();
+        Schema amount = avroSchema.getField("amount").schema();
+        long rows = 0;
+        try (DataFileWriter<GenericRecord> writer = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(avroSchema))
+                .setCodec(CodecFactory.fromString(codec))
+                .setSyncInterval(64_000)
+                .create(avroSchema, ByteStreams.nullOutputStream());
+             BufferedReader lines = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(ndjson), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                Map<?, ?> row = objectMapper.readValue(line, Map.class);
+                GenericRecord record = new GenericData.Record(avroSchema);
+                record.put("id", ((Number) row.get("id")).longValue());
+                record.put("name", row.get("name"));
+                record.put("amount", decimals.toBytes(new BigDecimal((String) row.get("amount")).setScale(9, RoundingMode.UNNECESSARY),
+                        amount, amount.getLogicalType()));
+                LocalDateTime at = LocalDateTime.parse((String) row.get("at"), TIMESTAMP);
+                record.put("at", at.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + at.getNano() / 1000);
+                record.put("tags", row.get("tags"));
+                writer.append(record);
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TableRowAvroBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,56 @@
+package example.gcp.loadtest;
+
+import example.gcp.Client;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Synthetic {@link Client} Avro files of a given size, with each optional field null at a given
+ * rate.
+ */
+public class ClientFiles {
+    private final Random random;
+
+    public ClientFiles(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * A container file of at least {@code bytes} bytes, or one record if that is larger.
+     *
+     * @param nullDensity probability of each of {@code phone} and {@code address} being null
+     */
+    public byte[] generate(int bytes, double nullDensity) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes + 4096);
+        try (DataFileWriter<Client> writer = new DataFileWriter<>(new SpecificDatumWriter<>(Client.class))) {
+            writer.create(Client.SCHEMA$, out);
+            long id = 0;
+            do {
+                for (int i = 0; i < 64; i++) {
+                    writer.append(client(id++, nullDensity));
+                }
+                writer.flush();
+            } while (out.size() < bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private Client client(long id, double nullDensity) {
+        return new Client(id,
+                "client-" + word(4 + random.nextInt(12)),
+                random.nextDouble() < nullDensity ? null : "+1-555-" + (1000 + random.nextInt(9000)),
+                random.nextDouble() < nullDensity ? null : random.nextInt(999) + " " + word(6 + random.nextInt(10)) + " Street");
+    }
+
+    private String word(int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+}
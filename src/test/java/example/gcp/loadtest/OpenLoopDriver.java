@@ -0,0 +1,186 @@
+package example.gcp.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+
+/**
+ * Sends requests on a fixed schedule regardless of how fast responses come back, so a slow
+ * service builds a backlog instead of slowing the load down. Latency is measured from when each
+ * request was due, not when it was actually sent, which keeps a stalled client or server from
+ * hiding its own queueing delay (coordinated omission). Requests block a driver thread each, so a
+ * request that finds every thread busy waits in the executor queue and that wait counts as latency.
+ */
+public class OpenLoopDriver {
+    private final RestTemplate client;
+    private final ExecutorService executor;
+    private final Duration requestTimeout;
+
+    public OpenLoopDriver(int threads, Duration requestTimeout) {
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "load-driver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout((int) Duration.ofSeconds(5).toMillis());
+        requestFactory.setReadTimeout((int) requestTimeout.toMillis());
+        this.client = new RestTemplate(requestFactory);
+        // Every status is an outcome to count, not an error to throw.
+        this.client.setErrorHandler(new ResponseErrorHandler() {
+            @Override
+            public boolean hasError(ClientHttpResponse response) {
+                return false;
+            }
+
+            @Override
+            public void handleError(ClientHttpResponse response) {
+            }
+        });
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * POSTs {@code body.apply(i)} to {@code uri} at {@code rate} requests per second for
+     * {@code duration}, then waits up to the request timeout for stragglers.
+     */
+    public Result run(URI uri, double rate, Duration duration, IntFunction<byte[]> body) throws InterruptedException {
+        Histogram latencies = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(10), 3);
+        Map<String, LongAdder> statuses = new ConcurrentHashMap<>();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        int requests = (int) (rate * duration.toNanos() / TimeUnit.SECONDS.toNanos(1));
+        List<CompletableFuture<?>> inFlight = new ArrayList<>(requests);
+
+        long started = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            long due = started + i * periodNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            HttpEntity<byte[]> request = new HttpEntity<>(body.apply(i), headers);
+            inFlight.add(CompletableFuture.supplyAsync(
+                    () -> client.exchange(uri, HttpMethod.POST, request, Void.class).getStatusCodeValue(), executor)
+                    .whenComplete((status, error) -> {
+                        latencies.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - due)));
+                        String outcome = error != null ? outcome(error) : Integer.toString(status);
+                        statuses.computeIfAbsent(outcome, s -> new LongAdder()).increment();
+                    }));
+        }
+        long sendNanos = System.nanoTime() - started;
+        try {
+            CompletableFuture.allOf(inFlight.toArray(new CompletableFuture[0]))
+                    .get(requestTimeout.toMillis() + 1000, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | java.util.concurrent.ExecutionException ignored) {
+            // Failures are already counted per request; unfinished ones show up as missing.
+        }
+        long totalNanos = System.nanoTime() - started;
+
+        Map<String, Long> counts = new TreeMap<>();
+        statuses.forEach((status, count) -> counts.put(status, count.sum()));
+        return new Result(rate, requests, sendNanos, totalNanos, latencies.copy(), counts);
+    }
+
+    private static String outcome(Throwable error) {
+        Throwable cause = error.getCause() != null ? error.getCause() : error;
+        for (Throwable t = cause; t != null; t = t.getCause()) {
+            if (t instanceof SocketTimeoutException) {
+                return "timeout";
+            }
+        }
+        return "error:" + cause.getClass().getSimpleName();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Outcome of one run at one rate.
+     */
+    public static class Result {
+        private final double targetRate;
+        private final int sent;
+        private final long sendNanos;
+        private final long totalNanos;
+        private final Histogram latencies;
+        private final Map<String, Long> statuses;
+
+        Result(double targetRate, int sent, long sendNanos, long totalNanos, Histogram latencies,
+               Map<String, Long> statuses) {
+            this.targetRate = targetRate;
+            this.sent = sent;
+            this.sendNanos = sendNanos;
+            this.totalNanos = totalNanos;
+            this.latencies = latencies;
+            this.statuses = statuses;
+        }
+
+        public long completed() {
+            return statuses.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        public long succeeded() {
+            return statuses.getOrDefault("200", 0L);
+        }
+
+        public double errorRate() {
+            return sent == 0 ? 0 : (double) (sent - succeeded()) / sent;
+        }
+
+        public double latencyMillis(double percentile) {
+            return latencies.getValueAtPercentile(percentile) / 1000.0;
+        }
+
+        /**
+         * A flat, JSON-friendly view of the run.
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("targetRate", targetRate);
+            map.put("achievedSendRate", sent / (sendNanos / 1e9));
+            map.put("sent", sent);
+            map.put("completed", completed());
+            map.put("succeeded", succeeded());
+            map.put("errorRate", errorRate());
+            map.put("throughputPerSecond", succeeded() / (totalNanos / 1e9));
+            Map<String, Object> latency = new LinkedHashMap<>();
+            latency.put("p50", latencyMillis(50));
+            latency.put("p95", latencyMillis(95));
+            latency.put("p99", latencyMillis(99));
+            latency.put("max", latencies.getMaxValue() / 1000.0);
+            latency.put("mean", latencies.getMean() / 1000.0);
+            map.put("latencyMillis", latency);
+            map.put("statuses", statuses);
+            return map;
+        }
+    }
+}
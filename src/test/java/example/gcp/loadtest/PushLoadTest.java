@@ -0,0 +1,193 @@
+package example.gcp.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobId;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.JobStatus;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import example.gcp.Body;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Replays Pub/Sub push bodies against the running service at fixed open-loop rates and writes
+ * latency percentiles, throughput and error rates per rate to
+ * {@code target/load-test/<label>-<timestamp>.json}, so runs of different versions can be
+ * compared. GCS and BigQuery are replaced by in-memory stand-ins; BigQuery jobs take
+ * {@code loadtest.bigquery-millis} to finish. The per-table load job quota would otherwise
+ * answer almost everything with 429, so it is off unless {@code -Dloadtest.quota=true}.
+ *
+ * <p>Only runs when asked for, e.g.
+ * {@code mvn test -Dtest=PushLoadTest -Dloadtest=true -Dloadtest.rates=50,100,200 -Dloadtest.label=main}.
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {
+                "load.default-bucket=loadtest-bucket",
+                "load.quota.enabled=${loadtest.quota:false}",
+                "logging.level.example.gcp=${loadtest.log-level:ERROR}"})
+public class PushLoadTest {
+    private static final String BUCKET = "loadtest-bucket";
+    private static final String LABEL = System.getProperty("loadtest.label", "local");
+    private static final String RATES = System.getProperty("loadtest.rates", "50,100,200");
+    private static final int SECONDS = Integer.getInteger("loadtest.seconds", 20);
+    private static final int FILE_BYTES = Integer.getInteger("loadtest.file-bytes", 64 * 1024);
+    private static final double NULL_DENSITY = Double.parseDouble(System.getProperty("loadtest.null-density", "0.3"));
+    private static final int FILES = Integer.getInteger("loadtest.files", 16);
+    private static final long BIGQUERY_MILLIS = Long.getLong("loadtest.bigquery-millis", 50);
+    private static final int TIMEOUT_SECONDS = Integer.getInteger("loadtest.timeout-seconds", 30);
+    // Each in-flight request holds a driver thread, so this must cover the highest rate times its latency.
+    private static final int DRIVER_THREADS = Integer.getInteger("loadtest.driver-threads", 128);
+    private static final double MAX_ERROR_RATE = Double.parseDouble(System.getProperty("loadtest.max-error-rate", "1"));
+
+    private static final List<Blob> BLOBS = new ArrayList<>();
+    private static OpenLoopDriver driver;
+
+    @LocalServerPort
+    private int port;
+
+    @TestConfiguration
+    static class StandIns {
+        @Bean
+        @Primary
+        public Storage standInStorage() throws IOException {
+            ClientFiles files = new ClientFiles(42);
+            for (int i = 0; i < FILES; i++) {
+                byte[] content = files.generate(FILE_BYTES, NULL_DENSITY);
+                Blob blob = mock(Blob.class);
+                when(blob.getContent()).thenReturn(content);
+                when(blob.getSize()).thenReturn((long) content.length);
+                BLOBS.add(blob);
+            }
+            Storage storage = mock(Storage.class);
+            when(storage.get(any(BlobId.class))).thenAnswer(invocation -> blob(invocation.<BlobId>getArgument(0).getName()));
+            when(storage.delete(any(BlobId.class))).thenReturn(true);
+            return storage;
+        }
+
+        @Bean
+        @Primary
+        public BigQuery standInBigQuery() throws InterruptedException {
+            Job job = mock(Job.class);
+            JobStatus status = mock(JobStatus.class);
+            when(job.getStatus()).thenReturn(status);
+            when(job.getJobId()).thenReturn(JobId.of("loadtest"));
+            when(job.waitFor()).thenAnswer(invocation -> {
+                Thread.sleep(BIGQUERY_MILLIS);
+                return job;
+            });
+            BigQuery bigquery = mock(BigQuery.class);
+            when(bigquery.create(any(JobInfo.class))).thenReturn(job);
+            return bigquery;
+        }
+    }
+
+    /**
+     * Object names are {@code loadtest/<file>/<request>.avro}, so every request is a distinct
+     * object but only {@link #FILES} distinct contents are kept in memory.
+     */
+    private static Blob blob(String name) {
+        return BLOBS.get(Integer.parseInt(name.split("/")[1]));
+    }
+
+    private static byte[] pushBody(ObjectMapper objectMapper, double rate, int i) {
+        String notification = String.format(
+                "{\"bucket\":\"%s\",\"name\":\"loadtest/%d/%s-%d.avro\",\"generation\":\"%d\",\"size\":\"%d\"}",
+                BUCKET, i % FILES, (long) rate, i, i + 1, BLOBS.get(i % FILES).getSize());
+        Body body = new Body();
+        body.setMassage("m" + i, Instant.now().toString(),
+                Base64.getEncoder().encodeToString(notification.getBytes(StandardCharsets.UTF_8)));
+        try {
+            return objectMapper.writeValueAsBytes(body);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        if (driver != null) {
+            driver.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldReportLatencyAtEachRate() throws Exception {
+        Instant startedAt = Instant.now();
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        driver = new OpenLoopDriver(DRIVER_THREADS, Duration.ofSeconds(TIMEOUT_SECONDS));
+        URI uri = URI.create("http://localhost:" + port + "/load");
+
+        // A short untimed pass so the first step isn't measuring JIT and connection setup.
+        driver.run(uri, 20, Duration.ofSeconds(2), i -> pushBody(objectMapper, 1, i));
+
+        List<Map<String, Object>> steps = new ArrayList<>();
+        List<OpenLoopDriver.Result> results = new ArrayList<>();
+        for (String rate : RATES.split(",")) {
+            double target = Double.parseDouble(rate.trim());
+            OpenLoopDriver.Result result = driver.run(uri, target, Duration.ofSeconds(SECONDS),
+                    i -> pushBody(objectMapper, target, i));
+            log.warn("Load test at " + target + "/s: " + objectMapper.writeValueAsString(result.toMap()));
+            results.add(result);
+            steps.add(result.toMap());
+        }
+
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("rates", RATES);
+        config.put("secondsPerRate", SECONDS);
+        config.put("fileBytes", FILE_BYTES);
+        config.put("nullDensity", NULL_DENSITY);
+        config.put("distinctFiles", FILES);
+        config.put("bigqueryMillis", BIGQUERY_MILLIS);
+        config.put("timeoutSeconds", TIMEOUT_SECONDS);
+        config.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        config.put("javaVersion", System.getProperty("java.version"));
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("label", LABEL);
+        report.put("startedAt", startedAt.toString());
+        report.put("config", config);
+        report.put("steps", steps);
+
+        Path dir = Paths.get(System.getProperty("loadtest.output", "target/load-test"));
+        Files.createDirectories(dir);
+        Path file = dir.resolve(LABEL + "-" + System.currentTimeMillis() + ".json");
+        objectMapper.writeValue(file.toFile(), report);
+        log.warn("Load test report written to " + file.toAbsolutePath());
+
+        for (OpenLoopDriver.Result result : results) {
+            assertTrue(result.errorRate() <= MAX_ERROR_RATE, "error rate " + result.errorRate());
+        }
+    }
+}